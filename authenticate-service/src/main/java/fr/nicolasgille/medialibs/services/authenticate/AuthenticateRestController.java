@@ -21,6 +21,8 @@ package fr.nicolasgille.medialibs.services.authenticate;
 import fr.nicolasgille.medialibs.core.user.Role;
 import fr.nicolasgille.medialibs.core.user.User;
 import fr.nicolasgille.medialibs.core.user.UserRepository;
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -30,6 +32,7 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 /**
  *
@@ -43,6 +46,22 @@ public class AuthenticateRestController {
     @Autowired
     private UserRepository userRepository;
 
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Outbox recording the changes in the transaction of the writes.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Outbox outbox;
+
     static final Logger logger = LoggerFactory.getLogger(AuthenticateRestController.class);
 
     /**
@@ -53,25 +72,27 @@ public class AuthenticateRestController {
      * @return
      *  The user authenticate on system.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PostMapping("/authenticate")
-    public ResponseEntity<?> authenticate(@RequestBody User user) {
-        logger.info("Start authenticate method with user {} : ", user);
+    public DeferredResult<ResponseEntity<?>> authenticate(@RequestBody User user) {
+        return this.bulkheads.get("authenticate").call(() -> {
+            logger.info("Start authenticate method with user {} : ", user);
 
-        User userAuth = userRepository.findByEmail(user.getEmail());
-        if (userAuth == null) {
-            return new ResponseEntity(HttpStatus.NO_CONTENT);
-        }
+            User userAuth = userRepository.findByEmail(user.getEmail());
+            if (userAuth == null) {
+                return new ResponseEntity(HttpStatus.NO_CONTENT);
+            }
 
-        if (userAuth.getPassword().equals(user.getPassword())) {
-            logger.info("user '{}' found on database.", user.getEmail());
-            return new ResponseEntity<User>(userAuth, HttpStatus.OK);
-        }
+            if (userAuth.getPassword().equals(user.getPassword())) {
+                logger.info("user '{}' found on database.", user.getEmail());
+                return new ResponseEntity<User>(userAuth, HttpStatus.OK);
+            }
 
-        // Return an error 404.
-        logger.error("You should not see this message, but if see it, call me to fix it ;)");
-        return new ResponseEntity(HttpStatus.NOT_FOUND);
+            // Return an error 404.
+            logger.error("You should not see this message, but if see it, call me to fix it ;)");
+            return new ResponseEntity(HttpStatus.NOT_FOUND);
+        });
     }
 
     /**
@@ -84,23 +105,25 @@ public class AuthenticateRestController {
      * @since 1.0
      */
     @PostMapping("/register")
-    public ResponseEntity<?> register(@RequestBody User user) {
-        logger.info("Start register method with user {} : ", user);
-        if (userRepository.findByEmail(user.getEmail()) == null) {
-            logger.info("user '{}' already present on database.", user.getEmail());
-            return new ResponseEntity(HttpStatus.CONFLICT);
-        }
+    public DeferredResult<ResponseEntity<?>> register(@RequestBody User user) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Start register method with user {} : ", user);
+            if (userRepository.findByEmail(user.getEmail()) == null) {
+                logger.info("user '{}' already present on database.", user.getEmail());
+                return new ResponseEntity(HttpStatus.CONFLICT);
+            }
 
-        // Create entity to insert on db.
-        User userEntity = new User();
-        userEntity.setEmail(user.getEmail());
-        userEntity.setPassword(user.getPassword());
-        userEntity.setRole(Role.GUEST_ROLE);
+            // Create entity to insert on db.
+            User userEntity = new User();
+            userEntity.setEmail(user.getEmail());
+            userEntity.setPassword(user.getPassword());
+            userEntity.setRole(Role.GUEST_ROLE);
 
-        // Save user on db and return on home page.
-        logger.info("User save on database.");
-        User userRegister = userRepository.save(userEntity);
+            // Save user on db and return on home page.
+            logger.info("User save on database.");
+            User userRegister = this.outbox.save(userRepository, userEntity);
 
-        return new ResponseEntity<User>(userRegister, HttpStatus.CREATED);
+            return new ResponseEntity<User>(userRegister, HttpStatus.CREATED);
+        });
     }
 }
@@ -18,20 +18,23 @@
 
 package fr.nicolasgille.medialibs.services.authenticate;
 
+import fr.nicolasgille.medialibs.core.user.User;
+import fr.nicolasgille.medialibs.services.commons.cache.CachingJpaRepositoryFactoryBean;
+import fr.nicolasgille.medialibs.services.commons.cache.EnableEntityCache;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxEvent;
+import fr.nicolasgille.medialibs.services.commons.startup.EnableEntityClasses;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
-import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @Configuration
 @EnableAutoConfiguration
-@EntityScan(basePackages = {
-        "fr.nicolasgille.medialibs.core.user"
-})
+@EnableEntityClasses({ User.class, OutboxEvent.class })
 @EnableJpaRepositories(basePackages = {
         "fr.nicolasgille.medialibs.core.user"
-})
+}, repositoryFactoryBeanClass = CachingJpaRepositoryFactoryBean.class)
 @EnableTransactionManagement
+@EnableEntityCache(User.class)
 public class RepositoryConfiguration {
 }
@@ -0,0 +1,101 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.services.commons.runtime.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drive a closed-model traffic: a fixed number of clients, each one sending
+ * its next request as soon as the previous one is answered.
+ *
+ * Used to compare the services under thousands of concurrent clients. The clients run on
+ * virtual threads when the JDK has them, so their own stacks do not weigh on the measured memory.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class ClosedModelDriver {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ClosedModelDriver.class);
+
+    private final OperationMix mix;
+    private final LoadTestSettings settings;
+
+    public ClosedModelDriver(List<Operation> operations, LoadTestSettings settings) {
+        this.mix = new OperationMix(operations);
+        this.settings = settings;
+    }
+
+    /**
+     * Run the warmup then the measured phase.
+     *
+     * @return
+     *  The duration of the measured phase, in nanoseconds.
+     * @throws InterruptedException
+     *  If the driver is interrupted.
+     * @since 1.0
+     */
+    public long run() throws InterruptedException {
+        ExecutorService clients;
+        if (VirtualThreads.isSupported()) {
+            clients = VirtualThreads.newThreadPerTaskExecutor("load-client-");
+        } else {
+            AtomicInteger threads = new AtomicInteger();
+            clients = Executors.newFixedThreadPool(this.settings.getClients(), runnable -> {
+                Thread thread = new Thread(runnable, "load-client-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(this.settings.getWarmup());
+        long end = measureStart + TimeUnit.SECONDS.toNanos(this.settings.getDuration());
+        logger.warn("Start {} clients for {} s after {} s of warmup, on {} threads",
+                this.settings.getClients(), this.settings.getDuration(), this.settings.getWarmup(),
+                VirtualThreads.isSupported() ? "virtual" : "platform");
+
+        for (int i = 0; i < this.settings.getClients(); i++) {
+            clients.execute(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    // A closed model has no intended start: the next request waits for the previous response.
+                    this.mix.pick().execute(now, now >= measureStart);
+                }
+            });
+        }
+
+        clients.shutdown();
+        clients.awaitTermination(TimeUnit.NANOSECONDS.toSeconds(end - start) + 60, TimeUnit.SECONDS);
+        return end - measureStart;
+    }
+}
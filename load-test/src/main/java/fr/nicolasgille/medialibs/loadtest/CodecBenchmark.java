@@ -0,0 +1,228 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.core.user.Role;
+import fr.nicolasgille.medialibs.core.user.User;
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compare the encodings of the entities: size of one entity and of a list, raw and gzipped,
+ * and cpu time to encode and decode the list in each {@link EntityFormat}.
+ *
+ * Run without the services with
+ * <code>mvn -pl load-test exec:java -Dexec.mainClass=fr.nicolasgille.medialibs.loadtest.CodecBenchmark -Dexec.args="entities=1000 seconds=3"</code>.
+ * The cpu time is the one of the benchmark thread, each measure follows a warmup of the same duration.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class CodecBenchmark {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Sum of the results, read at the end so the encodings are not optimized away.
+     *
+     * @since 1.0
+     */
+    private static long sink;
+
+    /**
+     * Main app.
+     *
+     * @param args
+     *  <code>entities=N</code>, size of the lists, and <code>seconds=N</code>, duration of each measure.
+     * @throws Exception
+     *  If an encoding fails.
+     * @since 1.0
+     */
+    public static void main(String[] args) throws Exception {
+        int entities = 1000;
+        int seconds = 3;
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length == 2 && keyValue[0].equals("entities")) {
+                entities = Integer.parseInt(keyValue[1]);
+            } else if (keyValue.length == 2 && keyValue[0].equals("seconds")) {
+                seconds = Integer.parseInt(keyValue[1]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument '" + arg + "'");
+            }
+        }
+
+        Map<Class<?>, List<?>> samples = new LinkedHashMap<>();
+        samples.put(Media.class, medias(entities));
+        samples.put(Stock.class, stocks(entities));
+        samples.put(Loan.class, loans(entities));
+        samples.put(User.class, users(entities));
+
+        System.out.printf(Locale.ROOT, "%-6s %-6s %9s %11s %11s %8s %12s %12s%n",
+                "entity", "format", "one B", "list B", "gzip B", "vs json", "encode us", "decode us");
+        for (Map.Entry<Class<?>, List<?>> sample : samples.entrySet()) {
+            long jsonSize = 0;
+            for (EntityFormat format : EntityFormat.values()) {
+                ObjectMapper mapper = format.createMapper();
+                JavaType listType = mapper.getTypeFactory().constructCollectionType(List.class, sample.getKey());
+                ObjectWriter writer = mapper.writerFor(listType);
+                ObjectReader reader = mapper.readerFor(listType);
+                List<?> list = sample.getValue();
+
+                byte[] encoded = writer.writeValueAsBytes(list);
+                if (!Arrays.equals(encoded, writer.writeValueAsBytes(reader.readValue(encoded)))) {
+                    throw new IllegalStateException(sample.getKey().getSimpleName() + " does not survive " + format);
+                }
+                if (format == EntityFormat.JSON) {
+                    jsonSize = encoded.length;
+                }
+
+                double encode = cpuMicros(seconds, () -> writer.writeValueAsBytes(list).length);
+                double decode = cpuMicros(seconds, () -> ((List<?>) reader.readValue(encoded)).size());
+                System.out.printf(Locale.ROOT, "%-6s %-6s %9d %11d %11d %7.0f%% %12.1f %12.1f%n",
+                        sample.getKey().getSimpleName(), format.name().toLowerCase(Locale.ROOT),
+                        mapper.writeValueAsBytes(list.get(0)).length, encoded.length, gzip(encoded).length,
+                        100.0 * encoded.length / jsonSize, encode, decode);
+            }
+        }
+        System.out.println("(" + entities + " entities per list, sink " + sink + ")");
+    }
+
+    /**
+     * Run an encoding in a loop, after a warmup.
+     *
+     * @param seconds
+     *  Duration of the warmup, then of the measure.
+     * @param codec
+     *  Encoding to run, giving a value added to the sink.
+     * @return
+     *  The cpu time of one run, in microseconds.
+     * @throws IOException
+     *  If the encoding fails.
+     * @since 1.0
+     */
+    private static double cpuMicros(int seconds, Codec codec) throws IOException {
+        long[] cpuAndRuns = new long[2];
+        for (int phase = 0; phase < 2; phase++) {
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            long cpu = THREADS.getCurrentThreadCpuTime();
+            long runs = 0;
+            while (System.nanoTime() < end) {
+                sink += codec.run();
+                runs++;
+            }
+            cpuAndRuns[0] = THREADS.getCurrentThreadCpuTime() - cpu;
+            cpuAndRuns[1] = runs;
+        }
+        return cpuAndRuns[0] / 1000.0 / cpuAndRuns[1];
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        }
+        return output.toByteArray();
+    }
+
+    private static List<Media> medias(int count) {
+        MediaSupport[] supports = MediaSupport.values();
+        List<Media> medias = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Media media = new Media();
+            media.setId((long) i + 1);
+            media.setName("Media " + i);
+            media.setDescription("Description of the media " + i + " generated for the load test.");
+            Calendar releaseDate = Calendar.getInstance();
+            releaseDate.add(Calendar.DAY_OF_YEAR, -i);
+            media.setReleaseDate(releaseDate);
+            media.setSupports(new ArrayList<>(Arrays.asList(supports[i % supports.length], MediaSupport.DIGITAL)));
+            medias.add(media);
+        }
+        return medias;
+    }
+
+    private static List<Stock> stocks(int count) {
+        List<Stock> stocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Stock stock = new Stock();
+            stock.setId(i + 1);
+            stock.setMediaId(i + 1);
+            stock.setInitialStock(DataSeeder.INITIAL_STOCK);
+            stock.setCurrentStock(i % (DataSeeder.INITIAL_STOCK + 1));
+            stocks.add(stock);
+        }
+        return stocks;
+    }
+
+    private static List<Loan> loans(int count) {
+        List<Loan> loans = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Loan loan = new Loan();
+            loan.setId(i + 1);
+            loan.setBorrowerId(i + 1);
+            loan.setMediaId(i + 1);
+            loan.setStartLoanDate(Calendar.getInstance());
+            loans.add(loan);
+        }
+        return loans;
+    }
+
+    private static List<User> users(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setId((long) i + 1);
+            user.setEmail("user" + i + "@medialibs.test");
+            user.setPassword(DataSeeder.PASSWORD);
+            user.setRole(Role.GUEST_ROLE);
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * One encoding or decoding.
+     *
+     * @since 1.0
+     */
+    private interface Codec {
+        long run() throws IOException;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.loan.LoanRepository;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaRepository;
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.core.stock.StockRepository;
+import fr.nicolasgille.medialibs.core.user.Role;
+import fr.nicolasgille.medialibs.core.user.User;
+import fr.nicolasgille.medialibs.core.user.UserRepository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * Fill the embedded database with a catalogue, its stocks, users and loans,
+ * directly through the repositories of the started services.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class DataSeeder {
+
+    /**
+     * Password shared by all generated users.
+     *
+     * @since 1.0
+     */
+    public static final String PASSWORD = "load-test-password";
+
+    /**
+     * Initial stock of each media.
+     *
+     * @since 1.0
+     */
+    public static final int INITIAL_STOCK = 50;
+
+    private final List<Long> mediaIds = new ArrayList<>();
+    private final List<Stock> stocks = new ArrayList<>();
+    private final List<Long> loanIds = new ArrayList<>();
+    private final List<String> emails = new ArrayList<>();
+
+    /**
+     * Insert the data set.
+     *
+     * @param services
+     *  Started services.
+     * @param settings
+     *  Settings of the run, to know the size of the data set.
+     * @return
+     *  The seeder, which knows the identifiers inserted.
+     * @since 1.0
+     */
+    public static DataSeeder seed(EmbeddedServices services, LoadTestSettings settings) {
+        DataSeeder seeder = new DataSeeder();
+        MediaRepository mediaRepository = services.getMediaContext().getBean(MediaRepository.class);
+        StockRepository stockRepository = services.getStockContext().getBean(StockRepository.class);
+        UserRepository userRepository = services.getUserContext().getBean(UserRepository.class);
+        LoanRepository loanRepository = services.getLoanContext().getBean(LoanRepository.class);
+
+        MediaSupport[] supports = MediaSupport.values();
+        for (int i = 0; i < settings.getMedias(); i++) {
+            Media media = new Media();
+            media.setName("Media " + i);
+            media.setDescription("Description of the media " + i + " generated for the load test.");
+            Calendar releaseDate = Calendar.getInstance();
+            releaseDate.add(Calendar.DAY_OF_YEAR, -i);
+            media.setReleaseDate(releaseDate);
+            media.setSupports(new ArrayList<>(Arrays.asList(supports[i % supports.length], MediaSupport.DIGITAL)));
+            media = mediaRepository.save(media);
+            seeder.mediaIds.add(media.getId());
+
+            Stock stock = new Stock();
+            stock.setMediaId(media.getId());
+            stock.setInitialStock(INITIAL_STOCK);
+            stock.setCurrentStock(INITIAL_STOCK);
+            seeder.stocks.add(stockRepository.save(stock));
+        }
+
+        for (int i = 0; i < settings.getUsers(); i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@medialibs.test");
+            user.setPassword(PASSWORD);
+            user.setRole(Role.GUEST_ROLE);
+            user = userRepository.save(user);
+            seeder.emails.add(user.getEmail());
+
+            Loan loan = new Loan();
+            loan.setBorrowerId(user.getId());
+            loan.setMediaId(seeder.mediaIds.get(i % seeder.mediaIds.size()));
+            loan.setStartLoanDate(Calendar.getInstance());
+            seeder.loanIds.add(loanRepository.save(loan).getId());
+        }
+        return seeder;
+    }
+
+    public List<Long> getMediaIds() {
+        return mediaIds;
+    }
+
+    public List<Stock> getStocks() {
+        return stocks;
+    }
+
+    public List<Long> getLoanIds() {
+        return loanIds;
+    }
+
+    public List<String> getEmails() {
+        return emails;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.services.authenticate.AuthenticateApplication;
+import fr.nicolasgille.medialibs.services.loan.LoanApplication;
+import fr.nicolasgille.medialibs.services.media.MediaApplication;
+import fr.nicolasgille.medialibs.services.monolith.MonolithApplication;
+import fr.nicolasgille.medialibs.services.stock.StockApplication;
+import fr.nicolasgille.medialibs.services.user.UserApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Boot the five services in the current JVM, each one on a random port,
+ * against a shared in-memory H2 database.
+ *
+ * In monolith mode, the five services are one {@link MonolithApplication} on one random port,
+ * each one under its path prefix, the media details reading the stocks and loans in-process.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.1
+ */
+public class EmbeddedServices implements AutoCloseable {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedServices.class);
+
+    /**
+     * Url of the embedded database shared by all services, like the MySQL database in production.
+     *
+     * The services keep the MySQL dialect and run the same migrations. Hibernate does not validate the schema,
+     * H2 reading the <code>text</code> columns back as <code>clob</code>. H2 runs in its own mode: Flyway does not
+     * find the schema in the MySQL mode.
+     *
+     * @since 1.0
+     */
+    private static final String DATABASE_URL = "jdbc:h2:mem:medialibs;DB_CLOSE_DELAY=-1";
+
+    private ConfigurableApplicationContext authenticate;
+    private ConfigurableApplicationContext loan;
+    private ConfigurableApplicationContext media;
+    private ConfigurableApplicationContext stock;
+    private ConfigurableApplicationContext user;
+
+    /**
+     * All contexts started, in start order.
+     *
+     * @since 1.0
+     */
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+
+    /**
+     * Number of read replicas given to each service.
+     *
+     * @since 1.0
+     */
+    private final int replicas;
+
+    /**
+     * Run the services in virtual thread mode.
+     *
+     * @since 1.0
+     */
+    private final boolean virtualThreads;
+
+    /**
+     * All services in one context, see {@link MonolithApplication}.
+     *
+     * @since 1.1
+     */
+    private final boolean monolith;
+
+    private EmbeddedServices(int replicas, boolean virtualThreads, boolean monolith) {
+        this.replicas = replicas;
+        this.virtualThreads = virtualThreads;
+        this.monolith = monolith;
+    }
+
+    /**
+     * Start all services.
+     *
+     * @param replicas
+     *  Number of read replicas of each service, all pointing at the embedded database.
+     * @param virtualThreads
+     *  True to handle the requests on virtual threads, on Java 21 or later.
+     * @param monolith
+     *  True to run the five services in one context, on one port.
+     * @return
+     *  The started services.
+     * @since 1.0
+     * @version 1.1
+     */
+    public static EmbeddedServices start(int replicas, boolean virtualThreads, boolean monolith) {
+        EmbeddedServices services = new EmbeddedServices(replicas, virtualThreads, monolith);
+        if (monolith) {
+            ConfigurableApplicationContext context = services.boot(MonolithApplication.class);
+            services.stock = context;
+            services.loan = context;
+            services.media = context;
+            services.user = context;
+            services.authenticate = context;
+            return services;
+        }
+        services.stock = services.boot(StockApplication.class);
+        services.loan = services.boot(LoanApplication.class);
+        // The media details call the stock and loan services.
+        services.media = services.boot(MediaApplication.class,
+                "--medialibs.media.detail.stock-url=" + services.getStockUrl(),
+                "--medialibs.media.detail.loan-url=" + services.getLoanUrl());
+        services.user = services.boot(UserApplication.class);
+        services.authenticate = services.boot(AuthenticateApplication.class);
+        return services;
+    }
+
+    /**
+     * Boot one service.
+     *
+     * The settings are given as command line arguments because they must take
+     * precedence over the <code>application.properties</code> embedded on each service.
+     *
+     * @param application
+     *  Main class of the service.
+     * @param extraArgs
+     *  Settings of this service only.
+     * @return
+     *  The context of the started service.
+     * @since 1.0
+     */
+    private ConfigurableApplicationContext boot(Class<?> application, String... extraArgs) {
+        long start = System.nanoTime();
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--server.port=0",
+                "--spring.datasource.url=" + DATABASE_URL,
+                "--spring.datasource.username=sa",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.jpa.hibernate.ddl-auto=none",
+                "--spring.jpa.show-sql=false",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.MySQL5Dialect",
+                "--spring.jmx.enabled=false",
+                "--logging.level.root=WARN"));
+        if (this.replicas > 0) {
+            args.add("--medialibs.datasource.replicas.urls="
+                    + String.join(",", Collections.nCopies(this.replicas, DATABASE_URL)));
+        }
+        if (this.virtualThreads) {
+            args.add("--medialibs.runtime.virtual-threads=true");
+        }
+        args.addAll(Arrays.asList(extraArgs));
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(application)
+                .run(args.toArray(new String[args.size()]));
+        this.contexts.add(context);
+        logger.warn("{} started on port {} in {} ms",
+                application.getSimpleName(), port(context), (System.nanoTime() - start) / 1_000_000);
+        return context;
+    }
+
+    /**
+     * Get the http port of a started service.
+     *
+     * @param context
+     *  Context of the service.
+     * @return
+     *  The local port of the embedded servlet container.
+     * @since 1.0
+     */
+    private static int port(ConfigurableApplicationContext context) {
+        return ((EmbeddedWebApplicationContext) context).getEmbeddedServletContainer().getPort();
+    }
+
+    /**
+     * Get the base url of a started service.
+     *
+     * @param context
+     *  Context of the service.
+     * @param prefix
+     *  Path prefix of the service in monolith mode.
+     * @return
+     *  The url of the service, with its prefix in monolith mode.
+     * @since 1.1
+     */
+    private String url(ConfigurableApplicationContext context, String prefix) {
+        return "http://localhost:" + port(context) + (this.monolith ? prefix : "");
+    }
+
+    public String getAuthenticateUrl() {
+        return url(this.authenticate, "/api/v1/services/auth");
+    }
+
+    public String getLoanUrl() {
+        return url(this.loan, "/api/v1/services/loans");
+    }
+
+    public String getMediaUrl() {
+        return url(this.media, "/api/v1/services/medias");
+    }
+
+    public String getStockUrl() {
+        return url(this.stock, "/api/v1/services/stocks");
+    }
+
+    public String getUserUrl() {
+        return url(this.user, "/api/v1/services/users");
+    }
+
+    public ConfigurableApplicationContext getMediaContext() {
+        return media;
+    }
+
+    public ConfigurableApplicationContext getStockContext() {
+        return stock;
+    }
+
+    public ConfigurableApplicationContext getLoanContext() {
+        return loan;
+    }
+
+    public ConfigurableApplicationContext getUserContext() {
+        return user;
+    }
+
+    /**
+     * Stop all services, in the reverse order of their start.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void close() {
+        for (int i = this.contexts.size() - 1; i >= 0; i--) {
+            this.contexts.get(i).close();
+        }
+        this.contexts.clear();
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.services.authenticate.AuthenticateApplication;
+import fr.nicolasgille.medialibs.services.loan.LoanApplication;
+import fr.nicolasgille.medialibs.services.media.MediaApplication;
+import fr.nicolasgille.medialibs.services.monolith.MonolithApplication;
+import fr.nicolasgille.medialibs.services.stock.StockApplication;
+import fr.nicolasgille.medialibs.services.user.UserApplication;
+import org.h2.tools.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the footprint of the five services in their own JVM with the one of the monolith:
+ * time until each JVM answers, and resident memory once started then after a few requests.
+ *
+ * Each service runs in a child JVM with the same flags, its own module first on the classpath so it reads
+ * its own <code>application.properties</code>, against an H2 database served over TCP. The five JVMs start
+ * one after the other, the first one running the migrations.
+ * Run with <code>mvn -pl load-test exec:java -Dexec.mainClass=fr.nicolasgille.medialibs.loadtest.FootprintBenchmark -Dexec.args="requests=200"</code>.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class FootprintBenchmark {
+
+    /**
+     * Time given to a JVM to answer, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private static final long START_TIMEOUT = TimeUnit.MINUTES.toMillis(3);
+
+    /**
+     * Folder of the logs of the child JVMs.
+     *
+     * @since 1.0
+     */
+    private static final File LOG_DIRECTORY = new File("target/footprint");
+
+    /**
+     * Child JVMs started, stopped when the benchmark ends whatever its outcome.
+     *
+     * @since 1.0
+     */
+    private static final List<Process> PROCESSES = new ArrayList<>();
+
+    /**
+     * Main app.
+     *
+     * @param args
+     *  <code>requests=N</code>, requests sent to each service before the second measure of the memory.
+     * @throws Exception
+     *  If a JVM does not start.
+     * @since 1.0
+     */
+    public static void main(String[] args) throws Exception {
+        int requests = 200;
+        for (String arg : args) {
+            String[] keyValue = arg.split("=", 2);
+            if (keyValue.length == 2 && keyValue[0].equals("requests")) {
+                requests = Integer.parseInt(keyValue[1]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument '" + arg + "'");
+            }
+        }
+        LOG_DIRECTORY.mkdirs();
+
+        int databasePort = freePort();
+        Server database = Server.createTcpServer("-tcpPort", String.valueOf(databasePort)).start();
+        try {
+            List<Footprint> services = new ArrayList<>();
+            String url = "jdbc:h2:tcp://localhost:" + databasePort + "/mem:services;DB_CLOSE_DELAY=-1";
+            Footprint stock = start(StockApplication.class, url, Arrays.asList("/"));
+            Footprint loan = start(LoanApplication.class, url, Arrays.asList("/"));
+            services.add(stock);
+            services.add(loan);
+            services.add(start(MediaApplication.class, url, Arrays.asList("/", "/details/1"),
+                    "--medialibs.media.detail.stock-url=" + stock.url,
+                    "--medialibs.media.detail.loan-url=" + loan.url));
+            services.add(start(UserApplication.class, url, Arrays.asList("/")));
+            services.add(start(AuthenticateApplication.class, url, Arrays.asList("/metrics")));
+            measure(services, requests);
+
+            List<Footprint> monolith = new ArrayList<>();
+            url = "jdbc:h2:tcp://localhost:" + databasePort + "/mem:monolith;DB_CLOSE_DELAY=-1";
+            monolith.add(start(MonolithApplication.class, url, Arrays.asList(
+                    "/api/v1/services/stocks/", "/api/v1/services/loans/", "/api/v1/services/medias/",
+                    "/api/v1/services/medias/details/1", "/api/v1/services/users/", "/metrics")));
+            measure(monolith, requests);
+
+            System.out.printf(Locale.ROOT, "%-24s %10s %14s %14s%n", "jvm", "start ms", "started MB", "requests MB");
+            print(services);
+            print(monolith);
+        } finally {
+            for (Process process : PROCESSES) {
+                process.destroyForcibly();
+            }
+            database.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Start one JVM and wait until it answers.
+     *
+     * @param application
+     *  Main class of the JVM.
+     * @param databaseUrl
+     *  Url of the shared database.
+     * @param paths
+     *  Paths requested once started, the same as in the other setup.
+     * @param extraArgs
+     *  Settings of this JVM only.
+     * @return
+     *  The footprint of the started JVM.
+     * @throws Exception
+     *  If the JVM stops or does not answer in time.
+     * @since 1.0
+     */
+    private static Footprint start(Class<?> application, String databaseUrl, List<String> paths,
+                                   String... extraArgs) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (!System.getProperty("java.specification.version").startsWith("1.")) {
+            command.add("--add-opens");
+            command.add("java.base/java.lang=ALL-UNNAMED");
+        }
+        // An empty value is not accepted on the command line of Spring Boot.
+        command.add("-Dspring.datasource.password=");
+        command.add("-cp");
+        command.add(classpath(application));
+        command.add(application.getName());
+        command.addAll(Arrays.asList(
+                "--server.port=" + port,
+                "--spring.datasource.url=" + databaseUrl,
+                "--spring.datasource.username=sa",
+                "--spring.datasource.driver-class-name=org.h2.Driver",
+                "--spring.jpa.hibernate.ddl-auto=none",
+                "--spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.MySQL5Dialect",
+                "--spring.jmx.enabled=false",
+                "--logging.level.root=WARN"));
+        command.addAll(Arrays.asList(extraArgs));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(LOG_DIRECTORY, application.getSimpleName() + ".log"))
+                .start();
+        PROCESSES.add(process);
+        Footprint footprint = new Footprint(application.getSimpleName(), process, "http://localhost:" + port, paths);
+        while (status(HttpCall.get(footprint.url + "/metrics")) != 200) {
+            if (!process.isAlive() || System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(START_TIMEOUT)) {
+                process.destroyForcibly();
+                throw new IllegalStateException(application.getSimpleName() + " did not start, see "
+                        + new File(LOG_DIRECTORY, application.getSimpleName() + ".log"));
+            }
+            Thread.sleep(50);
+        }
+        footprint.startMillis = (System.nanoTime() - start) / 1_000_000;
+        footprint.startedResident = resident(process);
+        return footprint;
+    }
+
+    /**
+     * Send the requests to each JVM, measure its memory, then stop it.
+     *
+     * @since 1.0
+     */
+    private static void measure(List<Footprint> footprints, int requests) throws Exception {
+        for (Footprint footprint : footprints) {
+            for (int i = 0; i < requests; i++) {
+                for (String path : footprint.paths) {
+                    status(HttpCall.get(footprint.url + path));
+                }
+            }
+        }
+        for (Footprint footprint : footprints) {
+            footprint.requestsResident = resident(footprint.process);
+            footprint.process.destroy();
+            footprint.process.waitFor(30, TimeUnit.SECONDS);
+        }
+    }
+
+    private static void print(List<Footprint> footprints) {
+        long startMillis = 0;
+        long started = 0;
+        long afterRequests = 0;
+        for (Footprint footprint : footprints) {
+            System.out.printf(Locale.ROOT, "%-24s %10d %14s %14s%n", footprint.name, footprint.startMillis,
+                    megabytes(footprint.startedResident), megabytes(footprint.requestsResident));
+            startMillis += footprint.startMillis;
+            started += footprint.startedResident;
+            afterRequests += footprint.requestsResident;
+        }
+        System.out.printf(Locale.ROOT, "%-24s %10d %14s %14s%n", "total (" + footprints.size() + " jvm)",
+                startMillis, megabytes(started), megabytes(afterRequests));
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "unknown" : String.format(Locale.ROOT, "%.1f", bytes / 1048576.0);
+    }
+
+    /**
+     * Build the classpath of a child JVM: the one of the benchmark, the module of the application first.
+     *
+     * @since 1.0
+     */
+    private static String classpath(Class<?> application) throws Exception {
+        List<String> entries = new ArrayList<>();
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                entries.add(new File(url.toURI()).getPath());
+            }
+        } else {
+            entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        }
+        String module = new File(application.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        entries.remove(module);
+        entries.add(0, module);
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * Send a request, whatever its answer.
+     *
+     * @return
+     *  The http status, or -1 if the JVM cannot be reached yet.
+     * @since 1.0
+     */
+    private static int status(HttpCall call) {
+        try {
+            return call.execute();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Read the resident memory of a child JVM.
+     *
+     * @return
+     *  The resident memory in bytes, or -1 if unknown: the pid of a process is only known from Java 9.
+     * @since 1.0
+     */
+    private static long resident(Process process) {
+        try {
+            Object pid = Process.class.getMethod("pid").invoke(process);
+            for (String line : Files.readAllLines(Paths.get("/proc/" + pid + "/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (ReflectiveOperationException | IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Start time and memory of one JVM.
+     *
+     * @since 1.0
+     */
+    private static class Footprint {
+
+        private final String name;
+        private final Process process;
+        private final String url;
+
+        /**
+         * Paths requested before the second measure of the memory.
+         *
+         * @since 1.0
+         */
+        private final List<String> paths;
+
+        private long startMillis;
+        private long startedResident;
+        private long requestsResident;
+
+        Footprint(String name, Process process, String url, List<String> paths) {
+            this.name = name;
+            this.process = process;
+            this.url = url;
+            this.paths = paths;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One http request sent to a service.
+ *
+ * The connection of the JDK keeps the sockets alive between calls,
+ * so the body of the response is always read until the end.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class HttpCall {
+
+    /**
+     * Timeout to connect or read, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private static final int TIMEOUT = 30_000;
+
+    /**
+     * Number of simulated clients, each request coming from one of them at random.
+     * The services use the client to send its reads to the primary after its writes.
+     *
+     * @since 1.0
+     */
+    private static final int CLIENTS = 1000;
+
+    private final String method;
+    private final String url;
+    private final String json;
+
+    /**
+     * Media type asked for the response.
+     *
+     * @since 1.0
+     */
+    private String accept = "application/json";
+
+    private HttpCall(String method, String url, String json) {
+        this.method = method;
+        this.url = url;
+        this.json = json;
+    }
+
+    public static HttpCall get(String url) {
+        return new HttpCall("GET", url, null);
+    }
+
+    public static HttpCall post(String url, String json) {
+        return new HttpCall("POST", url, json);
+    }
+
+    public static HttpCall put(String url, String json) {
+        return new HttpCall("PUT", url, json);
+    }
+
+    /**
+     * Ask for another encoding of the response, the body of the request staying in json.
+     *
+     * @param mediaType
+     *  Media type of the response.
+     * @return
+     *  This call.
+     * @since 1.0
+     */
+    public HttpCall accept(String mediaType) {
+        this.accept = mediaType;
+        return this;
+    }
+
+    /**
+     * Send the request and wait for the whole response.
+     *
+     * @return
+     *  The http status of the response.
+     * @throws IOException
+     *  If the service cannot be reached.
+     * @since 1.0
+     */
+    public int execute() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(this.url).openConnection();
+        connection.setRequestMethod(this.method);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestProperty("Accept", this.accept);
+        connection.setRequestProperty("X-Client-Id", "client-" + ThreadLocalRandom.current().nextInt(CLIENTS));
+
+        if (this.json != null) {
+            byte[] body = this.json.getBytes(StandardCharsets.UTF_8);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream input = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (input != null) {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = input) {
+                while (in.read(buffer) != -1) {
+                    // Drain the response to give the socket back to the keep-alive cache.
+                }
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Peak resources used by the JVM during a run: platform threads, heap, and resident memory.
+ *
+ * The resident memory includes the stacks of the platform threads, which the heap does not show.
+ * It is read from <code>/proc/self/status</code>, so it is only known on Linux.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class JvmUsage implements AutoCloseable {
+
+    /**
+     * Interval between two samples, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private static final long INTERVAL = 250;
+
+    private static final Path STATUS = Paths.get("/proc/self/status");
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Thread sampler;
+
+    private volatile long peakHeap;
+    private volatile long peakResident = -1;
+
+    /**
+     * Start sampling.
+     *
+     * @since 1.0
+     */
+    public JvmUsage() {
+        this.threads.resetPeakThreadCount();
+        this.sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "jvm-usage");
+        this.sampler.setDaemon(true);
+        this.sampler.start();
+    }
+
+    /**
+     * Stop sampling.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void close() {
+        this.sampler.interrupt();
+        sample();
+    }
+
+    private void sample() {
+        this.peakHeap = Math.max(this.peakHeap, this.memory.getHeapMemoryUsage().getUsed());
+        this.peakResident = Math.max(this.peakResident, resident());
+    }
+
+    /**
+     * Read the resident memory of the process.
+     *
+     * @return
+     *  The resident memory in bytes, or -1 if unknown.
+     * @since 1.0
+     */
+    private static long resident() {
+        try {
+            for (String line : Files.readAllLines(STATUS, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "jvm: peak platform threads=%d, peak heap=%.1f MB, peak resident=%s",
+                this.threads.getPeakThreadCount(),
+                this.peakHeap / 1048576.0,
+                this.peakResident < 0 ? "unknown" : String.format(Locale.ROOT, "%.1f MB", this.peakResident / 1048576.0));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * End-to-end load test of the services.
+ *
+ * Boot the five services on random ports against an embedded database,
+ * fill the database, drive the traffic mix at a fixed rate and write the latency report.
+ * Run with <code>mvn -pl load-test exec:java -Dexec.args="rate=500 duration=60"</code>,
+ * or with a fixed number of concurrent clients with <code>-Dexec.args="clients=2000 duration=60"</code>.
+ * The size and cost of the encodings are compared by {@link CodecBenchmark}.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class LoadTestApplication {
+
+    /**
+     * Main app.
+     *
+     * @param args
+     *  Settings of the run, see {@link LoadTestSettings}.
+     * @throws Exception
+     *  If the run fails.
+     * @since 1.0
+     */
+    public static void main(String[] args) throws Exception {
+        LoadTestSettings settings = LoadTestSettings.parse(args);
+        if (settings.getClients() > 0) {
+            // Keep one connection alive per client instead of the 5 of the JDK, read on the first connection.
+            System.setProperty("http.maxConnections", String.valueOf(settings.getClients()));
+        }
+
+        try (EmbeddedServices services = EmbeddedServices.start(settings.getReplicas(), settings.isVirtualThreads(),
+                settings.isMonolith())) {
+            DataSeeder seeder = DataSeeder.seed(services, settings);
+            List<Operation> operations = operations(services, seeder, settings.getMix(), settings.getFormat());
+
+            long measured;
+            long dropped = 0;
+            JvmUsage usage = new JvmUsage();
+            try {
+                if (settings.getClients() > 0) {
+                    measured = new ClosedModelDriver(operations, settings).run();
+                } else {
+                    OpenModelDriver driver = new OpenModelDriver(operations, settings);
+                    measured = driver.run();
+                    dropped = driver.getDropped();
+                }
+            } finally {
+                usage.close();
+            }
+            new LoadTestReport(settings).write(operations, measured, dropped, usage);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Build the operations of the mix.
+     *
+     * @param services
+     *  Started services, to know their urls.
+     * @param seeder
+     *  Data set inserted, to request existing entities.
+     * @param mix
+     *  Weight of each operation.
+     * @param format
+     *  Encoding asked for the responses of the rest endpoints.
+     * @return
+     *  The operations with a strictly positive weight.
+     * @throws IllegalArgumentException
+     *  If the mix contains an unknown operation.
+     * @since 1.0
+     */
+    static List<Operation> operations(EmbeddedServices services, DataSeeder seeder, Map<String, Integer> mix,
+                                      EntityFormat format) {
+        List<Operation> operations = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+            if (entry.getValue() <= 0) {
+                continue;
+            }
+            Supplier<HttpCall> calls = calls(entry.getKey(), services, seeder);
+            if (format != EntityFormat.JSON && !entry.getKey().startsWith("reactive-")) {
+                calls = accept(calls, format.getMediaType().toString());
+            }
+            operations.add(new Operation(entry.getKey(), entry.getValue(), calls));
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("The mix must contain at least one operation");
+        }
+        return operations;
+    }
+
+    private static Supplier<HttpCall> calls(String name, EmbeddedServices services, DataSeeder seeder) {
+        switch (name) {
+            case "browse-all":
+                return () -> HttpCall.get(services.getMediaUrl() + "/");
+            case "browse-one":
+                return () -> HttpCall.get(services.getMediaUrl() + "/" + any(seeder.getMediaIds()));
+            case "hot-browse":
+                // Every client reads the same media, like a title on the front page.
+                return () -> HttpCall.get(services.getMediaUrl() + "/" + seeder.getMediaIds().get(0));
+            case "reactive-browse-all":
+                return () -> HttpCall.get(services.getMediaUrl() + "/reactive/");
+            case "reactive-browse-one":
+                return () -> HttpCall.get(services.getMediaUrl() + "/reactive/" + any(seeder.getMediaIds()));
+            case "reactive-search":
+                return () -> HttpCall.get(services.getMediaUrl() + "/reactive/search?support=DVD");
+            case "detail-one":
+                return () -> HttpCall.get(services.getMediaUrl() + "/details/" + any(seeder.getMediaIds()));
+            case "detail-page":
+                return () -> HttpCall.get(services.getMediaUrl() + "/details/?ids=" + page(seeder.getMediaIds()));
+            case "check-stock":
+                return () -> HttpCall.get(services.getStockUrl() + "/" + any(seeder.getStocks()).getId());
+            case "hot-stock":
+                return () -> HttpCall.get(services.getStockUrl() + "/" + seeder.getStocks().get(0).getId());
+            case "check-loan":
+                return () -> HttpCall.get(services.getLoanUrl() + "/" + any(seeder.getLoanIds()));
+            case "checkout":
+                return () -> {
+                    Stock stock = any(seeder.getStocks());
+                    return HttpCall.put(services.getStockUrl() + "/" + stock.getId() + "/decrement", json(stock));
+                };
+            case "return":
+                return () -> {
+                    Stock stock = any(seeder.getStocks());
+                    return HttpCall.put(services.getStockUrl() + "/" + stock.getId() + "/increment", json(stock));
+                };
+            case "login":
+                return () -> HttpCall.post(services.getAuthenticateUrl() + "/authenticate",
+                        "{\"email\":\"" + any(seeder.getEmails()) + "\",\"password\":\"" + DataSeeder.PASSWORD + "\"}");
+            default:
+                throw new IllegalArgumentException("Unknown operation '" + name + "'");
+        }
+    }
+
+    private static Supplier<HttpCall> accept(Supplier<HttpCall> calls, String mediaType) {
+        return () -> calls.get().accept(mediaType);
+    }
+
+    /**
+     * Body of a stock update, with a current stock which is neither empty nor full.
+     *
+     * @param stock
+     *  Stock to update.
+     * @return
+     *  The json body.
+     * @since 1.0
+     */
+    private static String json(Stock stock) {
+        int current = ThreadLocalRandom.current().nextInt(1, DataSeeder.INITIAL_STOCK);
+        return "{\"id\":" + stock.getId()
+                + ",\"mediaId\":" + stock.getMediaId()
+                + ",\"initialStock\":" + stock.getInitialStock()
+                + ",\"currentStock\":" + current + "}";
+    }
+
+    /**
+     * Identifiers of a list page: 50 consecutive medias from a random offset.
+     *
+     * @param ids
+     *  Identifiers of all medias.
+     * @return
+     *  The identifiers, comma separated.
+     * @since 1.0
+     */
+    private static String page(List<Long> ids) {
+        int size = Math.min(50, ids.size());
+        int from = ThreadLocalRandom.current().nextInt(ids.size() - size + 1);
+        StringBuilder page = new StringBuilder();
+        for (Long id : ids.subList(from, from + size)) {
+            if (page.length() > 0) {
+                page.append(',');
+            }
+            page.append(id);
+        }
+        return page.toString();
+    }
+
+    private static <T> T any(List<T> values) {
+        return values.get(ThreadLocalRandom.current().nextInt(values.size()));
+    }
+}
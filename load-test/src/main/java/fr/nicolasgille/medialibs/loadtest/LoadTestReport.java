@@ -0,0 +1,123 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Write the result of a run: one summary file for all operations,
+ * and the full percentile distribution of each operation in the HdrHistogram format.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class LoadTestReport {
+
+    /**
+     * Scale from the recorded microseconds to the milliseconds shown in the report.
+     *
+     * @since 1.0
+     */
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final LoadTestSettings settings;
+
+    public LoadTestReport(LoadTestSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Write the report of a run and print the summary on the standard output.
+     *
+     * @param operations
+     *  Operations of the run, with their recorded latencies.
+     * @param measuredNanos
+     *  Duration of the measured phase.
+     * @param dropped
+     *  Number of arrivals dropped by the driver.
+     * @param usage
+     *  Resources used by the JVM during the run.
+     * @throws IOException
+     *  If the report cannot be written.
+     * @since 1.0
+     */
+    public void write(List<Operation> operations, long measuredNanos, long dropped, JvmUsage usage) throws IOException {
+        File directory = this.settings.getReportDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create report directory " + directory);
+        }
+
+        double seconds = measuredNanos / 1e9;
+        Histogram all = null;
+        StringBuilder summary = new StringBuilder();
+        summary.append(this.settings).append('\n');
+        summary.append(String.format(Locale.ROOT, "%-20s %9s %9s %9s %9s %9s %9s %9s  %s%n",
+                "operation", "count", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "statuses"));
+
+        for (Operation operation : operations) {
+            Histogram histogram = operation.takeHistogram();
+            all = all == null ? histogram.copy() : add(all, histogram);
+            appendLine(summary, operation.getName(), histogram, seconds,
+                    operation.getStatuses() + (operation.getFailures() > 0 ? " failures=" + operation.getFailures() : ""));
+            writeDistribution(new File(directory, operation.getName() + ".hgrm"), histogram);
+        }
+
+        if (all != null) {
+            appendLine(summary, "all", all, seconds, "dropped=" + dropped);
+            writeDistribution(new File(directory, "all.hgrm"), all);
+        }
+        summary.append(usage).append('\n');
+
+        try (PrintStream out = new PrintStream(new FileOutputStream(new File(directory, "summary.txt")), false, "UTF-8")) {
+            out.print(summary);
+        }
+        System.out.print(summary);
+    }
+
+    private static Histogram add(Histogram total, Histogram histogram) {
+        total.add(histogram);
+        return total;
+    }
+
+    private static void appendLine(StringBuilder summary, String name, Histogram histogram, double seconds, String statuses) {
+        summary.append(String.format(Locale.ROOT, "%-20s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                name,
+                histogram.getTotalCount(),
+                histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(90) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                histogram.getValueAtPercentile(99.9) / MICROS_PER_MILLI,
+                histogram.getMaxValue() / MICROS_PER_MILLI,
+                statuses));
+    }
+
+    private static void writeDistribution(File file, Histogram histogram) throws IOException {
+        try (PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+            histogram.outputPercentileDistribution(out, MICROS_PER_MILLI);
+        }
+    }
+}
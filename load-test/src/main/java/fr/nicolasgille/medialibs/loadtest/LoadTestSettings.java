@@ -0,0 +1,297 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run.
+ *
+ * Each setting is given on the command line as <code>key=value</code>,
+ * for example <code>rate=500 duration=120 mix=browse-all:5,checkout:20</code>.
+ * With <code>clients=N</code> the rate is ignored and N clients send their requests in a loop.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class LoadTestSettings {
+
+    /**
+     * Default weights of the operations, in percent of the traffic.
+     *
+     * @since 1.0
+     */
+    private static final String DEFAULT_MIX = "browse-all:5,browse-one:35,check-stock:25,checkout:10,return:10,login:15";
+
+    /**
+     * Number of requests started per second, whatever the latency of the services.
+     *
+     * @since 1.0
+     */
+    private int rate = 200;
+
+    /**
+     * Number of clients of the closed model, each one waiting for its response before the next request.
+     * Zero to drive the open model at {@link #rate}.
+     *
+     * @since 1.0
+     */
+    private int clients = 0;
+
+    /**
+     * Duration of the measured phase, in seconds.
+     *
+     * @since 1.0
+     */
+    private int duration = 60;
+
+    /**
+     * Duration of the warmup phase, in seconds. Latencies are not recorded during warmup.
+     *
+     * @since 1.0
+     */
+    private int warmup = 10;
+
+    /**
+     * Maximum number of requests in flight at the same time.
+     *
+     * @since 1.0
+     */
+    private int maxInFlight = 1000;
+
+    /**
+     * Number of medias (and stocks) inserted before the run.
+     *
+     * @since 1.0
+     */
+    private int medias = 1000;
+
+    /**
+     * Number of users inserted before the run.
+     *
+     * @since 1.0
+     */
+    private int users = 500;
+
+    /**
+     * Number of read replicas given to each service. They share the embedded database,
+     * like replicas without lag, so only the routing and the pools are exercised.
+     *
+     * @since 1.0
+     */
+    private int replicas = 0;
+
+    /**
+     * Run the services in virtual thread mode, see <code>medialibs.runtime.virtual-threads</code>.
+     *
+     * @since 1.0
+     */
+    private boolean virtualThreads = false;
+
+    /**
+     * Run the five services in one context, on one port, see <code>MonolithApplication</code>.
+     *
+     * @since 1.1
+     */
+    private boolean monolith = false;
+
+    /**
+     * Encoding asked for the responses, <code>json</code>, <code>cbor</code> or <code>smile</code>.
+     *
+     * @since 1.0
+     */
+    private EntityFormat format = EntityFormat.JSON;
+
+    /**
+     * Folder where the report is written.
+     *
+     * @since 1.0
+     */
+    private File reportDirectory = new File("target/load-report");
+
+    /**
+     * Weight of each operation, by operation name.
+     *
+     * @since 1.0
+     */
+    private Map<String, Integer> mix = parseMix(DEFAULT_MIX);
+
+    /**
+     * Build the settings from the command line arguments.
+     *
+     * @param args
+     *  Arguments under the form <code>key=value</code>.
+     * @return
+     *  The settings of the run.
+     * @throws IllegalArgumentException
+     *  If an argument is unknown or malformed.
+     * @since 1.0
+     */
+    public static LoadTestSettings parse(String[] args) {
+        LoadTestSettings settings = new LoadTestSettings();
+        for (String arg : args) {
+            String[] keyValue = arg.replaceFirst("^--", "").split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Argument '" + arg + "' must be under the form key=value");
+            }
+
+            String value = keyValue[1].trim();
+            switch (keyValue[0].trim()) {
+                case "rate":
+                    settings.rate = Integer.parseInt(value);
+                    break;
+                case "clients":
+                    settings.clients = Integer.parseInt(value);
+                    break;
+                case "duration":
+                    settings.duration = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    settings.warmup = Integer.parseInt(value);
+                    break;
+                case "max-in-flight":
+                    settings.maxInFlight = Integer.parseInt(value);
+                    break;
+                case "medias":
+                    settings.medias = Integer.parseInt(value);
+                    break;
+                case "users":
+                    settings.users = Integer.parseInt(value);
+                    break;
+                case "replicas":
+                    settings.replicas = Integer.parseInt(value);
+                    break;
+                case "virtual-threads":
+                    settings.virtualThreads = Boolean.parseBoolean(value);
+                    break;
+                case "monolith":
+                    settings.monolith = Boolean.parseBoolean(value);
+                    break;
+                case "format":
+                    settings.format = EntityFormat.of(value);
+                    break;
+                case "report":
+                    settings.reportDirectory = new File(value);
+                    break;
+                case "mix":
+                    settings.mix = parseMix(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument '" + keyValue[0] + "'");
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Parse a mix under the form <code>name:weight,name:weight</code>.
+     *
+     * @param mix
+     *  Mix to parse.
+     * @return
+     *  The weight of each operation, in declaration order.
+     * @since 1.0
+     */
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] nameWeight = entry.split(":");
+            if (nameWeight.length != 2) {
+                throw new IllegalArgumentException("Mix entry '" + entry + "' must be under the form name:weight");
+            }
+            weights.put(nameWeight[0].trim(), Integer.parseInt(nameWeight[1].trim()));
+        }
+        return weights;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getClients() {
+        return clients;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public int getWarmup() {
+        return warmup;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMedias() {
+        return medias;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public boolean isMonolith() {
+        return monolith;
+    }
+
+    public EntityFormat getFormat() {
+        return format;
+    }
+
+    public File getReportDirectory() {
+        return reportDirectory;
+    }
+
+    public Map<String, Integer> getMix() {
+        return mix;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadTestSettings{" +
+                "rate=" + rate +
+                ", clients=" + clients +
+                ", duration=" + duration +
+                ", warmup=" + warmup +
+                ", maxInFlight=" + maxInFlight +
+                ", medias=" + medias +
+                ", users=" + users +
+                ", replicas=" + replicas +
+                ", virtualThreads=" + virtualThreads +
+                ", monolith=" + monolith +
+                ", format=" + format +
+                ", reportDirectory=" + reportDirectory +
+                ", mix=" + mix +
+                '}';
+    }
+}
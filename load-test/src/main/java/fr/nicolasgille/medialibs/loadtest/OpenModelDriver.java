@@ -0,0 +1,125 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drive an open-model traffic: requests arrive at a fixed rate,
+ * whatever the time taken by the services to answer the previous ones.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class OpenModelDriver {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(OpenModelDriver.class);
+
+    private final OperationMix mix;
+    private final LoadTestSettings settings;
+
+    /**
+     * Number of arrivals dropped because too many requests were already in flight.
+     *
+     * @since 1.0
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    public OpenModelDriver(List<Operation> operations, LoadTestSettings settings) {
+        this.mix = new OperationMix(operations);
+        this.settings = settings;
+    }
+
+    /**
+     * Run the warmup then the measured phase.
+     *
+     * @return
+     *  The duration of the measured phase, in nanoseconds.
+     * @throws InterruptedException
+     *  If the driver is interrupted.
+     * @since 1.0
+     */
+    public long run() throws InterruptedException {
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "load-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(this.settings.getMaxInFlight());
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / this.settings.getRate();
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(this.settings.getWarmup());
+        long end = measureStart + TimeUnit.SECONDS.toNanos(this.settings.getDuration());
+        logger.warn("Start {} requests per second for {} s after {} s of warmup",
+                this.settings.getRate(), this.settings.getDuration(), this.settings.getWarmup());
+
+        for (long arrival = 0; ; arrival++) {
+            long intendedStart = start + arrival * interval;
+            if (intendedStart >= end) {
+                break;
+            }
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            boolean record = intendedStart >= measureStart;
+            if (!inFlight.tryAcquire()) {
+                if (record) {
+                    this.dropped.increment();
+                }
+                continue;
+            }
+
+            Operation operation = this.mix.pick();
+            workers.execute(() -> {
+                try {
+                    operation.execute(intendedStart, record);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        return end - measureStart;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One kind of request of the traffic mix, with the latencies and statuses recorded for it.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class Operation {
+
+    /**
+     * Highest latency tracked by the histograms, in microseconds.
+     *
+     * @since 1.0
+     */
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    private final String name;
+    private final int weight;
+    private final Supplier<HttpCall> calls;
+
+    /**
+     * Latencies measured from the intended start of each request, in microseconds.
+     *
+     * @since 1.0
+     */
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY, 3);
+
+    /**
+     * Number of responses received, by http status.
+     *
+     * @since 1.0
+     */
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * Number of requests which failed without http response.
+     *
+     * @since 1.0
+     */
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Create an operation.
+     *
+     * @param name
+     *  Name of the operation, as used in the mix.
+     * @param weight
+     *  Weight of the operation in the mix.
+     * @param calls
+     *  Build a new request each time the operation is started.
+     * @since 1.0
+     */
+    public Operation(String name, int weight, Supplier<HttpCall> calls) {
+        this.name = name;
+        this.weight = weight;
+        this.calls = calls;
+    }
+
+    /**
+     * Send one request and record its result.
+     *
+     * @param intendedStart
+     *  Time, in nanoseconds, at which the request should have been sent.
+     *  Measuring from this time avoids the coordinated omission of a late sender.
+     * @param record
+     *  False during warmup.
+     * @since 1.0
+     */
+    public void execute(long intendedStart, boolean record) {
+        int status;
+        try {
+            status = this.calls.get().execute();
+        } catch (Exception e) {
+            status = -1;
+        }
+        if (!record) {
+            return;
+        }
+
+        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedStart);
+        this.recorder.recordValue(Math.min(latency, HIGHEST_LATENCY));
+        if (status < 0) {
+            this.failures.increment();
+        } else {
+            this.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Get all latencies recorded since the last call.
+     *
+     * @return
+     *  The histogram of latencies, in microseconds.
+     * @since 1.0
+     */
+    public Histogram takeHistogram() {
+        return this.recorder.getIntervalHistogram();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Get the number of responses by http status.
+     *
+     * @return
+     *  A sorted copy of the counters.
+     * @since 1.0
+     */
+    public Map<Integer, Long> getStatuses() {
+        Map<Integer, Long> copy = new TreeMap<>();
+        this.statuses.forEach((status, count) -> copy.put(status, count.sum()));
+        return copy;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.loadtest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Operations of the traffic mix, picked at random according to their weights.
+ *
+ * @since MediaLibs Load Test 1.0
+ * @version 1.0
+ */
+public class OperationMix {
+
+    private final List<Operation> operations;
+
+    /**
+     * Upper bound (exclusive) of the cumulated weight of each operation, to pick them at random.
+     *
+     * @since 1.0
+     */
+    private final int[] cumulatedWeights;
+
+    public OperationMix(List<Operation> operations) {
+        this.operations = operations;
+        this.cumulatedWeights = new int[operations.size()];
+        int total = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            total += operations.get(i).getWeight();
+            this.cumulatedWeights[i] = total;
+        }
+    }
+
+    /**
+     * Pick the next operation according to the weights of the mix.
+     *
+     * @return
+     *  The operation to execute.
+     * @since 1.0
+     */
+    public Operation pick() {
+        int draw = ThreadLocalRandom.current().nextInt(this.cumulatedWeights[this.cumulatedWeights.length - 1]);
+        for (int i = 0; i < this.cumulatedWeights.length; i++) {
+            if (draw < this.cumulatedWeights[i]) {
+                return this.operations.get(i);
+            }
+        }
+        return this.operations.get(this.operations.size() - 1);
+    }
+}
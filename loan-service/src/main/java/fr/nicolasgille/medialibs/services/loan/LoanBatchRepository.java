@@ -0,0 +1,90 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.loan;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lookups of several loans in one query, next to the {@link fr.nicolasgille.medialibs.core.loan.LoanRepository}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public interface LoanBatchRepository extends Repository<Loan, Long> {
+
+    /**
+     * Find the loans of several medias which are not over yet.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @param now
+     *  Current date: a loan ending before is over.
+     * @return
+     *  The loans without end date or ending after now, in no particular order.
+     * @since 1.0
+     */
+    @Query("select l from Loan l where l.mediaId in :mediaIds and (l.endLoanDate is null or l.endLoanDate > :now)")
+    List<Loan> findActiveByMediaIdIn(@Param("mediaIds") Collection<Long> mediaIds, @Param("now") Calendar now);
+
+    /**
+     * Find the loans of a borrower.
+     *
+     * @param borrowerId
+     *  Identifier of the borrower.
+     * @return
+     *  The loans of the borrower, in no particular order.
+     * @since 1.1
+     */
+    List<Loan> findByBorrowerId(long borrowerId);
+
+    /**
+     * Find which of several loans exist.
+     *
+     * @param ids
+     *  Identifiers of the loans.
+     * @return
+     *  The identifiers of the existing loans.
+     * @since 1.1
+     */
+    @Query("select l.id from Loan l where l.id in :ids")
+    List<Long> findIdsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Delete several loans with one statement.
+     *
+     * @param ids
+     *  Identifiers of the loans.
+     * @return
+     *  The number of loans deleted.
+     * @since 1.1
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Loan l where l.id in :ids")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
+}
@@ -20,8 +20,10 @@ package fr.nicolasgille.medialibs.services.loan;
 
 import fr.nicolasgille.medialibs.core.loan.Loan;
 import fr.nicolasgille.medialibs.core.loan.LoanRepository;
-import fr.nicolasgille.medialibs.core.media.MediaRepository;
-import fr.nicolasgille.medialibs.core.user.UserRepository;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchItem;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchOperations;
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import fr.nicolasgille.medialibs.services.commons.json.EntityStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -29,9 +31,12 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.util.Calendar;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -56,30 +61,51 @@ public class LoanRestController {
      */
     @Autowired
     private LoanRepository loanRepository;
-    private MediaRepository mediaRepository;
-    private UserRepository userRepository;
+
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Loans spread over the shards by borrower.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private LoanShards loans;
+
+    /**
+     * Reads and deletes of several loans by chunks of identifiers.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private BatchOperations batchOperations;
 
 
     /**
      * Get all loans from system.
      *
+     * The filters <code>ids</code>, <code>mediaIds</code> and <code>borrowerId</code> exclude each other and
+     * this listing: a query mixing them matches no handler and is answered 400.
+     *
      * @return
-     *  A ResponseEntity with content and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity streaming the content, and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.5
      */
-    @GetMapping("/")
-    public ResponseEntity<?> getAll() {
-        logger.info("Get all loans on persistent system");
-        List<Loan> loans = this.loanRepository.findAll();
-
-        if (loans == null || loans.isEmpty()) {
-            logger.info("List of loans is empty");
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        logger.info("Return the list of all loans found.");
-        return new ResponseEntity<List>(loans, HttpStatus.OK);
+    @GetMapping(value = "/", params = {"!ids", "!mediaIds", "!borrowerId"})
+    public DeferredResult<ResponseEntity<?>> getAll() {
+        return this.bulkheads.get("list").stream(() -> {
+            logger.info("Stream all loans from persistent system");
+            // The rows are read while the response is written, on the thread of the bulkhead kept until then,
+            // an empty list answers 204.
+            return new ResponseEntity<EntityStream<Loan>>(this.loans.streamAll(), HttpStatus.OK);
+        });
     }
 
     /**
@@ -88,19 +114,97 @@ public class LoanRestController {
      * @param id
      *  Identifier of requested authenticate.
      * @return
-     *  A ResponseEntity with authenticate and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with authenticate and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getLoan(@PathVariable("id") long id) {
-        Loan loan = this.loanRepository.findOne(id);
+    public DeferredResult<ResponseEntity<?>> getLoan(@PathVariable("id") long id) {
+        return this.bulkheads.get("lookup").call(() -> {
+            Loan loan = this.loans.findOne(id);
+
+            if (loan == null) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<Loan>(loan, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get the loans still running of several medias in one request.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with the active loans and/or http code status about error during process,
+     *  or 400 if too many are asked.
+     * @since 1.1
+     * @version 1.4
+     */
+    @GetMapping(value = "/", params = {"mediaIds", "!ids", "!borrowerId"})
+    public DeferredResult<ResponseEntity<?>> getActiveLoansOfMedias(@RequestParam("mediaIds") List<Long> mediaIds) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(mediaIds)) {
+                logger.info("Too many medias asked: {}", mediaIds.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            List<Loan> loans = this.loans.findActiveByMediaIdIn(mediaIds, Calendar.getInstance());
 
-        if (loan == null) {
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
+            if (loans.isEmpty()) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
 
-        return new ResponseEntity<Loan>(loan, HttpStatus.OK);
+            return new ResponseEntity<List<Loan>>(loans, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get the loans of a borrower, from the shard of the borrower only.
+     *
+     * @param borrowerId
+     *  Identifier of the borrower.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with the loans of the borrower and/or http code status about error during process.
+     * @since 1.2
+     * @version 1.1
+     */
+    @GetMapping(value = "/", params = {"borrowerId", "!ids", "!mediaIds"})
+    public DeferredResult<ResponseEntity<?>> getLoansOfBorrower(@RequestParam("borrowerId") long borrowerId) {
+        return this.bulkheads.get("lookup").call(() -> {
+            List<Loan> loans = this.loans.findByBorrowerId(borrowerId);
+
+            if (loans.isEmpty()) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<List<Loan>>(loans, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get several loans in one request.
+     *
+     * @param ids
+     *  Identifiers of the loans, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and its loan, or a 404 item
+     *  if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     * @version 1.3
+     */
+    @GetMapping(value = "/", params = {"ids", "!mediaIds", "!borrowerId"})
+    public DeferredResult<ResponseEntity<?>> getLoans(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many loans asked: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            Map<Long, BatchItem<Loan>> loans = this.batchOperations.findAll(ids, this.loans::findAll, Loan::getId);
+            return new ResponseEntity<Map<Long, BatchItem<Loan>>>(loans, HttpStatus.OK);
+        });
     }
 
     /**
@@ -111,29 +215,31 @@ public class LoanRestController {
      * @param uriBuilder
      *  Uri to redirect user on authenticate page after creation.
      * @return
-     *  A ResponseEntity with authenticate and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with authenticate and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.3
      */
     @PostMapping(value = "/")
-    public ResponseEntity<?> add(@RequestBody Loan loan, UriComponentsBuilder uriBuilder) {
-        logger.info("Insert authenticate {}", loan);
-
-        // @Todo : Add method findByUserIdOrMediaId, to check presence of user before insertion and return CONFLICT error status.
-        if (this.loanRepository.findByBorrowerIdAndMediaId(loan.getBorrowerId(), loan.getMediaId()) == null) {
-            logger.info("Loan already found on system");
-            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
-        }
-
-        HttpHeaders header = new HttpHeaders();
-        this.loanRepository.save(loan);
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/loans/{id}")
-                        .buildAndExpand(loan.getId())
-                        .toUri());
-
-        return new ResponseEntity<String>(header, HttpStatus.CREATED);
+    public DeferredResult<ResponseEntity<?>> add(@RequestBody Loan loan, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Insert authenticate {}", loan);
+
+            // @Todo : Add method findByUserIdOrMediaId, to check presence of user before insertion and return CONFLICT error status.
+            if (this.loans.findByBorrowerIdAndMediaId(loan.getBorrowerId(), loan.getMediaId()) == null) {
+                logger.info("Loan already found on system");
+                return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+            }
+
+            HttpHeaders header = new HttpHeaders();
+            this.loans.save(loan);
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/loans/{id}")
+                            .buildAndExpand(loan.getId())
+                            .toUri());
+
+            return new ResponseEntity<String>(header, HttpStatus.CREATED);
+        });
     }
 
     /**
@@ -146,37 +252,45 @@ public class LoanRestController {
      * @param uriBuilder
      *  Uri to redirect authenticate on user page update.
      * @return
-     *  A ResponseEntity with authenticate and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with authenticate and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.3
      */
     @PutMapping("/{id}")
-    public ResponseEntity<?> update(@PathVariable("id") long id,
-                                    @RequestBody Loan updatedLoan,
-                                    UriComponentsBuilder uriBuilder) {
-        logger.info("Update authenticate {}", updatedLoan);
-        Loan loanUpdated = this.loanRepository.findOne(id);
-        if (loanUpdated == null) {
-            logger.info("Loan with id {} not found on system", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        loanUpdated = new Loan();
-        loanUpdated.setId(id);
-        loanUpdated.setBorrowerId(updatedLoan.getBorrowerId());
-        loanUpdated.setMediaId(updatedLoan.getMediaId());
-        loanUpdated.setStartLoanDate(updatedLoan.getStartLoanDate());
-        loanUpdated.setEndLoanDate(updatedLoan.getEndLoanDate());
-        this.loanRepository.save(loanUpdated);
-
-        logger.info("Loan {} update on system", loanUpdated);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/loans/{id}")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(header, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> update(@PathVariable("id") long id,
+                                                    @RequestBody Loan updatedLoan,
+                                                    UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Update authenticate {}", updatedLoan);
+            Loan loanUpdated = this.loans.findOne(id);
+            if (loanUpdated == null) {
+                logger.info("Loan with id {} not found on system", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            // The borrower places the loan on its shard.
+            if (this.loans.isSharded() && loanUpdated.getBorrowerId() != updatedLoan.getBorrowerId()) {
+                logger.info("Loan with id {} cannot change of borrower", id);
+                return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+            }
+
+            loanUpdated = new Loan();
+            loanUpdated.setId(id);
+            loanUpdated.setBorrowerId(updatedLoan.getBorrowerId());
+            loanUpdated.setMediaId(updatedLoan.getMediaId());
+            loanUpdated.setStartLoanDate(updatedLoan.getStartLoanDate());
+            loanUpdated.setEndLoanDate(updatedLoan.getEndLoanDate());
+            this.loans.save(loanUpdated);
+
+            logger.info("Loan {} update on system", loanUpdated);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/loans/{id}")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(header, HttpStatus.OK);
+        });
     }
 
     /**
@@ -187,28 +301,56 @@ public class LoanRestController {
      * @param uriBuilder
      *  Uri to redirect authenticate to the page who contains all users.
      * @return
-     *  A ResponseEntity with http code status to indicate the result of the process.
+     *  A DeferredResult giving a ResponseEntity with http code status to indicate the result of the process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.3
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
-        logger.info("Delete authenticate with id : {}", id);
-        Loan loanDeleted = this.loanRepository.findOne(id);
-        if (loanDeleted == null) {
-            logger.info("Loan with id {} not found", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        this.userRepository.delete(id);
-
-        logger.info("User {} is now deleted", loanDeleted);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/loans/")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Delete authenticate with id : {}", id);
+            Loan loanDeleted = this.loans.findOne(id);
+            if (loanDeleted == null) {
+                logger.info("Loan with id {} not found", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            this.loans.delete(id);
+
+            logger.info("User {} is now deleted", loanDeleted);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/loans/")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Delete several loans in one request, with one statement by chunk of identifiers.
+     *
+     * @param ids
+     *  Identifiers of the loans to remove from system, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and a 200 item if its loan
+     *  is deleted, or a 404 item if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     * @version 1.2
+     */
+    @DeleteMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> deleteLoans(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("write").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many loans to delete: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            logger.info("Delete loans with ids : {}", ids);
+            Map<Long, BatchItem<Object>> deleted = this.batchOperations.deleteAll(ids,
+                    this.loans::deleteAll);
+            return new ResponseEntity<Map<Long, BatchItem<Object>>>(deleted, HttpStatus.OK);
+        });
     }
 }
@@ -0,0 +1,236 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.loan;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.loan.LoanRepository;
+import fr.nicolasgille.medialibs.services.commons.json.EntityStream;
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
+import fr.nicolasgille.medialibs.services.commons.shard.Shard;
+import fr.nicolasgille.medialibs.services.commons.shard.Shards;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Loans spread over the shards by borrower: the lookups of a borrower go to its shard, the lookups
+ * by identifier to the shard of its range, the other lookups to all shards in parallel.
+ *
+ * A service which is not sharded has the primary as only shard, and the loans are read
+ * and written as before.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Component
+public class LoanShards {
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanBatchRepository loanBatchRepository;
+
+    @Autowired
+    private Outbox outbox;
+
+    private final Shards shards;
+
+    @Autowired
+    public LoanShards(ObjectProvider<Shards> shards) {
+        Shards configured = shards.getIfAvailable();
+        this.shards = configured != null ? configured : Shards.unsharded();
+    }
+
+    public boolean isSharded() {
+        return this.shards.isSharded();
+    }
+
+    /**
+     * Find a loan on the shard of the range of its identifier, or on a newer shard it moved to.
+     *
+     * @param id
+     *  Identifier of the loan.
+     * @return
+     *  The loan, null if not found.
+     * @since 1.0
+     * @version 1.1
+     */
+    public Loan findOne(long id) {
+        return this.shards.find(id, shard -> this.loanRepository.findOne(id));
+    }
+
+    /**
+     * Find the loan of a media by a borrower, on the shard of the borrower.
+     *
+     * @since 1.0
+     */
+    public Loan findByBorrowerIdAndMediaId(long borrowerId, long mediaId) {
+        return this.shards.scatter(this.shards.holders(borrowerId),
+                shard -> this.loanRepository.findByBorrowerIdAndMediaId(borrowerId, mediaId)).stream()
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Find the loans of a borrower, on the shard of the borrower.
+     *
+     * @since 1.0
+     */
+    public List<Loan> findByBorrowerId(long borrowerId) {
+        return this.shards.gather(this.shards.holders(borrowerId),
+                shard -> this.loanBatchRepository.findByBorrowerId(borrowerId), Loan::getId);
+    }
+
+    /**
+     * Find several loans on all shards.
+     *
+     * @since 1.0
+     */
+    public List<Loan> findAll(Collection<Long> ids) {
+        return this.shards.gather(shard -> this.loanRepository.findAll(ids), Loan::getId);
+    }
+
+    /**
+     * Find the loans of several medias which are not over yet, on all shards.
+     *
+     * @since 1.0
+     */
+    public List<Loan> findActiveByMediaIdIn(Collection<Long> mediaIds, Calendar now) {
+        return this.shards.gather(shard -> this.loanBatchRepository.findActiveByMediaIdIn(mediaIds, now), Loan::getId);
+    }
+
+    /**
+     * Stream the loans of all shards, by identifier.
+     *
+     * @since 1.0
+     */
+    public EntityStream<Loan> streamAll() {
+        if (!this.shards.isSharded()) {
+            return EntityStream.of(Loan.class);
+        }
+        return EntityStream.of(Loan.class, () -> this.shards.streamAll(Loan.class, Loan::getId));
+    }
+
+    /**
+     * Save a loan on the shard of its borrower and record its change.
+     *
+     * While its borrower moves to a joining shard, an existing loan is moved there first.
+     *
+     * @param loan
+     *  Loan to save, whose borrower never changes.
+     * @return
+     *  The saved loan.
+     * @since 1.0
+     */
+    public Loan save(Loan loan) {
+        Shard owner = this.shards.owner(loan.getBorrowerId());
+        if (loan.getId() != 0) {
+            relocate(loan.getId(), owner);
+        }
+        if (owner == this.shards.getPrimary()) {
+            return this.shards.on(owner, () -> this.outbox.save(this.loanRepository, loan));
+        }
+        Loan saved = this.shards.on(owner, () -> this.loanRepository.save(loan));
+        this.outbox.recordCommitted(Loan.class, Collections.singletonList(saved.getId()), ChangeEvent.Operation.SAVED);
+        return saved;
+    }
+
+    /**
+     * Delete a loan wherever it is and record its change.
+     *
+     * @since 1.0
+     */
+    public boolean delete(long id) {
+        return !deleteAll(Collections.singletonList(id)).isEmpty();
+    }
+
+    /**
+     * Delete several loans wherever they are and record their changes.
+     *
+     * While a shard is joining, the shards losing rows are cleaned first: a row being moved is then
+     * either deleted before it is copied, or copied before it is deleted from the joining shard.
+     *
+     * @param ids
+     *  Identifiers of the loans.
+     * @return
+     *  The identifiers of the loans which existed and are deleted.
+     * @since 1.0
+     */
+    public List<Long> deleteAll(Collection<Long> ids) {
+        List<Shard> leaving = new ArrayList<>();
+        List<Shard> joining = new ArrayList<>();
+        for (Shard shard : this.shards.getShards()) {
+            (shard.isJoining() ? joining : leaving).add(shard);
+        }
+        List<Long> deleted = deleteOn(leaving, ids);
+        if (!joining.isEmpty()) {
+            deleted.addAll(deleteOn(joining, ids));
+        }
+        return deleted.stream().distinct().collect(Collectors.toList());
+    }
+
+    private List<Long> deleteOn(List<Shard> targets, Collection<Long> ids) {
+        Shard primary = this.shards.getPrimary();
+        List<List<Long>> found = this.shards.scatter(targets, shard -> {
+            if (shard == primary) {
+                return this.outbox.deleteAll(Loan.class, ids);
+            }
+            List<Long> existing = this.loanBatchRepository.findIdsByIdIn(ids);
+            if (!existing.isEmpty()) {
+                this.loanBatchRepository.deleteByIdIn(existing);
+            }
+            return existing;
+        });
+        List<Long> deleted = new ArrayList<>();
+        List<Long> unrecorded = new ArrayList<>();
+        for (int i = 0; i < targets.size(); i++) {
+            deleted.addAll(found.get(i));
+            if (targets.get(i) != primary) {
+                unrecorded.addAll(found.get(i));
+            }
+        }
+        this.outbox.recordCommitted(Loan.class, unrecorded, ChangeEvent.Operation.DELETED);
+        return deleted;
+    }
+
+    /**
+     * Move a loan to a shard, from the shard it was on before its borrower moved.
+     *
+     * @since 1.0
+     */
+    private void relocate(long id, Shard owner) {
+        if (!this.shards.isMoving()) {
+            return;
+        }
+        for (Shard holder : this.shards.locate(id)) {
+            this.shards.move(holder, owner, Collections.singletonList(id));
+        }
+    }
+}
@@ -18,24 +18,29 @@
 
 package fr.nicolasgille.medialibs.services.loan;
 
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.user.User;
+import fr.nicolasgille.medialibs.services.commons.cache.EnableEntityCache;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxEvent;
+import fr.nicolasgille.medialibs.services.commons.shard.EnableSharding;
+import fr.nicolasgille.medialibs.services.commons.startup.EnableEntityClasses;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
-import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @Configuration
 @EnableAutoConfiguration
-@EntityScan(basePackages = {
-        "fr.nicolasgille.medialibs.core.loan",
-        "fr.nicolasgille.medialibs.core.media",
-        "fr.nicolasgille.medialibs.core.user"
-})
+@EnableEntityClasses({ Loan.class, Media.class, User.class, OutboxEvent.class })
 @EnableJpaRepositories(basePackages = {
         "fr.nicolasgille.medialibs.core.loan",
         "fr.nicolasgille.medialibs.core.media",
-        "fr.nicolasgille.medialibs.core.user"
+        "fr.nicolasgille.medialibs.core.user",
+        "fr.nicolasgille.medialibs.services.loan"
 })
 @EnableTransactionManagement
+@EnableEntityCache(Loan.class)
+@EnableSharding(entity = Loan.class, key = "borrowerId")
 public class RepositoryConfiguration {
 }
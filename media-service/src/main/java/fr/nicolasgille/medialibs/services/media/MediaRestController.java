@@ -20,6 +20,12 @@ package fr.nicolasgille.medialibs.services.media;
 
 import fr.nicolasgille.medialibs.core.media.Media;
 import fr.nicolasgille.medialibs.core.media.MediaRepository;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchItem;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchOperations;
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import fr.nicolasgille.medialibs.services.commons.flight.SingleFlights;
+import fr.nicolasgille.medialibs.services.commons.json.EntityStream;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,9 +33,11 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -56,27 +64,55 @@ public class MediaRestController {
     @Autowired
     private MediaRepository mediaRepository;
 
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Lookups in flight, shared by the concurrent requests of the same identifier.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private SingleFlights singleFlights;
+
+    /**
+     * Outbox recording the changes in the transaction of the writes.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Outbox outbox;
+
+    /**
+     * Reads and deletes of several medias by chunks of identifiers.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private BatchOperations batchOperations;
+
 
     /**
      * Get all medias from system.
      *
      * @return
-     *  A ResponseEntity with content and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity streaming the content, and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.3
      */
     @GetMapping("/")
-    public ResponseEntity<?> getAll() {
-        logger.info("Get all medias on persistent system");
-        List<Media> medias = this.mediaRepository.findAll();
-
-        if (medias == null || medias.isEmpty()) {
-            logger.info("List of media is empty");
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        logger.info("Return the list of all medias found.");
-        return new ResponseEntity<List>(medias, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> getAll() {
+        return this.bulkheads.get("list").stream(() -> {
+            logger.info("Stream all medias from persistent system");
+            // The rows are read while the response is written, on the thread of the bulkhead kept until then,
+            // an empty list answers 204.
+            return new ResponseEntity<EntityStream<Media>>(EntityStream.of(Media.class), HttpStatus.OK);
+        });
     }
 
     /**
@@ -85,19 +121,45 @@ public class MediaRestController {
      * @param id
      *  Identifier of requested media.
      * @return
-     *  A ResponseEntity with media and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with media and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getMedia(@PathVariable("id") long id) {
-        Media media = this.mediaRepository.findOne(id);
+    public DeferredResult<ResponseEntity<?>> getMedia(@PathVariable("id") long id) {
+        return this.bulkheads.get("lookup").call(() -> {
+            // Concurrent requests of the same media share one query.
+            Media media = this.singleFlights.get("media").call(id, () -> this.mediaRepository.findOne(id));
 
-        if (media == null) {
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
+            if (media == null) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
 
-        return new ResponseEntity<Media>(media, HttpStatus.OK);
+            return new ResponseEntity<Media>(media, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get several medias in one request.
+     *
+     * @param ids
+     *  Identifiers of the medias, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and its media, or a 404 item
+     *  if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     */
+    @GetMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> getMedias(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many medias asked: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            Map<Long, BatchItem<Media>> medias = this.batchOperations.findAll(ids, this.mediaRepository::findAll, Media::getId);
+            return new ResponseEntity<Map<Long, BatchItem<Media>>>(medias, HttpStatus.OK);
+        });
     }
 
     /**
@@ -108,28 +170,30 @@ public class MediaRestController {
      * @param uriBuilder
      *  Uri to redirect user on media page after creation.
      * @return
-     *  A ResponseEntity with media and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with media and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PostMapping("/")
-    public ResponseEntity<?> add(@RequestBody Media media, UriComponentsBuilder uriBuilder) {
-        logger.info("Insert media {}", media);
-
-        if (this.mediaRepository.findByNameAndReleaseDate(media.getName(), media.getReleaseDate()) == null) {
-            logger.info("Media already found on system.");
-            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
-        }
-
-        this.mediaRepository.save(media);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/medias/{id}")
-                        .buildAndExpand(media.getId())
-                        .toUri());
-
-        return new ResponseEntity<String>(header, HttpStatus.CREATED);
+    public DeferredResult<ResponseEntity<?>> add(@RequestBody Media media, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Insert media {}", media);
+
+            if (this.mediaRepository.findByNameAndReleaseDate(media.getName(), media.getReleaseDate()) == null) {
+                logger.info("Media already found on system.");
+                return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+            }
+
+            this.outbox.save(this.mediaRepository, media);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/medias/{id}")
+                            .buildAndExpand(media.getId())
+                            .toUri());
+
+            return new ResponseEntity<String>(header, HttpStatus.CREATED);
+        });
     }
 
     /**
@@ -142,37 +206,39 @@ public class MediaRestController {
      * @param uriBuilder
      *  Uri to redirect user on media page update.
      * @return
-     *  A ResponseEntity with media and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with media and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PutMapping("/{id}")
-    public ResponseEntity<?> update(@PathVariable("id") long id,
-                                    @RequestBody Media updatedMedia,
-                                    UriComponentsBuilder uriBuilder) {
-        logger.info("Update media {}", updatedMedia);
-        Media mediaUpdated = this.mediaRepository.findOne(id);
-        if (mediaUpdated == null) {
-            logger.info("Media with id {} not found on system", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        mediaUpdated = new Media();
-        mediaUpdated.setId(id);
-        mediaUpdated.setName(updatedMedia.getName());
-        mediaUpdated.setDescription(updatedMedia.getDescription());
-        mediaUpdated.setReleaseDate(updatedMedia.getReleaseDate());
-        mediaUpdated.setSupports(updatedMedia.getSupports());
-        this.mediaRepository.save(mediaUpdated);
-
-        logger.info("Media {} insert on system", mediaUpdated);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/medias/{id}")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(header, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> update(@PathVariable("id") long id,
+                                                    @RequestBody Media updatedMedia,
+                                                    UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Update media {}", updatedMedia);
+            Media mediaUpdated = this.mediaRepository.findOne(id);
+            if (mediaUpdated == null) {
+                logger.info("Media with id {} not found on system", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            mediaUpdated = new Media();
+            mediaUpdated.setId(id);
+            mediaUpdated.setName(updatedMedia.getName());
+            mediaUpdated.setDescription(updatedMedia.getDescription());
+            mediaUpdated.setReleaseDate(updatedMedia.getReleaseDate());
+            mediaUpdated.setSupports(updatedMedia.getSupports());
+            this.outbox.save(this.mediaRepository, mediaUpdated);
+
+            logger.info("Media {} insert on system", mediaUpdated);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/medias/{id}")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(header, HttpStatus.OK);
+        });
     }
 
     /**
@@ -183,28 +249,55 @@ public class MediaRestController {
      * @param uriBuilder
      *  Uri to redirect user to the page who contains all medias.
      * @return
-     *  A ResponseEntity with media and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with media and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
-        logger.info("Delete media with id : {}", id);
-        Media mediaDeleted = this.mediaRepository.findOne(id);
-        if (mediaDeleted == null) {
-            logger.info("Media with id {} not found", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        this.mediaRepository.delete(id);
-
-        logger.info("Media {} is now deleted", mediaDeleted);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/medias/")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Delete media with id : {}", id);
+            Media mediaDeleted = this.mediaRepository.findOne(id);
+            if (mediaDeleted == null) {
+                logger.info("Media with id {} not found", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            this.outbox.delete(this.mediaRepository, Media.class, id);
+
+            logger.info("Media {} is now deleted", mediaDeleted);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/medias/")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Delete several medias in one request, with one statement by chunk of identifiers.
+     *
+     * @param ids
+     *  Identifiers of the medias to remove from system, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and a 200 item if its media
+     *  is deleted, or a 404 item if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     */
+    @DeleteMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> deleteMedias(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("write").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many medias to delete: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            logger.info("Delete medias with ids : {}", ids);
+            Map<Long, BatchItem<Object>> deleted = this.batchOperations.deleteAll(ids,
+                    chunk -> this.outbox.deleteAll(Media.class, chunk));
+            return new ResponseEntity<Map<Long, BatchItem<Object>>>(deleted, HttpStatus.OK);
+        });
     }
 }
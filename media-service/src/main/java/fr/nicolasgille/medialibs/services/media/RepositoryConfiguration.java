@@ -18,20 +18,25 @@
 
 package fr.nicolasgille.medialibs.services.media;
 
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.services.commons.cache.CachingJpaRepositoryFactoryBean;
+import fr.nicolasgille.medialibs.services.commons.cache.EnableEntityCache;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxEvent;
+import fr.nicolasgille.medialibs.services.commons.snapshot.EnableEntitySnapshot;
+import fr.nicolasgille.medialibs.services.commons.startup.EnableEntityClasses;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
-import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @Configuration
 @EnableAutoConfiguration
-@EntityScan(basePackages = {
-        "fr.nicolasgille.medialibs.core.media"
-})
+@EnableEntityClasses({ Media.class, OutboxEvent.class })
 @EnableJpaRepositories(basePackages = {
         "fr.nicolasgille.medialibs.core.media"
-})
+}, repositoryFactoryBeanClass = CachingJpaRepositoryFactoryBean.class)
 @EnableTransactionManagement
+@EnableEntityCache(Media.class)
+@EnableEntitySnapshot(Media.class)
 public class RepositoryConfiguration {
 }
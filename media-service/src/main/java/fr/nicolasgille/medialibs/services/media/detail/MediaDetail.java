@@ -0,0 +1,82 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+
+import java.util.List;
+
+/**
+ * Everything a detail page shows about one media: the media, its stock and its loans still running.
+ *
+ * The stock and the loans come from other services. A part which could not be read in time is null
+ * and named in {@link #getUnavailable()}, so a partial detail is not mistaken for a media without stock.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaDetail {
+
+    private final Media media;
+    private final Stock stock;
+    private final List<Loan> loans;
+    private final List<String> unavailable;
+
+    public MediaDetail(Media media, Stock stock, List<Loan> loans, List<String> unavailable) {
+        this.media = media;
+        this.stock = stock;
+        this.loans = loans;
+        this.unavailable = unavailable;
+    }
+
+    public Media getMedia() {
+        return media;
+    }
+
+    public Stock getStock() {
+        return stock;
+    }
+
+    public List<Loan> getLoans() {
+        return loans;
+    }
+
+    /**
+     * Get the parts left out.
+     *
+     * @return
+     *  <code>stock</code> and/or <code>loans</code>, empty when the detail is complete.
+     * @since 1.0
+     */
+    public List<String> getUnavailable() {
+        return unavailable;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaDetail{" +
+                "media=" + media +
+                ", stock=" + stock +
+                ", loans=" + loans +
+                ", unavailable=" + unavailable +
+                '}';
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.services.commons.json.BinaryEntityHttpMessageConverter;
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+import fr.nicolasgille.medialibs.services.commons.metrics.LatencyTimer;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Client of the batch lookups of the stock and loan services.
+ *
+ * Each call runs on a bounded pool and answers a future, so the calls of one request run in parallel.
+ * One call asks for at most <code>chunk-size</code> medias, so the url and the query of the other service
+ * stay bounded; the calls of the chunks run in parallel too.
+ * With {@link MediaDetailLookups} in the same process, the lookups are called directly instead of over http.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.3
+ */
+public class MediaDetailClient {
+
+    private static final ParameterizedTypeReference<List<Stock>> STOCKS = new ParameterizedTypeReference<List<Stock>>() {
+    };
+
+    private static final ParameterizedTypeReference<List<Loan>> LOANS = new ParameterizedTypeReference<List<Loan>>() {
+    };
+
+    private final RestTemplate restTemplate;
+    private final Executor executor;
+    private final String stockUrl;
+    private final String loanUrl;
+
+    /**
+     * Medias asked in one call.
+     *
+     * @since 1.3
+     */
+    private final int chunkSize;
+
+    /**
+     * Lookups of the same process, or null to call the services over http.
+     *
+     * @since 1.1
+     */
+    private final MediaDetailLookups lookups;
+
+    private final LatencyTimer stockTimer;
+    private final LatencyTimer loanTimer;
+
+    /**
+     * Create the client.
+     *
+     * @param properties
+     *  Urls of the services, timeout and encoding of the calls.
+     * @param executor
+     *  Pool running the calls.
+     * @param registry
+     *  Registry of the metrics, or null.
+     * @since 1.0
+     */
+    public MediaDetailClient(MediaDetailProperties properties, Executor executor, MetricsRegistry registry) {
+        this(properties, executor, registry, null);
+    }
+
+    /**
+     * Create the client.
+     *
+     * @param properties
+     *  Urls of the services, timeout and encoding of the calls.
+     * @param executor
+     *  Pool running the calls.
+     * @param registry
+     *  Registry of the metrics, or null.
+     * @param lookups
+     *  Lookups of the same process, or null to call the services over http.
+     * @since 1.1
+     */
+    public MediaDetailClient(MediaDetailProperties properties, Executor executor, MetricsRegistry registry,
+                             MediaDetailLookups lookups) {
+        this(properties, executor, registry, lookups, Collections.<ClientHttpRequestInterceptor>emptyList());
+    }
+
+    /**
+     * Create the client.
+     *
+     * @param properties
+     *  Urls of the services, timeout and encoding of the calls.
+     * @param executor
+     *  Pool running the calls.
+     * @param registry
+     *  Registry of the metrics, or null.
+     * @param lookups
+     *  Lookups of the same process, or null to call the services over http.
+     * @param interceptors
+     *  Interceptors of the http calls, such as the tracing.
+     * @since 1.2
+     */
+    public MediaDetailClient(MediaDetailProperties properties, Executor executor, MetricsRegistry registry,
+                             MediaDetailLookups lookups, List<ClientHttpRequestInterceptor> interceptors) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout((int) properties.getTimeout());
+        requestFactory.setReadTimeout((int) properties.getTimeout());
+        EntityFormat format = properties.getFormat();
+        HttpMessageConverter<?> converter = format == EntityFormat.JSON
+                ? new MappingJackson2HttpMessageConverter(format.createMapper())
+                : new BinaryEntityHttpMessageConverter(format, format.createMapper());
+        this.restTemplate = new RestTemplate(Collections.<HttpMessageConverter<?>>singletonList(converter));
+        this.restTemplate.setRequestFactory(requestFactory);
+        this.restTemplate.setInterceptors(interceptors);
+        this.executor = executor;
+        this.stockUrl = properties.getStockUrl();
+        this.loanUrl = properties.getLoanUrl();
+        this.chunkSize = Math.max(properties.getChunkSize(), 1);
+        this.lookups = lookups;
+        String location = lookups == null ? "remote" : "in-process";
+        this.stockTimer = timer(registry, "stock", location);
+        this.loanTimer = timer(registry, "loan", location);
+    }
+
+    /**
+     * Find the stocks of several medias.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @return
+     *  The stocks found, or a failure if the service cannot be called.
+     * @since 1.0
+     * @version 1.2
+     */
+    public CompletableFuture<List<Stock>> findStocks(Collection<Long> mediaIds) {
+        return chunked(mediaIds, chunk -> this.lookups != null
+                ? supply(() -> this.lookups.findStocks(chunk), this.stockTimer)
+                : call(this.stockUrl, chunk, STOCKS, this.stockTimer));
+    }
+
+    /**
+     * Find the loans still running of several medias.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @return
+     *  The loans found, or a failure if the service cannot be called.
+     * @since 1.0
+     * @version 1.2
+     */
+    public CompletableFuture<List<Loan>> findActiveLoans(Collection<Long> mediaIds) {
+        return chunked(mediaIds, chunk -> this.lookups != null
+                ? supply(() -> this.lookups.findActiveLoans(chunk), this.loanTimer)
+                : call(this.loanUrl, chunk, LOANS, this.loanTimer));
+    }
+
+    /**
+     * Run a lookup per chunk of medias and join their results.
+     *
+     * @return
+     *  The results of all chunks, or the failure of the first chunk failing.
+     * @since 1.3
+     */
+    private <T> CompletableFuture<List<T>> chunked(Collection<Long> mediaIds,
+                                                   Function<List<Long>, CompletableFuture<List<T>>> lookup) {
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(mediaIds));
+        List<CompletableFuture<List<T>>> calls = new ArrayList<>();
+        for (int start = 0; start < distinct.size(); start += this.chunkSize) {
+            calls.add(lookup.apply(distinct.subList(start, Math.min(start + this.chunkSize, distinct.size()))));
+        }
+        if (calls.size() == 1) {
+            return calls.get(0);
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()])).thenApply(done -> {
+            List<T> all = new ArrayList<>();
+            for (CompletableFuture<List<T>> call : calls) {
+                all.addAll(call.join());
+            }
+            return all;
+        });
+    }
+
+    private <T> CompletableFuture<List<T>> call(String baseUrl, Collection<Long> mediaIds,
+                                                ParameterizedTypeReference<List<T>> type, LatencyTimer timer) {
+        if (!StringUtils.hasText(baseUrl)) {
+            return failed(new IllegalStateException("No url configured for " + type.getType()));
+        }
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .path("/")
+                .queryParam("mediaIds", StringUtils.collectionToCommaDelimitedString(mediaIds))
+                .build()
+                .toUri();
+        return supply(() -> {
+            // A 204 has no body: nothing found.
+            List<T> body = this.restTemplate.exchange(uri, HttpMethod.GET, null, type).getBody();
+            return body == null ? Collections.<T>emptyList() : body;
+        }, timer);
+    }
+
+    /**
+     * Run a lookup on the pool, timed.
+     *
+     * @since 1.1
+     */
+    private <T> CompletableFuture<List<T>> supply(Supplier<List<T>> lookup, LatencyTimer timer) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long start = System.nanoTime();
+                try {
+                    return lookup.get();
+                } finally {
+                    timer.record(System.nanoTime() - start);
+                }
+            }, this.executor);
+        } catch (RejectedExecutionException e) {
+            return failed(e);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    private static LatencyTimer timer(MetricsRegistry registry, String service, String location) {
+        if (registry == null) {
+            return new LatencyTimer();
+        }
+        return registry.timer("medialibs_remote_calls", "Latency of the calls to the other services.",
+                MetricsRegistry.labels("service", service, "location", location));
+    }
+}
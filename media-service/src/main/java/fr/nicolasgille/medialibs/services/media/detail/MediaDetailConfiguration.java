@@ -0,0 +1,111 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.core.media.MediaRepository;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.StringUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Details of the medias, read from this service and from the stock and loan services.
+ *
+ * The stock and loan services are called over http, or through the {@link MediaDetailLookups}
+ * bean when they run in the same process.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+@Configuration
+@EnableConfigurationProperties(MediaDetailProperties.class)
+public class MediaDetailConfiguration {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MediaDetailConfiguration.class);
+
+    /**
+     * Threads running the calls to the other services, with a bounded queue, in the context of their request.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mediaDetailExecutor(MediaDetailProperties properties,
+                                                      ObjectProvider<List<TaskDecorator>> decorators) {
+        List<TaskDecorator> beans = decorators.getIfAvailable();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        if (beans != null) {
+            executor.setTaskDecorator(task -> {
+                Runnable decorated = task;
+                for (TaskDecorator decorator : beans) {
+                    decorated = decorator.decorate(decorated);
+                }
+                return decorated;
+            });
+        }
+        executor.setCorePoolSize(properties.getThreads());
+        executor.setMaxPoolSize(properties.getThreads());
+        executor.setQueueCapacity(properties.getQueue());
+        executor.setThreadNamePrefix("media-detail-");
+        executor.setDaemon(true);
+        return executor;
+    }
+
+    /**
+     * Client of the stock and loan services, in-process when a {@link MediaDetailLookups} bean exists.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    @Bean
+    public MediaDetailClient mediaDetailClient(MediaDetailProperties properties, ThreadPoolTaskExecutor mediaDetailExecutor,
+                                               ObjectProvider<MetricsRegistry> registry,
+                                               ObjectProvider<MediaDetailLookups> lookups,
+                                               ObjectProvider<List<ClientHttpRequestInterceptor>> interceptors) {
+        MediaDetailLookups inProcess = lookups.getIfAvailable();
+        if (inProcess == null
+                && (!StringUtils.hasText(properties.getStockUrl()) || !StringUtils.hasText(properties.getLoanUrl()))) {
+            logger.warn("medialibs.media.detail.stock-url or loan-url not set, the media details will be partial");
+        }
+        List<ClientHttpRequestInterceptor> beans = interceptors.getIfAvailable();
+        return new MediaDetailClient(properties, mediaDetailExecutor, registry.getIfAvailable(), inProcess,
+                beans == null ? Collections.<ClientHttpRequestInterceptor>emptyList() : beans);
+    }
+
+    @Bean
+    public MediaDetails mediaDetails(MediaRepository mediaRepository, MediaDetailClient mediaDetailClient,
+                                     MediaDetailProperties properties, ObjectProvider<MetricsRegistry> registry) {
+        return new MediaDetails(mediaRepository, mediaDetailClient, properties.getTimeout(), registry.getIfAvailable());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Batch lookups of the stocks and loans answered in the same process, without any http call.
+ *
+ * When a bean of this type exists (all the services hosted in one JVM), the {@link MediaDetailClient}
+ * calls it instead of the stock and loan services.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public interface MediaDetailLookups {
+
+    /**
+     * Find the stocks of several medias.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @return
+     *  The stocks found.
+     * @since 1.0
+     */
+    List<Stock> findStocks(Collection<Long> mediaIds);
+
+    /**
+     * Find the loans still running of several medias.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @return
+     *  The loans found.
+     * @since 1.0
+     */
+    List<Loan> findActiveLoans(Collection<Long> mediaIds);
+}
@@ -0,0 +1,155 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the media details, under the prefix <code>medialibs.media.detail</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.media.detail")
+public class MediaDetailProperties {
+
+    /**
+     * Base url of the stock service, for example <code>http://localhost:8082</code>.
+     * Without it, the details never contain a stock.
+     *
+     * @since 1.0
+     */
+    private String stockUrl;
+
+    /**
+     * Base url of the loan service. Without it, the details never contain the loans.
+     *
+     * @since 1.0
+     */
+    private String loanUrl;
+
+    /**
+     * Time given to each remote call, in milliseconds, connection included.
+     * A part not received in time is left out of the details.
+     *
+     * @since 1.0
+     */
+    private long timeout = 500;
+
+    /**
+     * Threads running the remote calls of all requests.
+     *
+     * @since 1.0
+     */
+    private int threads = 16;
+
+    /**
+     * Remote calls waiting for a thread. Beyond, the part is left out of the details.
+     *
+     * @since 1.0
+     */
+    private int queue = 200;
+
+    /**
+     * Maximum number of medias asked in one request.
+     *
+     * @since 1.0
+     */
+    private int maxIds = 100;
+
+    /**
+     * Medias asked in one call to the other services; more medias are asked in several calls, in parallel.
+     * Keep it under the <code>medialibs.batch.max-ids</code> of the services.
+     *
+     * @since 1.1
+     */
+    private int chunkSize = 50;
+
+    /**
+     * Encoding asked to the other services.
+     *
+     * @since 1.0
+     */
+    private EntityFormat format = EntityFormat.SMILE;
+
+    public String getStockUrl() {
+        return stockUrl;
+    }
+
+    public void setStockUrl(String stockUrl) {
+        this.stockUrl = stockUrl;
+    }
+
+    public String getLoanUrl() {
+        return loanUrl;
+    }
+
+    public void setLoanUrl(String loanUrl) {
+        this.loanUrl = loanUrl;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueue() {
+        return queue;
+    }
+
+    public void setQueue(int queue) {
+        this.queue = queue;
+    }
+
+    public int getMaxIds() {
+        return maxIds;
+    }
+
+    public void setMaxIds(int maxIds) {
+        this.maxIds = maxIds;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public EntityFormat getFormat() {
+        return format;
+    }
+
+    public void setFormat(EntityFormat format) {
+        this.format = format;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Details of the medias for the detail and list pages: the media, its stock and its active loans
+ * in one request, instead of one request to each service per media.
+ *
+ * The handlers wait for the other services, so they run on their own bulkhead <code>detail</code>
+ * and a slow service cannot hold the threads of the plain lookups.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+@RequestMapping("/details")
+public class MediaDetailRestController {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MediaDetailRestController.class);
+
+    @Autowired
+    private MediaDetails mediaDetails;
+
+    @Autowired
+    private MediaDetailProperties properties;
+
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.0
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Get the details of one media.
+     *
+     * @param id
+     *  Identifier of requested media.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with the details, or 204 if the media does not exist.
+     * @since 1.0
+     */
+    @GetMapping("/{id}")
+    public DeferredResult<ResponseEntity<?>> getDetail(@PathVariable("id") long id) {
+        return this.bulkheads.get("detail").call(() -> {
+            List<MediaDetail> details = this.mediaDetails.find(Collections.singletonList(id));
+
+            if (details.isEmpty()) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<MediaDetail>(details.get(0), HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get the details of several medias, for a list page.
+     *
+     * @param ids
+     *  Identifiers of the medias, at most <code>medialibs.media.detail.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with the details of the medias found in the order asked,
+     *  204 if none exists, or 400 if too many are asked.
+     * @since 1.0
+     */
+    @GetMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> getDetails(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("detail").call(() -> {
+            if (ids.size() > this.properties.getMaxIds()) {
+                logger.info("Too many media details asked: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            List<MediaDetail> details = this.mediaDetails.find(ids);
+
+            if (details.isEmpty()) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<List<MediaDetail>>(details, HttpStatus.OK);
+        });
+    }
+}
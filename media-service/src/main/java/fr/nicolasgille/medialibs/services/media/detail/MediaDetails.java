@@ -0,0 +1,177 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.detail;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaRepository;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Build the details of several medias with one call to each service.
+ *
+ * The stocks and the loans are asked for before the medias are read, so the three lookups overlap
+ * and a request costs the slowest of them, not their sum. A remote part not received before the
+ * timeout is left out of the details instead of failing them.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaDetails {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MediaDetails.class);
+
+    private final MediaRepository mediaRepository;
+    private final MediaDetailClient client;
+    private final long timeout;
+    private final LongAdder stockUnavailable;
+    private final LongAdder loansUnavailable;
+
+    /**
+     * Create the details.
+     *
+     * @param mediaRepository
+     *  Repository of the medias.
+     * @param client
+     *  Client of the stock and loan services.
+     * @param timeout
+     *  Time given to the remote parts, in milliseconds.
+     * @param registry
+     *  Registry of the metrics, or null.
+     * @since 1.0
+     */
+    public MediaDetails(MediaRepository mediaRepository, MediaDetailClient client, long timeout, MetricsRegistry registry) {
+        this.mediaRepository = mediaRepository;
+        this.client = client;
+        this.timeout = timeout;
+        this.stockUnavailable = counter(registry, "stock");
+        this.loansUnavailable = counter(registry, "loans");
+    }
+
+    /**
+     * Find the details of several medias.
+     *
+     * @param ids
+     *  Identifiers of the medias, duplicates ignored.
+     * @return
+     *  The details of the medias found, in the order of the identifiers.
+     * @since 1.0
+     */
+    public List<MediaDetail> find(Collection<Long> ids) {
+        Set<Long> mediaIds = new LinkedHashSet<>(ids);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        CompletableFuture<List<Stock>> stocks = this.client.findStocks(mediaIds);
+        CompletableFuture<List<Loan>> loans = this.client.findActiveLoans(mediaIds);
+
+        Map<Long, Media> medias = new HashMap<>();
+        for (Media media : this.mediaRepository.findAll(mediaIds)) {
+            medias.put(media.getId(), media);
+        }
+        if (medias.isEmpty()) {
+            stocks.cancel(false);
+            loans.cancel(false);
+            return Collections.emptyList();
+        }
+
+        List<Stock> foundStocks = await(stocks, deadline, "stock", this.stockUnavailable);
+        List<Loan> foundLoans = await(loans, deadline, "loans", this.loansUnavailable);
+        Map<Long, Stock> stockByMedia = new HashMap<>();
+        if (foundStocks != null) {
+            for (Stock stock : foundStocks) {
+                stockByMedia.put(stock.getMediaId(), stock);
+            }
+        }
+        Map<Long, List<Loan>> loansByMedia = new HashMap<>();
+        if (foundLoans != null) {
+            for (Loan loan : foundLoans) {
+                loansByMedia.computeIfAbsent(loan.getMediaId(), id -> new ArrayList<>()).add(loan);
+            }
+        }
+
+        List<String> unavailable = new ArrayList<>(2);
+        if (foundStocks == null) {
+            unavailable.add("stock");
+        }
+        if (foundLoans == null) {
+            unavailable.add("loans");
+        }
+        List<String> parts = Collections.unmodifiableList(unavailable);
+        List<MediaDetail> details = new ArrayList<>(medias.size());
+        for (Long id : mediaIds) {
+            Media media = medias.get(id);
+            if (media != null) {
+                details.add(new MediaDetail(media, stockByMedia.get(id),
+                        foundLoans == null ? null : loansByMedia.getOrDefault(id, Collections.emptyList()), parts));
+            }
+        }
+        return details;
+    }
+
+    /**
+     * Wait for a remote part until the deadline.
+     *
+     * @return
+     *  The part, or null if it failed or is late. A late call is abandoned, its read timeout ends it.
+     * @since 1.0
+     */
+    private static <T> List<T> await(CompletableFuture<List<T>> part, long deadline, String name, LongAdder unavailable) {
+        try {
+            return part.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            part.cancel(false);
+            logger.warn("Media details without {}: no answer in time", name);
+        } catch (ExecutionException e) {
+            logger.warn("Media details without {}: {}", name, e.getCause().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        unavailable.increment();
+        return null;
+    }
+
+    private static LongAdder counter(MetricsRegistry registry, String part) {
+        if (registry == null) {
+            return new LongAdder();
+        }
+        return registry.counter("medialibs_media_detail_partial", "Media details answered without one of their parts.",
+                MetricsRegistry.labels("part", part));
+    }
+}
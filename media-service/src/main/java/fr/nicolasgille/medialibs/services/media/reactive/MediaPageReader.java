@@ -0,0 +1,115 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Read the medias page by page with plain JDBC, outside of the persistence context.
+ *
+ * Pages are read by key (<code>id &gt; last id</code>), so each page costs the same whatever its position,
+ * and the supports of a whole page are read with one more query.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaPageReader {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public MediaPageReader(DataSource dataSource) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    /**
+     * Read one page of medias.
+     *
+     * @param query
+     *  Criteria of the medias.
+     * @param afterId
+     *  Identifier of the last media of the previous page, 0 for the first page.
+     * @param size
+     *  Maximum number of medias.
+     * @return
+     *  The medias, by ascending identifier, with their supports.
+     * @since 1.0
+     */
+    public List<Media> page(MediaQuery query, long afterId, int size) {
+        StringBuilder sql = new StringBuilder(
+                "select m.id, m.name, m.description, m.release_date from media m where m.id > :afterId");
+        MapSqlParameterSource parameters = new MapSqlParameterSource("afterId", afterId);
+        if (query.getId() != null) {
+            sql.append(" and m.id = :id");
+            parameters.addValue("id", query.getId());
+        }
+        if (query.getName() != null) {
+            sql.append(" and lower(m.name) like :name escape '!'");
+            parameters.addValue("name", "%" + escape(query.getName().toLowerCase(Locale.ROOT)) + "%");
+        }
+        if (query.getSupport() != null) {
+            sql.append(" and exists (select 1 from media_supports s where s.media_id = m.id and s.supports = :support)");
+            parameters.addValue("support", query.getSupport().name());
+        }
+        sql.append(" order by m.id limit :size");
+        parameters.addValue("size", size);
+
+        Map<Long, Media> medias = new LinkedHashMap<>();
+        this.jdbcTemplate.query(sql.toString(), parameters, resultSet -> {
+            Media media = new Media();
+            media.setId(resultSet.getLong("id"));
+            media.setName(resultSet.getString("name"));
+            media.setDescription(resultSet.getString("description"));
+            Date releaseDate = resultSet.getDate("release_date");
+            if (releaseDate != null) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTime(releaseDate);
+                media.setReleaseDate(calendar);
+            }
+            media.setSupports(new ArrayList<>());
+            medias.put(media.getId(), media);
+        });
+        if (medias.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        this.jdbcTemplate.query("select s.media_id, s.supports from media_supports s where s.media_id in (:ids)",
+                new MapSqlParameterSource("ids", medias.keySet()),
+                resultSet -> {
+                    medias.get(resultSet.getLong("media_id")).getSupports()
+                            .add(MediaSupport.valueOf(resultSet.getString("supports")));
+                });
+        return new ArrayList<>(medias.values());
+    }
+
+    private static String escape(String like) {
+        return like.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+    }
+}
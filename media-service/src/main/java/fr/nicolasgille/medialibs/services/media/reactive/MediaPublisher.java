@@ -0,0 +1,220 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import fr.nicolasgille.medialibs.core.media.Media;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream of medias read page by page, only as fast as its subscriber asks for them.
+ *
+ * A page is read when the subscriber has consumed the previous one and still has demand,
+ * so a slow client holds neither a thread nor a connection while it reads.
+ * The publisher is cold and accepts one subscriber.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaPublisher implements Publisher<Media> {
+
+    private final MediaPageReader reader;
+    private final MediaQuery query;
+    private final int pageSize;
+    private final Executor executor;
+
+    /**
+     * Decorator copying the context of the subscribing request (routing, profiling) to the query threads.
+     *
+     * @since 1.0
+     */
+    private final TaskDecorator decorator;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Create a stream.
+     *
+     * @param reader
+     *  Reader of the pages.
+     * @param query
+     *  Criteria of the medias.
+     * @param pageSize
+     *  Number of medias read by each query.
+     * @param executor
+     *  Threads running the queries.
+     * @param decorator
+     *  Decorator of the queries, applied on the subscribing thread.
+     * @since 1.0
+     */
+    public MediaPublisher(MediaPageReader reader, MediaQuery query, int pageSize, Executor executor, TaskDecorator decorator) {
+        this.reader = reader;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.executor = executor;
+        this.decorator = decorator;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Media> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The stream of " + this.query + " accepts only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new MediaSubscription(subscriber));
+    }
+
+    /**
+     * Demand of the subscriber, served by a drain loop which never runs on two threads at the same time.
+     *
+     * @since 1.0
+     */
+    private class MediaSubscription implements Subscription {
+
+        private final Subscriber<? super Media> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * Number of drains requested while one is running, so no request is lost.
+         *
+         * @since 1.0
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Drain loop, decorated once with the context of the subscribing thread.
+         *
+         * @since 1.0
+         */
+        private final Runnable drain;
+
+        private volatile boolean cancelled;
+
+        /**
+         * State only touched by the drain loop.
+         *
+         * @since 1.0
+         */
+        private final Deque<Media> buffer = new ArrayDeque<>();
+        private long lastId;
+        private boolean exhausted;
+        private boolean done;
+
+        MediaSubscription(Subscriber<? super Media> subscriber) {
+            this.subscriber = subscriber;
+            this.drain = decorator.decorate(this::drain);
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                this.cancelled = true;
+                this.subscriber.onError(new IllegalArgumentException("Demand must be positive, got " + n));
+                return;
+            }
+            this.demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        private void schedule() {
+            if (this.pending.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this.drain);
+            } catch (RejectedExecutionException e) {
+                this.cancelled = true;
+                this.subscriber.onError(e);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                emit();
+                missed = this.pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (this.done) {
+                return;
+            }
+            while (!this.cancelled && this.demand.get() > 0) {
+                if (this.buffer.isEmpty()) {
+                    if (this.exhausted) {
+                        break;
+                    }
+                    List<Media> page;
+                    try {
+                        page = reader.page(query, this.lastId, pageSize);
+                    } catch (RuntimeException e) {
+                        this.done = true;
+                        this.subscriber.onError(e);
+                        return;
+                    }
+                    this.exhausted = page.size() < pageSize;
+                    if (!page.isEmpty()) {
+                        this.lastId = page.get(page.size() - 1).getId();
+                    }
+                    this.buffer.addAll(page);
+                    continue;
+                }
+                this.demand.decrementAndGet();
+                this.subscriber.onNext(this.buffer.poll());
+            }
+
+            if (this.cancelled) {
+                this.done = true;
+                this.buffer.clear();
+            } else if (this.exhausted && this.buffer.isEmpty()) {
+                this.done = true;
+                this.subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+
+/**
+ * Criteria of a media stream. Null criteria are ignored.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaQuery {
+
+    private final Long id;
+
+    /**
+     * Part of the name, case insensitive.
+     *
+     * @since 1.0
+     */
+    private final String name;
+    private final MediaSupport support;
+
+    private MediaQuery(Long id, String name, MediaSupport support) {
+        this.id = id;
+        this.name = name;
+        this.support = support;
+    }
+
+    public static MediaQuery all() {
+        return new MediaQuery(null, null, null);
+    }
+
+    public static MediaQuery byId(long id) {
+        return new MediaQuery(id, null, null);
+    }
+
+    public static MediaQuery search(String name, MediaSupport support) {
+        return new MediaQuery(null, name == null || name.isEmpty() ? null : name, support);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MediaSupport getSupport() {
+        return support;
+    }
+
+    @Override
+    public String toString() {
+        return "MediaQuery{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", support=" + support +
+                '}';
+    }
+}
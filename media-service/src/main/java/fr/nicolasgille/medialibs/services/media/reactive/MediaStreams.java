@@ -0,0 +1,60 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Factory of the media streams.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaStreams {
+
+    private final MediaPageReader reader;
+    private final ThreadPoolTaskExecutor executor;
+    private final int pageSize;
+    private final TaskDecorator decorator;
+
+    MediaStreams(MediaPageReader reader, ThreadPoolTaskExecutor executor, int pageSize, TaskDecorator decorator) {
+        this.reader = reader;
+        this.executor = executor;
+        this.pageSize = pageSize;
+        this.decorator = decorator;
+    }
+
+    /**
+     * Create a stream, to subscribe on the request thread.
+     *
+     * @param query
+     *  Criteria of the medias.
+     * @return
+     *  A cold stream of the medias.
+     * @since 1.0
+     */
+    public MediaPublisher find(MediaQuery query) {
+        return new MediaPublisher(this.reader, query, this.pageSize, this.executor, this.decorator);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+}
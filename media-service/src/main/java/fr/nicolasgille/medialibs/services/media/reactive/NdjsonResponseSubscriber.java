@@ -0,0 +1,271 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Write a stream as NDJSON (one json document per line) with the non-blocking output of Servlet 3.1.
+ *
+ * A new batch is requested only when the previous one is written and the socket accepts more data,
+ * so the client sets the pace of the whole pipeline down to the database. An empty stream answers 204.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class NdjsonResponseSubscriber implements Subscriber<Object>, WriteListener, AsyncListener {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(NdjsonResponseSubscriber.class);
+
+    /**
+     * Media type of the stream.
+     *
+     * @since 1.0
+     */
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private final AsyncContext asyncContext;
+    private final HttpServletResponse response;
+    private final ObjectWriter writer;
+    private final int batch;
+
+    /**
+     * Lines received and not written yet.
+     *
+     * @since 1.0
+     */
+    private final Queue<byte[]> lines = new ConcurrentLinkedQueue<>();
+
+    /**
+     * State guarded by the instance lock, since the container and the publisher both drain.
+     *
+     * @since 1.0
+     */
+    private Subscription subscription;
+    private ServletOutputStream output;
+    private byte[] current;
+    private long outstanding;
+    private boolean written;
+    private boolean unflushed;
+    private boolean completed;
+    private boolean finished;
+
+    /**
+     * Create the subscriber of an asynchronous request.
+     *
+     * @param asyncContext
+     *  Context of the started asynchronous request.
+     * @param writer
+     *  Writer of each item.
+     * @param batch
+     *  Number of items requested at once.
+     * @since 1.0
+     */
+    public NdjsonResponseSubscriber(AsyncContext asyncContext, ObjectWriter writer, int batch) {
+        this.asyncContext = asyncContext;
+        this.response = (HttpServletResponse) asyncContext.getResponse();
+        this.writer = writer;
+        this.batch = batch;
+    }
+
+    @Override
+    public synchronized void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        this.response.setContentType(CONTENT_TYPE);
+        this.asyncContext.addListener(this);
+        try {
+            this.output = this.response.getOutputStream();
+            // The container calls onWritePossible as soon as the output is ready, which requests the first batch.
+            this.output.setWriteListener(this);
+        } catch (IOException e) {
+            subscription.cancel();
+            finish();
+        }
+    }
+
+    @Override
+    public void onNext(Object item) {
+        try {
+            byte[] json = this.writer.writeValueAsBytes(item);
+            byte[] line = Arrays.copyOf(json, json.length + 1);
+            line[json.length] = '\n';
+            this.lines.add(line);
+        } catch (IOException e) {
+            synchronized (this) {
+                this.subscription.cancel();
+            }
+            onError(e);
+            return;
+        }
+        synchronized (this) {
+            this.outstanding--;
+        }
+        drain();
+    }
+
+    @Override
+    public synchronized void onError(Throwable error) {
+        if (this.finished) {
+            return;
+        }
+        if (!this.written && !this.response.isCommitted()) {
+            this.response.reset();
+            if (error instanceof RejectedExecutionException) {
+                this.response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                this.response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            } else {
+                this.response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            }
+        }
+        logger.warn("Stream failed after {} written", this.written ? "some lines" : "no line", error);
+        finish();
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (this) {
+            this.completed = true;
+        }
+        drain();
+    }
+
+    @Override
+    public void onWritePossible() {
+        drain();
+    }
+
+    /**
+     * The client went away or the socket failed: stop reading the database.
+     *
+     * @since 1.0
+     */
+    @Override
+    public synchronized void onError(AsyncEvent event) {
+        cancel();
+    }
+
+    @Override
+    public synchronized void onTimeout(AsyncEvent event) {
+        logger.warn("Stream not finished in time, cancelled");
+        cancel();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    /**
+     * Write the pending lines while the socket accepts them, then ask for more.
+     *
+     * @since 1.0
+     */
+    private synchronized void drain() {
+        if (this.finished || this.output == null) {
+            return;
+        }
+        try {
+            while (true) {
+                if (this.current == null) {
+                    this.current = this.lines.poll();
+                }
+                if (this.current == null) {
+                    break;
+                }
+                if (!this.output.isReady()) {
+                    // onWritePossible resumes the drain once the socket is writable again.
+                    return;
+                }
+                this.output.write(this.current);
+                this.current = null;
+                this.written = true;
+                this.unflushed = true;
+            }
+
+            if (this.completed) {
+                if (!this.written) {
+                    this.response.setStatus(HttpStatus.NO_CONTENT.value());
+                }
+                finish();
+                return;
+            }
+            if (this.outstanding > 0 || !this.output.isReady()) {
+                return;
+            }
+            if (this.unflushed) {
+                // Send the batch now for a short time to first byte, instead of waiting for a full buffer.
+                this.unflushed = false;
+                this.output.flush();
+                if (!this.output.isReady()) {
+                    return;
+                }
+            }
+            this.outstanding = this.batch;
+            this.subscription.request(this.batch);
+        } catch (IOException e) {
+            cancel();
+        }
+    }
+
+    private void cancel() {
+        if (this.subscription != null) {
+            this.subscription.cancel();
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (this.finished) {
+            return;
+        }
+        this.finished = true;
+        this.lines.clear();
+        try {
+            this.asyncContext.complete();
+        } catch (IllegalStateException e) {
+            logger.debug("Stream already completed", e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Reactive read path of the medias, side by side with the blocking controller.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(ReactiveMediaProperties.class)
+public class ReactiveMediaConfiguration {
+
+    @Bean
+    public MediaPageReader mediaPageReader(DataSource dataSource) {
+        return new MediaPageReader(dataSource);
+    }
+
+    /**
+     * Threads reading the pages of all streams, with a bounded queue.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public ThreadPoolTaskExecutor mediaStreamExecutor(ReactiveMediaProperties properties) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(properties.getThreads());
+        executor.setMaxPoolSize(properties.getThreads());
+        executor.setQueueCapacity(properties.getQueue());
+        executor.setThreadNamePrefix("media-stream-");
+        executor.setDaemon(true);
+        return executor;
+    }
+
+    @Bean
+    public MediaStreams mediaStreams(MediaPageReader mediaPageReader, ThreadPoolTaskExecutor mediaStreamExecutor,
+                                     ReactiveMediaProperties properties,
+                                     ObjectProvider<List<TaskDecorator>> decorators) {
+        List<TaskDecorator> beans = decorators.getIfAvailable();
+        return new MediaStreams(mediaPageReader, mediaStreamExecutor, properties.getPageSize(), task -> {
+            Runnable decorated = task;
+            if (beans != null) {
+                for (TaskDecorator decorator : beans) {
+                    decorated = decorator.decorate(decorated);
+                }
+            }
+            return decorated;
+        });
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the reactive read path, under the prefix <code>medialibs.media.reactive</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.media.reactive")
+public class ReactiveMediaProperties {
+
+    /**
+     * Number of medias read by each query, and requested from the database each time the client has read them.
+     *
+     * @since 1.0
+     */
+    private int pageSize = 100;
+
+    /**
+     * Threads running the queries of all streams. A stream holds a thread (and a connection)
+     * only while one page is read, never while waiting for its client.
+     *
+     * @since 1.0
+     */
+    private int threads = 4;
+
+    /**
+     * Pages waiting for a thread. Beyond, new streams are answered 503.
+     *
+     * @since 1.0
+     */
+    private int queue = 200;
+
+    /**
+     * Maximum duration of a stream, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long timeout = 30000;
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueue() {
+        return queue;
+    }
+
+    public void setQueue(int queue) {
+        this.queue = queue;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.media.reactive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Reactive variant of the read endpoints of {@link fr.nicolasgille.medialibs.services.media.MediaRestController},
+ * streaming the medias as NDJSON with backpressure from the client down to the database.
+ *
+ * The request thread only subscribes and is released; pages are read on a small pool
+ * when the client has read the previous ones. The writes stay on the blocking controller.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+@RequestMapping("/reactive")
+public class ReactiveMediaRestController {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveMediaRestController.class);
+
+    @Autowired
+    private MediaStreams mediaStreams;
+
+    @Autowired
+    private ReactiveMediaProperties properties;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Writer of one media, built once.
+     *
+     * @since 1.0
+     */
+    private ObjectWriter writer;
+
+    @PostConstruct
+    public void init() {
+        this.writer = this.objectMapper.writerFor(Media.class);
+    }
+
+    /**
+     * Stream all medias.
+     *
+     * @param request
+     *  Request to answer asynchronously.
+     * @since 1.0
+     */
+    @GetMapping("/")
+    public void getAll(HttpServletRequest request) {
+        stream(request, MediaQuery.all());
+    }
+
+    /**
+     * Stream one media, or answer 204 if it does not exist.
+     *
+     * @param id
+     *  Identifier of requested media.
+     * @param request
+     *  Request to answer asynchronously.
+     * @since 1.0
+     */
+    @GetMapping("/{id}")
+    public void getMedia(@PathVariable("id") long id, HttpServletRequest request) {
+        stream(request, MediaQuery.byId(id));
+    }
+
+    /**
+     * Stream the medias matching a name and/or a support.
+     *
+     * @param name
+     *  Part of the name, case insensitive.
+     * @param support
+     *  Support of the medias, for example <code>DVD</code>.
+     * @param request
+     *  Request to answer asynchronously.
+     * @since 1.0
+     */
+    @GetMapping("/search")
+    public void search(@RequestParam(value = "name", required = false) String name,
+                       @RequestParam(value = "support", required = false) MediaSupport support,
+                       HttpServletRequest request) {
+        stream(request, MediaQuery.search(name, support));
+    }
+
+    private void stream(HttpServletRequest request, MediaQuery query) {
+        logger.debug("Stream medias {}", query);
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(this.properties.getTimeout());
+        this.mediaStreams.find(query)
+                .subscribe(new NdjsonResponseSubscriber(asyncContext, this.writer, this.mediaStreams.getPageSize()));
+    }
+}
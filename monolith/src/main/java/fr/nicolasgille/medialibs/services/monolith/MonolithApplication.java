@@ -0,0 +1,76 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.monolith;
+
+import fr.nicolasgille.medialibs.services.authenticate.AuthenticateApplication;
+import fr.nicolasgille.medialibs.services.loan.LoanApplication;
+import fr.nicolasgille.medialibs.services.media.MediaApplication;
+import fr.nicolasgille.medialibs.services.stock.StockApplication;
+import fr.nicolasgille.medialibs.services.user.UserApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+
+/**
+ * All the services in one JVM: the five controllers on one port, each under the path prefix
+ * of its service, sharing one DataSource, one entity cache and the common components.
+ *
+ * The applications and repository configurations of the services are left out of the scan,
+ * {@link MonolithRepositoryConfiguration} replaces them.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@ComponentScan(basePackages = {
+        "fr.nicolasgille.medialibs.services.authenticate",
+        "fr.nicolasgille.medialibs.services.loan",
+        "fr.nicolasgille.medialibs.services.media",
+        "fr.nicolasgille.medialibs.services.stock",
+        "fr.nicolasgille.medialibs.services.user",
+        "fr.nicolasgille.medialibs.services.monolith"
+}, excludeFilters = {
+        @ComponentScan.Filter(type = FilterType.ASSIGNABLE_TYPE, classes = {
+                AuthenticateApplication.class,
+                LoanApplication.class,
+                MediaApplication.class,
+                StockApplication.class,
+                UserApplication.class,
+                fr.nicolasgille.medialibs.services.authenticate.RepositoryConfiguration.class,
+                fr.nicolasgille.medialibs.services.loan.RepositoryConfiguration.class,
+                fr.nicolasgille.medialibs.services.media.RepositoryConfiguration.class,
+                fr.nicolasgille.medialibs.services.stock.RepositoryConfiguration.class,
+                fr.nicolasgille.medialibs.services.user.RepositoryConfiguration.class
+        })
+})
+public class MonolithApplication {
+
+    /**
+     * Main app.
+     *
+     * @param args
+     * @since 1.0
+     */
+    public static void main(String[] args) {
+        SpringApplication.run(MonolithApplication.class, args);
+    }
+}
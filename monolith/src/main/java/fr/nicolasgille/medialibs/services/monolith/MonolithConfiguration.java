@@ -0,0 +1,65 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.monolith;
+
+import fr.nicolasgille.medialibs.services.loan.LoanBatchRepository;
+import fr.nicolasgille.medialibs.services.media.detail.MediaDetailLookups;
+import fr.nicolasgille.medialibs.services.stock.StockBatchRepository;
+import org.springframework.boot.autoconfigure.web.WebMvcRegistrationsAdapter;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+/**
+ * Path prefixes of the services and in-process calls between them.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(MonolithProperties.class)
+public class MonolithConfiguration {
+
+    /**
+     * Handler mapping adding the prefix of its service to each controller.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public WebMvcRegistrationsAdapter prefixedMappings(MonolithProperties properties) {
+        return new WebMvcRegistrationsAdapter() {
+            @Override
+            public RequestMappingHandlerMapping getRequestMappingHandlerMapping() {
+                return new PrefixedRequestMappingHandlerMapping(properties.getPrefixes());
+            }
+        };
+    }
+
+    /**
+     * Stocks and loans of the media details read from the repositories instead of over http.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public MediaDetailLookups mediaDetailLookups(StockBatchRepository stockBatchRepository,
+                                                 LoanBatchRepository loanBatchRepository) {
+        return new InProcessMediaDetailLookups(stockBatchRepository, loanBatchRepository);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.monolith;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of the monolith, under the prefix <code>medialibs.monolith</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.monolith")
+public class MonolithProperties {
+
+    /**
+     * Path prefix of the controllers of each service, by package of the service
+     * (<code>fr.nicolasgille.medialibs.services.&lt;key&gt;</code>).
+     * The controllers of the other packages stay at the root.
+     *
+     * @since 1.0
+     */
+    private Map<String, String> prefixes = new LinkedHashMap<>();
+
+    public MonolithProperties() {
+        this.prefixes.put("authenticate", "/api/v1/services/auth");
+        this.prefixes.put("loan", "/api/v1/services/loans");
+        this.prefixes.put("media", "/api/v1/services/medias");
+        this.prefixes.put("stock", "/api/v1/services/stocks");
+        this.prefixes.put("user", "/api/v1/services/users");
+    }
+
+    public Map<String, String> getPrefixes() {
+        return prefixes;
+    }
+
+    public void setPrefixes(Map<String, String> prefixes) {
+        this.prefixes = prefixes;
+    }
+}
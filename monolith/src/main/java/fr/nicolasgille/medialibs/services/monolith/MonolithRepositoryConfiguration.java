@@ -0,0 +1,54 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.monolith;
+
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.core.user.User;
+import fr.nicolasgille.medialibs.services.commons.cache.CachingJpaRepositoryFactoryBean;
+import fr.nicolasgille.medialibs.services.commons.cache.EnableEntityCache;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxEvent;
+import fr.nicolasgille.medialibs.services.commons.snapshot.EnableEntitySnapshot;
+import fr.nicolasgille.medialibs.services.commons.startup.EnableEntityClasses;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+/**
+ * Entities and repositories of all the services, on the single DataSource of the monolith.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@EnableEntityClasses({ Loan.class, Media.class, Stock.class, User.class, OutboxEvent.class })
+@EnableJpaRepositories(basePackages = {
+        "fr.nicolasgille.medialibs.core.loan",
+        "fr.nicolasgille.medialibs.core.media",
+        "fr.nicolasgille.medialibs.core.stock",
+        "fr.nicolasgille.medialibs.core.user",
+        "fr.nicolasgille.medialibs.services.loan",
+        "fr.nicolasgille.medialibs.services.stock"
+}, repositoryFactoryBeanClass = CachingJpaRepositoryFactoryBean.class)
+@EnableTransactionManagement
+@EnableEntityCache({ Media.class, Stock.class, Loan.class, User.class })
+@EnableEntitySnapshot({ Media.class, Stock.class })
+public class MonolithRepositoryConfiguration {
+}
@@ -0,0 +1,85 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.monolith;
+
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Mappings of the handlers, with the path prefix of the service owning each controller.
+ *
+ * The controllers of the services are all mapped at the root, as each one has its own port
+ * when the services run in their own JVM.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class PrefixedRequestMappingHandlerMapping extends RequestMappingHandlerMapping {
+
+    /**
+     * Package of the services, followed by the key of the prefix.
+     *
+     * @since 1.0
+     */
+    private static final String SERVICES_PACKAGE = "fr.nicolasgille.medialibs.services.";
+
+    private final Map<String, String> prefixes;
+
+    /**
+     * Create the mapping.
+     *
+     * @param prefixes
+     *  Path prefix of each service, by package of the service.
+     * @since 1.0
+     */
+    public PrefixedRequestMappingHandlerMapping(Map<String, String> prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    @Override
+    protected RequestMappingInfo getMappingForMethod(Method method, Class<?> handlerType) {
+        RequestMappingInfo info = super.getMappingForMethod(method, handlerType);
+        String prefix = prefix(handlerType);
+        if (info == null || prefix == null) {
+            return info;
+        }
+        return RequestMappingInfo.paths(prefix).build().combine(info);
+    }
+
+    /**
+     * Find the prefix of a controller.
+     *
+     * @param handlerType
+     *  Class of the controller.
+     * @return
+     *  The prefix of the service of the controller, or null.
+     * @since 1.0
+     */
+    private String prefix(Class<?> handlerType) {
+        String name = handlerType.getName();
+        if (!name.startsWith(SERVICES_PACKAGE)) {
+            return null;
+        }
+        int end = name.indexOf('.', SERVICES_PACKAGE.length());
+        return end < 0 ? null : this.prefixes.get(name.substring(SERVICES_PACKAGE.length(), end));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Adaptive admission control in front of the rest controllers.
+ *
+ * Disabled unless <code>medialibs.admission.enabled = true</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "medialibs.admission", name = "enabled")
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionConfiguration {
+
+    @Bean
+    public AdmissionController admissionController(AdmissionProperties properties,
+                                                   ObjectProvider<MetricsRegistry> metricsRegistry) {
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        AdmissionController controller = new AdmissionController(properties, registry);
+        if (registry != null) {
+            GradientLimit service = controller.getService();
+            registry.gauge("medialibs_admission_service_limit", "Concurrency limit of the service, adjusted from its latency.",
+                    "", service::getLimit);
+            registry.gauge("medialibs_admission_service_in_flight", "Requests of the service being handled.",
+                    "", service::getInFlight);
+            registry.gauge("medialibs_admission_service_baseline_seconds", "No-load latency of the service.",
+                    "", service::getBaseline);
+        }
+        return controller;
+    }
+
+    @Bean
+    public WebMvcConfigurerAdapter admissionConfigurer(AdmissionController admissionController, AdmissionProperties properties) {
+        AdmissionInterceptor interceptor = new AdmissionInterceptor(admissionController, properties.getRetryAfter());
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(interceptor);
+            }
+        };
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admit or reject the requests of the endpoints.
+ *
+ * A request takes a slot of its endpoint limit and a slot of the service limit, within the share of its
+ * priority. It is rejected as soon as one of them is full, instead of waiting behind the slow requests.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class AdmissionController {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final AdmissionProperties properties;
+    private final GradientLimit service;
+    private final MetricsRegistry registry;
+
+    /**
+     * Limit and counters of each handler method.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Method, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Create the controller.
+     *
+     * @param properties
+     *  Settings of the limits and priorities.
+     * @param registry
+     *  Registry of the metrics of each endpoint, or null.
+     * @since 1.0
+     */
+    public AdmissionController(AdmissionProperties properties, MetricsRegistry registry) {
+        this.properties = properties;
+        this.service = new GradientLimit(properties.getService(), properties);
+        this.registry = registry;
+    }
+
+    /**
+     * Take the slots of a request.
+     *
+     * @param method
+     *  Handler of the request.
+     * @return
+     *  The permit of the request, or null if it is rejected.
+     * @since 1.0
+     */
+    public Permit tryAcquire(Method method) {
+        Endpoint endpoint = endpoint(method);
+        if (!endpoint.limit.tryAcquire(1.0)) {
+            endpoint.rejectedByEndpoint.increment();
+            logger.debug("Endpoint {} over its limit of {}, request rejected", endpoint.name, endpoint.limit.getLimit());
+            return null;
+        }
+        if (!this.service.tryAcquire(share(endpoint.priority))) {
+            endpoint.limit.cancel();
+            endpoint.rejectedByService.increment();
+            logger.debug("Service over its limit of {} for priority {}, request to {} rejected",
+                    this.service.getLimit(), endpoint.priority, endpoint.name);
+            return null;
+        }
+        endpoint.admitted.increment();
+        return new Permit(endpoint);
+    }
+
+    public GradientLimit getService() {
+        return service;
+    }
+
+    private double share(Priority priority) {
+        switch (priority) {
+            case CRITICAL:
+                return 1.0;
+            case LOW:
+                return this.properties.getLowShare();
+            default:
+                return this.properties.getNormalShare();
+        }
+    }
+
+    private Endpoint endpoint(Method method) {
+        Endpoint endpoint = this.endpoints.get(method);
+        if (endpoint == null) {
+            endpoint = this.endpoints.computeIfAbsent(method, this::createEndpoint);
+        }
+        return endpoint;
+    }
+
+    private Endpoint createEndpoint(Method method) {
+        String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+        Priority priority = listed(this.properties.getCritical(), name, method) ? Priority.CRITICAL
+                : listed(this.properties.getLow(), name, method) ? Priority.LOW
+                : Priority.NORMAL;
+        Endpoint endpoint = new Endpoint(name, priority, new GradientLimit(this.properties.getEndpoint(), this.properties));
+
+        if (this.registry != null) {
+            String labels = MetricsRegistry.labels("endpoint", name, "priority", priority.label());
+            this.registry.gauge("medialibs_admission_limit", "Concurrency limit of the endpoint, adjusted from its latency.",
+                    labels, endpoint.limit::getLimit);
+            this.registry.gauge("medialibs_admission_in_flight", "Requests of the endpoint being handled.",
+                    labels, endpoint.limit::getInFlight);
+            this.registry.gauge("medialibs_admission_baseline_seconds", "No-load latency of the endpoint.",
+                    labels, endpoint.limit::getBaseline);
+            this.registry.counterFunction("medialibs_admission_admitted", "Requests admitted.",
+                    labels, endpoint.admitted::sum);
+            this.registry.counterFunction("medialibs_admission_rejected", "Requests answered 503 by the admission control.",
+                    MetricsRegistry.labels("endpoint", name, "priority", priority.label(), "limit", "endpoint"),
+                    endpoint.rejectedByEndpoint::sum);
+            this.registry.counterFunction("medialibs_admission_rejected", "Requests answered 503 by the admission control.",
+                    MetricsRegistry.labels("endpoint", name, "priority", priority.label(), "limit", "service"),
+                    endpoint.rejectedByService::sum);
+        }
+        return endpoint;
+    }
+
+    private static boolean listed(List<String> endpoints, String name, Method method) {
+        return endpoints.contains(name) || endpoints.contains(method.getName());
+    }
+
+    /**
+     * Limit and counters of one endpoint.
+     *
+     * @since 1.0
+     */
+    private static class Endpoint {
+
+        private final String name;
+        private final Priority priority;
+        private final GradientLimit limit;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejectedByEndpoint = new LongAdder();
+        private final LongAdder rejectedByService = new LongAdder();
+
+        Endpoint(String name, Priority priority, GradientLimit limit) {
+            this.name = name;
+            this.priority = priority;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * Slots taken by an admitted request, given back once when it completes.
+     *
+     * @since 1.0
+     */
+    public class Permit {
+
+        private final Endpoint endpoint;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * Give back the slots and record the latency of the request.
+         *
+         * @param status
+         *  Http status of the response. A 503 or a 504 of the bulkheads is a sign of overload
+         *  rather than a latency sample.
+         * @since 1.0
+         * @version 1.1
+         */
+        public void release(int status) {
+            if (this.released.compareAndSet(false, true)) {
+                long rtt = System.nanoTime() - this.start;
+                boolean dropped = status == 503 || status == 504;
+                this.endpoint.limit.release(rtt, dropped);
+                service.release(rtt, dropped);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import fr.nicolasgille.medialibs.services.commons.idempotency.HandlerExecution;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Ask the admission controller before running a handler of the rest controllers,
+ * and answer 503 with a <code>Retry-After</code> header when it refuses.
+ *
+ * The permit of an asynchronous request is kept in the request until the asynchronous dispatch completes;
+ * a listener of the asynchronous context releases it too, when the client goes away before the dispatch.
+ * A refused request tells its {@link HandlerExecution} that its handler was skipped, so its idempotency key
+ * is released.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class AdmissionInterceptor extends HandlerInterceptorAdapter {
+
+    /**
+     * Attribute of the request holding its permit.
+     *
+     * @since 1.0
+     */
+    private static final String PERMIT = AdmissionInterceptor.class.getName() + ".PERMIT";
+
+    /**
+     * Package of the shared controllers (metrics, timeline...), always admitted.
+     *
+     * @since 1.0
+     */
+    private static final String COMMONS_PACKAGE = "fr.nicolasgille.medialibs.services.commons.";
+
+    private final AdmissionController controller;
+    private final String retryAfter;
+
+    public AdmissionInterceptor(AdmissionController controller, int retryAfter) {
+        this.controller = controller;
+        this.retryAfter = Integer.toString(retryAfter);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // The asynchronous dispatch of an admitted request.
+        if (request.getAttribute(PERMIT) != null || !(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        HandlerMethod method = (HandlerMethod) handler;
+        if (method.getBeanType().getName().startsWith(COMMONS_PACKAGE)
+                || !AnnotatedElementUtils.hasAnnotation(method.getBeanType(), RestController.class)) {
+            return true;
+        }
+
+        AdmissionController.Permit permit = this.controller.tryAcquire(method.getMethod());
+        if (permit == null) {
+            HandlerExecution execution = HandlerExecution.of(request);
+            if (execution != null) {
+                execution.skipped();
+            }
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, this.retryAfter);
+            return false;
+        }
+        request.setAttribute(PERMIT, permit);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        AdmissionController.Permit permit = (AdmissionController.Permit) request.getAttribute(PERMIT);
+        if (permit != null && request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    permit.release(((HttpServletResponse) event.getSuppliedResponse()).getStatus());
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        AdmissionController.Permit permit = (AdmissionController.Permit) request.getAttribute(PERMIT);
+        if (permit != null) {
+            permit.release(ex != null ? HttpStatus.INTERNAL_SERVER_ERROR.value() : response.getStatus());
+        }
+    }
+}
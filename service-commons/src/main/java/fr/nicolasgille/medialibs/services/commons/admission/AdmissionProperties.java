@@ -0,0 +1,298 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of the admission control, under the prefix <code>medialibs.admission</code>.
+ *
+ * Each endpoint gets a concurrency limit adjusted from its latency, and the whole service another one
+ * shared by all endpoints. The priority of an endpoint gives the part of the service limit it may use,
+ * so the listings are shed first when the service saturates, and the logins and checkouts last.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.admission")
+public class AdmissionProperties {
+
+    /**
+     * Reject the requests over the limits. When disabled, the default, every request is admitted.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private boolean enabled = false;
+
+    /**
+     * Limit of each endpoint.
+     *
+     * @since 1.0
+     */
+    private Limit endpoint = new Limit(20, 2, 200);
+
+    /**
+     * Limit of the whole service.
+     *
+     * @since 1.0
+     */
+    private Limit service = new Limit(50, 4, 400);
+
+    /**
+     * Growth of the latency tolerated over the no-load latency before the limit decreases.
+     *
+     * @since 1.0
+     */
+    private double tolerance = 1.5;
+
+    /**
+     * Weight of a new limit against the current one, between 0 and 1.
+     *
+     * @since 1.0
+     */
+    private double smoothing = 0.2;
+
+    /**
+     * Factor applied to the limit when the handlers answered 503 during a window.
+     *
+     * @since 1.0
+     */
+    private double backoff = 0.9;
+
+    /**
+     * Duration of the windows of latency samples, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long window = 1000;
+
+    /**
+     * Minimum number of samples of a window to update the limit.
+     *
+     * @since 1.0
+     */
+    private int minSamples = 10;
+
+    /**
+     * Delay advised to the rejected clients before retrying, in seconds.
+     *
+     * @since 1.0
+     */
+    private int retryAfter = 1;
+
+    /**
+     * Endpoints of the critical priority, allowed the whole service limit.
+     * An endpoint is named <code>Controller.method</code>, or by its method name alone.
+     *
+     * @since 1.0
+     */
+    private List<String> critical = new ArrayList<>();
+
+    /**
+     * Endpoints of the low priority, shed first.
+     *
+     * @since 1.0
+     */
+    private List<String> low = new ArrayList<>(Collections.singletonList("getAll"));
+
+    /**
+     * Part of the service limit the endpoints of normal priority may use.
+     *
+     * @since 1.0
+     */
+    private double normalShare = 0.9;
+
+    /**
+     * Part of the service limit the endpoints of low priority may use.
+     *
+     * @since 1.0
+     */
+    private double lowShare = 0.6;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Limit getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(Limit endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Limit getService() {
+        return service;
+    }
+
+    public void setService(Limit service) {
+        this.service = service;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    public double getBackoff() {
+        return backoff;
+    }
+
+    public void setBackoff(double backoff) {
+        this.backoff = backoff;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    public void setMinSamples(int minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public List<String> getCritical() {
+        return critical;
+    }
+
+    public void setCritical(List<String> critical) {
+        this.critical = critical;
+    }
+
+    public List<String> getLow() {
+        return low;
+    }
+
+    public void setLow(List<String> low) {
+        this.low = low;
+    }
+
+    public double getNormalShare() {
+        return normalShare;
+    }
+
+    public void setNormalShare(double normalShare) {
+        this.normalShare = normalShare;
+    }
+
+    public double getLowShare() {
+        return lowShare;
+    }
+
+    public void setLowShare(double lowShare) {
+        this.lowShare = lowShare;
+    }
+
+    /**
+     * Initial value and bounds of a concurrency limit.
+     *
+     * @since 1.0
+     */
+    public static class Limit {
+
+        /**
+         * Limit before the first latency samples.
+         *
+         * @since 1.0
+         */
+        private int initial;
+
+        /**
+         * Lowest limit, kept whatever the latency.
+         *
+         * @since 1.0
+         */
+        private int min;
+
+        /**
+         * Highest limit.
+         *
+         * @since 1.0
+         */
+        private int max;
+
+        public Limit() {
+        }
+
+        Limit(int initial, int min, int max) {
+            this.initial = initial;
+            this.min = min;
+            this.max = max;
+        }
+
+        public int getInitial() {
+            return initial;
+        }
+
+        public void setInitial(int initial) {
+            this.initial = initial;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public void setMin(int min) {
+            this.min = min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public void setMax(int max) {
+            this.max = max;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit adjusted from the observed latency.
+ *
+ * The latencies are averaged over windows. The limit follows the gradient between the no-load latency,
+ * the lowest average of the windows slowly drifting up, and the latency of the last window: it grows by its square root
+ * while the latency stays within the tolerance, and shrinks down to half as the latency rises.
+ * A window where the handlers answered 503 multiplies the limit by the backoff instead.
+ *
+ * Only the windows with few requests in flight let a higher latency drift into the no-load latency: under load,
+ * the latency also measures the concurrency the limit allows, and drifting in would let the limit raise its own
+ * baseline and grow without end instead of converging.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class GradientLimit {
+
+    /**
+     * Number of windows over which a higher latency drifts into the no-load latency.
+     *
+     * @since 1.0
+     */
+    private static final int LONG_WINDOWS = 50;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final double backoff;
+    private final long windowNanos;
+    private final int minSamples;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+
+    /**
+     * No-load latency, in nanoseconds. 0 before the first window.
+     *
+     * @since 1.0
+     */
+    private volatile double longRtt;
+
+    /**
+     * Samples of the current window, guarded by this.
+     *
+     * @since 1.0
+     */
+    private long windowStart = System.nanoTime();
+    private long windowRtt;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    /**
+     * Create a limit.
+     *
+     * @param bounds
+     *  Initial value and bounds of the limit.
+     * @param properties
+     *  Settings of the algorithm.
+     * @since 1.0
+     */
+    public GradientLimit(AdmissionProperties.Limit bounds, AdmissionProperties properties) {
+        this.minLimit = Math.max(bounds.getMin(), 1);
+        this.maxLimit = Math.max(bounds.getMax(), this.minLimit);
+        this.limit = Math.min(Math.max(bounds.getInitial(), this.minLimit), this.maxLimit);
+        this.tolerance = properties.getTolerance();
+        this.smoothing = properties.getSmoothing();
+        this.backoff = properties.getBackoff();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(properties.getWindow());
+        this.minSamples = Math.max(properties.getMinSamples(), 1);
+    }
+
+    /**
+     * Take a slot if the requests in flight are under a part of the limit.
+     *
+     * @param share
+     *  Part of the limit available to the caller, between 0 and 1.
+     * @return
+     *  True if the slot is taken, to give back with {@link #release(long, boolean)} or {@link #cancel()}.
+     * @since 1.0
+     */
+    public boolean tryAcquire(double share) {
+        int allowed = Math.max((int) (this.limit * share), 1);
+        for (;;) {
+            int current = this.inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back a slot without sample, when the request was rejected by another limit.
+     *
+     * @since 1.0
+     */
+    public void cancel() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Give back a slot and record the latency of its request.
+     *
+     * @param rttNanos
+     *  Latency of the request, in nanoseconds.
+     * @param dropped
+     *  True if the request was answered 503 or 504 by the handler.
+     * @since 1.0
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int current = this.inFlight.getAndDecrement();
+        long now = System.nanoTime();
+        synchronized (this) {
+            this.windowMaxInFlight = Math.max(this.windowMaxInFlight, current);
+            if (dropped) {
+                this.windowDropped = true;
+            } else {
+                this.windowRtt += rttNanos;
+                this.windowSamples++;
+            }
+            if (now - this.windowStart >= this.windowNanos && (this.windowDropped || this.windowSamples >= this.minSamples)) {
+                update();
+                this.windowStart = now;
+                this.windowRtt = 0;
+                this.windowSamples = 0;
+                this.windowMaxInFlight = 0;
+                this.windowDropped = false;
+            }
+        }
+    }
+
+    /**
+     * Adjust the limit from the window just ended.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private void update() {
+        double current = this.limit;
+        double next;
+        if (this.windowDropped) {
+            next = current * this.backoff;
+        } else {
+            double shortRtt = (double) this.windowRtt / this.windowSamples;
+            // Not enough requests to know whether a higher limit would hold.
+            boolean loaded = this.windowMaxInFlight >= current / 2;
+            // The lowest latency is taken at once; a higher one only drifts in from a window without load,
+            // so a lasting slowdown of the database is eventually accepted as the new no-load latency.
+            if (this.longRtt == 0 || shortRtt < this.longRtt) {
+                this.longRtt = shortRtt;
+            } else if (!loaded) {
+                this.longRtt += (shortRtt - this.longRtt) / LONG_WINDOWS;
+            }
+            if (!loaded) {
+                return;
+            }
+            double baseline = this.longRtt;
+            double gradient = Math.max(0.5, Math.min(1.0, this.tolerance * baseline / shortRtt));
+            next = current * (1 - this.smoothing) + (current * gradient + Math.sqrt(current)) * this.smoothing;
+        }
+        this.limit = Math.min(Math.max(next, this.minLimit), this.maxLimit);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Get the no-load latency.
+     *
+     * @return
+     *  The latency, in seconds.
+     * @since 1.0
+     */
+    public double getBaseline() {
+        return longRtt / 1e9;
+    }
+}
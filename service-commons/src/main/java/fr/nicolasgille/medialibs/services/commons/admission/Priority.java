@@ -0,0 +1,62 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import java.util.Locale;
+
+/**
+ * Priority of an endpoint when the service saturates.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public enum Priority {
+
+    /**
+     * Logins and checkouts, rejected only over the whole service limit.
+     *
+     * @since 1.0
+     */
+    CRITICAL,
+
+    /**
+     * Other endpoints.
+     *
+     * @since 1.0
+     */
+    NORMAL,
+
+    /**
+     * Listings, shed first.
+     *
+     * @since 1.0
+     */
+    LOW;
+
+    /**
+     * Get the name of the priority in the metrics.
+     *
+     * @return
+     *  The name in lower case.
+     * @since 1.0
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
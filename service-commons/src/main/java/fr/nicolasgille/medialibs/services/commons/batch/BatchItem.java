@@ -0,0 +1,83 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.batch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Result of a batch request for one identifier: the status it would have had alone, and the entity read.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItem<T> {
+
+    private final int status;
+    private final T item;
+
+    private BatchItem(HttpStatus status, T item) {
+        this.status = status.value();
+        this.item = item;
+    }
+
+    /**
+     * Item of an entity found.
+     *
+     * @param item
+     *  The entity.
+     * @return
+     *  A 200 item holding the entity.
+     * @since 1.0
+     */
+    public static <T> BatchItem<T> found(T item) {
+        return new BatchItem<>(HttpStatus.OK, item);
+    }
+
+    /**
+     * Item of an entity deleted.
+     *
+     * @return
+     *  A 200 item without entity.
+     * @since 1.0
+     */
+    public static <T> BatchItem<T> deleted() {
+        return new BatchItem<>(HttpStatus.OK, null);
+    }
+
+    /**
+     * Item of an identifier matching no entity.
+     *
+     * @return
+     *  A 404 item.
+     * @since 1.0
+     */
+    public static <T> BatchItem<T> notFound() {
+        return new BatchItem<>(HttpStatus.NOT_FOUND, null);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public T getItem() {
+        return item;
+    }
+}
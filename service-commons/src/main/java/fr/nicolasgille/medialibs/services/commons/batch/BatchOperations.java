@@ -0,0 +1,122 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.batch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Read or delete the entities of a list of identifiers with a few set-based queries, one per chunk,
+ * and give the result of each identifier in the order asked.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class BatchOperations {
+
+    private final int maxIds;
+    private final int chunkSize;
+
+    public BatchOperations(BatchProperties properties) {
+        this.maxIds = properties.getMaxIds();
+        this.chunkSize = Math.max(properties.getChunkSize(), 1);
+    }
+
+    /**
+     * Check the size of a request.
+     *
+     * @param ids
+     *  Identifiers asked.
+     * @return
+     *  True if there are more identifiers than <code>medialibs.batch.max-ids</code>.
+     * @since 1.0
+     */
+    public boolean isTooLarge(Collection<Long> ids) {
+        return ids.size() > this.maxIds;
+    }
+
+    /**
+     * Read several entities.
+     *
+     * @param ids
+     *  Identifiers asked, possibly repeated.
+     * @param finder
+     *  Query reading the entities of a chunk of identifiers, for example <code>repository::findAll</code>.
+     * @param idOf
+     *  Identifier of an entity.
+     * @return
+     *  Each identifier asked, once, with its entity or a not found item.
+     * @since 1.0
+     */
+    public <T> Map<Long, BatchItem<T>> findAll(Collection<Long> ids, Function<List<Long>, ? extends Iterable<T>> finder,
+                                               ToLongFunction<? super T> idOf) {
+        Map<Long, BatchItem<T>> items = new LinkedHashMap<>();
+        for (List<Long> chunk : chunks(ids)) {
+            for (T entity : finder.apply(chunk)) {
+                items.put(idOf.applyAsLong(entity), BatchItem.found(entity));
+            }
+        }
+        return ordered(ids, items);
+    }
+
+    /**
+     * Delete several entities, each chunk in its own transaction.
+     *
+     * @param ids
+     *  Identifiers asked, possibly repeated.
+     * @param deleter
+     *  Statement deleting the entities of a chunk of identifiers and giving the identifiers deleted.
+     * @return
+     *  Each identifier asked, once, with a deleted or a not found item.
+     * @since 1.0
+     */
+    public Map<Long, BatchItem<Object>> deleteAll(Collection<Long> ids, Function<List<Long>, ? extends Collection<Long>> deleter) {
+        Map<Long, BatchItem<Object>> items = new LinkedHashMap<>();
+        for (List<Long> chunk : chunks(ids)) {
+            for (Long id : deleter.apply(chunk)) {
+                items.put(id, BatchItem.deleted());
+            }
+        }
+        return ordered(ids, items);
+    }
+
+    private List<List<Long>> chunks(Collection<Long> ids) {
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int start = 0; start < distinct.size(); start += this.chunkSize) {
+            chunks.add(distinct.subList(start, Math.min(start + this.chunkSize, distinct.size())));
+        }
+        return chunks;
+    }
+
+    private static <T> Map<Long, BatchItem<T>> ordered(Collection<Long> ids, Map<Long, BatchItem<T>> items) {
+        Map<Long, BatchItem<T>> ordered = new LinkedHashMap<>();
+        for (Long id : ids) {
+            BatchItem<T> item = items.get(id);
+            ordered.put(id, item == null ? BatchItem.notFound() : item);
+        }
+        return ordered;
+    }
+}
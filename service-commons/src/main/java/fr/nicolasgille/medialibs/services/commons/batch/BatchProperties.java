@@ -0,0 +1,61 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.batch;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the batch endpoints, under the prefix <code>medialibs.batch</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.batch")
+public class BatchProperties {
+
+    /**
+     * Maximum number of identifiers of one request. Beyond, the request is answered 400.
+     *
+     * @since 1.0
+     */
+    private int maxIds = 1000;
+
+    /**
+     * Number of identifiers sent in one query, to bound the size of the <code>in</code> lists.
+     *
+     * @since 1.0
+     */
+    private int chunkSize = 200;
+
+    public int getMaxIds() {
+        return maxIds;
+    }
+
+    public void setMaxIds(int maxIds) {
+        this.maxIds = maxIds;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.bulkhead;
+
+import fr.nicolasgille.medialibs.services.commons.idempotency.HandlerExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool running the handlers of one class of endpoints.
+ *
+ * The Tomcat worker thread only submits the handler and is released; the response is written when
+ * the handler completes. A full queue, or a timeout expiring before the handler started, answers 503 with
+ * a <code>Retry-After</code> header: the handler is removed from the queue and never runs, so the client
+ * may retry. A timeout expiring while the handler runs answers 504 without <code>Retry-After</code>, since
+ * the handler goes on and may still write; its result is then dropped.
+ * A handler returning a body written after it, such as an entity stream, keeps its thread until the
+ * response is written, so the bulkhead also bounds the reads done while writing.
+ *
+ * The {@link HandlerExecution} of a request carrying an idempotency key is told whether its handler was
+ * skipped or what it returned, even after a 504, so the key keeps the real outcome.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.3
+ */
+public class Bulkhead {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Bulkhead.class);
+
+    /**
+     * Delay advised to the client before retrying, in seconds.
+     *
+     * @since 1.0
+     */
+    private static final String RETRY_AFTER = "1";
+
+    private final String name;
+    private final long timeout;
+
+    /**
+     * Longest time a streamed response keeps its thread, in milliseconds.
+     *
+     * @since 1.2
+     */
+    private final long streamTimeout;
+
+    /**
+     * Pool of the bulkhead, null to run the handlers on the calling thread.
+     *
+     * @since 1.0
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Decorator copying the context of the request thread (routing, profiling...) to the pool thread.
+     *
+     * @since 1.0
+     */
+    private final TaskDecorator decorator;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * States of a handler, to decide between its run and its timeout.
+     *
+     * @since 1.1
+     */
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int CANCELLED = 2;
+
+    /**
+     * Create a bulkhead.
+     *
+     * @param name
+     *  Name of the class of endpoints.
+     * @param pool
+     *  Settings of the bulkhead.
+     * @param enabled
+     *  False to run the handlers on the calling thread.
+     * @param decorator
+     *  Decorator of the handlers.
+     * @since 1.0
+     */
+    public Bulkhead(String name, BulkheadProperties.Pool pool, boolean enabled, TaskDecorator decorator) {
+        this.name = name;
+        this.timeout = pool.getTimeout();
+        this.streamTimeout = pool.getStreamTimeout();
+        this.decorator = decorator;
+        if (enabled) {
+            AtomicInteger threads = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(pool.getThreads(), pool.getThreads(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(pool.getQueue(), 1)),
+                    r -> {
+                        Thread thread = new Thread(r, "bulkhead-" + name + "-" + threads.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Run a handler on the bulkhead.
+     *
+     * @param handler
+     *  Body of the handler.
+     * @return
+     *  A DeferredResult completed with the response of the handler, its exception, a 503 if the handler
+     *  did not start, or a 504 if it did not finish in time.
+     * @since 1.0
+     * @version 1.2
+     */
+    public DeferredResult<ResponseEntity<?>> call(Callable<ResponseEntity<?>> handler) {
+        return submit(handler, false);
+    }
+
+    /**
+     * Run a handler whose body is written after it returns, such as an entity stream.
+     *
+     * The thread of the bulkhead is kept until the response is written, or for the stream timeout,
+     * so the rows read while writing count against the bulkhead like the handler itself.
+     *
+     * @param handler
+     *  Body of the handler.
+     * @return
+     *  A DeferredResult completed like {@link #call}.
+     * @since 1.2
+     */
+    public DeferredResult<ResponseEntity<?>> stream(Callable<ResponseEntity<?>> handler) {
+        return submit(handler, true);
+    }
+
+    private DeferredResult<ResponseEntity<?>> submit(Callable<ResponseEntity<?>> handler, boolean streamed) {
+        if (this.executor == null) {
+            DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+            complete(result, handler, null);
+            return result;
+        }
+
+        HandlerExecution execution = HandlerExecution.current();
+        if (execution != null) {
+            execution.submitted();
+        }
+
+        DeferredResult<ResponseEntity<?>> result = new Result(this.timeout);
+        AtomicInteger state = new AtomicInteger(QUEUED);
+        CountDownLatch written = new CountDownLatch(streamed ? 1 : 0);
+        result.onCompletion(written::countDown);
+        Runnable task = this.decorator.decorate(() -> {
+            if (state.compareAndSet(QUEUED, RUNNING)) {
+                complete(result, handler, execution);
+                awaitWritten(written);
+            }
+        });
+        result.onTimeout(() -> {
+            this.timeouts.increment();
+            if (state.compareAndSet(QUEUED, CANCELLED)) {
+                this.executor.remove(task);
+                skipped(execution);
+                result.setResult(unavailable());
+            } else {
+                logger.warn("Handler of bulkhead {} still running after {} ms", this.name, this.timeout);
+                result.setResult(new ResponseEntity<Object>(HttpStatus.GATEWAY_TIMEOUT));
+            }
+        });
+        try {
+            this.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            state.set(CANCELLED);
+            this.rejected.increment();
+            logger.warn("Bulkhead {} full, request rejected", this.name);
+            skipped(execution);
+            result.setResult(unavailable());
+        }
+        return result;
+    }
+
+    /**
+     * Stop the threads of the bulkhead.
+     *
+     * @since 1.0
+     */
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return this.executor == null ? 0 : this.executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return this.executor == null ? 0 : this.executor.getQueue().size();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Run a handler and complete its result, telling its outcome to its execution first.
+     *
+     * @since 1.0
+     * @version 1.3
+     */
+    private static void complete(DeferredResult<ResponseEntity<?>> result, Callable<ResponseEntity<?>> handler,
+                                 HandlerExecution execution) {
+        ResponseEntity<?> response;
+        try {
+            response = handler.call();
+        } catch (Exception e) {
+            if (execution != null) {
+                execution.failed(e);
+            }
+            result.setErrorResult(e);
+            return;
+        }
+        if (execution != null) {
+            execution.finished(response);
+        }
+        result.setResult(response);
+    }
+
+    private static void skipped(HandlerExecution execution) {
+        if (execution != null) {
+            execution.skipped();
+        }
+    }
+
+    private void awaitWritten(CountDownLatch written) {
+        try {
+            if (!written.await(this.streamTimeout, TimeUnit.MILLISECONDS)) {
+                logger.warn("Response of bulkhead {} still written after {} ms, thread released",
+                        this.name, this.streamTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ResponseEntity<?> unavailable() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER);
+        return new ResponseEntity<Object>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * DeferredResult running all its completion callbacks, where Spring keeps only the last one:
+     * the handler metrics register theirs after the bulkhead.
+     *
+     * @since 1.2
+     */
+    private static class Result extends DeferredResult<ResponseEntity<?>> {
+
+        private final List<Runnable> completionCallbacks = new CopyOnWriteArrayList<>();
+
+        Result(long timeout) {
+            super(timeout);
+            super.onCompletion(() -> {
+                for (Runnable callback : this.completionCallbacks) {
+                    callback.run();
+                }
+            });
+        }
+
+        @Override
+        public void onCompletion(Runnable callback) {
+            this.completionCallbacks.add(callback);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.bulkhead;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.runtime.VirtualThreads;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded pools running the handlers of the rest controllers, one per class of endpoints.
+ *
+ * The bulkheads always exist, so the controllers can rely on them;
+ * <code>medialibs.bulkheads.enabled = false</code> runs the handlers on the Tomcat worker thread,
+ * like the virtual thread mode where the connection pool bounds the concurrency instead.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(BulkheadProperties.class)
+public class BulkheadConfiguration {
+
+    @Bean
+    public Bulkheads bulkheads(BulkheadProperties properties, Environment environment,
+                               ObjectProvider<List<TaskDecorator>> decorators,
+                               ObjectProvider<MetricsRegistry> metricsRegistry) {
+        List<TaskDecorator> beans = decorators.getIfAvailable();
+        return new Bulkheads(properties, properties.isEnabled() && !VirtualThreads.isEnabled(environment),
+                beans == null ? Collections.<TaskDecorator>emptyList() : beans,
+                metricsRegistry.getIfAvailable());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.bulkhead;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of the bulkheads, under the prefix <code>medialibs.bulkheads</code>.
+ *
+ * Each class of endpoints (<code>list</code>, <code>lookup</code>, <code>write</code>...) runs on its own
+ * bounded pool, so a saturated class cannot take the threads or connections of the others.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.bulkheads")
+public class BulkheadProperties {
+
+    /**
+     * Run the handlers on the bulkheads. When disabled they run on the Tomcat worker thread.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = true;
+
+    /**
+     * Settings of the bulkheads missing from {@link #pools}.
+     *
+     * @since 1.0
+     */
+    private Pool defaultPool = new Pool();
+
+    /**
+     * Settings of each bulkhead, by name.
+     *
+     * @since 1.0
+     */
+    private Map<String, Pool> pools = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Pool getDefaultPool() {
+        return defaultPool;
+    }
+
+    public void setDefaultPool(Pool defaultPool) {
+        this.defaultPool = defaultPool;
+    }
+
+    public Map<String, Pool> getPools() {
+        return pools;
+    }
+
+    public void setPools(Map<String, Pool> pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * Size, queue and timeout of one bulkhead.
+     *
+     * @since 1.0
+     */
+    public static class Pool {
+
+        /**
+         * Number of threads, the maximum number of handlers of the class running at the same time.
+         *
+         * @since 1.0
+         */
+        private int threads = 8;
+
+        /**
+         * Number of handlers waiting for a thread. Past this limit the request is answered 503.
+         *
+         * @since 1.0
+         */
+        private int queue = 100;
+
+        /**
+         * Maximum time of a request, queue included, in milliseconds. Past this delay it is answered 503
+         * if its handler did not start yet, else 504.
+         *
+         * @since 1.0
+         */
+        private long timeout = 5000;
+
+        /**
+         * Longest time a streamed response keeps its thread of the bulkhead while it is written,
+         * in milliseconds, see {@link Bulkhead#stream}.
+         *
+         * @since 1.1
+         */
+        private long streamTimeout = 60000;
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueue() {
+            return queue;
+        }
+
+        public void setQueue(int queue) {
+            this.queue = queue;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public long getStreamTimeout() {
+            return streamTimeout;
+        }
+
+        public void setStreamTimeout(long streamTimeout) {
+            this.streamTimeout = streamTimeout;
+        }
+    }
+}
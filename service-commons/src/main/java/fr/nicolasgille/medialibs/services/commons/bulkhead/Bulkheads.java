@@ -0,0 +1,122 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.bulkhead;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bulkheads of a service, created on first use from {@link BulkheadProperties}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class Bulkheads implements DisposableBean {
+
+    private final BulkheadProperties properties;
+
+    /**
+     * False to run the handlers on the calling thread.
+     *
+     * @since 1.0
+     */
+    private final boolean enabled;
+    private final TaskDecorator decorator;
+
+    /**
+     * Registry receiving the metrics of each bulkhead, or null.
+     *
+     * @since 1.0
+     */
+    private final MetricsRegistry registry;
+
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Create the bulkheads.
+     *
+     * @param properties
+     *  Settings of the bulkheads.
+     * @param enabled
+     *  False to run the handlers on the calling thread, whatever the settings.
+     * @param decorators
+     *  Decorators copying the context of the request thread, applied in order.
+     * @param registry
+     *  Registry of the metrics, or null.
+     * @since 1.0
+     */
+    public Bulkheads(BulkheadProperties properties, boolean enabled, List<TaskDecorator> decorators, MetricsRegistry registry) {
+        this.properties = properties;
+        this.enabled = enabled;
+        this.registry = registry;
+        this.decorator = task -> {
+            Runnable decorated = task;
+            for (TaskDecorator decorator : decorators) {
+                decorated = decorator.decorate(decorated);
+            }
+            return decorated;
+        };
+    }
+
+    /**
+     * Get a bulkhead.
+     *
+     * @param name
+     *  Name of the class of endpoints, for example <code>list</code> or <code>lookup</code>.
+     * @return
+     *  The bulkhead.
+     * @since 1.0
+     */
+    public Bulkhead get(String name) {
+        Bulkhead bulkhead = this.bulkheads.get(name);
+        if (bulkhead == null) {
+            bulkhead = this.bulkheads.computeIfAbsent(name, this::create);
+        }
+        return bulkhead;
+    }
+
+    @Override
+    public void destroy() {
+        for (Bulkhead bulkhead : this.bulkheads.values()) {
+            bulkhead.shutdown();
+        }
+    }
+
+    private Bulkhead create(String name) {
+        BulkheadProperties.Pool pool = this.properties.getPools().getOrDefault(name, this.properties.getDefaultPool());
+        Bulkhead bulkhead = new Bulkhead(name, pool, this.enabled, this.decorator);
+        if (this.registry != null) {
+            String labels = MetricsRegistry.labels("bulkhead", name);
+            this.registry.gauge("medialibs_bulkhead_active", "Handlers running on the bulkhead.",
+                    labels, bulkhead::getActive);
+            this.registry.gauge("medialibs_bulkhead_queued", "Handlers waiting for a thread of the bulkhead.",
+                    labels, bulkhead::getQueued);
+            this.registry.counterFunction("medialibs_bulkhead_rejected", "Requests answered 503 because the queue of the bulkhead was full.",
+                    labels, bulkhead::getRejected);
+            this.registry.counterFunction("medialibs_bulkhead_timeouts", "Requests answered 503 (not started) or 504 (still running) because the bulkhead did not complete them in time.",
+                    labels, bulkhead::getTimeouts);
+        }
+        return bulkhead;
+    }
+}
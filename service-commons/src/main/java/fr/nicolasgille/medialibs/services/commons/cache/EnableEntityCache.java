@@ -0,0 +1,53 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import org.springframework.context.annotation.Import;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keep the given entities, and their collections, in the second level cache of Hibernate.
+ *
+ * To be placed on the <code>RepositoryConfiguration</code> of a service, along with
+ * <code>repositoryFactoryBeanClass = CachingJpaRepositoryFactoryBean.class</code> on
+ * <code>@EnableJpaRepositories</code> to also cache the results of the repository queries.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Import(EntityCacheConfiguration.class)
+public @interface EnableEntityCache {
+
+    /**
+     * Entities to cache.
+     *
+     * @return
+     *  The entity classes.
+     * @since 1.0
+     */
+    Class<?>[] value();
+}
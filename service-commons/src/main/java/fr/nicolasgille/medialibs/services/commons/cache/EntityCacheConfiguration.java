@@ -0,0 +1,129 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportAware;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.util.ObjectUtils;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+
+/**
+ * Second level cache of the entities listed by {@link EnableEntityCache}, with its statistics
+ * on <code>/cache/regions</code> and on the metrics.
+ *
+ * Enabled unless <code>medialibs.cache.enabled = false</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(EntityCacheProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.cache", name = "enabled", matchIfMissing = true)
+public class EntityCacheConfiguration implements ImportAware {
+
+    private Class<?>[] entities;
+
+    @Override
+    public void setImportMetadata(AnnotationMetadata importMetadata) {
+        Map<String, Object> attributes = importMetadata.getAnnotationAttributes(EnableEntityCache.class.getName());
+        this.entities = (Class<?>[]) attributes.get("value");
+    }
+
+    @Bean
+    public EntityCacheMapping entityCacheMapping() {
+        return new EntityCacheMapping(this.entities);
+    }
+
+    @Bean
+    public EntityCacheRegionFactory entityCacheRegionFactory(EntityCacheProperties properties) {
+        return new EntityCacheRegionFactory(properties, "medialibs-" + ObjectUtils.getIdentityHexString(properties));
+    }
+
+    @Bean
+    public EntityCacheStatistics entityCacheStatistics(EntityCacheRegionFactory entityCacheRegionFactory,
+                                                       ObjectProvider<MetricsRegistry> metricsRegistry) {
+        return new EntityCacheStatistics(entityCacheRegionFactory, metricsRegistry.getIfAvailable());
+    }
+
+    @Bean
+    public EntityCacheRestController entityCacheRestController(EntityCacheStatistics entityCacheStatistics,
+                                                               EntityManagerFactory entityManagerFactory) {
+        return new EntityCacheRestController(entityCacheStatistics, entityManagerFactory);
+    }
+
+    /**
+     * Add the cache settings to the properties of the EntityManagerFactory.
+     *
+     * Static, to be registered before the EntityManagerFactory is created.
+     *
+     * @return
+     *  The post processor.
+     * @since 1.0
+     */
+    @Bean
+    public static BeanPostProcessor entityCacheEntityManagerFactoryPostProcessor() {
+        return new EntityManagerFactoryPostProcessor();
+    }
+
+    /**
+     * Configure the EntityManagerFactory beans, looking up the cache settings lazily.
+     *
+     * @since 1.0
+     */
+    private static class EntityManagerFactoryPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof LocalContainerEntityManagerFactoryBean) {
+                EntityCacheProperties properties = this.beanFactory.getBean(EntityCacheProperties.class);
+                Map<String, Object> jpaProperties = ((LocalContainerEntityManagerFactoryBean) bean).getJpaPropertyMap();
+                jpaProperties.put("hibernate.cache.use_second_level_cache", "true");
+                jpaProperties.put("hibernate.cache.use_query_cache", String.valueOf(properties.isQueryCache()));
+                jpaProperties.put("hibernate.cache.region.factory_class", this.beanFactory.getBean(EntityCacheRegionFactory.class));
+                this.beanFactory.getBean(EntityCacheMapping.class).applyTo(jpaProperties);
+            }
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
+        }
+    }
+}
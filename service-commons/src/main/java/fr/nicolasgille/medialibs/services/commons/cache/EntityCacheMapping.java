@@ -0,0 +1,104 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.ElementCollection;
+import javax.persistence.ManyToMany;
+import javax.persistence.OneToMany;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Regions of the cached entities and of their collections.
+ *
+ * The entities come from the core libraries and cannot be annotated, so the regions
+ * are declared to Hibernate through the <code>hibernate.ejb.classcache</code> and
+ * <code>hibernate.ejb.collectioncache</code> properties.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class EntityCacheMapping {
+
+    /**
+     * Concurrency strategy of all regions: writes through the EntityManager lock and invalidate the entry.
+     *
+     * @since 1.0
+     */
+    private static final String USAGE = "read-write";
+
+    /**
+     * Region of each entity, by entity class name.
+     *
+     * @since 1.0
+     */
+    private final Map<String, String> entities = new LinkedHashMap<>();
+
+    /**
+     * Region of each collection, by collection role (<code>entity.field</code>).
+     *
+     * @since 1.0
+     */
+    private final Map<String, String> collections = new LinkedHashMap<>();
+
+    public EntityCacheMapping(Class<?>... entityClasses) {
+        for (Class<?> entityClass : entityClasses) {
+            String region = StringUtils.uncapitalize(entityClass.getSimpleName());
+            this.entities.put(entityClass.getName(), region);
+            ReflectionUtils.doWithFields(entityClass,
+                    field -> this.collections.put(entityClass.getName() + "." + field.getName(), region + "-" + field.getName()),
+                    EntityCacheMapping::isCollection);
+        }
+    }
+
+    /**
+     * Declare the regions to Hibernate.
+     *
+     * @param jpaProperties
+     *  Properties given to the EntityManagerFactory.
+     * @since 1.0
+     */
+    public void applyTo(Map<String, Object> jpaProperties) {
+        for (Map.Entry<String, String> entity : this.entities.entrySet()) {
+            jpaProperties.put("hibernate.ejb.classcache." + entity.getKey(), USAGE + "," + entity.getValue());
+        }
+        for (Map.Entry<String, String> collection : this.collections.entrySet()) {
+            jpaProperties.put("hibernate.ejb.collectioncache." + collection.getKey(), USAGE + "," + collection.getValue());
+        }
+    }
+
+    public Map<String, String> getEntities() {
+        return Collections.unmodifiableMap(entities);
+    }
+
+    public Map<String, String> getCollections() {
+        return Collections.unmodifiableMap(collections);
+    }
+
+    private static boolean isCollection(Field field) {
+        return field.isAnnotationPresent(ElementCollection.class)
+                || field.isAnnotationPresent(OneToMany.class)
+                || field.isAnnotationPresent(ManyToMany.class);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of the second level cache, under the prefix <code>medialibs.cache</code>.
+ *
+ * Regions are named after the cached entity (<code>media</code>, <code>stock</code>...)
+ * and its collections (<code>media-supports</code>).
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.cache")
+public class EntityCacheProperties {
+
+    /**
+     * Cache the entities listed by {@link EnableEntityCache}.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = true;
+
+    /**
+     * Cache the results of the repository queries on cached entities.
+     * Each write on a table invalidates all cached queries on this table.
+     *
+     * @since 1.0
+     */
+    private boolean queryCache = true;
+
+    /**
+     * Settings of the regions missing from {@link #regions}.
+     *
+     * @since 1.0
+     */
+    private Region defaultRegion = new Region();
+
+    /**
+     * Settings of the region holding the query results.
+     *
+     * @since 1.0
+     */
+    private Region queryResults = new Region();
+
+    /**
+     * Settings of each region, by region name.
+     *
+     * @since 1.0
+     */
+    private Map<String, Region> regions = new LinkedHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isQueryCache() {
+        return queryCache;
+    }
+
+    public void setQueryCache(boolean queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public Region getDefaultRegion() {
+        return defaultRegion;
+    }
+
+    public void setDefaultRegion(Region defaultRegion) {
+        this.defaultRegion = defaultRegion;
+    }
+
+    public Region getQueryResults() {
+        return queryResults;
+    }
+
+    public void setQueryResults(Region queryResults) {
+        this.queryResults = queryResults;
+    }
+
+    public Map<String, Region> getRegions() {
+        return regions;
+    }
+
+    public void setRegions(Map<String, Region> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * Size and time to live of a region.
+     *
+     * @since 1.0
+     */
+    public static class Region {
+
+        /**
+         * Maximum number of entries kept in memory. The least recently used entries are evicted first.
+         *
+         * @since 1.0
+         */
+        private long maxEntries = 10000;
+
+        /**
+         * Time to live of an entry, in seconds. 0 keeps the entries until they are evicted or invalidated.
+         *
+         * @since 1.0
+         */
+        private long timeToLive = 600;
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public long getTimeToLive() {
+            return timeToLive;
+        }
+
+        public void setTimeToLive(long timeToLive) {
+            this.timeToLive = timeToLive;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.cache.internal.StandardQueryCache;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Ehcache region factory configured from {@link EntityCacheProperties} instead of an <code>ehcache.xml</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class EntityCacheRegionFactory extends EhCacheRegionFactory {
+
+    private final EntityCacheProperties properties;
+
+    /**
+     * Name of the cache manager, unique in the JVM.
+     *
+     * @since 1.0
+     */
+    private final String name;
+
+    public EntityCacheRegionFactory(EntityCacheProperties properties, String name) {
+        this.properties = properties;
+        this.name = name;
+    }
+
+    @Override
+    public void start(SessionFactoryOptions settings, Properties properties) throws CacheException {
+        Configuration configuration = new Configuration().name(this.name);
+        configuration.defaultCache(cacheConfiguration("default", this.properties.getDefaultRegion()));
+        for (Map.Entry<String, EntityCacheProperties.Region> region : this.properties.getRegions().entrySet()) {
+            configuration.addCache(cacheConfiguration(region.getKey(), region.getValue()));
+        }
+        configuration.addCache(cacheConfiguration(StandardQueryCache.class.getName(), this.properties.getQueryResults()));
+
+        // The timestamps tell whether a cached query is stale: they must never be evicted.
+        configuration.addCache(new CacheConfiguration(UpdateTimestampsCache.REGION_NAME, 0).eternal(true));
+
+        this.settings = settings;
+        this.manager = new CacheManager(configuration);
+    }
+
+    /**
+     * Get the cache manager holding the regions.
+     *
+     * @return
+     *  The cache manager, or null before the start of Hibernate.
+     * @since 1.0
+     */
+    public CacheManager getCacheManager() {
+        return this.manager;
+    }
+
+    private static CacheConfiguration cacheConfiguration(String name, EntityCacheProperties.Region region) {
+        return new CacheConfiguration(name, (int) region.getMaxEntries())
+                .memoryStoreEvictionPolicy(MemoryStoreEvictionPolicy.LRU)
+                .eternal(region.getTimeToLive() == 0)
+                .timeToLiveSeconds(region.getTimeToLive());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+
+/**
+ * Expose the statistics of the second level cache.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class EntityCacheRestController {
+
+    private final EntityCacheStatistics statistics;
+    private final EntityManagerFactory entityManagerFactory;
+
+    public EntityCacheRestController(EntityCacheStatistics statistics, EntityManagerFactory entityManagerFactory) {
+        this.statistics = statistics;
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Get the statistics of each region.
+     *
+     * @return
+     *  A ResponseEntity with the statistics, by region name.
+     * @since 1.0
+     */
+    @GetMapping("/cache/regions")
+    public ResponseEntity<?> getRegions() {
+        List<EntityCacheStatistics.Region> regions = this.statistics.snapshot();
+        if (regions.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<List>(regions, HttpStatus.OK);
+    }
+
+    /**
+     * Evict all entities, collections and queries, for example after a change made directly in the database.
+     *
+     * @return
+     *  A ResponseEntity with the http status.
+     * @since 1.0
+     */
+    @DeleteMapping("/cache/regions")
+    public ResponseEntity<?> evictAll() {
+        Cache cache = this.entityManagerFactory.unwrap(SessionFactory.class).getCache();
+        cache.evictAllRegions();
+        return new ResponseEntity<Object>(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.statistics.StatisticsGateway;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hits, misses, puts, evictions and size of each region of the second level cache.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class EntityCacheStatistics implements SmartInitializingSingleton {
+
+    private final EntityCacheRegionFactory regionFactory;
+
+    /**
+     * Registry receiving the statistics once Hibernate has created the regions, or null.
+     *
+     * @since 1.0
+     */
+    private final MetricsRegistry registry;
+
+    public EntityCacheStatistics(EntityCacheRegionFactory regionFactory, MetricsRegistry registry) {
+        this.regionFactory = regionFactory;
+        this.registry = registry;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        CacheManager manager = this.regionFactory.getCacheManager();
+        if (this.registry == null || manager == null) {
+            return;
+        }
+        for (String name : manager.getCacheNames()) {
+            StatisticsGateway statistics = manager.getEhcache(name).getStatistics();
+            String labels = MetricsRegistry.labels("region", name);
+            this.registry.counterFunction("medialibs_cache_hits", "Entries found in the second level cache.",
+                    labels, statistics::cacheHitCount);
+            this.registry.counterFunction("medialibs_cache_misses", "Entries missing from the second level cache.",
+                    labels, statistics::cacheMissCount);
+            this.registry.counterFunction("medialibs_cache_puts", "Entries stored in the second level cache.",
+                    labels, statistics::cachePutCount);
+            this.registry.counterFunction("medialibs_cache_evictions", "Entries evicted from the second level cache to respect its size.",
+                    labels, statistics::cacheEvictedCount);
+            this.registry.counterFunction("medialibs_cache_expirations", "Entries of the second level cache expired by their time to live.",
+                    labels, statistics::cacheExpiredCount);
+            this.registry.gauge("medialibs_cache_entries", "Entries in the second level cache.",
+                    labels, statistics::getSize);
+        }
+    }
+
+    /**
+     * Get the statistics of each region.
+     *
+     * @return
+     *  The statistics, by region name.
+     * @since 1.0
+     */
+    public List<Region> snapshot() {
+        CacheManager manager = this.regionFactory.getCacheManager();
+        List<Region> regions = new ArrayList<>();
+        if (manager == null) {
+            return regions;
+        }
+        String[] names = manager.getCacheNames();
+        Arrays.sort(names);
+        for (String name : names) {
+            Ehcache cache = manager.getEhcache(name);
+            if (cache != null) {
+                regions.add(new Region(name, cache.getCacheConfiguration(), cache.getStatistics()));
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Statistics of one region.
+     *
+     * @since 1.0
+     */
+    public static class Region {
+
+        private final String name;
+        private final long maxEntries;
+        private final long timeToLive;
+        private final long size;
+        private final long hits;
+        private final long misses;
+        private final long puts;
+        private final long evictions;
+        private final long expirations;
+
+        Region(String name, CacheConfiguration configuration, StatisticsGateway statistics) {
+            this.name = name;
+            this.maxEntries = configuration.getMaxEntriesLocalHeap();
+            this.timeToLive = configuration.getTimeToLiveSeconds();
+            this.size = statistics.getSize();
+            this.hits = statistics.cacheHitCount();
+            this.misses = statistics.cacheMissCount();
+            this.puts = statistics.cachePutCount();
+            this.evictions = statistics.cacheEvictedCount();
+            this.expirations = statistics.cacheExpiredCount();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public long getTimeToLive() {
+            return timeToLive;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getPuts() {
+            return puts;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public double getHitRatio() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+}
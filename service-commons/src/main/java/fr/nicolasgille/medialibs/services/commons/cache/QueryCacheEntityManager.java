@@ -0,0 +1,110 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.cache;
+
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.criteria.CriteriaQuery;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * EntityManager marking as cacheable the criteria queries returning a cached entity.
+ *
+ * The repositories of the core libraries cannot carry <code>@QueryHints</code>: their derived queries
+ * and <code>findAll</code> are all built from criteria, so the hint is added when the query is created.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+class QueryCacheEntityManager implements InvocationHandler {
+
+    private final EntityManager entityManager;
+
+    /**
+     * Whether the results of a query returning this type are cached, by result type.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Class<?>, Boolean> cacheable = new ConcurrentHashMap<>();
+
+    private QueryCacheEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Wrap an EntityManager.
+     *
+     * @param entityManager
+     *  Shared EntityManager of the repositories.
+     * @return
+     *  The EntityManager adding the cache hint.
+     * @since 1.0
+     */
+    static EntityManager wrap(EntityManager entityManager) {
+        return (EntityManager) Proxy.newProxyInstance(QueryCacheEntityManager.class.getClassLoader(),
+                new Class<?>[] { EntityManager.class }, new QueryCacheEntityManager(entityManager));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                break;
+        }
+
+        Object result;
+        try {
+            result = method.invoke(this.entityManager, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+        if ("createQuery".equals(method.getName()) && args[0] instanceof CriteriaQuery
+                && isCacheable(((CriteriaQuery<?>) args[0]).getResultType())) {
+            ((Query) result).setHint(QueryHints.CACHEABLE, true);
+        }
+        return result;
+    }
+
+    private boolean isCacheable(Class<?> resultType) {
+        Boolean cached = this.cacheable.get(resultType);
+        if (cached == null) {
+            SessionFactoryImplementor sessionFactory = this.entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class);
+            boolean entity = sessionFactory.getClassMetadata(resultType) != null;
+            EntityPersister persister = entity ? sessionFactory.getEntityPersister(resultType.getName()) : null;
+            cached = sessionFactory.getSessionFactoryOptions().isQueryCacheEnabled()
+                    && persister != null && persister.hasCache();
+            this.cacheable.put(resultType, cached);
+        }
+        return cached;
+    }
+}
@@ -0,0 +1,695 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP channel broadcasting the changes of this instance to the other instances of the service, and applying
+ * theirs to the local caches.
+ *
+ * The changes are sent in batches, each invalidation taking the next sequence of this instance. A receiver
+ * detects a missing sequence from the next batch or from the heartbeat announcing the last sequence sent, and
+ * asks the sender to send it again. The sender keeps a history of its recent invalidations for that; when the
+ * missing ones are not received in time, the receiver evicts all its caches rather than serving stale entities.
+ *
+ * The outbox relay still evicts the changes of all instances and services, later; this channel only shortens
+ * the window where a peer serves an entity changed by another instance.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class CoherenceChannel implements SmartLifecycle {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(CoherenceChannel.class);
+
+    /**
+     * Number of heartbeats a peer may miss before it is forgotten.
+     *
+     * @since 1.0
+     */
+    private static final int SILENT_HEARTBEATS = 10;
+
+    /**
+     * Largest batch, keeping a datagram under the size of a UDP payload.
+     *
+     * @since 1.0
+     */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final CoherenceProperties properties;
+    private final NearCaches caches;
+
+    /**
+     * Identifier of this run of the instance, changing on restart so the peers start its sequences over.
+     *
+     * @since 1.0
+     */
+    private final long instance = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    private final long startedAt = System.currentTimeMillis();
+
+    private final int batchSize;
+    private final BlockingQueue<ChangeEvent> outgoing;
+
+    /**
+     * Set when an invalidation did not fit in the queue: the peers are told to evict everything.
+     *
+     * @since 1.0
+     */
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+
+    /**
+     * Invalidations sent, from the sequence historyStart to lastSequence. Guarded by itself.
+     *
+     * @since 1.0
+     */
+    private final ArrayDeque<ChangeEvent> history = new ArrayDeque<>();
+    private long historyStart = 1;
+    private volatile long lastSequence;
+
+    /**
+     * Other instances heard from, by instance.
+     *
+     * @since 1.0
+     */
+    private final Map<Long, Peer> peers = new ConcurrentHashMap<>();
+
+    private List<InetSocketAddress> addresses = Collections.emptyList();
+    private DatagramChannel channel;
+    private Thread sender;
+    private Thread receiver;
+    private volatile boolean running;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder nacks = new LongAdder();
+    private final LongAdder retransmitted = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    public CoherenceChannel(CoherenceProperties properties, NearCaches caches) {
+        this.properties = properties;
+        this.caches = caches;
+        this.batchSize = Math.max(1, Math.min(properties.getBatchSize(), MAX_BATCH_SIZE));
+        this.outgoing = new LinkedBlockingQueue<>(properties.getQueueCapacity());
+    }
+
+    /**
+     * Queue the changes committed by this instance, to be sent to the peers.
+     *
+     * @param events
+     *  Changes committed.
+     * @since 1.0
+     */
+    public void broadcast(List<ChangeEvent> events) {
+        if (!this.running || this.addresses.isEmpty()) {
+            return;
+        }
+        for (ChangeEvent event : events) {
+            if (!this.outgoing.offer(event) && this.overflowed.compareAndSet(false, true)) {
+                this.overflows.increment();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.bind(new InetSocketAddress(this.properties.getHost(), this.properties.getPort()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot bind the coherence channel to "
+                    + this.properties.getHost() + ":" + this.properties.getPort(), e);
+        }
+        this.addresses = resolvePeers();
+        this.running = true;
+        this.sender = new Thread(this::send, "coherence-sender");
+        this.sender.setDaemon(true);
+        this.sender.start();
+        this.receiver = new Thread(this::receive, "coherence-receiver");
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+        logger.info("Coherence channel of instance {} listening on port {}, {} peers",
+                Long.toHexString(this.instance), this.properties.getPort(), this.addresses.size());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        this.sender.interrupt();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            logger.debug("Coherence channel closed with an error", e);
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * Resolve the addresses of the peers, leaving out this instance.
+     *
+     * @return
+     *  The addresses of the other instances.
+     * @since 1.0
+     */
+    private List<InetSocketAddress> resolvePeers() {
+        List<InetSocketAddress> resolved = new ArrayList<>();
+        for (String peer : this.properties.getPeers()) {
+            int separator = peer.lastIndexOf(':');
+            if (separator < 0) {
+                logger.warn("Coherence peer {} ignored, expected host:port", peer);
+                continue;
+            }
+            InetSocketAddress address = new InetSocketAddress(peer.substring(0, separator).trim(),
+                    Integer.parseInt(peer.substring(separator + 1).trim()));
+            if (address.isUnresolved()) {
+                logger.warn("Coherence peer {} ignored, unknown host", peer);
+            } else if (address.getPort() != this.properties.getPort() || !isLocal(address.getAddress())) {
+                resolved.add(address);
+            }
+        }
+        return resolved;
+    }
+
+    private static boolean isLocal(InetAddress address) {
+        try {
+            return address.isAnyLocalAddress() || address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null;
+        } catch (SocketException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send the queued invalidations in batches, the heartbeats, and the nacks of the peers missing invalidations.
+     *
+     * @since 1.0
+     */
+    private void send() {
+        long tick = Math.max(1, Math.min(this.properties.getHeartbeatInterval(), this.properties.getRepairTimeout() / 4));
+        long nextHeartbeat = 0;
+        List<ChangeEvent> batch = new ArrayList<>(this.batchSize);
+        while (this.running) {
+            try {
+                ChangeEvent first = this.outgoing.poll(tick, TimeUnit.MILLISECONDS);
+                if (this.overflowed.getAndSet(false)) {
+                    // The events dropped and the ones queued are all covered by the reset, sent after their commits.
+                    this.outgoing.clear();
+                    batch.add(new ChangeEvent(0, InvalidationPacket.RESET, 0, ChangeEvent.Operation.SAVED, System.currentTimeMillis()));
+                } else if (first != null) {
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.properties.getBatchDelay());
+                    while (batch.size() < this.batchSize) {
+                        ChangeEvent next = this.outgoing.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    sendBatch(batch);
+                    batch.clear();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= nextHeartbeat) {
+                    sendToAll(InvalidationPacket.heartbeat(this.instance, this.startedAt, this.lastSequence).encode());
+                    nextHeartbeat = now + this.properties.getHeartbeatInterval();
+                }
+                for (Iterator<Peer> peers = this.peers.values().iterator(); peers.hasNext(); ) {
+                    Peer peer = peers.next();
+                    if (now - peer.lastHeard > SILENT_HEARTBEATS * this.properties.getHeartbeatInterval()) {
+                        logger.info("Coherence peer {} silent, forgotten", peer);
+                        peers.remove();
+                    } else {
+                        repair(peer, now);
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (this.running) {
+                    logger.warn("Coherence channel failed to send", e);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendBatch(List<ChangeEvent> batch) throws IOException {
+        long first;
+        synchronized (this.history) {
+            first = this.lastSequence + 1;
+            this.history.addAll(batch);
+            while (this.history.size() > this.properties.getHistory()) {
+                this.history.removeFirst();
+                this.historyStart++;
+            }
+            this.lastSequence = first + batch.size() - 1;
+        }
+        sendToAll(InvalidationPacket.batch(this.instance, this.startedAt, first, batch).encode());
+        this.sent.add(batch.size());
+        this.batches.increment();
+    }
+
+    private void sendToAll(ByteBuffer datagram) throws IOException {
+        for (InetSocketAddress address : this.addresses) {
+            this.channel.send(datagram.duplicate(), address);
+        }
+    }
+
+    /**
+     * Send again invalidations still in the history, to a peer which missed them.
+     *
+     * @param from
+     *  First sequence missed.
+     * @param to
+     *  Last sequence missed.
+     * @param address
+     *  Address of the peer.
+     * @since 1.0
+     */
+    private void retransmit(long from, long to, SocketAddress address) throws IOException {
+        List<ChangeEvent> events;
+        long first;
+        synchronized (this.history) {
+            first = Math.max(from, this.historyStart);
+            long last = Math.min(to, this.lastSequence);
+            if (first > last) {
+                return;
+            }
+            events = new ArrayList<>((int) (last - first + 1));
+            long sequence = this.historyStart;
+            for (ChangeEvent event : this.history) {
+                if (sequence > last) {
+                    break;
+                }
+                if (sequence >= first) {
+                    events.add(event);
+                }
+                sequence++;
+            }
+        }
+        for (int i = 0; i < events.size(); i += this.batchSize) {
+            List<ChangeEvent> chunk = events.subList(i, Math.min(i + this.batchSize, events.size()));
+            this.channel.send(InvalidationPacket.batch(this.instance, this.startedAt, first + i, chunk).encode(), address);
+            this.retransmitted.add(chunk.size());
+        }
+    }
+
+    /**
+     * Receive the datagrams of the peers until the channel is closed.
+     *
+     * @since 1.0
+     */
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        while (this.running) {
+            try {
+                buffer.clear();
+                SocketAddress source = this.channel.receive(buffer);
+                buffer.flip();
+                InvalidationPacket packet = InvalidationPacket.decode(buffer, System.currentTimeMillis());
+                if (packet.instance != this.instance) {
+                    handle(packet, source);
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (this.running) {
+                    logger.warn("Coherence channel failed to handle a datagram", e);
+                }
+            }
+        }
+    }
+
+    private void handle(InvalidationPacket packet, SocketAddress source) throws IOException {
+        switch (packet.type) {
+            case InvalidationPacket.NACK:
+                retransmit(packet.sequence, packet.to, source);
+                return;
+            case InvalidationPacket.HEARTBEAT:
+                peer(packet, source, packet.sequence).announce(packet.sequence);
+                break;
+            default:
+                Peer peer = peer(packet, source, packet.sequence - 1);
+                List<ChangeEvent> events = new ArrayList<>(packet.events.size());
+                boolean reset = false;
+                for (int i = 0; i < packet.events.size(); i++) {
+                    ChangeEvent event = packet.events.get(i);
+                    if (!peer.accept(packet.sequence + i)) {
+                        this.duplicates.increment();
+                    } else if (InvalidationPacket.RESET.equals(event.getEntityType())) {
+                        reset = true;
+                    } else {
+                        events.add(event);
+                    }
+                }
+                this.received.add(events.size());
+                if (reset) {
+                    logger.info("Coherence peer {} overflowed, caches evicted", peer);
+                    this.resets.increment();
+                    this.caches.reset();
+                } else if (!events.isEmpty()) {
+                    this.caches.apply(events);
+                }
+                break;
+        }
+        repair(peer(packet, source, packet.sequence), System.currentTimeMillis());
+    }
+
+    /**
+     * Get the state of the peer sending a datagram, creating it on the first datagram.
+     *
+     * @param packet
+     *  Datagram received.
+     * @param source
+     *  Address of the peer.
+     * @param baseline
+     *  Last sequence considered received from a peer started before this instance: the invalidations it sent
+     *  before were sent when the caches of this instance were still empty.
+     * @return
+     *  The state of the peer.
+     * @since 1.0
+     */
+    private Peer peer(InvalidationPacket packet, SocketAddress source, long baseline) {
+        Peer peer = this.peers.computeIfAbsent(packet.instance, instance -> {
+            Peer heard = new Peer(instance, source, packet.startedAt > this.startedAt ? 0 : baseline);
+            logger.info("Coherence peer {} heard", heard);
+            return heard;
+        });
+        peer.lastHeard = System.currentTimeMillis();
+        return peer;
+    }
+
+    /**
+     * Ask a peer for the invalidations missed, or evict everything once they are missing for too long.
+     *
+     * @param peer
+     *  State of the peer.
+     * @param now
+     *  Current time, in milliseconds since the epoch.
+     * @since 1.0
+     */
+    private void repair(Peer peer, long now) throws IOException {
+        long from;
+        long to;
+        synchronized (peer) {
+            if (peer.highest <= peer.contiguous) {
+                return;
+            }
+            if (now - peer.gapSince >= this.properties.getRepairTimeout()
+                    || peer.highest - peer.contiguous > this.properties.getHistory()) {
+                logger.info("Coherence peer {} missed invalidations {} to {}, caches evicted", peer, peer.contiguous + 1, peer.highest);
+                peer.skip();
+                from = -1;
+                to = -1;
+            } else if (now - peer.lastNack >= this.properties.getRepairTimeout() / 4) {
+                peer.lastNack = now;
+                from = peer.contiguous + 1;
+                to = peer.ahead.isEmpty() ? peer.highest : peer.ahead.first() - 1;
+            } else {
+                return;
+            }
+        }
+        if (from < 0) {
+            this.resets.increment();
+            this.caches.reset();
+        } else {
+            this.nacks.increment();
+            this.channel.send(InvalidationPacket.nack(this.instance, this.startedAt, from, to).encode(), peer.address);
+        }
+    }
+
+    public String getInstance() {
+        return Long.toHexString(this.instance);
+    }
+
+    public long getLastSequence() {
+        return this.lastSequence;
+    }
+
+    public int getQueued() {
+        return this.outgoing.size();
+    }
+
+    public List<String> getAddresses() {
+        List<String> addresses = new ArrayList<>(this.addresses.size());
+        for (InetSocketAddress address : this.addresses) {
+            addresses.add(address.getHostString() + ":" + address.getPort());
+        }
+        return addresses;
+    }
+
+    public Collection<Peer> getPeers() {
+        return this.peers.values();
+    }
+
+    /**
+     * Get the number of invalidations missed from the peers and not received again yet.
+     *
+     * @return
+     *  The number of invalidations.
+     * @since 1.0
+     */
+    public long getMissing() {
+        long missing = 0;
+        for (Peer peer : this.peers.values()) {
+            missing += peer.getMissing();
+        }
+        return missing;
+    }
+
+    public long getSent() {
+        return this.sent.sum();
+    }
+
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    public long getReceived() {
+        return this.received.sum();
+    }
+
+    public long getDuplicates() {
+        return this.duplicates.sum();
+    }
+
+    public long getNacks() {
+        return this.nacks.sum();
+    }
+
+    public long getRetransmitted() {
+        return this.retransmitted.sum();
+    }
+
+    public long getResets() {
+        return this.resets.sum();
+    }
+
+    public long getOverflows() {
+        return this.overflows.sum();
+    }
+
+    /**
+     * Sequences received from another instance.
+     *
+     * @since 1.0
+     */
+    public static class Peer {
+
+        private final long instance;
+        private final SocketAddress address;
+
+        /**
+         * Last sequence below which all invalidations are received. Guarded by this.
+         *
+         * @since 1.0
+         */
+        private long contiguous;
+
+        /**
+         * Highest sequence received or announced. Guarded by this.
+         *
+         * @since 1.0
+         */
+        private long highest;
+
+        /**
+         * Sequences received above a missing one. Guarded by this.
+         *
+         * @since 1.0
+         */
+        private final TreeSet<Long> ahead = new TreeSet<>();
+
+        /**
+         * Since when the first missing sequence is waited for, and when it was last asked. Guarded by this.
+         *
+         * @since 1.0
+         */
+        private long gapSince;
+        private long lastNack;
+
+        private volatile long lastHeard;
+
+        Peer(long instance, SocketAddress address, long baseline) {
+            this.instance = instance;
+            this.address = address;
+            this.contiguous = baseline;
+            this.highest = baseline;
+        }
+
+        /**
+         * Record a sequence received.
+         *
+         * @param sequence
+         *  Sequence of an invalidation.
+         * @return
+         *  True the first time the sequence is received.
+         * @since 1.0
+         */
+        synchronized boolean accept(long sequence) {
+            if (sequence <= this.contiguous || this.ahead.contains(sequence)) {
+                return false;
+            }
+            if (sequence == this.contiguous + 1) {
+                this.contiguous = sequence;
+                while (!this.ahead.isEmpty() && this.ahead.first() == this.contiguous + 1) {
+                    this.contiguous = this.ahead.pollFirst();
+                }
+                this.gapSince = this.highest > this.contiguous ? System.currentTimeMillis() : 0;
+            } else {
+                this.ahead.add(sequence);
+            }
+            announce(sequence);
+            return true;
+        }
+
+        /**
+         * Record the last sequence sent by the peer.
+         *
+         * @param sequence
+         *  Sequence announced.
+         * @since 1.0
+         */
+        synchronized void announce(long sequence) {
+            if (sequence > this.highest) {
+                if (this.highest == this.contiguous) {
+                    this.gapSince = System.currentTimeMillis();
+                }
+                this.highest = sequence;
+            }
+        }
+
+        /**
+         * Give up on the missing sequences.
+         *
+         * @since 1.0
+         */
+        synchronized void skip() {
+            this.contiguous = this.highest;
+            this.ahead.clear();
+            this.gapSince = 0;
+        }
+
+        public String getInstance() {
+            return Long.toHexString(this.instance);
+        }
+
+        public String getAddress() {
+            return this.address.toString();
+        }
+
+        public synchronized long getReceived() {
+            return this.contiguous;
+        }
+
+        public synchronized long getMissing() {
+            return this.highest - this.contiguous - this.ahead.size();
+        }
+
+        public long getLastHeard() {
+            return this.lastHeard;
+        }
+
+        @Override
+        public String toString() {
+            return Long.toHexString(this.instance) + "@" + this.address;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.outbox.EntityCacheInvalidation;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
+import fr.nicolasgille.medialibs.services.commons.snapshot.EntitySnapshots;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Invalidations exchanged over UDP between the instances of a service listed in <code>medialibs.coherence.peers</code>,
+ * with their state on <code>/coherence</code> and on the metrics.
+ *
+ * Disabled unless <code>medialibs.coherence.enabled = true</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(CoherenceProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.coherence", name = "enabled")
+public class CoherenceConfiguration {
+
+    @Bean
+    public NearCaches nearCaches(EntityManagerFactory entityManagerFactory, ObjectProvider<EntitySnapshots> entitySnapshots) {
+        return new NearCaches(new EntityCacheInvalidation(entityManagerFactory.unwrap(SessionFactory.class)),
+                entitySnapshots.getIfAvailable());
+    }
+
+    @Bean
+    public CoherenceChannel coherenceChannel(CoherenceProperties properties, NearCaches nearCaches, Outbox outbox,
+                                             ObjectProvider<MetricsRegistry> metricsRegistry) {
+        CoherenceChannel channel = new CoherenceChannel(properties, nearCaches);
+        outbox.addCommitListener(channel::broadcast);
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.counterFunction("medialibs_coherence_sent", "Invalidations sent to the peers.", "", channel::getSent);
+            registry.counterFunction("medialibs_coherence_batches", "Datagrams of invalidations sent to the peers.",
+                    "", channel::getBatches);
+            registry.counterFunction("medialibs_coherence_received", "Invalidations received from the peers and applied.",
+                    "", channel::getReceived);
+            registry.counterFunction("medialibs_coherence_duplicates", "Invalidations received more than once.",
+                    "", channel::getDuplicates);
+            registry.counterFunction("medialibs_coherence_nacks", "Requests to a peer to send missed invalidations again.",
+                    "", channel::getNacks);
+            registry.counterFunction("medialibs_coherence_retransmitted", "Invalidations sent again to a peer which missed them.",
+                    "", channel::getRetransmitted);
+            registry.counterFunction("medialibs_coherence_resets", "Evictions of all caches after invalidations were lost.",
+                    "", channel::getResets);
+            registry.counterFunction("medialibs_coherence_overflows", "Times the queue of invalidations to send was full.",
+                    "", channel::getOverflows);
+            registry.gauge("medialibs_coherence_peers", "Peers heard from recently.", "", () -> channel.getPeers().size());
+            registry.gauge("medialibs_coherence_missing", "Invalidations missed from the peers and not received again yet.",
+                    "", channel::getMissing);
+            registry.gauge("medialibs_coherence_queued", "Invalidations waiting to be sent.", "", channel::getQueued);
+        }
+        return channel;
+    }
+
+    @Bean
+    public CoherenceRestController coherenceRestController(CoherenceChannel coherenceChannel) {
+        return new CoherenceRestController(coherenceChannel);
+    }
+}
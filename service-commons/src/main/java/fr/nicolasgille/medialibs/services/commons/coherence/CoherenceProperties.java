@@ -0,0 +1,186 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the invalidations exchanged between the instances of a service, under the prefix
+ * <code>medialibs.coherence</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.coherence")
+public class CoherenceProperties {
+
+    /**
+     * Broadcast the changes of this instance to the peers and apply theirs to the local caches.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = false;
+
+    /**
+     * Address the UDP channel is bound to.
+     *
+     * @since 1.0
+     */
+    private String host = "0.0.0.0";
+
+    /**
+     * UDP port of this instance.
+     *
+     * @since 1.0
+     */
+    private int port = 7400;
+
+    /**
+     * Addresses of all the instances of the service, as <code>host:port</code>. The address of this
+     * instance may be listed, so every instance shares the same list.
+     *
+     * @since 1.0
+     */
+    private List<String> peers = new ArrayList<>();
+
+    /**
+     * Maximum delay of an invalidation before its batch is sent, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long batchDelay = 5;
+
+    /**
+     * Maximum number of invalidations in one datagram.
+     *
+     * @since 1.0
+     */
+    private int batchSize = 64;
+
+    /**
+     * Invalidations waiting to be sent. Beyond, the peers are told to evict everything.
+     *
+     * @since 1.0
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * Delay between two announces of the last sequence sent, revealing the last datagrams lost, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long heartbeatInterval = 1000;
+
+    /**
+     * Invalidations sent kept to be sent again to a peer which missed them.
+     *
+     * @since 1.0
+     */
+    private int history = 4096;
+
+    /**
+     * Delay after which missing invalidations not sent again make the caches evict everything, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long repairTimeout = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public List<String> getPeers() {
+        return peers;
+    }
+
+    public void setPeers(List<String> peers) {
+        this.peers = peers;
+    }
+
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    public int getHistory() {
+        return history;
+    }
+
+    public void setHistory(int history) {
+        this.history = history;
+    }
+
+    public long getRepairTimeout() {
+        return repairTimeout;
+    }
+
+    public void setRepairTimeout(long repairTimeout) {
+        this.repairTimeout = repairTimeout;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expose the state of the coherence channel and of the peers heard from.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class CoherenceRestController {
+
+    private final CoherenceChannel channel;
+
+    public CoherenceRestController(CoherenceChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Get the state of the coherence channel.
+     *
+     * @return
+     *  A ResponseEntity with the instance, its last sequence sent, its counters and the sequences received from each peer.
+     * @since 1.0
+     */
+    @GetMapping("/coherence")
+    public ResponseEntity<?> getCoherence() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("instance", this.channel.getInstance());
+        state.put("addresses", this.channel.getAddresses());
+        state.put("lastSequence", this.channel.getLastSequence());
+        state.put("queued", this.channel.getQueued());
+        state.put("sent", this.channel.getSent());
+        state.put("batches", this.channel.getBatches());
+        state.put("received", this.channel.getReceived());
+        state.put("duplicates", this.channel.getDuplicates());
+        state.put("nacks", this.channel.getNacks());
+        state.put("retransmitted", this.channel.getRetransmitted());
+        state.put("resets", this.channel.getResets());
+        state.put("peers", new ArrayList<>(this.channel.getPeers()));
+        return new ResponseEntity<Map>(state, HttpStatus.OK);
+    }
+}
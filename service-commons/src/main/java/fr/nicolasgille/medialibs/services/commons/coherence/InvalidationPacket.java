@@ -0,0 +1,193 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Datagram exchanged between the instances of a service.
+ *
+ * Layout, big endian: magic <code>MC</code> (2 bytes), format version (1), type (1), instance (8), start time
+ * of the instance (8), then:
+ * <ul>
+ *     <li>batch: first sequence (8), count (2), and for each invalidation the entity name (1 byte of length and
+ *     its UTF-8 bytes), identifier (8), version (8) and operation (1);</li>
+ *     <li>heartbeat: last sequence sent (8);</li>
+ *     <li>nack: first and last sequences to send again (8 + 8).</li>
+ * </ul>
+ *
+ * The invalidations of an instance take consecutive sequences, so a receiver detects the ones it missed.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+final class InvalidationPacket {
+
+    static final byte BATCH = 1;
+    static final byte HEARTBEAT = 2;
+    static final byte NACK = 3;
+
+    /**
+     * Entity name of the invalidation telling the peers to evict everything.
+     *
+     * @since 1.0
+     */
+    static final String RESET = "*";
+
+    private static final short MAGIC = 0x4D43;
+    private static final byte FORMAT_VERSION = 1;
+
+    /**
+     * Size of a datagram without its invalidations.
+     *
+     * @since 1.0
+     */
+    private static final int HEADER_SIZE = 2 + 1 + 1 + 8 + 8 + 8 + 8;
+
+    final byte type;
+    final long instance;
+    final long startedAt;
+
+    /**
+     * First sequence of a batch, last sequence of a heartbeat, or first sequence of a nack.
+     *
+     * @since 1.0
+     */
+    final long sequence;
+
+    /**
+     * Last sequence of a nack.
+     *
+     * @since 1.0
+     */
+    final long to;
+
+    final List<ChangeEvent> events;
+
+    private InvalidationPacket(byte type, long instance, long startedAt, long sequence, long to, List<ChangeEvent> events) {
+        this.type = type;
+        this.instance = instance;
+        this.startedAt = startedAt;
+        this.sequence = sequence;
+        this.to = to;
+        this.events = events;
+    }
+
+    static InvalidationPacket batch(long instance, long startedAt, long firstSequence, List<ChangeEvent> events) {
+        return new InvalidationPacket(BATCH, instance, startedAt, firstSequence, firstSequence + events.size() - 1, events);
+    }
+
+    static InvalidationPacket heartbeat(long instance, long startedAt, long lastSequence) {
+        return new InvalidationPacket(HEARTBEAT, instance, startedAt, lastSequence, lastSequence, Collections.emptyList());
+    }
+
+    static InvalidationPacket nack(long instance, long startedAt, long from, long to) {
+        return new InvalidationPacket(NACK, instance, startedAt, from, to, Collections.emptyList());
+    }
+
+    /**
+     * Encode the datagram.
+     *
+     * @return
+     *  A buffer ready to be sent.
+     * @since 1.0
+     */
+    ByteBuffer encode() {
+        byte[][] names = new byte[this.events.size()][];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = this.events.get(i).getEntityType().getBytes(StandardCharsets.UTF_8);
+            size += 1 + names[i].length + 8 + 8 + 1;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort(MAGIC).put(FORMAT_VERSION).put(this.type)
+                .putLong(this.instance).putLong(this.startedAt).putLong(this.sequence);
+        switch (this.type) {
+            case BATCH:
+                buffer.putShort((short) names.length);
+                for (int i = 0; i < names.length; i++) {
+                    ChangeEvent event = this.events.get(i);
+                    buffer.put((byte) names[i].length).put(names[i])
+                            .putLong(event.getEntityId()).putLong(event.getVersion()).put((byte) event.getOperation().ordinal());
+                }
+                break;
+            case NACK:
+                buffer.putLong(this.to);
+                break;
+            default:
+                break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a datagram.
+     *
+     * @param buffer
+     *  Datagram received.
+     * @param receivedAt
+     *  Time of the invalidations decoded, in milliseconds since the epoch.
+     * @return
+     *  The datagram.
+     * @throws IllegalArgumentException
+     *  If the buffer does not hold a datagram of this format.
+     * @since 1.0
+     */
+    static InvalidationPacket decode(ByteBuffer buffer, long receivedAt) {
+        if (buffer.remaining() < HEADER_SIZE - 8 || buffer.getShort() != MAGIC || buffer.get() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Not an invalidation datagram");
+        }
+        byte type = buffer.get();
+        long instance = buffer.getLong();
+        long startedAt = buffer.getLong();
+        long sequence = buffer.getLong();
+        switch (type) {
+            case BATCH:
+                int count = buffer.getShort() & 0xFFFF;
+                ChangeEvent.Operation[] operations = ChangeEvent.Operation.values();
+                List<ChangeEvent> events = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] name = new byte[buffer.get() & 0xFF];
+                    buffer.get(name);
+                    long id = buffer.getLong();
+                    long version = buffer.getLong();
+                    int operation = buffer.get();
+                    if (operation < 0 || operation >= operations.length) {
+                        throw new IllegalArgumentException("Unknown operation " + operation);
+                    }
+                    events.add(new ChangeEvent(version, new String(name, StandardCharsets.UTF_8), id,
+                            operations[operation], receivedAt));
+                }
+                return batch(instance, startedAt, sequence, events);
+            case HEARTBEAT:
+                return heartbeat(instance, startedAt, sequence);
+            case NACK:
+                return nack(instance, startedAt, sequence, buffer.getLong());
+            default:
+                throw new IllegalArgumentException("Unknown datagram type " + type);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+import fr.nicolasgille.medialibs.services.commons.outbox.EntityCacheInvalidation;
+import fr.nicolasgille.medialibs.services.commons.snapshot.EntitySnapshots;
+
+import java.util.List;
+
+/**
+ * Local caches kept coherent with the changes of the peers: the second level cache of Hibernate, and the
+ * snapshot files when the service has some.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class NearCaches {
+
+    private final EntityCacheInvalidation entityCache;
+
+    /**
+     * Snapshots of the service, or null.
+     *
+     * @since 1.0
+     */
+    private final EntitySnapshots snapshots;
+
+    public NearCaches(EntityCacheInvalidation entityCache, EntitySnapshots snapshots) {
+        this.entityCache = entityCache;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Forget the entities changed by a peer.
+     *
+     * @param events
+     *  Changes of the peer.
+     * @since 1.0
+     */
+    public void apply(List<ChangeEvent> events) {
+        this.entityCache.onChanges(events);
+        if (this.snapshots != null) {
+            this.snapshots.onChanges(events);
+        }
+    }
+
+    /**
+     * Forget everything, after changes of a peer were missed.
+     *
+     * @since 1.0
+     */
+    public void reset() {
+        this.entityCache.evictAll();
+        if (this.snapshots != null) {
+            for (EntitySnapshots.Region region : this.snapshots.getRegions()) {
+                region.invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.runtime.VirtualThreads;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replace the default pool of Spring Boot by a HikariCP pool sized from the Tomcat worker threads,
+ * with a short wait for a connection and the statement cache of the MySQL driver.
+ * With <code>medialibs.datasource.replicas.urls</code>, reads are sent to a pool per replica.
+ * In virtual thread mode Tomcat has no thread limit: the pools take their maximum size
+ * and their connection timeout bounds the concurrency.
+ *
+ * Enabled unless <code>medialibs.datasource.pool.enabled = false</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@AutoConfigureBefore(DataSourceAutoConfiguration.class)
+@ConditionalOnClass(HikariDataSource.class)
+@ConditionalOnProperty(prefix = "medialibs.datasource.pool", name = "enabled", matchIfMissing = true)
+@EnableConfigurationProperties({ ConnectionPoolProperties.class, ReplicaProperties.class, DataSourceProperties.class })
+public class ConnectionPoolConfiguration {
+
+    @Bean
+    public ConnectionPoolFactory connectionPoolFactory(ConnectionPoolProperties properties,
+                                                       @Value("${server.tomcat.max-threads:200}") int tomcatThreads,
+                                                       Environment environment,
+                                                       ObjectProvider<MetricsRegistry> metricsRegistry) {
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        return new ConnectionPoolFactory(properties,
+                VirtualThreads.isEnabled(environment) ? Integer.MAX_VALUE : tomcatThreads,
+                registry == null ? null : new PoolMetricsTrackerFactory(registry));
+    }
+
+    /**
+     * Create the pool of the primary, behind a routing DataSource when replicas are configured.
+     *
+     * @since 1.0
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean(DataSource.class)
+    public DataSource dataSource(ConnectionPoolFactory connectionPoolFactory, DataSourceProperties properties,
+                                 ReplicaProperties replicaProperties, ObjectProvider<MetricsRegistry> metricsRegistry) {
+        HikariDataSource primary = connectionPoolFactory.create("primary",
+                properties.determineUrl(),
+                properties.determineUsername(),
+                properties.determinePassword(),
+                properties.determineDriverClassName());
+        if (replicaProperties.getUrls().isEmpty()) {
+            return primary;
+        }
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : replicaProperties.getUrls()) {
+            replicas.add(connectionPoolFactory.create("replica-" + (replicas.size() + 1), url,
+                    replicaProperties.getUsername() != null ? replicaProperties.getUsername() : properties.determineUsername(),
+                    replicaProperties.getPassword() != null ? replicaProperties.getPassword() : properties.determinePassword(),
+                    properties.determineDriverClassName()));
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, replicaProperties, metricsRegistry.getIfAvailable());
+    }
+
+    @Bean
+    public PoolExhaustedAdvice poolExhaustedAdvice() {
+        return new PoolExhaustedAdvice();
+    }
+
+    /**
+     * Read-your-writes tracking, only needed with replicas.
+     *
+     * @since 1.0
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = "medialibs.datasource.replicas", name = "urls")
+    static class ReplicaRoutingConfiguration {
+
+        @Bean
+        public RecentWrites recentWrites(ReplicaProperties replicaProperties) {
+            return new RecentWrites(replicaProperties.getReadYourWritesWindow(), replicaProperties.getMaxClients());
+        }
+
+        @Bean
+        public FilterRegistrationBean replicaRoutingFilter(RecentWrites recentWrites, ReplicaProperties replicaProperties) {
+            return new FilterRegistrationBean(new ReplicaRoutingFilter(recentWrites, replicaProperties.getClientHeader()));
+        }
+
+        /**
+         * Keep the routing of the request on the threads of the bulkheads.
+         *
+         * @since 1.0
+         */
+        @Bean
+        public TaskDecorator replicaRoutingTaskDecorator() {
+            return RoutingContext::decorate;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build the HikariCP pools of a service, all sized and tuned the same way.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class ConnectionPoolFactory {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPoolFactory.class);
+
+    private final ConnectionPoolProperties properties;
+    private final int poolSize;
+    private final MetricsTrackerFactory metricsTrackerFactory;
+
+    /**
+     * Create the factory.
+     *
+     * @param properties
+     *  Settings of the pools.
+     * @param tomcatThreads
+     *  Maximum number of worker threads of Tomcat, the maximum number of concurrent requests.
+     * @param metricsTrackerFactory
+     *  Metrics of the pools, or null.
+     * @since 1.0
+     */
+    public ConnectionPoolFactory(ConnectionPoolProperties properties, int tomcatThreads, MetricsTrackerFactory metricsTrackerFactory) {
+        this.properties = properties;
+        this.poolSize = Math.max(properties.getMinimumSize(),
+                Math.min(properties.getMaximumSize(), (int) Math.ceil(tomcatThreads * properties.getConnectionsPerThread())));
+        this.metricsTrackerFactory = metricsTrackerFactory;
+    }
+
+    /**
+     * Create a pool.
+     *
+     * @param name
+     *  Name of the pool, used by the logs and the metrics.
+     * @param url
+     *  Jdbc url of the database.
+     * @param username
+     *  User of the database.
+     * @param password
+     *  Password of the user.
+     * @param driverClassName
+     *  Class of the driver, or null to find it from the url.
+     * @return
+     *  The started pool.
+     * @since 1.0
+     */
+    public HikariDataSource create(String name, String url, String username, String password, String driverClassName) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        if (driverClassName != null) {
+            config.setDriverClassName(driverClassName);
+        }
+
+        // A fixed size pool: no connection is opened while a request waits.
+        config.setMaximumPoolSize(this.poolSize);
+        config.setMinimumIdle(this.poolSize);
+        config.setConnectionTimeout(this.properties.getConnectionTimeout());
+        config.setValidationTimeout(this.properties.getValidationTimeout());
+        config.setMaxLifetime(this.properties.getMaxLifetime());
+        config.setLeakDetectionThreshold(this.properties.getLeakDetectionThreshold());
+        if (this.metricsTrackerFactory != null) {
+            config.setMetricsTrackerFactory(this.metricsTrackerFactory);
+        }
+
+        if (this.properties.isStatementCache() && url != null && url.startsWith("jdbc:mysql:")) {
+            config.addDataSourceProperty("cachePrepStmts", "true");
+            config.addDataSourceProperty("prepStmtCacheSize", String.valueOf(this.properties.getStatementCacheSize()));
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", String.valueOf(this.properties.getStatementCacheSqlLimit()));
+            config.addDataSourceProperty("useServerPrepStmts", "true");
+            config.addDataSourceProperty("cacheResultSetMetadata", "true");
+            config.addDataSourceProperty("cacheServerConfiguration", "true");
+            config.addDataSourceProperty("useLocalSessionState", "true");
+            config.addDataSourceProperty("elideSetAutoCommits", "true");
+            config.addDataSourceProperty("rewriteBatchedStatements", "true");
+            config.addDataSourceProperty("maintainTimeStats", "false");
+        }
+
+        logger.info("Create connection pool {} of {} connections on {}", name, this.poolSize, url);
+        return new HikariDataSource(config);
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the connection pools, under the prefix <code>medialibs.datasource.pool</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.datasource.pool")
+public class ConnectionPoolProperties {
+
+    /**
+     * Use a HikariCP pool built from these settings instead of the default pool of Spring Boot.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = true;
+
+    /**
+     * Connections per Tomcat worker thread. Most of a request is spent outside of the database,
+     * so a fraction of the threads is enough to keep the database busy.
+     *
+     * @since 1.0
+     */
+    private double connectionsPerThread = 0.1;
+
+    /**
+     * Lower bound of the computed pool size.
+     *
+     * @since 1.0
+     */
+    private int minimumSize = 4;
+
+    /**
+     * Upper bound of the computed pool size.
+     *
+     * @since 1.0
+     */
+    private int maximumSize = 40;
+
+    /**
+     * Maximum time to wait for a connection, in milliseconds. Past this delay the request fails
+     * with a 503 instead of holding its thread.
+     *
+     * @since 1.0
+     */
+    private long connectionTimeout = 500;
+
+    /**
+     * Maximum time to check that a connection is alive, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long validationTimeout = 250;
+
+    /**
+     * Maximum life time of a connection, in milliseconds. Must be shorter than the <code>wait_timeout</code> of MySQL.
+     *
+     * @since 1.0
+     */
+    private long maxLifetime = 1_800_000;
+
+    /**
+     * Time a connection may stay out of the pool before a leak is logged, in milliseconds. 0 to disable.
+     *
+     * @since 1.0
+     */
+    private long leakDetectionThreshold = 0;
+
+    /**
+     * Cache the prepared statements in the MySQL driver and prepare them on the server.
+     *
+     * @since 1.0
+     */
+    private boolean statementCache = true;
+
+    /**
+     * Number of prepared statements cached per connection.
+     *
+     * @since 1.0
+     */
+    private int statementCacheSize = 250;
+
+    /**
+     * Longest statement cached, in characters. Hibernate statements are long.
+     *
+     * @since 1.0
+     */
+    private int statementCacheSqlLimit = 2048;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getConnectionsPerThread() {
+        return connectionsPerThread;
+    }
+
+    public void setConnectionsPerThread(double connectionsPerThread) {
+        this.connectionsPerThread = connectionsPerThread;
+    }
+
+    public int getMinimumSize() {
+        return minimumSize;
+    }
+
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = minimumSize;
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public long getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(long validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+
+    public boolean isStatementCache() {
+        return statementCache;
+    }
+
+    public void setStatementCache(boolean statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public int getStatementCacheSqlLimit() {
+        return statementCacheSqlLimit;
+    }
+
+    public void setStatementCacheSqlLimit(int statementCacheSqlLimit) {
+        this.statementCacheSqlLimit = statementCacheSqlLimit;
+    }
+}
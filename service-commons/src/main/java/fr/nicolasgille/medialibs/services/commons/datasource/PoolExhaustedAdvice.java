@@ -0,0 +1,80 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Answer 503 with a <code>Retry-After</code> header when no connection could be borrowed from the pool
+ * in time, so the clients back off instead of piling up on a saturated service.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ControllerAdvice
+public class PoolExhaustedAdvice {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PoolExhaustedAdvice.class);
+
+    /**
+     * Delay advised to the client before retrying, in seconds.
+     *
+     * @since 1.0
+     */
+    private static final String RETRY_AFTER = "1";
+
+    /**
+     * Translate a connection timeout of the pool into a 503.
+     *
+     * @param e
+     *  Failure to open a transaction or to reach the database.
+     * @return
+     *  A 503 if the pool timed out.
+     * @throws Exception
+     *  The original exception for any other cause.
+     * @since 1.0
+     */
+    @ExceptionHandler({ CannotCreateTransactionException.class, DataAccessResourceFailureException.class })
+    public ResponseEntity<?> poolExhausted(Exception e) throws Exception {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException) {
+                logger.warn("No connection available: {}", cause.getMessage());
+                HttpHeaders headers = new HttpHeaders();
+                headers.set(HttpHeaders.RETRY_AFTER, RETRY_AFTER);
+                return new ResponseEntity<>(headers, HttpStatus.SERVICE_UNAVAILABLE);
+            }
+        }
+        throw e;
+    }
+}
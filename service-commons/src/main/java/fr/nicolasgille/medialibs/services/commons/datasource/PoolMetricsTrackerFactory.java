@@ -0,0 +1,99 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import fr.nicolasgille.medialibs.services.commons.metrics.LatencyTimer;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publish the wait time, usage time, timeouts and saturation of the HikariCP pools on the metrics.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final MetricsRegistry registry;
+
+    public PoolMetricsTrackerFactory(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        String labels = MetricsRegistry.labels("pool", poolName);
+        this.registry.gauge("medialibs_datasource_pool_active", "Connections borrowed from the pool.",
+                labels, poolStats::getActiveConnections);
+        this.registry.gauge("medialibs_datasource_pool_idle", "Connections waiting in the pool.",
+                labels, poolStats::getIdleConnections);
+        this.registry.gauge("medialibs_datasource_pool_total", "Connections opened by the pool.",
+                labels, poolStats::getTotalConnections);
+        this.registry.gauge("medialibs_datasource_pool_pending", "Threads waiting for a connection.",
+                labels, poolStats::getPendingThreads);
+        this.registry.gauge("medialibs_datasource_pool_saturation", "Borrowed connections and waiting threads on the opened connections.",
+                labels, () -> {
+                    int total = poolStats.getTotalConnections();
+                    return total == 0 ? 0 : (double) (poolStats.getActiveConnections() + poolStats.getPendingThreads()) / total;
+                });
+
+        return new Tracker(
+                this.registry.timer("medialibs_datasource_connection_wait", "Time waited to borrow a connection.", labels),
+                this.registry.timer("medialibs_datasource_connection_usage", "Time a connection stayed borrowed.", labels),
+                this.registry.counter("medialibs_datasource_connection_timeouts", "Requests of connection which timed out.", labels));
+    }
+
+    /**
+     * Record the events of one pool.
+     *
+     * @since 1.0
+     */
+    private static class Tracker implements IMetricsTracker {
+
+        private final LatencyTimer wait;
+        private final LatencyTimer usage;
+        private final LongAdder timeouts;
+
+        Tracker(LatencyTimer wait, LatencyTimer usage, LongAdder timeouts) {
+            this.wait = wait;
+            this.usage = usage;
+            this.timeouts = timeouts;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            this.wait.record(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            this.usage.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            this.timeouts.increment();
+        }
+    }
+}
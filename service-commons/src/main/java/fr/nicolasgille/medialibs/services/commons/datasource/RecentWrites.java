@@ -0,0 +1,104 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clients which wrote recently, whose reads must see their writes and go to the primary.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class RecentWrites {
+
+    private final long windowNanos;
+    private final int maxClients;
+
+    /**
+     * End of the window of each client, in {@link System#nanoTime()}.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<String, Long> clients = new ConcurrentHashMap<>();
+
+    public RecentWrites(long windowMillis, int maxClients) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Remember a write of a client.
+     *
+     * @param client
+     *  Key of the client.
+     * @since 1.0
+     */
+    public void record(String client) {
+        long now = System.nanoTime();
+        if (this.clients.size() >= this.maxClients) {
+            purge(now);
+        }
+        this.clients.put(client, now + this.windowNanos);
+    }
+
+    /**
+     * Check if a client wrote within the window.
+     *
+     * @param client
+     *  Key of the client.
+     * @return
+     *  True if its reads must go to the primary.
+     * @since 1.0
+     */
+    public boolean contains(String client) {
+        Long end = this.clients.get(client);
+        if (end == null) {
+            return false;
+        }
+        if (end - System.nanoTime() > 0) {
+            return true;
+        }
+        this.clients.remove(client, end);
+        return false;
+    }
+
+    /**
+     * Forget the expired windows, and the oldest ones if all are still open.
+     *
+     * @since 1.0
+     */
+    private void purge(long now) {
+        Iterator<Map.Entry<String, Long>> entries = this.clients.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().getValue() - now <= 0) {
+                entries.remove();
+            }
+        }
+        entries = this.clients.entrySet().iterator();
+        while (this.clients.size() >= this.maxClients && entries.hasNext()) {
+            entries.next();
+            entries.remove();
+        }
+    }
+}
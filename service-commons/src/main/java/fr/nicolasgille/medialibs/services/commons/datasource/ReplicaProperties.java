@@ -0,0 +1,183 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the read replicas, under the prefix <code>medialibs.datasource.replicas</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.datasource.replicas")
+public class ReplicaProperties {
+
+    /**
+     * How a replica is chosen for a read.
+     *
+     * @since 1.0
+     */
+    public enum Selection {
+
+        /**
+         * Each replica in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The replica with the fewest borrowed connections.
+         */
+        LEAST_LOADED
+    }
+
+    /**
+     * Jdbc urls of the replicas, separated by commas. No replica routes everything to the primary.
+     *
+     * @since 1.0
+     */
+    private List<String> urls = new ArrayList<>();
+
+    /**
+     * User of the replicas, the one of the primary if missing.
+     *
+     * @since 1.0
+     */
+    private String username;
+
+    /**
+     * Password of the replicas, the one of the primary if missing.
+     *
+     * @since 1.0
+     */
+    private String password;
+
+    private Selection selection = Selection.ROUND_ROBIN;
+
+    /**
+     * Time after a write during which the reads of the same client go to the primary, in milliseconds.
+     * Must be longer than the usual replication lag.
+     *
+     * @since 1.0
+     */
+    private long readYourWritesWindow = 2000;
+
+    /**
+     * Header identifying the client. The remote address is used when it is missing.
+     *
+     * @since 1.0
+     */
+    private String clientHeader = "X-Client-Id";
+
+    /**
+     * Maximum number of clients remembered for read-your-writes.
+     *
+     * @since 1.0
+     */
+    private int maxClients = 10000;
+
+    /**
+     * Interval between two health checks of the replicas, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long healthCheckInterval = 5000;
+
+    /**
+     * Replication lag above which a MySQL replica is ejected, in seconds. 0 to disable.
+     *
+     * @since 1.0
+     */
+    private long maxLag = 10;
+
+    public List<String> getUrls() {
+        return urls;
+    }
+
+    public void setUrls(List<String> urls) {
+        this.urls = urls;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public Selection getSelection() {
+        return selection;
+    }
+
+    public void setSelection(Selection selection) {
+        this.selection = selection;
+    }
+
+    public long getReadYourWritesWindow() {
+        return readYourWritesWindow;
+    }
+
+    public void setReadYourWritesWindow(long readYourWritesWindow) {
+        this.readYourWritesWindow = readYourWritesWindow;
+    }
+
+    public String getClientHeader() {
+        return clientHeader;
+    }
+
+    public void setClientHeader(String clientHeader) {
+        this.clientHeader = clientHeader;
+    }
+
+    public int getMaxClients() {
+        return maxClients;
+    }
+
+    public void setMaxClients(int maxClients) {
+        this.maxClients = maxClients;
+    }
+
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    public void setMaxLag(long maxLag) {
+        this.maxLag = maxLag;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * DataSource sending the reads to the replicas and everything else to the primary.
+ *
+ * A read is a read-only transaction, or a statement outside of any transaction during a GET request.
+ * The reads of a client which wrote recently go to the primary, so it sees its own writes.
+ * A replica failing to give a connection, unreachable or lagging behind the primary is ejected
+ * until a health check finds it back in shape.
+ *
+ * The connection is only fetched on the first statement, once the transaction is known to be read-only.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements Closeable {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final HikariDataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReplicaProperties.Selection selection;
+    private final long maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthCheck;
+
+    /**
+     * Create the DataSource and start the health checks.
+     *
+     * @param primary
+     *  Pool of the primary.
+     * @param replicaPools
+     *  Pools of the replicas.
+     * @param properties
+     *  Settings of the replicas.
+     * @param registry
+     *  Registry receiving the routing metrics, or null.
+     * @since 1.0
+     */
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicaPools,
+                                    ReplicaProperties properties, MetricsRegistry registry) {
+        this.primary = primary;
+        this.selection = properties.getSelection();
+        this.maxLag = properties.getMaxLag();
+        for (HikariDataSource pool : replicaPools) {
+            this.replicas.add(new Replica(pool));
+        }
+
+        LongAdder primaryConnections = new LongAdder();
+        if (registry != null) {
+            primaryConnections = registry.counter("medialibs_datasource_routed_connections", "Connections given by the routing DataSource.",
+                    MetricsRegistry.labels("pool", primary.getPoolName()));
+            for (Replica replica : this.replicas) {
+                String labels = MetricsRegistry.labels("pool", replica.getName());
+                replica.connections = registry.counter("medialibs_datasource_routed_connections", "Connections given by the routing DataSource.", labels);
+                registry.gauge("medialibs_datasource_replica_up", "1 if the replica receives reads, 0 if ejected.",
+                        labels, () -> replica.healthy ? 1 : 0);
+            }
+        }
+        setTargetDataSource(new Router(primaryConnections));
+        afterPropertiesSet();
+
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.healthCheck.scheduleWithFixedDelay(this::checkReplicas,
+                properties.getHealthCheckInterval(), properties.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the health checks and close all pools.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void close() {
+        this.healthCheck.shutdownNow();
+        for (Replica replica : this.replicas) {
+            replica.pool.close();
+        }
+        this.primary.close();
+    }
+
+    /**
+     * Check if the statements of the current thread only read.
+     *
+     * @since 1.0
+     */
+    private static boolean isRead() {
+        RoutingContext context = RoutingContext.current();
+        if (context != null && context.isPrimaryRequired()) {
+            return false;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        }
+        return context != null && context.isReadRequest();
+    }
+
+    /**
+     * Choose a healthy replica.
+     *
+     * @return
+     *  The replica, or null if all are ejected.
+     * @since 1.0
+     */
+    private Replica selectReplica() {
+        int size = this.replicas.size();
+        int start = Math.floorMod(this.next.getAndIncrement(), size);
+        Replica selected = null;
+        for (int i = 0; i < size; i++) {
+            Replica replica = this.replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            if (this.selection == ReplicaProperties.Selection.ROUND_ROBIN) {
+                return replica;
+            }
+            if (selected == null || replica.load() < selected.load()) {
+                selected = replica;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Eject the unreachable or lagging replicas, and bring back the others.
+     *
+     * @since 1.0
+     */
+    private void checkReplicas() {
+        for (Replica replica : this.replicas) {
+            String problem = check(replica);
+            if (problem != null && replica.healthy) {
+                replica.healthy = false;
+                logger.warn("Replica {} ejected: {}", replica.getName(), problem);
+            } else if (problem == null && !replica.healthy) {
+                replica.healthy = true;
+                logger.info("Replica {} back", replica.getName());
+            }
+        }
+    }
+
+    private String check(Replica replica) {
+        try (Connection connection = replica.pool.getConnection()) {
+            if (!connection.isValid(1)) {
+                return "connection not valid";
+            }
+            if (this.maxLag > 0 && replica.pool.getJdbcUrl().startsWith("jdbc:mysql:")) {
+                try (Statement statement = connection.createStatement();
+                     ResultSet status = statement.executeQuery("SHOW SLAVE STATUS")) {
+                    if (status.next()) {
+                        long lag = status.getLong("Seconds_Behind_Master");
+                        if (status.wasNull()) {
+                            return "replication stopped";
+                        }
+                        if (lag > this.maxLag) {
+                            return "lag of " + lag + " s";
+                        }
+                    }
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Give the connection of the pool chosen for the current thread.
+     *
+     * @since 1.0
+     */
+    private class Router extends AbstractDataSource {
+
+        private final LongAdder primaryConnections;
+
+        Router(LongAdder primaryConnections) {
+            this.primaryConnections = primaryConnections;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Replica replica = isRead() ? selectReplica() : null;
+            if (replica != null) {
+                try {
+                    Connection connection = replica.pool.getConnection();
+                    replica.connections.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    replica.healthy = false;
+                    ReplicaRoutingDataSource.logger.warn("Replica {} ejected, read sent to the primary: {}", replica.getName(), e.getMessage());
+                }
+            }
+            this.primaryConnections.increment();
+            return primary.getConnection();
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            throw new UnsupportedOperationException("The routing DataSource uses the users of its pools");
+        }
+    }
+
+    /**
+     * Pool of a replica and its health.
+     *
+     * @since 1.0
+     */
+    private static class Replica {
+
+        private final HikariDataSource pool;
+        private volatile boolean healthy = true;
+        private LongAdder connections = new LongAdder();
+
+        Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+
+        String getName() {
+            return this.pool.getPoolName();
+        }
+
+        int load() {
+            return this.pool.getHikariPoolMXBean().getActiveConnections();
+        }
+    }
+}
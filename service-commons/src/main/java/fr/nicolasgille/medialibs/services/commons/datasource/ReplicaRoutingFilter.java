@@ -0,0 +1,68 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Tell the routing DataSource whether the request only reads and whether its client wrote recently,
+ * and remember the clients sending writes.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class ReplicaRoutingFilter extends OncePerRequestFilter {
+
+    private final RecentWrites recentWrites;
+    private final String clientHeader;
+
+    public ReplicaRoutingFilter(RecentWrites recentWrites, String clientHeader) {
+        this.recentWrites = recentWrites;
+        this.clientHeader = clientHeader;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String client = request.getHeader(this.clientHeader);
+        if (client == null) {
+            client = request.getRemoteAddr();
+        }
+        boolean read = "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+
+        // Recorded before the write, since an asynchronous handler completes after this filter.
+        boolean primaryRequired = this.recentWrites.contains(client);
+        if (!read) {
+            this.recentWrites.record(client);
+        }
+
+        RoutingContext.begin(read, primaryRequired);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RoutingContext.end();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.datasource;
+
+/**
+ * What the routing DataSource knows of the http request handled by the current thread.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+final class RoutingContext {
+
+    private static final ThreadLocal<RoutingContext> CURRENT = new ThreadLocal<>();
+
+    /**
+     * The request only reads (GET, HEAD), so its statements outside of a transaction may go to a replica.
+     *
+     * @since 1.0
+     */
+    private final boolean readRequest;
+
+    /**
+     * The client wrote recently, so all its statements go to the primary.
+     *
+     * @since 1.0
+     */
+    private final boolean primaryRequired;
+
+    private RoutingContext(boolean readRequest, boolean primaryRequired) {
+        this.readRequest = readRequest;
+        this.primaryRequired = primaryRequired;
+    }
+
+    static void begin(boolean readRequest, boolean primaryRequired) {
+        CURRENT.set(new RoutingContext(readRequest, primaryRequired));
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    static RoutingContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Give the context of the current thread to a task run on another thread.
+     *
+     * @param task
+     *  Task submitted by the current thread.
+     * @return
+     *  The task running with the context of the current thread.
+     * @since 1.0
+     */
+    static Runnable decorate(Runnable task) {
+        RoutingContext context = CURRENT.get();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            CURRENT.set(context);
+            try {
+                task.run();
+            } finally {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    boolean isReadRequest() {
+        return readRequest;
+    }
+
+    boolean isPrimaryRequired() {
+        return primaryRequired;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.flight;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Share one lookup between the concurrent requests of the same key.
+ *
+ * The first request of a key runs the lookup; the requests arriving while it runs wait for its
+ * result instead of running their own. The flight is forgotten as soon as it lands: a request
+ * arriving after never reuses a result. A write of the key forgets the flight in the air too, since
+ * its lookup may have read the row before the commit: the requests arriving after the write start
+ * a new flight, while those already waiting keep the result of the old one.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class SingleFlight {
+
+    private final String name;
+
+    /**
+     * Time a request waits for another one, in nanoseconds.
+     *
+     * @since 1.0
+     */
+    private final long maxWait;
+
+    /**
+     * False to run every lookup.
+     *
+     * @since 1.0
+     */
+    private final boolean enabled;
+
+    private final ConcurrentMap<Object, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Create a single flight.
+     *
+     * @param name
+     *  Name of the lookup.
+     * @param maxWait
+     *  Time a request waits for another one, in milliseconds.
+     * @param enabled
+     *  False to run every lookup.
+     * @since 1.0
+     */
+    public SingleFlight(String name, long maxWait, boolean enabled) {
+        this.name = name;
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Run a lookup, or wait for the one already in flight for the same key.
+     *
+     * @param key
+     *  Key of the lookup, for example the identifier of an entity.
+     * @param lookup
+     *  Lookup to run if none is in flight.
+     * @return
+     *  The result of the lookup, possibly null.
+     * @throws Exception
+     *  Exception thrown by the lookup, shared by all the requests waiting for it.
+     * @since 1.0
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V call(Object key, Callable<V> lookup) throws Exception {
+        if (!this.enabled) {
+            return lookup.call();
+        }
+
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = this.flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            try {
+                V result = (V) inFlight.get(this.maxWait, TimeUnit.NANOSECONDS);
+                this.coalesced.increment();
+                return result;
+            } catch (TimeoutException e) {
+                // The lookup in flight is too slow, do not queue behind it.
+                this.timeouts.increment();
+                return lookup.call();
+            } catch (ExecutionException e) {
+                this.coalesced.increment();
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+
+        this.leaders.increment();
+        try {
+            V result = lookup.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Forget the flight of a key, once a write of the key is committed.
+     *
+     * @param key
+     *  Key written.
+     * @since 1.1
+     */
+    public void invalidate(Object key) {
+        if (this.flights.remove(key) != null) {
+            this.invalidations.increment();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of lookups in flight.
+     *
+     * @return
+     *  The number of keys being looked up.
+     * @since 1.0
+     */
+    public int getInFlight() {
+        return this.flights.size();
+    }
+
+    public long getLeaders() {
+        return leaders.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.flight;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Coalescing of the concurrent lookups of the same entity.
+ *
+ * The single flights always exist, so the controllers can rely on them;
+ * <code>medialibs.single-flight.enabled = false</code> runs every lookup.
+ * The writes committed through the outbox forget the flights of their entities.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@EnableConfigurationProperties(SingleFlightProperties.class)
+public class SingleFlightConfiguration {
+
+    @Bean
+    public SingleFlights singleFlights(SingleFlightProperties properties, ObjectProvider<Outbox> outbox,
+                                       ObjectProvider<MetricsRegistry> metricsRegistry) {
+        SingleFlights flights = new SingleFlights(properties, metricsRegistry.getIfAvailable());
+        Outbox writes = outbox.getIfAvailable();
+        if (writes != null) {
+            writes.addCommitListener(flights::invalidate);
+        }
+        return flights;
+    }
+}
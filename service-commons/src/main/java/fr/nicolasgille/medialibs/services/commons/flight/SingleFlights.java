@@ -0,0 +1,106 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.flight;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+
+import java.beans.Introspector;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single flights of a service, one per kind of lookup, created on first use.
+ *
+ * The flights of an entity are named after its class, such as <code>media</code> for <code>Media</code>,
+ * so the committed changes of the outbox forget the flights of the entities written.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class SingleFlights {
+
+    private final SingleFlightProperties properties;
+
+    /**
+     * Registry receiving the metrics of each flight, or null.
+     *
+     * @since 1.0
+     */
+    private final MetricsRegistry registry;
+
+    private final ConcurrentMap<String, SingleFlight> flights = new ConcurrentHashMap<>();
+
+    public SingleFlights(SingleFlightProperties properties, MetricsRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+    }
+
+    /**
+     * Get a single flight.
+     *
+     * @param name
+     *  Name of the lookup, for example <code>media</code>. Keys of different lookups never meet.
+     * @return
+     *  The single flight.
+     * @since 1.0
+     */
+    public SingleFlight get(String name) {
+        SingleFlight flight = this.flights.get(name);
+        if (flight == null) {
+            flight = this.flights.computeIfAbsent(name, this::create);
+        }
+        return flight;
+    }
+
+    /**
+     * Forget the flights of the entities changed, called after their commit.
+     *
+     * @param events
+     *  Committed changes.
+     * @since 1.1
+     */
+    public void invalidate(List<ChangeEvent> events) {
+        for (ChangeEvent event : events) {
+            SingleFlight flight = this.flights.get(Introspector.decapitalize(event.getEntityType()));
+            if (flight != null) {
+                flight.invalidate(event.getEntityId());
+            }
+        }
+    }
+
+    private SingleFlight create(String name) {
+        SingleFlight flight = new SingleFlight(name, this.properties.getMaxWait(), this.properties.isEnabled());
+        if (this.registry != null) {
+            String labels = MetricsRegistry.labels("flight", name);
+            this.registry.gauge("medialibs_single_flight_in_flight", "Lookups running, each shared by its concurrent requests.",
+                    labels, flight::getInFlight);
+            this.registry.counterFunction("medialibs_single_flight_leaders", "Requests which ran their lookup.",
+                    labels, flight::getLeaders);
+            this.registry.counterFunction("medialibs_single_flight_coalesced", "Requests answered by the lookup of another request.",
+                    labels, flight::getCoalesced);
+            this.registry.counterFunction("medialibs_single_flight_timeouts", "Requests which stopped waiting for another one and ran their own lookup.",
+                    labels, flight::getTimeouts);
+            this.registry.counterFunction("medialibs_single_flight_invalidations", "Flights forgotten because their entity was written while they ran.",
+                    labels, flight::getInvalidations);
+        }
+        return flight;
+    }
+}
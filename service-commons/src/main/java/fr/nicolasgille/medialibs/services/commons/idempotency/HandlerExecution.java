@@ -0,0 +1,173 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import javax.servlet.ServletRequest;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * What became of the handler of a request carrying an idempotency key, kept in the request by the
+ * {@link IdempotencyFilter} and told by the ones deciding whether the handler runs.
+ *
+ * The admission control and the bulkheads mark the handler skipped when they refuse it before it
+ * starts: nothing was written, so the key is released. A bulkhead running the handler apart from the
+ * response gives its outcome once it returns, which may come after the response was sent (504): the key
+ * is then kept until this outcome is known.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class HandlerExecution {
+
+    /**
+     * Attribute of the request holding its execution.
+     *
+     * @since 1.0
+     */
+    static final String ATTRIBUTE = HandlerExecution.class.getName();
+
+    /**
+     * Outcome of the handler run by a bulkhead, cancelled when it was skipped.
+     *
+     * @since 1.0
+     */
+    private final CompletableFuture<ResponseEntity<?>> outcome = new CompletableFuture<>();
+
+    /**
+     * Whether a bulkhead took the handler, so its outcome is given by {@link #outcome}.
+     *
+     * @since 1.0
+     */
+    private volatile boolean submitted;
+
+    /**
+     * Get the execution of a request.
+     *
+     * @param request
+     *  Request running.
+     * @return
+     *  Its execution, null if the request carries no idempotency key.
+     * @since 1.0
+     */
+    public static HandlerExecution of(ServletRequest request) {
+        return (HandlerExecution) request.getAttribute(ATTRIBUTE);
+    }
+
+    /**
+     * Get the execution of the request bound to the current thread.
+     *
+     * @return
+     *  Its execution, null outside of a request or if the request carries no idempotency key.
+     * @since 1.0
+     */
+    public static HandlerExecution current() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes == null
+                ? null
+                : (HandlerExecution) attributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+    }
+
+    /**
+     * Tell that the handler is run apart from the response, and its outcome given later.
+     *
+     * @since 1.0
+     */
+    public void submitted() {
+        this.submitted = true;
+    }
+
+    /**
+     * Tell that the handler never ran and wrote nothing.
+     *
+     * @since 1.0
+     */
+    public void skipped() {
+        this.outcome.cancel(false);
+    }
+
+    /**
+     * Tell that the handler returned.
+     *
+     * @param response
+     *  Response returned by the handler.
+     * @since 1.0
+     */
+    public void finished(ResponseEntity<?> response) {
+        this.outcome.complete(response);
+    }
+
+    /**
+     * Tell that the handler failed.
+     *
+     * @param exception
+     *  Exception thrown by the handler.
+     * @since 1.0
+     */
+    public void failed(Throwable exception) {
+        this.outcome.completeExceptionally(exception);
+    }
+
+    /**
+     * Know whether a bulkhead took the handler.
+     *
+     * @return
+     *  True if the outcome of the handler is given apart from the response.
+     * @since 1.0
+     */
+    public boolean isSubmitted() {
+        return this.submitted;
+    }
+
+    /**
+     * Know whether the handler was refused before it started.
+     *
+     * @return
+     *  True if nothing was written.
+     * @since 1.0
+     */
+    public boolean isSkipped() {
+        return this.outcome.isCancelled();
+    }
+
+    /**
+     * Know whether the handler, run apart from the response, has not returned yet.
+     *
+     * @return
+     *  True while a bulkhead runs or queues it.
+     * @since 1.0
+     */
+    public boolean isRunning() {
+        return this.submitted && !this.outcome.isDone();
+    }
+
+    /**
+     * Run an action with the outcome of the handler once it returned.
+     *
+     * @param action
+     *  Action given the response, or the exception of the handler.
+     * @since 1.0
+     */
+    void whenFinished(BiConsumer<ResponseEntity<?>, Throwable> action) {
+        this.outcome.whenComplete(action);
+    }
+}
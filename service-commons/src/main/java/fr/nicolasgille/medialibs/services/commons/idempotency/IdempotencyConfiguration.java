@@ -0,0 +1,76 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Deduplication of the POST and PUT requests by idempotency key.
+ *
+ * Disabled unless <code>medialibs.idempotency.enabled = true</code>; the responses are also kept in the
+ * database with <code>medialibs.idempotency.persistent = true</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "medialibs.idempotency", name = "enabled")
+@EnableConfigurationProperties(IdempotencyProperties.class)
+public class IdempotencyConfiguration {
+
+    @Bean
+    public IdempotencyStore idempotencyStore(IdempotencyProperties properties, ObjectProvider<DataSource> dataSource,
+                                             ObjectProvider<MetricsRegistry> metricsRegistry) {
+        IdempotencyRepository repository = properties.isPersistent()
+                ? new IdempotencyRepository(new JdbcTemplate(dataSource.getObject()))
+                : null;
+        IdempotencyStore store = new IdempotencyStore(properties.getTtl(), properties.getMaxEntries(), repository);
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.gauge("medialibs_idempotency_keys", "Idempotency keys kept in memory.", "", store::getSize);
+            registry.counterFunction("medialibs_idempotency_executed", "Requests run as the first of their key.",
+                    "", store::getExecuted);
+            registry.counterFunction("medialibs_idempotency_replayed", "Retries answered with the response of the first request.",
+                    "", store::getReplayed);
+            registry.counterFunction("medialibs_idempotency_mismatches", "Keys sent again with another request, answered 422.",
+                    "", store::getMismatches);
+            registry.counterFunction("medialibs_idempotency_busy", "Retries arriving while the first request of their key runs.",
+                    "", store::getBusy);
+        }
+        return store;
+    }
+
+    @Bean
+    public FilterRegistrationBean idempotencyFilter(IdempotencyStore idempotencyStore, IdempotencyProperties properties,
+                                                    ObjectProvider<ObjectMapper> objectMapper) {
+        ObjectMapper mapper = objectMapper.getIfAvailable();
+        return new FilterRegistrationBean(new IdempotencyFilter(idempotencyStore, properties.getHeader(),
+                mapper != null ? mapper : new ObjectMapper(), properties.getMaxWait()));
+    }
+}
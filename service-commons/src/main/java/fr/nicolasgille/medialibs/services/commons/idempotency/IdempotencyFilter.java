@@ -0,0 +1,561 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run once the POST and PUT requests carrying an idempotency key, and answer their retries with the
+ * response of the first one, without reaching the controllers.
+ *
+ * A key is scoped to the method, the path and the caller (its principal, else its
+ * <code>Authorization</code> header), so two callers never share a key. A key sent again with another
+ * query or body is answered 422. Replayed responses carry an <code>Idempotent-Replayed</code> header.
+ *
+ * A retry arriving while the first request runs waits for it asynchronously, without holding a thread, up to
+ * the maximum wait, then gets its response; if the first request is abandoned, the retry runs instead. Past the
+ * wait, or when the request cannot be asynchronous, the retry is answered 409 with a <code>Retry-After</code>
+ * header.
+ *
+ * The response kept is the real outcome of the handler, 5xx included, since a failing handler may have
+ * written before failing. The key is released without response only when the handler was refused before
+ * it started (see {@link HandlerExecution}). When the response is sent before the handler returned, such
+ * as a 504 of a bulkhead, the key stays running until the handler returns, then keeps its outcome.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    /**
+     * Header added to the replayed responses.
+     *
+     * @since 1.0
+     */
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    /**
+     * Longest key accepted, the size of the key column.
+     *
+     * @since 1.0
+     */
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Request attribute holding the claim while an asynchronous handler runs.
+     *
+     * @since 1.0
+     */
+    private static final String CLAIM_ATTRIBUTE = IdempotencyFilter.class.getName() + ".claim";
+
+    /**
+     * Request attribute holding a retry dispatched again to run, the first request of its key being abandoned.
+     *
+     * @since 1.2
+     */
+    private static final String WAITER_ATTRIBUTE = IdempotencyFilter.class.getName() + ".waiter";
+
+    /**
+     * Content type of the outcome of a handler returning after its response was sent.
+     *
+     * @since 1.1
+     */
+    private static final String JSON = "application/json;charset=UTF-8";
+
+    private final IdempotencyStore store;
+    private final String header;
+
+    /**
+     * Writer of the outcome of a handler returning after its response was sent.
+     *
+     * @since 1.1
+     */
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Time a retry waits for the request running with its key, in milliseconds, 0 to answer it 409 at once.
+     *
+     * @since 1.2
+     */
+    private final long maxWait;
+
+    public IdempotencyFilter(IdempotencyStore store, String header, ObjectMapper objectMapper, long maxWait) {
+        this.store = store;
+        this.header = header;
+        this.objectMapper = objectMapper;
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Waiter waiter = (Waiter) request.getAttribute(WAITER_ATTRIBUTE);
+        if (waiter != null) {
+            request.removeAttribute(WAITER_ATTRIBUTE);
+            waiter.ran = true;
+            execute(waiter.claim, request, response, chain, waiter.body);
+            return;
+        }
+        if (isAsyncDispatch(request)) {
+            IdempotencyStore.Claim claim = (IdempotencyStore.Claim) request.getAttribute(CLAIM_ATTRIBUTE);
+            if (claim == null) {
+                chain.doFilter(request, response);
+            } else {
+                run(claim, request, response, chain);
+            }
+            return;
+        }
+
+        String key = request.getHeader(this.header);
+        if (key == null || !("POST".equals(request.getMethod()) || "PUT".equals(request.getMethod()))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(),
+                    this.header + " must have between 1 and " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+
+        byte[] body = StreamUtils.copyToByteArray(request.getInputStream());
+        String scope = scope(request, key);
+        String fingerprint = fingerprint(request, body);
+        IdempotencyStore.Claim claim = this.store.claim(scope, fingerprint);
+
+        switch (claim.getOutcome()) {
+            case REPLAY:
+                replay(claim.getResponse(), response);
+                break;
+            case MISMATCH:
+                response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value(),
+                        this.header + " already used by another request");
+                break;
+            case BUSY:
+                if (this.maxWait > 0 && request.isAsyncSupported()) {
+                    new Waiter(scope, fingerprint, body, request.startAsync(request, response)).await(claim);
+                } else {
+                    response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                    response.sendError(HttpStatus.CONFLICT.value(), "The request of this " + this.header + " is still running");
+                }
+                break;
+            default:
+                execute(claim, request, response, chain, body);
+                break;
+        }
+    }
+
+    /**
+     * Run the first request of a key, keeping its response.
+     *
+     * @since 1.2
+     */
+    private void execute(IdempotencyStore.Claim claim, HttpServletRequest request, HttpServletResponse response,
+                         FilterChain chain, byte[] body) throws ServletException, IOException {
+        request.setAttribute(HandlerExecution.ATTRIBUTE, new HandlerExecution());
+        run(claim, new BodyRequest(request, body), new ContentCachingResponseWrapper(response), chain);
+    }
+
+    /**
+     * Also filter the dispatch writing the response of an asynchronous handler, to keep the response there.
+     *
+     * @return
+     *  False.
+     * @since 1.0
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    /**
+     * Run the request of a claim, and complete the claim with its response once written.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private void run(IdempotencyStore.Claim claim, HttpServletRequest request, HttpServletResponse response,
+                     FilterChain chain) throws ServletException, IOException {
+        boolean ran = false;
+        try {
+            chain.doFilter(request, response);
+            ran = true;
+        } finally {
+            if (!ran) {
+                settle(claim, request, null);
+            }
+        }
+
+        if (isAsyncStarted(request)) {
+            if (request.getAttribute(CLAIM_ATTRIBUTE) == null) {
+                request.setAttribute(CLAIM_ATTRIBUTE, claim);
+                request.getAsyncContext().addListener(new SettleListener(claim, request));
+            }
+            return;
+        }
+
+        ContentCachingResponseWrapper wrapper = WebUtils.getNativeResponse(response, ContentCachingResponseWrapper.class);
+        settle(claim, request, wrapper);
+        if (wrapper != null) {
+            wrapper.copyBodyToResponse();
+        }
+    }
+
+    /**
+     * Complete a claim with the outcome of its handler, or release it if the handler never ran.
+     *
+     * @param claim
+     *  Claim of the request.
+     * @param request
+     *  Request of the claim.
+     * @param wrapper
+     *  Response written, null if it was not kept (the request failed, or the client went away).
+     * @since 1.1
+     */
+    private void settle(IdempotencyStore.Claim claim, HttpServletRequest request, ContentCachingResponseWrapper wrapper) {
+        if (claim.isDone()) {
+            return;
+        }
+        HandlerExecution execution = HandlerExecution.of(request);
+        if (execution != null && execution.isSkipped()) {
+            claim.abandon();
+        } else if (execution != null && execution.isSubmitted() && (execution.isRunning() || wrapper == null)) {
+            // The response does not tell the outcome: wait for the handler, without blocking the request.
+            execution.whenFinished((entity, exception) -> complete(claim, entity, exception));
+        } else if (wrapper != null) {
+            claim.complete(wrapper.getStatusCode(), wrapper.getContentType(), wrapper.getHeader(HttpHeaders.LOCATION),
+                    wrapper.getContentAsByteArray());
+        } else {
+            claim.complete(HttpStatus.INTERNAL_SERVER_ERROR.value(), null, null, new byte[0]);
+        }
+    }
+
+    /**
+     * Complete a claim with the response returned by its handler, outside of the response sent.
+     *
+     * @since 1.1
+     */
+    private void complete(IdempotencyStore.Claim claim, ResponseEntity<?> entity, Throwable exception) {
+        if (exception instanceof CancellationException) {
+            claim.abandon();
+            return;
+        }
+        if (entity == null) {
+            claim.complete(HttpStatus.INTERNAL_SERVER_ERROR.value(), null, null, new byte[0]);
+            return;
+        }
+        URI location = entity.getHeaders().getLocation();
+        byte[] body = new byte[0];
+        if (entity.hasBody()) {
+            try {
+                body = this.objectMapper.writeValueAsBytes(entity.getBody());
+            } catch (JsonProcessingException e) {
+                claim.complete(HttpStatus.INTERNAL_SERVER_ERROR.value(), null, null, new byte[0]);
+                return;
+            }
+        }
+        claim.complete(entity.getStatusCodeValue(), entity.hasBody() ? JSON : null,
+                location == null ? null : location.toString(), body);
+    }
+
+    /**
+     * Scope a key to the method, the path and the caller of a request.
+     *
+     * @param request
+     *  Request carrying the key.
+     * @param key
+     *  Key sent by the client.
+     * @return
+     *  A hash of the scope and the key, the key of the store.
+     * @since 1.1
+     */
+    static String scope(HttpServletRequest request, String key) {
+        Principal principal = request.getUserPrincipal();
+        String caller = principal != null ? "principal " + principal.getName()
+                : "authorization " + String.valueOf(request.getHeader(HttpHeaders.AUTHORIZATION));
+        MessageDigest digest = sha256();
+        for (String part : new String[] { request.getMethod(), request.getRequestURI(), caller, key }) {
+            digest.update(part.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static void replay(IdempotentResponse stored, HttpServletResponse response) throws IOException {
+        response.setStatus(stored.getStatus());
+        if (stored.getContentType() != null) {
+            response.setContentType(stored.getContentType());
+        }
+        if (stored.getLocation() != null) {
+            response.setHeader(HttpHeaders.LOCATION, stored.getLocation());
+        }
+        response.setHeader(REPLAYED_HEADER, "true");
+        response.setContentLength(stored.getBody().length);
+        response.getOutputStream().write(stored.getBody());
+    }
+
+    /**
+     * Hash the method, the uri and the body of a request.
+     *
+     * @since 1.0
+     */
+    private static String fingerprint(HttpServletRequest request, byte[] body) {
+        MessageDigest digest = sha256();
+        String query = request.getQueryString();
+        digest.update((request.getMethod() + " " + request.getRequestURI() + (query == null ? "" : "?" + query))
+                .getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(body);
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Retry waiting asynchronously for the request running with its key.
+     *
+     * Once that request is settled, the retry claims the key again on a container thread: it replays the response,
+     * waits for the next request if another one took the key meanwhile, or, if the key was released, is dispatched
+     * again to run through the filter. Past the timeout of its asynchronous context, it is answered 409.
+     *
+     * @since 1.2
+     */
+    private class Waiter implements AsyncListener {
+
+        private final String key;
+        private final String fingerprint;
+        private final byte[] body;
+        private final AsyncContext async;
+
+        /**
+         * Set by the first of the settlement and the timeout, which answers the retry.
+         */
+        private final AtomicBoolean resumed = new AtomicBoolean();
+
+        /**
+         * Claim of the key released by the first request, run by the dispatch.
+         */
+        private volatile IdempotencyStore.Claim claim;
+        private volatile boolean ran;
+
+        Waiter(String key, String fingerprint, byte[] body, AsyncContext async) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.body = body;
+            this.async = async;
+            async.setTimeout(maxWait);
+            async.addListener(this);
+        }
+
+        void await(IdempotencyStore.Claim busy) {
+            busy.whenSettled(() -> {
+                if (this.resumed.compareAndSet(false, true)) {
+                    this.async.start(this::resume);
+                }
+            });
+        }
+
+        private void resume() {
+            HttpServletResponse response = (HttpServletResponse) this.async.getResponse();
+            IdempotencyStore.Claim claim = store.claim(this.key, this.fingerprint);
+            try {
+                switch (claim.getOutcome()) {
+                    case REPLAY:
+                        replay(claim.getResponse(), response);
+                        this.async.complete();
+                        break;
+                    case MISMATCH:
+                        response.setStatus(HttpStatus.UNPROCESSABLE_ENTITY.value());
+                        this.async.complete();
+                        break;
+                    case BUSY:
+                        this.resumed.set(false);
+                        await(claim);
+                        break;
+                    default:
+                        this.claim = claim;
+                        this.async.getRequest().setAttribute(WAITER_ATTRIBUTE, this);
+                        this.async.dispatch();
+                        break;
+                }
+            } catch (IOException e) {
+                // The client went away.
+                this.async.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (this.resumed.compareAndSet(false, true)) {
+                HttpServletResponse response = (HttpServletResponse) this.async.getResponse();
+                response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+                response.setStatus(HttpStatus.CONFLICT.value());
+                this.async.complete();
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * Release the key claimed for a dispatch which never reached the filter.
+         */
+        private void release() {
+            if (this.claim != null && !this.ran) {
+                this.claim.abandon();
+            }
+        }
+    }
+
+    /**
+     * Settle the claim of a request whose asynchronous processing ended before its response was kept,
+     * such as a client going away.
+     *
+     * @since 1.1
+     */
+    private class SettleListener implements AsyncListener {
+
+        private final IdempotencyStore.Claim claim;
+        private final HttpServletRequest request;
+
+        SettleListener(IdempotencyStore.Claim claim, HttpServletRequest request) {
+            this.claim = claim;
+            this.request = request;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            settle(this.claim, this.request, null);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            settle(this.claim, this.request, null);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Request whose body, already read to compute the fingerprint, is read again from memory.
+     *
+     * @since 1.0
+     */
+    private static class BodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        BodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(this.body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            Charset charset = encoding == null ? StandardCharsets.ISO_8859_1 : Charset.forName(encoding);
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
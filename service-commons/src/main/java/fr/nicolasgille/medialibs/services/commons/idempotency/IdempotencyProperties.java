@@ -0,0 +1,124 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the idempotency keys, under the prefix <code>medialibs.idempotency</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+@ConfigurationProperties(prefix = "medialibs.idempotency")
+public class IdempotencyProperties {
+
+    /**
+     * Deduplicate the POST and PUT requests carrying a key. When disabled, the default, the header is ignored.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private boolean enabled = false;
+
+    /**
+     * Header holding the key chosen by the client, the same for all the retries of one request.
+     *
+     * @since 1.0
+     */
+    private String header = "Idempotency-Key";
+
+    /**
+     * Time a response is replayed after its request, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long ttl = 86400000;
+
+    /**
+     * Maximum number of keys kept in memory. The oldest ones are evicted first.
+     *
+     * @since 1.0
+     */
+    private int maxEntries = 10000;
+
+    /**
+     * Time a retry waits for the request running with its key, without holding a thread, in milliseconds.
+     * Beyond, it is answered 409 with a <code>Retry-After</code> header; 0 answers it at once.
+     *
+     * @since 1.2
+     */
+    private long maxWait = 5000;
+
+    /**
+     * Also keep the responses in the <code>idempotency_key</code> table, so they survive a restart
+     * and are shared by the instances of the service.
+     *
+     * @since 1.0
+     */
+    private boolean persistent = false;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public void setMaxWait(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Access to the <code>idempotency_key</code> table, the persistent copy of the {@link IdempotencyStore}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class IdempotencyRepository {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyRepository.class);
+
+    /**
+     * Number of saves between two purges of the expired keys.
+     *
+     * @since 1.0
+     */
+    private static final int PURGE_EVERY = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AtomicInteger saves = new AtomicInteger();
+
+    public IdempotencyRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Find the response of a key.
+     *
+     * @param key
+     *  Idempotency key.
+     * @param now
+     *  Current time, in milliseconds since the epoch.
+     * @return
+     *  The response, null if the key is unknown or expired.
+     * @since 1.0
+     */
+    public IdempotentResponse find(String key, long now) {
+        List<IdempotentResponse> responses = this.jdbcTemplate.query(
+                "select fingerprint, status, content_type, location, body, expires_at from idempotency_key"
+                        + " where request_key = ? and expires_at > ?",
+                (row, index) -> new IdempotentResponse(row.getString("fingerprint"), row.getInt("status"),
+                        row.getString("content_type"), row.getString("location"), row.getBytes("body"),
+                        row.getLong("expires_at")),
+                key, now);
+        return responses.isEmpty() ? null : responses.get(0);
+    }
+
+    /**
+     * Save the response of a key. A key saved meanwhile by another instance is kept.
+     *
+     * @param key
+     *  Idempotency key.
+     * @param response
+     *  Response of its request.
+     * @since 1.0
+     */
+    public void save(String key, IdempotentResponse response) {
+        long now = System.currentTimeMillis();
+        this.jdbcTemplate.update("delete from idempotency_key where request_key = ? and expires_at <= ?", key, now);
+        try {
+            this.jdbcTemplate.update("insert into idempotency_key"
+                            + " (request_key, fingerprint, status, content_type, location, body, expires_at)"
+                            + " values (?, ?, ?, ?, ?, ?, ?)",
+                    key, response.getFingerprint(), response.getStatus(), response.getContentType(),
+                    response.getLocation(), response.getBody(), response.getExpiresAt());
+        } catch (DuplicateKeyException e) {
+            logger.debug("Idempotency key {} already saved by another instance", key);
+        }
+
+        if (this.saves.incrementAndGet() % PURGE_EVERY == 0) {
+            int purged = this.jdbcTemplate.update("delete from idempotency_key where expires_at <= ?", now);
+            logger.debug("{} idempotency keys purged", purged);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responses of the requests carrying an idempotency key, replayed to their retries.
+ *
+ * The first request of a key runs; the duplicates arriving while it runs are told busy at once, without
+ * blocking, and may be called back when it is settled (see {@link Claim#whenSettled(Runnable)}), the ones
+ * arriving after get its response from the store. A key is kept until
+ * its time to live expires or until the store is full, the oldest answered key being evicted first: a key
+ * whose request still runs is neither evicted nor expired, so it can never run twice. A request refused
+ * before its handler started is abandoned and leaves no response, so its retry runs again.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+public class IdempotencyStore {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    /**
+     * Outcome of a request carrying a key.
+     *
+     * @since 1.0
+     */
+    public enum Outcome {
+        /**
+         * First request of the key: run it and give its response to the claim.
+         */
+        EXECUTE,
+        /**
+         * The key already has a response: send it.
+         */
+        REPLAY,
+        /**
+         * The key was used by another request (other method, uri or body).
+         */
+        MISMATCH,
+        /**
+         * The request of the key is still running.
+         */
+        BUSY
+    }
+
+    /**
+     * Time a response is replayed, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private final long ttl;
+    private final int maxEntries;
+
+    /**
+     * Persistent copy of the responses, or null.
+     *
+     * @since 1.0
+     */
+    private final IdempotencyRepository repository;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Entries in creation order, hence in expiry order, for the eviction.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    /**
+     * Create a store.
+     *
+     * @param ttl
+     *  Time a response is replayed, in milliseconds.
+     * @param maxEntries
+     *  Maximum number of keys kept in memory.
+     * @param repository
+     *  Persistent copy of the responses, or null.
+     * @since 1.0
+     * @version 1.1
+     */
+    public IdempotencyStore(long ttl, int maxEntries, IdempotencyRepository repository) {
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.repository = repository;
+    }
+
+    /**
+     * Claim a key for a request, without waiting for the request already running with it.
+     *
+     * @param key
+     *  Idempotency key sent by the client, scoped to the caller and the endpoint.
+     * @param fingerprint
+     *  Hash of the request, to detect a key used by two different requests.
+     * @return
+     *  The claim, giving what to do with the request.
+     * @since 1.0
+     * @version 1.1
+     */
+    public Claim claim(String key, String fingerprint) {
+        while (true) {
+            long now = System.currentTimeMillis();
+            Entry entry = this.entries.get(key);
+            if (entry == null && this.repository != null) {
+                entry = load(key, now);
+            }
+            if (entry == null) {
+                Entry created = new Entry(key, fingerprint, now + this.ttl);
+                entry = this.entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    add(created);
+                    this.executed.increment();
+                    return new Claim(Outcome.EXECUTE, created, null);
+                }
+            }
+
+            if (!entry.fingerprint.equals(fingerprint)) {
+                this.mismatches.increment();
+                return new Claim(Outcome.MISMATCH, entry, null);
+            }
+            if (!entry.response.isDone()) {
+                this.busy.increment();
+                return new Claim(Outcome.BUSY, entry, null);
+            }
+            IdempotentResponse response = entry.response.getNow(null);
+            if (response == null || entry.expiresAt <= now) {
+                // Abandoned or expired: released, the next claim runs.
+                this.entries.remove(key, entry);
+                continue;
+            }
+            this.replayed.increment();
+            return new Claim(Outcome.REPLAY, entry, response);
+        }
+    }
+
+    /**
+     * Get the number of keys in memory.
+     *
+     * @return
+     *  The number of keys, running or answered.
+     * @since 1.0
+     */
+    public int getSize() {
+        return this.entries.size();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getReplayed() {
+        return replayed.sum();
+    }
+
+    public long getMismatches() {
+        return mismatches.sum();
+    }
+
+    public long getBusy() {
+        return busy.sum();
+    }
+
+    /**
+     * Load the response of a key from the repository.
+     *
+     * @return
+     *  The entry of the key, null if the repository has no response for it.
+     * @since 1.0
+     */
+    private Entry load(String key, long now) {
+        IdempotentResponse stored;
+        try {
+            stored = this.repository.find(key, now);
+        } catch (RuntimeException e) {
+            logger.warn("Cannot read the idempotency key {}", key, e);
+            return null;
+        }
+        if (stored == null) {
+            return null;
+        }
+        Entry loaded = new Entry(key, stored.getFingerprint(), stored.getExpiresAt());
+        loaded.response.complete(stored);
+        Entry entry = this.entries.putIfAbsent(key, loaded);
+        if (entry != null) {
+            return entry;
+        }
+        add(loaded);
+        return loaded;
+    }
+
+    /**
+     * Add an entry, then evict the expired entries and the oldest ones beyond the maximum.
+     * An entry whose request still runs goes back to the end of the order instead; if all of them run,
+     * the store exceeds its maximum until they are answered.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private void add(Entry entry) {
+        this.order.add(entry);
+        long now = System.currentTimeMillis();
+        int running = 0;
+        Entry head;
+        while (running < this.order.size() && (head = this.order.peek()) != null
+                && (this.entries.size() > this.maxEntries || head.expiresAt <= now)) {
+            if (!this.order.remove(head)) {
+                continue;
+            }
+            if (head.response.isDone()) {
+                this.entries.remove(head.key, head);
+            } else if (this.entries.get(head.key) == head) {
+                this.order.add(head);
+                running++;
+            }
+        }
+    }
+
+    /**
+     * Claim of a key by a request.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    public class Claim {
+
+        private final Outcome outcome;
+        private final Entry entry;
+        private final IdempotentResponse response;
+
+        Claim(Outcome outcome, Entry entry, IdempotentResponse response) {
+            this.outcome = outcome;
+            this.entry = entry;
+            this.response = response;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Know whether the response of the request is kept or its key released.
+         *
+         * @return
+         *  True once completed or abandoned, always for a claim not run.
+         * @since 1.1
+         */
+        public boolean isDone() {
+            return this.outcome != Outcome.EXECUTE || this.entry.response.isDone();
+        }
+
+        /**
+         * Run an action once the request running with the key of a busy claim is completed or abandoned, at once
+         * if it already is. The action runs on the thread settling the request and must not block; it claims the
+         * key again to know the outcome.
+         *
+         * @param action
+         *  Action to run.
+         * @since 1.2
+         */
+        public void whenSettled(Runnable action) {
+            this.entry.response.whenComplete((response, exception) -> action.run());
+        }
+
+        /**
+         * Get the response to replay.
+         *
+         * @return
+         *  The response of the first request, null unless the outcome is {@link Outcome#REPLAY}.
+         * @since 1.0
+         */
+        public IdempotentResponse getResponse() {
+            return response;
+        }
+
+        /**
+         * Keep the response of the request, replayed to its duplicates from now on.
+         * Does nothing if the claim is already completed or abandoned.
+         *
+         * @param status
+         *  Http status of the response.
+         * @param contentType
+         *  Content type of the response, or null.
+         * @param location
+         *  Location header of the response, or null.
+         * @param body
+         *  Body of the response.
+         * @since 1.0
+         */
+        public void complete(int status, String contentType, String location, byte[] body) {
+            if (this.outcome != Outcome.EXECUTE || this.entry.response.isDone()) {
+                return;
+            }
+            IdempotentResponse completed = new IdempotentResponse(
+                    this.entry.fingerprint, status, contentType, location, body, this.entry.expiresAt);
+            if (repository != null) {
+                try {
+                    repository.save(this.entry.key, completed);
+                } catch (RuntimeException e) {
+                    logger.warn("Cannot save the idempotency key {}, kept in memory only", this.entry.key, e);
+                }
+            }
+            this.entry.response.complete(completed);
+        }
+
+        /**
+         * Release the key without response, so the next request with it runs.
+         * Does nothing if the claim is already completed or abandoned.
+         *
+         * @since 1.0
+         */
+        public void abandon() {
+            if (this.outcome != Outcome.EXECUTE || this.entry.response.isDone()) {
+                return;
+            }
+            entries.remove(this.entry.key, this.entry);
+            this.entry.response.complete(null);
+        }
+    }
+
+    /**
+     * Key and response, completed with null when its request is abandoned.
+     *
+     * @since 1.0
+     */
+    private static class Entry {
+
+        private final String key;
+        private final String fingerprint;
+        private final long expiresAt;
+        private final CompletableFuture<IdempotentResponse> response = new CompletableFuture<>();
+
+        Entry(String key, String fingerprint, long expiresAt) {
+            this.key = key;
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
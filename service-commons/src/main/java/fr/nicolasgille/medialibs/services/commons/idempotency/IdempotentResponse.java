@@ -0,0 +1,82 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+/**
+ * Response of a request, replayed to its retries.
+ *
+ * Only what the controllers set is kept: the status, the content type, the location and the body.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class IdempotentResponse {
+
+    /**
+     * Hash of the method, the uri and the body of the request.
+     *
+     * @since 1.0
+     */
+    private final String fingerprint;
+
+    private final int status;
+    private final String contentType;
+    private final String location;
+    private final byte[] body;
+
+    /**
+     * Time the response stops being replayed, in milliseconds since the epoch.
+     *
+     * @since 1.0
+     */
+    private final long expiresAt;
+
+    public IdempotentResponse(String fingerprint, int status, String contentType, String location, byte[] body, long expiresAt) {
+        this.fingerprint = fingerprint;
+        this.status = status;
+        this.contentType = contentType;
+        this.location = location;
+        this.body = body;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+
+/**
+ * Jackson converter of a binary {@link EntityFormat}, read and written only when the client asks for it.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class BinaryEntityHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    /**
+     * Create the converter.
+     *
+     * @param format
+     *  Format of the messages.
+     * @param objectMapper
+     *  Mapper built on the factory of the format.
+     * @since 1.0
+     */
+    public BinaryEntityHttpMessageConverter(EntityFormat format, ObjectMapper objectMapper) {
+        super(objectMapper, format.getMediaType());
+        // The body is not text, no charset is added to its content type.
+        setDefaultCharset(null);
+    }
+}
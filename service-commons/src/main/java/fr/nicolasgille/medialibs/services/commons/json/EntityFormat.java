@@ -0,0 +1,134 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import fr.nicolasgille.medialibs.core.loan.Loan;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.core.user.User;
+import org.springframework.http.MediaType;
+
+/**
+ * Encodings of the entities negotiated with the <code>Accept</code> and <code>Content-Type</code> headers.
+ *
+ * Every format writes the same fields with the serializers of {@link #entityModule()}, which is the only
+ * definition of the schema: the services and their clients share it through this module.
+ * Json stays the default, CBOR and Smile are the compact binary alternatives.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public enum EntityFormat {
+
+    JSON(MediaType.APPLICATION_JSON) {
+        @Override
+        public JsonFactory createFactory() {
+            return new JsonFactory();
+        }
+    },
+    CBOR(new MediaType("application", "cbor")) {
+        @Override
+        public JsonFactory createFactory() {
+            return new CBORFactory();
+        }
+    },
+    SMILE(new MediaType("application", "x-jackson-smile")) {
+        @Override
+        public JsonFactory createFactory() {
+            return new SmileFactory();
+        }
+    };
+
+    private final MediaType mediaType;
+
+    EntityFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * Create the Jackson factory reading and writing this format.
+     *
+     * @return
+     *  A new factory.
+     * @since 1.0
+     */
+    public abstract JsonFactory createFactory();
+
+    /**
+     * Create a mapper of the entities for a client without Spring Boot.
+     * The services configure theirs with the settings of <code>spring.jackson.*</code>.
+     *
+     * @return
+     *  A mapper of this format, knowing the entities and ignoring the unknown properties.
+     * @since 1.0
+     */
+    public ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper(createFactory());
+        mapper.registerModule(entityModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+
+    /**
+     * Find the format of a media type.
+     *
+     * @param name
+     *  Name of the format, or its media type.
+     * @return
+     *  The format.
+     * @throws IllegalArgumentException
+     *  If the format is unknown.
+     * @since 1.0
+     */
+    public static EntityFormat of(String name) {
+        for (EntityFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name) || format.mediaType.toString().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown format '" + name + "'");
+    }
+
+    /**
+     * Build the module writing the entities.
+     *
+     * @return
+     *  The serializers of {@link Media}, {@link Stock}, {@link Loan} and {@link User}.
+     * @since 1.0
+     */
+    public static Module entityModule() {
+        SimpleModule module = new SimpleModule("medialibs-entities");
+        module.addSerializer(Media.class, new MediaJsonSerializer());
+        module.addSerializer(Stock.class, new StockJsonSerializer());
+        module.addSerializer(Loan.class, new LoanJsonSerializer());
+        module.addSerializer(User.class, new UserJsonSerializer());
+        return module;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * All entities of a type, read and written one by one when the response is written
+ * instead of being loaded in a list first.
+ *
+ * Return it as the body of a response, see {@link EntityStreamHttpMessageConverter}.
+ *
+ * @param <T>
+ *  Type of the entities.
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class EntityStream<T> {
+
+    private final Class<T> type;
+
+    /**
+     * Source of the entities, null to scroll the table of the entity.
+     *
+     * @since 1.1
+     */
+    private final Supplier<Stream<T>> rows;
+
+    private EntityStream(Class<T> type, Supplier<Stream<T>> rows) {
+        this.type = type;
+        this.rows = rows;
+    }
+
+    /**
+     * Stream all entities of a type, by identifier.
+     *
+     * @param type
+     *  Entity class, with an <code>id</code> property.
+     * @param <T>
+     *  Type of the entities.
+     * @return
+     *  The stream, read when the response is written.
+     * @since 1.0
+     */
+    public static <T> EntityStream<T> of(Class<T> type) {
+        return new EntityStream<>(type, null);
+    }
+
+    /**
+     * Stream entities read by the caller, such as the entities of several databases.
+     *
+     * The stream is opened when the response is written, outside of any transaction, and closed after.
+     *
+     * @param type
+     *  Entity class.
+     * @param rows
+     *  Opens the stream of the entities.
+     * @param <T>
+     *  Type of the entities.
+     * @return
+     *  The stream, read when the response is written.
+     * @since 1.1
+     */
+    public static <T> EntityStream<T> of(Class<T> type, Supplier<Stream<T>> rows) {
+        return new EntityStream<>(type, rows);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    public Supplier<Stream<T>> getRows() {
+        return rows;
+    }
+}
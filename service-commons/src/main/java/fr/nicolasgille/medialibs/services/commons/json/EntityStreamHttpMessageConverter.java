@@ -0,0 +1,230 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.hibernate.CacheMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+
+/**
+ * Write an {@link EntityStream} as an array of one {@link EntityFormat}, read by pages of identifiers.
+ *
+ * Each page is written as soon as it is read and the response is flushed every few entities,
+ * so the first bytes leave before the last row is read and the heap only holds one page.
+ * The persistence context is cleared after each page for the same reason. A page is read with
+ * <code>id &gt; last</code> on the primary key, so each page costs the same as the first.
+ * An empty stream answers 204, like the list endpoints.
+ * A stream of entities read by the caller is written the same way, outside of any transaction.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.3
+ */
+public class EntityStreamHttpMessageConverter extends AbstractHttpMessageConverter<EntityStream<?>> {
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final JsonStreamingProperties properties;
+
+    /**
+     * Create the converter.
+     *
+     * @param entityManagerFactory
+     *  Factory of the entities to stream.
+     * @param transactionManager
+     *  Manager of the read-only transaction holding the cursor, routed to a replica if any.
+     * @param format
+     *  Format of the response.
+     * @param objectMapper
+     *  Mapper writing each entity, built on the factory of the format.
+     * @param properties
+     *  Settings of the streaming.
+     * @since 1.0
+     * @version 1.1
+     */
+    public EntityStreamHttpMessageConverter(EntityManagerFactory entityManagerFactory,
+                                            PlatformTransactionManager transactionManager, EntityFormat format,
+                                            ObjectMapper objectMapper, JsonStreamingProperties properties) {
+        super(format == EntityFormat.JSON ? StandardCharsets.UTF_8 : null, supportedMediaTypes(format));
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        this.properties = properties;
+    }
+
+    private static MediaType[] supportedMediaTypes(EntityFormat format) {
+        if (format == EntityFormat.JSON) {
+            return new MediaType[] { MediaType.APPLICATION_JSON, new MediaType("application", "*+json") };
+        }
+        return new MediaType[] { format.getMediaType() };
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return EntityStream.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected EntityStream<?> readInternal(Class<? extends EntityStream<?>> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("An entity stream is only written");
+    }
+
+    @Override
+    protected void writeInternal(EntityStream<?> stream, HttpOutputMessage outputMessage) {
+        if (stream.getRows() != null) {
+            try (Stream<?> rows = stream.getRows().get()) {
+                write(stream.getType(), rows.iterator(), null, outputMessage);
+            }
+            return;
+        }
+        this.transactionTemplate.execute(status -> {
+            write(stream, outputMessage);
+            return null;
+        });
+    }
+
+    private void write(EntityStream<?> stream, HttpOutputMessage outputMessage) {
+        Session session = this.entityManager.unwrap(Session.class);
+        write(stream.getType(), new Iterator<Object>() {
+
+            private Iterator<?> page;
+            private Serializable last;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!this.exhausted && (this.page == null || !this.page.hasNext())) {
+                    List<?> rows = page(session, stream.getType(), this.last);
+                    this.exhausted = rows.size() < properties.getFetchSize();
+                    if (!rows.isEmpty()) {
+                        this.last = session.getIdentifier(rows.get(rows.size() - 1));
+                    }
+                    this.page = rows.iterator();
+                }
+                return this.page.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return this.page.next();
+            }
+        }, session, outputMessage);
+    }
+
+    /**
+     * Read the page of entities following an identifier.
+     *
+     * The entities of a page are loaded together, so their collections are read with
+     * one query per batch (<code>hibernate.default_batch_fetch_size</code>) instead of one per entity.
+     *
+     * @param last
+     *  Identifier of the last entity written, null for the first page.
+     * @since 1.3
+     */
+    private List<?> page(Session session, Class<?> type, Serializable last) {
+        Query query = session
+                .createQuery("from " + type.getName() + " e"
+                        + (last == null ? "" : " where e.id > :last") + " order by e.id")
+                .setReadOnly(true)
+                .setFetchSize(this.properties.getFetchSize())
+                .setMaxResults(this.properties.getFetchSize())
+                // Use the cached collections, but do not fill the cache with a whole table.
+                .setCacheMode(CacheMode.GET);
+        if (last != null) {
+            query.setParameter("last", last);
+        }
+        return query.list();
+    }
+
+    /**
+     * Write the entities, or answer 204 if there is none.
+     *
+     * @param session
+     *  Session reading the entities, cleared after each page, or null.
+     * @since 1.1
+     */
+    private void write(Class<?> type, Iterator<?> rows, Session session, HttpOutputMessage outputMessage) {
+        try {
+            if (!rows.hasNext()) {
+                if (outputMessage instanceof ServerHttpResponse) {
+                    outputMessage.getHeaders().remove(HttpHeaders.CONTENT_TYPE);
+                    ((ServerHttpResponse) outputMessage).setStatusCode(HttpStatus.NO_CONTENT);
+                }
+                return;
+            }
+
+            ObjectWriter writer = this.objectMapper.writerFor(type)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            JsonGenerator generator = this.objectMapper.getFactory()
+                    .createGenerator(outputMessage.getBody(), JsonEncoding.UTF8);
+            generator.writeStartArray();
+            long written = 0;
+            while (rows.hasNext()) {
+                writer.writeValue(generator, rows.next());
+                if (++written % this.properties.getFlushEvery() == 0) {
+                    generator.flush();
+                }
+                if (session != null && written % this.properties.getFetchSize() == 0) {
+                    // End of a page, whose entities are no longer needed.
+                    session.clear();
+                }
+            }
+            generator.writeEndArray();
+            generator.flush();
+        } catch (IOException e) {
+            throw new HttpMessageNotWritableException("Cannot stream " + type.getSimpleName(), e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.Session;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.AutoConfigureBefore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Serializers of the entities written without reflection, streaming of the lists and binary encodings.
+ *
+ * The serializers are registered on the mapper of Spring Boot, so every response uses them;
+ * the converters write the {@link EntityStream} returned by the list endpoints.
+ * The compression is left to Tomcat (<code>server.compression.*</code>), which skips the small responses
+ * once their length is known, see {@link SizedJsonHttpMessageConverter}.
+ * A client sending <code>Accept: application/cbor</code> or <code>application/x-jackson-smile</code>
+ * reads the same entities in binary, see {@link EntityFormat}; json stays the default.
+ *
+ * Always enabled, since the list endpoints return an {@link EntityStream}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@AutoConfigureAfter(HibernateJpaAutoConfiguration.class)
+@AutoConfigureBefore(HttpMessageConvertersAutoConfiguration.class)
+@ConditionalOnClass({ ObjectMapper.class, Session.class })
+@EnableConfigurationProperties(JsonStreamingProperties.class)
+public class JsonStreamingConfiguration {
+
+    @Bean
+    public Module entityJsonModule() {
+        return EntityFormat.entityModule();
+    }
+
+    /**
+     * Replace the Jackson converter of Spring Boot.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public SizedJsonHttpMessageConverter sizedJsonHttpMessageConverter(ObjectMapper objectMapper) {
+        return new SizedJsonHttpMessageConverter(objectMapper);
+    }
+
+    /**
+     * Stream the lists in json, the first streaming converter so it answers the clients accepting any type.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    @Bean
+    @ConditionalOnBean({ EntityManagerFactory.class, PlatformTransactionManager.class })
+    public EntityStreamHttpMessageConverter entityStreamHttpMessageConverter(EntityManagerFactory entityManagerFactory,
+                                                                             PlatformTransactionManager transactionManager,
+                                                                             ObjectMapper objectMapper,
+                                                                             JsonStreamingProperties properties) {
+        return new EntityStreamHttpMessageConverter(entityManagerFactory, transactionManager,
+                EntityFormat.JSON, objectMapper, properties);
+    }
+
+    @Bean
+    @ConditionalOnBean({ EntityManagerFactory.class, PlatformTransactionManager.class })
+    public EntityStreamHttpMessageConverter cborEntityStreamHttpMessageConverter(EntityManagerFactory entityManagerFactory,
+                                                                                 PlatformTransactionManager transactionManager,
+                                                                                 Jackson2ObjectMapperBuilder builder,
+                                                                                 JsonStreamingProperties properties) {
+        return new EntityStreamHttpMessageConverter(entityManagerFactory, transactionManager,
+                EntityFormat.CBOR, mapper(EntityFormat.CBOR, builder), properties);
+    }
+
+    @Bean
+    @ConditionalOnBean({ EntityManagerFactory.class, PlatformTransactionManager.class })
+    public EntityStreamHttpMessageConverter smileEntityStreamHttpMessageConverter(EntityManagerFactory entityManagerFactory,
+                                                                                  PlatformTransactionManager transactionManager,
+                                                                                  Jackson2ObjectMapperBuilder builder,
+                                                                                  JsonStreamingProperties properties) {
+        return new EntityStreamHttpMessageConverter(entityManagerFactory, transactionManager,
+                EntityFormat.SMILE, mapper(EntityFormat.SMILE, builder), properties);
+    }
+
+    @Bean
+    public BinaryEntityHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new BinaryEntityHttpMessageConverter(EntityFormat.CBOR, mapper(EntityFormat.CBOR, builder));
+    }
+
+    @Bean
+    public BinaryEntityHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new BinaryEntityHttpMessageConverter(EntityFormat.SMILE, mapper(EntityFormat.SMILE, builder));
+    }
+
+    /**
+     * Move the binary converters after the json one, so json answers the clients accepting any type.
+     * Spring Boot puts the added converters first, and the first producible type wins on <code>*&#47;*</code>.
+     * The streaming converters stay first, they must be chosen over Jackson for an {@link EntityStream}.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public WebMvcConfigurerAdapter binaryConvertersLastConfigurer() {
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                List<HttpMessageConverter<?>> binary = new ArrayList<>();
+                for (Iterator<HttpMessageConverter<?>> iterator = converters.iterator(); iterator.hasNext(); ) {
+                    HttpMessageConverter<?> converter = iterator.next();
+                    if (converter instanceof BinaryEntityHttpMessageConverter) {
+                        binary.add(converter);
+                        iterator.remove();
+                    }
+                }
+                converters.addAll(binary);
+            }
+        };
+    }
+
+    /**
+     * Build a mapper of a binary format with the settings and modules of the json mapper.
+     *
+     * @param format
+     *  Format of the mapper.
+     * @param builder
+     *  Builder of the json mapper, configured by Spring Boot.
+     * @return
+     *  The mapper.
+     * @since 1.0
+     */
+    private static ObjectMapper mapper(EntityFormat format, Jackson2ObjectMapperBuilder builder) {
+        ObjectMapper mapper = new ObjectMapper(format.createFactory());
+        builder.configure(mapper);
+        return mapper;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the json streaming, under the prefix <code>medialibs.json</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.json")
+public class JsonStreamingProperties {
+
+    /**
+     * Entities read per page, one query by identifier. Keep <code>hibernate.default_batch_fetch_size</code>
+     * at least as large so the collections of a page are read with one query too.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private int fetchSize = 100;
+
+    /**
+     * Entities written between two flushes of the response.
+     *
+     * @since 1.0
+     */
+    private int flushEvery = 100;
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFlushEvery() {
+        return flushEvery;
+    }
+
+    public void setFlushEvery(int flushEvery) {
+        this.flushEvery = flushEvery;
+    }
+}
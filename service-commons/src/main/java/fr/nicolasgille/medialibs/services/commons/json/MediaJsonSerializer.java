@@ -0,0 +1,61 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import fr.nicolasgille.medialibs.core.media.Media;
+import fr.nicolasgille.medialibs.core.media.MediaSupport;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Write a {@link Media} with the same json as the default serializer of Jackson, without reflection.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class MediaJsonSerializer extends StdSerializer<Media> {
+
+    public MediaJsonSerializer() {
+        super(Media.class);
+    }
+
+    @Override
+    public void serialize(Media media, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        EntityJsonFields.writeNumber(generator, "id", media.getId());
+        generator.writeStringField("name", media.getName());
+        generator.writeStringField("description", media.getDescription());
+        EntityJsonFields.writeDate(generator, provider, "releaseDate", media.getReleaseDate());
+        List<MediaSupport> supports = media.getSupports();
+        if (supports == null) {
+            generator.writeNullField("supports");
+        } else {
+            generator.writeArrayFieldStart("supports");
+            for (MediaSupport support : supports) {
+                generator.writeString(support == null ? null : support.name());
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import fr.nicolasgille.medialibs.core.stock.Stock;
+
+import java.io.IOException;
+
+/**
+ * Write a {@link Stock} with the same json as the default serializer of Jackson, without reflection.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StockJsonSerializer extends StdSerializer<Stock> {
+
+    public StockJsonSerializer() {
+        super(Stock.class);
+    }
+
+    @Override
+    public void serialize(Stock stock, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("id", stock.getId());
+        generator.writeNumberField("mediaId", stock.getMediaId());
+        generator.writeNumberField("initialStock", stock.getInitialStock());
+        generator.writeNumberField("currentStock", stock.getCurrentStock());
+        generator.writeBooleanField("fill", stock.isFill());
+        generator.writeBooleanField("empty", stock.isEmpty());
+        generator.writeEndObject();
+    }
+}
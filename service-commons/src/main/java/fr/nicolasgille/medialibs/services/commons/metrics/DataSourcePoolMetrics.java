@@ -0,0 +1,96 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadata;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProviders;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Expose the usage of each connection pool known by Spring Boot.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class DataSourcePoolMetrics {
+
+    /**
+     * Register the gauges of the pools.
+     *
+     * @param registry
+     *  Registry of the service.
+     * @param dataSources
+     *  DataSources of the context, by bean name.
+     * @param providers
+     *  Providers of pool metadata registered by Spring Boot for the pools found on the classpath.
+     * @since 1.0
+     */
+    public DataSourcePoolMetrics(MetricsRegistry registry,
+                                 Map<String, DataSource> dataSources,
+                                 Collection<DataSourcePoolMetadataProvider> providers) {
+        DataSourcePoolMetadataProviders metadata = new DataSourcePoolMetadataProviders(providers);
+        for (Map.Entry<String, DataSource> dataSource : dataSources.entrySet()) {
+            DataSourcePoolMetadata pool = metadata.getDataSourcePoolMetadata(unwrap(dataSource.getValue()));
+            if (pool == null) {
+                continue;
+            }
+
+            String labels = MetricsRegistry.labels("datasource", dataSource.getKey());
+            gauge(registry, "medialibs_datasource_connections_active", "Connections currently borrowed from the pool.",
+                    labels, pool, DataSourcePoolMetadata::getActive);
+            gauge(registry, "medialibs_datasource_connections_max", "Maximum number of connections of the pool.",
+                    labels, pool, DataSourcePoolMetadata::getMax);
+            gauge(registry, "medialibs_datasource_connections_min", "Minimum number of idle connections of the pool.",
+                    labels, pool, DataSourcePoolMetadata::getMin);
+            gauge(registry, "medialibs_datasource_usage", "Borrowed connections on the maximum size of the pool.",
+                    labels, pool, DataSourcePoolMetadata::getUsage);
+        }
+    }
+
+    /**
+     * Find the pool behind the proxies of a DataSource.
+     *
+     * @param dataSource
+     *  DataSource, maybe wrapped by a proxy like the statement profiler.
+     * @return
+     *  The innermost DataSource.
+     * @since 1.0
+     */
+    private static DataSource unwrap(DataSource dataSource) {
+        DataSource target = dataSource;
+        while (target instanceof DelegatingDataSource && ((DelegatingDataSource) target).getTargetDataSource() != null) {
+            target = ((DelegatingDataSource) target).getTargetDataSource();
+        }
+        return target;
+    }
+
+    private static void gauge(MetricsRegistry registry, String name, String help, String labels,
+                              DataSourcePoolMetadata pool, Function<DataSourcePoolMetadata, Number> value) {
+        registry.gauge(name, help, labels, () -> {
+            Number number = value.apply(pool);
+            return number == null ? Double.NaN : number.doubleValue();
+        });
+    }
+}
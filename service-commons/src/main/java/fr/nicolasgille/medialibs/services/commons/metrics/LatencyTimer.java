@@ -0,0 +1,263 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Latency histogram of one operation.
+ *
+ * The record path only touches a HdrHistogram {@link Recorder} and two {@link LongAdder},
+ * does not allocate and never waits for a lock. Percentiles are computed over a sliding window of
+ * {@link #BUCKETS} buckets: the recorded values are moved to the current bucket when it ends or
+ * a snapshot is taken, and the oldest bucket is cleared when the window slides. At the end of a bucket,
+ * the recording thread that takes the rotation lock without waiting moves the values, the others record
+ * as usual; while a snapshot holds the lock, the snapshot moves them. Taking a snapshot does not reset
+ * anything, so several scrapers read the same window.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+public class LatencyTimer {
+
+    /**
+     * Highest latency tracked, in microseconds. Longer latencies are recorded as this value.
+     *
+     * @since 1.0
+     */
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    /**
+     * Duration of the window of the percentiles, in nanoseconds.
+     *
+     * @since 1.1
+     */
+    private static final long WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Number of buckets of the window: the percentiles cover between 5/6 of the window and the whole window.
+     *
+     * @since 1.1
+     */
+    private static final int BUCKETS = 6;
+
+    /**
+     * Duration of a bucket, in nanoseconds.
+     *
+     * @since 1.1
+     */
+    private static final long BUCKET = WINDOW / BUCKETS;
+
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY, 2);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Buckets of the window, the current one at {@link #current}.
+     *
+     * @since 1.1
+     */
+    private final Histogram[] buckets = new Histogram[BUCKETS];
+    private int current;
+
+    /**
+     * Start of the current bucket, read without lock by {@link #record(long)}.
+     *
+     * @since 1.1
+     */
+    private volatile long currentStart;
+
+    /**
+     * Creation of the timer, to compute the rate before the window is full.
+     *
+     * @since 1.1
+     */
+    private final long created;
+
+    /**
+     * Histogram given back to the recorder on the next rotation.
+     *
+     * @since 1.0
+     */
+    private Histogram recycled;
+
+    /**
+     * Histogram of the whole window, rebuilt by each snapshot.
+     *
+     * @since 1.1
+     */
+    private final Histogram merged = new Histogram(HIGHEST_LATENCY, 2);
+
+    /**
+     * Guard of the buckets, taken by the snapshots and tried by the recording threads.
+     *
+     * @since 1.2
+     */
+    private final ReentrantLock rotation = new ReentrantLock();
+
+    public LatencyTimer() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new Histogram(HIGHEST_LATENCY, 2);
+        }
+        this.created = System.nanoTime();
+        this.currentStart = this.created;
+    }
+
+    /**
+     * Record one latency.
+     *
+     * @param nanos
+     *  Duration of the operation, in nanoseconds.
+     * @since 1.0
+     * @version 1.2
+     */
+    public void record(long nanos) {
+        long now = System.nanoTime();
+        if (now - this.currentStart >= BUCKET && this.rotation.tryLock()) {
+            try {
+                this.rotate(now);
+            } finally {
+                this.rotation.unlock();
+            }
+        }
+        this.recorder.recordValue(Math.min(Math.max(nanos / 1000, 0), HIGHEST_LATENCY));
+        this.count.increment();
+        this.totalNanos.add(nanos);
+    }
+
+    /**
+     * Take the values recorded over the window.
+     *
+     * @return
+     *  The percentiles and rate of the window, with the totals since start.
+     * @since 1.0
+     * @version 1.2
+     */
+    public Snapshot snapshot() {
+        this.rotation.lock();
+        try {
+            long now = System.nanoTime();
+            this.rotate(now);
+            this.merged.reset();
+            for (Histogram bucket : this.buckets) {
+                this.merged.add(bucket);
+            }
+            double seconds = Math.min(now - this.created, (BUCKETS - 1) * BUCKET + (now - this.currentStart)) / 1e9;
+
+            return new Snapshot(
+                    this.merged.getValueAtPercentile(50) / 1e6,
+                    this.merged.getValueAtPercentile(90) / 1e6,
+                    this.merged.getValueAtPercentile(99) / 1e6,
+                    this.merged.getValueAtPercentile(99.9) / 1e6,
+                    this.merged.getMaxValue() / 1e6,
+                    this.count.sum(),
+                    this.totalNanos.sum() / 1e9,
+                    seconds > 0 ? this.merged.getTotalCount() / seconds : 0);
+        } finally {
+            this.rotation.unlock();
+        }
+    }
+
+    /**
+     * Move the recorded values to the current bucket, then slide the window if the bucket ended.
+     * Called with the rotation lock held.
+     *
+     * @param now
+     *  Current time, in nanoseconds.
+     * @since 1.1
+     * @version 1.2
+     */
+    private void rotate(long now) {
+        this.recycled = this.recorder.getIntervalHistogram(this.recycled);
+        this.buckets[this.current].add(this.recycled);
+        long ended = (now - this.currentStart) / BUCKET;
+        if (ended > 0) {
+            for (long i = 0; i < Math.min(ended, BUCKETS); i++) {
+                this.current = (this.current + 1) % BUCKETS;
+                this.buckets[this.current].reset();
+            }
+            this.currentStart += ended * BUCKET;
+        }
+    }
+
+    /**
+     * Values of a timer at a given time. Latencies are in seconds, the rate in operations per second.
+     *
+     * @since 1.0
+     */
+    public static class Snapshot {
+
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double p999;
+        private final double max;
+        private final long count;
+        private final double sum;
+        private final double rate;
+
+        Snapshot(double p50, double p90, double p99, double p999, double max, long count, double sum, double rate) {
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+            this.count = count;
+            this.sum = sum;
+            this.rate = rate;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+    }
+}
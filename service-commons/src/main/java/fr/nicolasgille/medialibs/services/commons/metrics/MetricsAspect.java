@@ -0,0 +1,250 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.data.repository.Repository;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Time every handler of the rest controllers and every repository call.
+ *
+ * The timers are looked up once per method and cached, so the hot path only
+ * reads a map and records into the histogram.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Aspect
+public class MetricsAspect {
+
+    private final MetricsRegistry registry;
+
+    /**
+     * Metrics of each handler method.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Method, HandlerMetrics> handlers = new ConcurrentHashMap<>();
+
+    /**
+     * Timer of each repository method, by repository interface.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyTimer>> repositories = new ConcurrentHashMap<>();
+
+    public MetricsAspect(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Time a handler and count the status of its response.
+     *
+     * An asynchronous handler returning a {@link DeferredResult} is measured until its result is set,
+     * and a handler starting the asynchronous mode of the request itself until the request completes.
+     *
+     * @param joinPoint
+     *  Handler invocation.
+     * @return
+     *  The response of the handler.
+     * @throws Throwable
+     *  Exception thrown by the handler, counted as a 500.
+     * @since 1.0
+     */
+    @Around("@within(org.springframework.web.bind.annotation.RestController)"
+            + " && !within(fr.nicolasgille.medialibs.services.commons..*)")
+    public Object timeHandler(ProceedingJoinPoint joinPoint) throws Throwable {
+        HandlerMetrics metrics = handler(((MethodSignature) joinPoint.getSignature()).getMethod());
+        long start = System.nanoTime();
+        Object response;
+        try {
+            response = joinPoint.proceed();
+        } catch (Throwable e) {
+            metrics.record(start, 500);
+            throw e;
+        }
+
+        HttpServletRequest request;
+        if (response instanceof DeferredResult) {
+            DeferredResult<?> deferred = (DeferredResult<?>) response;
+            deferred.onCompletion(() -> metrics.record(start, status(deferred.getResult())));
+        } else if (response == null && (request = asyncRequest()) != null) {
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    metrics.record(start, ((HttpServletResponse) event.getSuppliedResponse()).getStatus());
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            metrics.record(start, status(response));
+        }
+        return response;
+    }
+
+    /**
+     * Time a repository call.
+     *
+     * @param joinPoint
+     *  Repository invocation.
+     * @return
+     *  The result of the repository.
+     * @throws Throwable
+     *  Exception thrown by the repository.
+     * @since 1.0
+     */
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        LatencyTimer timer = repository(joinPoint.getThis().getClass(),
+                ((MethodSignature) joinPoint.getSignature()).getMethod());
+        long start = System.nanoTime();
+        try {
+            return joinPoint.proceed();
+        } finally {
+            timer.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get the http status of a response.
+     *
+     * @param response
+     *  Value returned by a handler, or result of an asynchronous handler.
+     * @return
+     *  The status of a ResponseEntity, 500 for an exception, 200 otherwise.
+     * @since 1.0
+     */
+    private static int status(Object response) {
+        if (response instanceof ResponseEntity) {
+            return ((ResponseEntity<?>) response).getStatusCodeValue();
+        }
+        return response instanceof Throwable ? 500 : 200;
+    }
+
+    /**
+     * Get the current request when its handler started the asynchronous mode itself.
+     *
+     * @return
+     *  The request, or null.
+     * @since 1.0
+     */
+    private static HttpServletRequest asyncRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes)) {
+            return null;
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        return request.isAsyncStarted() ? request : null;
+    }
+
+    private HandlerMetrics handler(Method method) {
+        HandlerMetrics metrics = this.handlers.get(method);
+        if (metrics == null) {
+            String labels = MetricsRegistry.labels(
+                    "handler", method.getDeclaringClass().getSimpleName() + "." + method.getName());
+            metrics = this.handlers.computeIfAbsent(method, m -> new HandlerMetrics(
+                    this.registry.timer("medialibs_http_server_requests", "Latency of the http handlers.", labels),
+                    this.registry.statusCounter("medialibs_http_server_responses", "Responses of the http handlers by status.", labels)));
+        }
+        return metrics;
+    }
+
+    private LatencyTimer repository(Class<?> proxyClass, Method method) {
+        ConcurrentMap<Method, LatencyTimer> timers = this.repositories.get(proxyClass);
+        if (timers == null) {
+            timers = this.repositories.computeIfAbsent(proxyClass, c -> new ConcurrentHashMap<>());
+        }
+        LatencyTimer timer = timers.get(method);
+        if (timer == null) {
+            String labels = MetricsRegistry.labels(
+                    "repository", repositoryName(proxyClass),
+                    "method", method.getName());
+            timer = timers.computeIfAbsent(method,
+                    m -> this.registry.timer("medialibs_repository_calls", "Latency of the repository calls.", labels));
+        }
+        return timer;
+    }
+
+    /**
+     * Find the name of the repository interface implemented by a proxy.
+     *
+     * @param proxyClass
+     *  Class of the repository proxy.
+     * @return
+     *  The simple name of the first application interface extending {@link Repository}.
+     * @since 1.0
+     */
+    private static String repositoryName(Class<?> proxyClass) {
+        for (Class<?> type : proxyClass.getInterfaces()) {
+            if (Repository.class.isAssignableFrom(type) && !type.getName().startsWith("org.springframework.")) {
+                return type.getSimpleName();
+            }
+        }
+        return proxyClass.getSimpleName();
+    }
+
+    /**
+     * Timer and status counter of one handler.
+     *
+     * @since 1.0
+     */
+    private static class HandlerMetrics {
+
+        private final LatencyTimer latency;
+        private final StatusCounter statuses;
+
+        HandlerMetrics(LatencyTimer latency, StatusCounter statuses) {
+            this.latency = latency;
+            this.statuses = statuses;
+        }
+
+        void record(long start, int status) {
+            this.latency.record(System.nanoTime() - start);
+            this.statuses.increment(status);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.metadata.DataSourcePoolMetadataProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Latency histograms of the handlers and repositories, status counters,
+ * connection pool usage, and the <code>/metrics</code> endpoint exposing them.
+ *
+ * Enabled unless <code>medialibs.metrics.enabled = false</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@AutoConfigureAfter(DataSourceAutoConfiguration.class)
+@ConditionalOnProperty(prefix = "medialibs.metrics", name = "enabled", matchIfMissing = true)
+public class MetricsConfiguration {
+
+    @Bean
+    public MetricsRegistry metricsRegistry() {
+        return new MetricsRegistry();
+    }
+
+    @Bean
+    public MetricsAspect metricsAspect(MetricsRegistry metricsRegistry) {
+        return new MetricsAspect(metricsRegistry);
+    }
+
+    @Bean
+    public MetricsRestController metricsRestController(MetricsRegistry metricsRegistry) {
+        return new MetricsRestController(metricsRegistry);
+    }
+
+    @Bean
+    public DataSourcePoolMetrics dataSourcePoolMetrics(MetricsRegistry metricsRegistry,
+                                                       ObjectProvider<Map<String, DataSource>> dataSources,
+                                                       ObjectProvider<Collection<DataSourcePoolMetadataProvider>> providers) {
+        Map<String, DataSource> beans = dataSources.getIfAvailable();
+        Collection<DataSourcePoolMetadataProvider> metadataProviders = providers.getIfAvailable();
+        return new DataSourcePoolMetrics(metricsRegistry,
+                beans == null ? Collections.<String, DataSource>emptyMap() : beans,
+                metadataProviders == null ? Collections.<DataSourcePoolMetadataProvider>emptyList() : metadataProviders);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * All metrics of a service, written in the Prometheus text format.
+ *
+ * Metrics are grouped by family (one name, one help, one type) and identified
+ * inside a family by their labels. Callers keep the returned timers and counters
+ * so the lookup is done once, not on every record.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class MetricsRegistry {
+
+    /**
+     * Content type of the Prometheus text format.
+     *
+     * @since 1.0
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Type of the metrics of a family.
+     *
+     * @since 1.0
+     */
+    private enum Type {
+        SUMMARY, COUNTER, GAUGE
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Get or create a latency timer.
+     *
+     * @param name
+     *  Name of the family, without unit suffix: the latencies are exposed in seconds.
+     * @param help
+     *  Description of the family.
+     * @param labels
+     *  Labels of the timer, see {@link #labels(String...)}.
+     * @return
+     *  The timer.
+     * @since 1.0
+     */
+    public LatencyTimer timer(String name, String help, String labels) {
+        return (LatencyTimer) family(name + "_seconds", help, Type.SUMMARY)
+                .metrics.computeIfAbsent(labels, l -> new LatencyTimer());
+    }
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name
+     *  Name of the family, without the <code>_total</code> suffix.
+     * @param help
+     *  Description of the family.
+     * @param labels
+     *  Labels of the counter.
+     * @return
+     *  The counter.
+     * @since 1.0
+     */
+    public LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) family(name + "_total", help, Type.COUNTER)
+                .metrics.computeIfAbsent(labels, l -> new LongAdder());
+    }
+
+    /**
+     * Get or create a counter of http statuses. Each status is exposed as a <code>status</code> label.
+     *
+     * @param name
+     *  Name of the family, without the <code>_total</code> suffix.
+     * @param help
+     *  Description of the family.
+     * @param labels
+     *  Labels of the counter, without the status.
+     * @return
+     *  The counter.
+     * @since 1.0
+     */
+    public StatusCounter statusCounter(String name, String help, String labels) {
+        return (StatusCounter) family(name + "_total", help, Type.COUNTER)
+                .metrics.computeIfAbsent(labels, l -> new StatusCounter());
+    }
+
+    /**
+     * Register a value read at each scrape.
+     *
+     * @param name
+     *  Name of the family.
+     * @param help
+     *  Description of the family.
+     * @param labels
+     *  Labels of the gauge.
+     * @param value
+     *  Function giving the current value.
+     * @since 1.0
+     */
+    public void gauge(String name, String help, String labels, DoubleSupplier value) {
+        family(name, help, Type.GAUGE).metrics.put(labels, value);
+    }
+
+    /**
+     * Register a counter maintained outside of the registry, read at each scrape.
+     *
+     * @param name
+     *  Name of the family, without the <code>_total</code> suffix.
+     * @param help
+     *  Description of the family.
+     * @param labels
+     *  Labels of the counter.
+     * @param value
+     *  Function giving the current count.
+     * @since 1.0
+     */
+    public void counterFunction(String name, String help, String labels, DoubleSupplier value) {
+        family(name + "_total", help, Type.COUNTER).metrics.put(labels, value);
+    }
+
+    /**
+     * Build the labels of a metric.
+     *
+     * @param keyValues
+     *  Names and values of the labels, alternately.
+     * @return
+     *  The labels under the form <code>key="value",key="value"</code>.
+     * @since 1.0
+     */
+    public static String labels(String... keyValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i + 1 < keyValues.length; i += 2) {
+            if (labels.length() > 0) {
+                labels.append(',');
+            }
+            labels.append(keyValues[i]).append("=\"")
+                    .append(keyValues[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return labels.toString();
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format.
+     *
+     * @param writer
+     *  Destination of the metrics.
+     * @throws IOException
+     *  If the writer fails.
+     * @since 1.0
+     * @version 1.1
+     */
+    public void write(Writer writer) throws IOException {
+        for (Family family : new TreeMap<>(this.families).values()) {
+            if (family.type == Type.SUMMARY) {
+                writeSummary(writer, family);
+                continue;
+            }
+            header(writer, family.name, family.help, family.type);
+            for (Map.Entry<String, Object> entry : new TreeMap<>(family.metrics).entrySet()) {
+                write(writer, family, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write a family of timers, then the rate of each timer as a gauge family of its own,
+     * named after the timers with <code>_rate</code> instead of <code>_seconds</code>.
+     *
+     * @since 1.1
+     */
+    private static void writeSummary(Writer writer, Family family) throws IOException {
+        Map<String, LatencyTimer.Snapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : family.metrics.entrySet()) {
+            snapshots.put(entry.getKey(), ((LatencyTimer) entry.getValue()).snapshot());
+        }
+        header(writer, family.name, family.help, Type.SUMMARY);
+        for (Map.Entry<String, LatencyTimer.Snapshot> entry : snapshots.entrySet()) {
+            String labels = entry.getKey();
+            LatencyTimer.Snapshot snapshot = entry.getValue();
+            sample(writer, family.name, labels, "quantile=\"0.5\"", snapshot.getP50());
+            sample(writer, family.name, labels, "quantile=\"0.9\"", snapshot.getP90());
+            sample(writer, family.name, labels, "quantile=\"0.99\"", snapshot.getP99());
+            sample(writer, family.name, labels, "quantile=\"0.999\"", snapshot.getP999());
+            sample(writer, family.name, labels, "quantile=\"1.0\"", snapshot.getMax());
+            sample(writer, family.name + "_count", labels, null, snapshot.getCount());
+            sample(writer, family.name + "_sum", labels, null, snapshot.getSum());
+        }
+
+        String rate = family.name.replaceFirst("_seconds$", "_rate");
+        header(writer, rate, "Operations per second over the last minute. " + family.help, Type.GAUGE);
+        for (Map.Entry<String, LatencyTimer.Snapshot> entry : snapshots.entrySet()) {
+            sample(writer, rate, entry.getKey(), null, entry.getValue().getRate());
+        }
+    }
+
+    private static void header(Writer writer, String name, String help, Type type) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type.name().toLowerCase(Locale.ROOT) + "\n");
+    }
+
+    private static void write(Writer writer, Family family, String labels, Object metric) throws IOException {
+        if (metric instanceof StatusCounter) {
+            for (Map.Entry<Integer, Long> status : ((StatusCounter) metric).snapshot().entrySet()) {
+                sample(writer, family.name, labels, "status=\"" + status.getKey() + "\"", status.getValue());
+            }
+        } else if (metric instanceof LongAdder) {
+            sample(writer, family.name, labels, null, ((LongAdder) metric).sum());
+        } else if (metric instanceof DoubleSupplier) {
+            sample(writer, family.name, labels, null, ((DoubleSupplier) metric).getAsDouble());
+        }
+    }
+
+    private static void sample(Writer writer, String name, String labels, String extra, double value) throws IOException {
+        writer.write(name);
+        if (!labels.isEmpty() || extra != null) {
+            writer.write('{');
+            writer.write(labels);
+            if (extra != null) {
+                writer.write(labels.isEmpty() ? extra : "," + extra);
+            }
+            writer.write('}');
+        }
+        writer.write(' ');
+        writer.write(Double.isNaN(value) ? "NaN" : Double.toString(value));
+        writer.write('\n');
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = this.families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Metrics sharing the same name.
+     *
+     * @since 1.0
+     */
+    private static class Family {
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+        Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Scrape endpoint of the metrics, in the Prometheus text format.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class MetricsRestController {
+
+    private final MetricsRegistry registry;
+
+    public MetricsRestController(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Write all metrics of the service.
+     *
+     * @param response
+     *  Response where the metrics are written.
+     * @throws IOException
+     *  If the response cannot be written.
+     * @since 1.0
+     */
+    @GetMapping("/metrics")
+    public void scrape(HttpServletResponse response) throws IOException {
+        response.setContentType(MetricsRegistry.CONTENT_TYPE);
+        this.registry.write(response.getWriter());
+    }
+}
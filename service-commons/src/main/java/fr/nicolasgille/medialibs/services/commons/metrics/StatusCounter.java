@@ -0,0 +1,72 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Number of responses of one endpoint, by http status.
+ *
+ * One slot is reserved for each possible status, so counting never allocates.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StatusCounter {
+
+    /**
+     * Highest http status counted, exclusive.
+     *
+     * @since 1.0
+     */
+    private static final int MAX_STATUS = 600;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_STATUS);
+
+    /**
+     * Count one response.
+     *
+     * @param status
+     *  Http status of the response. Unknown statuses are counted as 500.
+     * @since 1.0
+     */
+    public void increment(int status) {
+        this.counts.incrementAndGet(status > 0 && status < MAX_STATUS ? status : 500);
+    }
+
+    /**
+     * Get the statuses already seen.
+     *
+     * @return
+     *  The number of responses by status, in status order.
+     * @since 1.0
+     */
+    public Map<Integer, Long> snapshot() {
+        Map<Integer, Long> statuses = new LinkedHashMap<>();
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = this.counts.get(status);
+            if (count > 0) {
+                statuses.put(status, count);
+            }
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+/**
+ * Change of one entity, published by the relay of the outbox.
+ *
+ * The offset grows with the commits of the changes of a same entity, so it also serves as the version of the entity:
+ * a subscriber may ignore an event older than the last one it applied for that entity.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public final class ChangeEvent {
+
+    /**
+     * Kind of change.
+     *
+     * @since 1.0
+     */
+    public enum Operation {
+        SAVED, DELETED
+    }
+
+    private final long offset;
+    private final String entityType;
+    private final long entityId;
+    private final Operation operation;
+    private final long createdAt;
+
+    public ChangeEvent(long offset, String entityType, long entityId, Operation operation, long createdAt) {
+        this.offset = offset;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.createdAt = createdAt;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getVersion() {
+        return offset;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent{" +
+                "offset=" + offset +
+                ", entityType='" + entityType + '\'' +
+                ", entityId=" + entityId +
+                ", operation=" + operation +
+                '}';
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import java.util.List;
+
+/**
+ * Subscriber of the event bus. Every ChangeListener bean of a service is subscribed at start-up, from the head.
+ *
+ * Delivery is at least once: a batch whose handling throws is delivered again, so handling must be idempotent.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public interface ChangeListener {
+
+    /**
+     * Handle a batch of events, in offset order.
+     *
+     * @param events
+     *  Events following the last batch handled.
+     * @throws Exception
+     *  To receive the same batch again after the retry delay.
+     * @since 1.0
+     */
+    void onChanges(List<ChangeEvent> events) throws Exception;
+}
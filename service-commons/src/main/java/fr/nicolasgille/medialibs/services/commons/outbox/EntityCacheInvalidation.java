@@ -0,0 +1,160 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evict from the second level cache the entities changed by another instance or another service.
+ *
+ * A change made by this instance already updated its cache; evicting it again only costs one miss.
+ * The cached collections of the entity are evicted with it, and the cached query results reading its
+ * tables are invalidated.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+public class EntityCacheInvalidation implements ChangeListener {
+
+    private final SessionFactory sessionFactory;
+    private final Cache cache;
+
+    /**
+     * Timestamps of the tables read by the cached queries, or null when the query cache is disabled.
+     *
+     * @since 1.1
+     */
+    private final UpdateTimestampsCache timestamps;
+
+    /**
+     * Cache regions of each cached entity, by simple class name.
+     *
+     * @since 1.0
+     */
+    private final Map<String, CachedEntity> cachedEntities = new HashMap<>();
+
+    public EntityCacheInvalidation(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+        this.cache = sessionFactory.getCache();
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        this.timestamps = factory.getSessionFactoryOptions().isQueryCacheEnabled() ? factory.getUpdateTimestampsCache() : null;
+        for (String entityName : sessionFactory.getAllClassMetadata().keySet()) {
+            EntityPersister persister = factory.getEntityPersister(entityName);
+            if (persister.hasCache()) {
+                this.cachedEntities.put(persister.getMappedClass().getSimpleName(), new CachedEntity(persister));
+            }
+        }
+        for (CollectionPersister persister : factory.getCollectionPersisters().values()) {
+            CachedEntity owner = this.cachedEntities.get(persister.getOwnerEntityPersister().getMappedClass().getSimpleName());
+            if (owner != null && persister.hasCache()) {
+                owner.collectionRoles.add(persister.getRole());
+            }
+        }
+    }
+
+    @Override
+    public void onChanges(List<ChangeEvent> events) {
+        if (this.cachedEntities.isEmpty()) {
+            return;
+        }
+        Set<Serializable> spaces = new LinkedHashSet<>();
+        for (ChangeEvent event : events) {
+            CachedEntity entity = this.cachedEntities.get(event.getEntityType());
+            if (entity != null) {
+                this.cache.evictEntity(entity.entityName, event.getEntityId());
+                for (String role : entity.collectionRoles) {
+                    this.cache.evictCollection(role, event.getEntityId());
+                }
+                spaces.addAll(entity.querySpaces);
+            }
+        }
+        invalidate(spaces);
+    }
+
+    /**
+     * Evict every cached entity, collection and query result, when the changes missed are unknown.
+     *
+     * @since 1.1
+     */
+    public void evictAll() {
+        Set<Serializable> spaces = new LinkedHashSet<>();
+        for (CachedEntity entity : this.cachedEntities.values()) {
+            this.cache.evictEntityRegion(entity.entityName);
+            for (String role : entity.collectionRoles) {
+                this.cache.evictCollectionRegion(role);
+            }
+            spaces.addAll(entity.querySpaces);
+        }
+        invalidate(spaces);
+    }
+
+    /**
+     * Mark tables as updated, so the cached query results reading them are not used anymore.
+     *
+     * @param spaces
+     *  Names of the tables.
+     * @since 1.1
+     */
+    private void invalidate(Set<Serializable> spaces) {
+        if (this.timestamps == null || spaces.isEmpty()) {
+            return;
+        }
+        // The timestamps are written through a session, which opens no connection for it.
+        Session session = this.sessionFactory.openSession();
+        try {
+            this.timestamps.invalidate(spaces.toArray(new Serializable[spaces.size()]), (SessionImplementor) session);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Cache regions of an entity.
+     *
+     * @since 1.1
+     */
+    private static class CachedEntity {
+
+        private final String entityName;
+        private final List<String> collectionRoles = new ArrayList<>();
+        private final List<Serializable> querySpaces = new ArrayList<>();
+
+        CachedEntity(EntityPersister persister) {
+            this.entityName = persister.getEntityName();
+            for (Serializable space : persister.getQuerySpaces()) {
+                this.querySpaces.add(space);
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process transport of the change events, standing in for a message broker.
+ *
+ * The bus keeps the most recent events in memory. Each subscription has its own thread and offset,
+ * so a slow subscriber never holds back the others. A subscription resumes from an offset older
+ * than the events in memory by reading the outbox table.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class LocalEventBus {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(LocalEventBus.class);
+
+    /**
+     * Source of the events no longer in memory.
+     *
+     * @since 1.0
+     */
+    private final OutboxStore store;
+
+    private final int capacity;
+    private final int batchSize;
+    private final long retryDelay;
+
+    /**
+     * Recent events, in offset order. Guarded by this.
+     *
+     * @since 1.0
+     */
+    private final ArrayDeque<ChangeEvent> recent = new ArrayDeque<>();
+
+    /**
+     * Offset below which the events are not in memory. Guarded by this.
+     *
+     * @since 1.0
+     */
+    private long floor;
+
+    /**
+     * Offset of the last event published. Guarded by this.
+     *
+     * @since 1.0
+     */
+    private long head;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registry receiving the metrics of each subscription, or null.
+     *
+     * @since 1.0
+     */
+    private final MetricsRegistry registry;
+
+    public LocalEventBus(OutboxStore store, int capacity, int batchSize, long retryDelay, MetricsRegistry registry) {
+        this.store = store;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.retryDelay = retryDelay;
+        this.registry = registry;
+    }
+
+    /**
+     * Set the head of an empty bus. Called by the relay before it publishes.
+     *
+     * @param offset
+     *  Offset of the last event already in the outbox.
+     * @since 1.0
+     */
+    synchronized void open(long offset) {
+        this.floor = offset;
+        this.head = offset;
+    }
+
+    /**
+     * Publish events to all subscriptions.
+     *
+     * @param events
+     *  Events following the head, in offset order.
+     * @since 1.0
+     */
+    synchronized void publish(List<ChangeEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        for (ChangeEvent event : events) {
+            this.recent.addLast(event);
+        }
+        while (this.recent.size() > this.capacity) {
+            this.floor = this.recent.removeFirst().getOffset();
+        }
+        this.head = events.get(events.size() - 1).getOffset();
+        notifyAll();
+    }
+
+    /**
+     * Subscribe from the head: only the events published from now on are delivered.
+     *
+     * @param name
+     *  Name of the subscription, for the logs and the metrics.
+     * @param listener
+     *  Listener receiving the events.
+     * @return
+     *  The subscription, already started.
+     * @since 1.0
+     */
+    public Subscription subscribe(String name, ChangeListener listener) {
+        return subscribe(name, getHead(), listener);
+    }
+
+    /**
+     * Subscribe from an offset, replaying the events following it.
+     *
+     * @param name
+     *  Name of the subscription, for the logs and the metrics.
+     * @param offset
+     *  Offset of the last event already handled by the listener.
+     * @param listener
+     *  Listener receiving the events.
+     * @return
+     *  The subscription, already started.
+     * @since 1.0
+     */
+    public Subscription subscribe(String name, long offset, ChangeListener listener) {
+        Subscription subscription = new Subscription(name, offset, listener);
+        this.subscriptions.add(subscription);
+        if (this.registry != null) {
+            String labels = MetricsRegistry.labels("subscription", name);
+            this.registry.gauge("medialibs_event_bus_lag", "Events published and not yet handled by a subscription.",
+                    labels, subscription::getLag);
+            this.registry.counterFunction("medialibs_event_bus_delivered", "Events handled by a subscription.",
+                    labels, subscription::getDelivered);
+            this.registry.counterFunction("medialibs_event_bus_failures", "Batches a subscription failed to handle, delivered again.",
+                    labels, subscription::getFailures);
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    public synchronized long getHead() {
+        return this.head;
+    }
+
+    public List<Subscription> getSubscriptions() {
+        return Collections.unmodifiableList(this.subscriptions);
+    }
+
+    /**
+     * Stop all subscriptions.
+     *
+     * @since 1.0
+     */
+    public void close() {
+        for (Subscription subscription : this.subscriptions) {
+            subscription.cancel();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Read the events following an offset, waiting a while for the next publication.
+     *
+     * @param after
+     *  Offset of the last event handled.
+     * @param timeout
+     *  Maximum wait, in milliseconds.
+     * @return
+     *  Up to a batch of events, empty when none was published in time.
+     * @throws InterruptedException
+     *  If the subscription is cancelled.
+     * @since 1.0
+     */
+    private List<ChangeEvent> read(long after, long timeout) throws InterruptedException {
+        long head;
+        synchronized (this) {
+            if (this.head <= after) {
+                wait(timeout);
+            }
+            head = this.head;
+            if (head <= after) {
+                return Collections.emptyList();
+            }
+            if (after >= this.floor) {
+                List<ChangeEvent> events = new ArrayList<>(Math.min(this.batchSize, this.recent.size()));
+                for (ChangeEvent event : this.recent) {
+                    if (event.getOffset() > after) {
+                        events.add(event);
+                        if (events.size() == this.batchSize) {
+                            break;
+                        }
+                    }
+                }
+                return events;
+            }
+        }
+
+        // Replay: the events are read from the outbox, up to the head so the order of the relay is kept.
+        List<ChangeEvent> events = new ArrayList<>();
+        for (ChangeEvent event : this.store.read(after, this.batchSize)) {
+            if (event.getOffset() <= head) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Delivery of the events to one listener, on its own thread.
+     *
+     * @since 1.0
+     */
+    public class Subscription {
+
+        private final String name;
+        private final ChangeListener listener;
+        private final Thread thread;
+
+        /**
+         * Offset of the last event handled by the listener.
+         *
+         * @since 1.0
+         */
+        private volatile long offset;
+        private volatile boolean cancelled;
+
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Subscription(String name, long offset, ChangeListener listener) {
+            this.name = name;
+            this.offset = offset;
+            this.listener = listener;
+            this.thread = new Thread(this::run, "event-bus-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Stop the delivery. The batch being handled is finished.
+         *
+         * @since 1.0
+         */
+        public void cancel() {
+            this.cancelled = true;
+            this.thread.interrupt();
+        }
+
+        private void run() {
+            while (!this.cancelled) {
+                try {
+                    List<ChangeEvent> events = read(this.offset, TimeUnit.SECONDS.toMillis(1));
+                    if (events.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        this.listener.onChanges(events);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        // At least once: the same batch is delivered again after the delay.
+                        this.failures.increment();
+                        logger.warn("Subscription {} failed to handle the events after offset {}, retrying", this.name, this.offset, e);
+                        Thread.sleep(retryDelay);
+                        continue;
+                    }
+                    this.offset = events.get(events.size() - 1).getOffset();
+                    this.delivered.add(events.size());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    logger.warn("Subscription {} failed to read the events after offset {}", this.name, this.offset, e);
+                    try {
+                        Thread.sleep(retryDelay);
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLag() {
+            return Math.max(getHead() - this.offset, 0);
+        }
+
+        public long getDelivered() {
+            return this.delivered.sum();
+        }
+
+        public long getFailures() {
+            return this.failures.sum();
+        }
+    }
+}
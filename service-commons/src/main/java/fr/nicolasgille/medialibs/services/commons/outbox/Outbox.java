@@ -0,0 +1,297 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write side of the outbox: save or delete an entity and record the change in the same transaction,
+ * so an event exists if and only if its change is committed.
+ *
+ * The change is flushed before the event is inserted. The flush takes the row lock of the entity,
+ * so two concurrent changes of the same entity take their offsets in the order of their commits,
+ * and the events of an entity are relayed in order.
+ *
+ * The commit listeners learn about the changes of this instance as soon as they are committed, without
+ * waiting for the relay; their events have no offset when the outbox is disabled.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.3
+ */
+public class Outbox {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.2
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Outbox.class);
+
+    private final OutboxStore store;
+    private final EntityManager entityManager;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final TransactionTemplate transactions;
+
+    /**
+     * Record the changes. When false, the methods only call the repository.
+     *
+     * @since 1.0
+     */
+    private final boolean enabled;
+
+    private final LongAdder written = new LongAdder();
+
+    /**
+     * Listeners told of the changes of this instance, after their commit.
+     *
+     * @since 1.2
+     */
+    private final List<ChangeListener> commitListeners = new CopyOnWriteArrayList<>();
+
+    public Outbox(OutboxStore store, EntityManager entityManager, PersistenceUnitUtil persistenceUnitUtil,
+                  PlatformTransactionManager transactionManager, boolean enabled) {
+        this.store = store;
+        this.entityManager = entityManager;
+        this.persistenceUnitUtil = persistenceUnitUtil;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Save an entity and record its change.
+     *
+     * @param repository
+     *  Repository of the entity.
+     * @param entity
+     *  Entity to save.
+     * @return
+     *  The saved entity.
+     * @since 1.0
+     */
+    public <T> T save(CrudRepository<? super T, ?> repository, T entity) {
+        if (!this.enabled) {
+            T saved = repository.save(entity);
+            committed(Collections.singletonList(new ChangeEvent(0, Hibernate.getClass(saved).getSimpleName(),
+                    ((Number) this.persistenceUnitUtil.getIdentifier(saved)).longValue(), ChangeEvent.Operation.SAVED,
+                    System.currentTimeMillis())));
+            return saved;
+        }
+        List<ChangeEvent> events = new ArrayList<>(1);
+        T saved = this.transactions.execute(status -> {
+            T result = repository.save(entity);
+            events.add(record(Hibernate.getClass(result), this.persistenceUnitUtil.getIdentifier(result), ChangeEvent.Operation.SAVED));
+            return result;
+        });
+        this.written.increment();
+        committed(events);
+        return saved;
+    }
+
+    /**
+     * Delete an entity and record its change.
+     *
+     * @param repository
+     *  Repository deleting the entity.
+     * @param type
+     *  Class of the entity.
+     * @param id
+     *  Identifier of the entity.
+     * @since 1.0
+     */
+    public <ID extends Serializable> void delete(CrudRepository<?, ID> repository, Class<?> type, ID id) {
+        if (!this.enabled) {
+            repository.delete(id);
+            committed(Collections.singletonList(new ChangeEvent(0, type.getSimpleName(), ((Number) id).longValue(),
+                    ChangeEvent.Operation.DELETED, System.currentTimeMillis())));
+            return;
+        }
+        List<ChangeEvent> events = new ArrayList<>(1);
+        this.transactions.execute(status -> {
+            repository.delete(id);
+            events.add(record(type, id, ChangeEvent.Operation.DELETED));
+            return null;
+        });
+        this.written.increment();
+        committed(events);
+    }
+
+    /**
+     * Delete several entities with one statement and record their changes.
+     *
+     * @param type
+     *  Class of the entities.
+     * @param ids
+     *  Identifiers of the entities.
+     * @return
+     *  The identifiers of the entities which existed and are deleted.
+     * @since 1.1
+     */
+    public List<Long> deleteAll(Class<?> type, Collection<Long> ids) {
+        String entity = this.entityManager.getMetamodel().entity(type).getName();
+        List<ChangeEvent> events = new ArrayList<>();
+        List<Long> deleted = this.transactions.execute(status -> {
+            List<Long> found = this.entityManager
+                    .createQuery("select e.id from " + entity + " e where e.id in :ids", Long.class)
+                    .setParameter("ids", ids)
+                    .getResultList();
+            if (found.isEmpty()) {
+                return found;
+            }
+            this.entityManager.createQuery("delete from " + entity + " e where e.id in :ids")
+                    .setParameter("ids", found)
+                    .executeUpdate();
+            long now = System.currentTimeMillis();
+            for (Long id : found) {
+                if (this.enabled) {
+                    OutboxEvent event = new OutboxEvent(type.getSimpleName(), id, ChangeEvent.Operation.DELETED, now);
+                    this.store.append(event);
+                    events.add(event.toChangeEvent());
+                } else {
+                    events.add(new ChangeEvent(0, type.getSimpleName(), id, ChangeEvent.Operation.DELETED, now));
+                }
+            }
+            return found;
+        });
+        if (this.enabled) {
+            this.written.add(deleted.size());
+        }
+        committed(events);
+        return deleted;
+    }
+
+    /**
+     * Record changes already committed elsewhere, such as on a shard other than the primary.
+     *
+     * The events are recorded in their own transaction on the primary, after the changes: if the service stops
+     * in between, the changes have no event and the caches of the other services keep the former entities
+     * until they expire.
+     *
+     * @param type
+     *  Class of the entities.
+     * @param ids
+     *  Identifiers of the entities.
+     * @param operation
+     *  Change made on the entities.
+     * @since 1.3
+     */
+    public void recordCommitted(Class<?> type, Collection<Long> ids, ChangeEvent.Operation operation) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (!this.enabled) {
+            long now = System.currentTimeMillis();
+            List<ChangeEvent> events = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                events.add(new ChangeEvent(0, type.getSimpleName(), id, operation, now));
+            }
+            committed(events);
+            return;
+        }
+        List<ChangeEvent> events = new ArrayList<>(ids.size());
+        this.transactions.execute(status -> {
+            for (Long id : ids) {
+                events.add(record(type, id, operation));
+            }
+            return null;
+        });
+        this.written.add(ids.size());
+        committed(events);
+    }
+
+    /**
+     * Get the number of events committed by this instance.
+     *
+     * @return
+     *  The number of events.
+     * @since 1.0
+     */
+    public long getWritten() {
+        return this.written.sum();
+    }
+
+    /**
+     * Tell a listener about the changes of this instance, after their commit.
+     *
+     * The listener is called on the thread which made the change, so it should only hand the events over.
+     *
+     * @param listener
+     *  Listener of the committed changes.
+     * @since 1.2
+     */
+    public void addCommitListener(ChangeListener listener) {
+        this.commitListeners.add(listener);
+    }
+
+    private ChangeEvent record(Class<?> type, Object id, ChangeEvent.Operation operation) {
+        this.entityManager.flush();
+        OutboxEvent event = new OutboxEvent(type.getSimpleName(), ((Number) id).longValue(), operation, System.currentTimeMillis());
+        this.store.append(event);
+        return event.toChangeEvent();
+    }
+
+    /**
+     * Tell the commit listeners about changes, at once or after the commit of the enclosing transaction.
+     *
+     * @param events
+     *  Changes made by this instance.
+     * @since 1.2
+     */
+    private void committed(List<ChangeEvent> events) {
+        if (this.commitListeners.isEmpty() || events.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    notifyCommitted(events);
+                }
+            });
+        } else {
+            notifyCommitted(events);
+        }
+    }
+
+    private void notifyCommitted(List<ChangeEvent> events) {
+        for (ChangeListener listener : this.commitListeners) {
+            try {
+                listener.onChanges(events);
+            } catch (Exception e) {
+                logger.warn("Commit listener failed to handle {} events", events.size(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+
+/**
+ * Transactional outbox of the entity changes, relayed to an in-process event bus.
+ *
+ * The outbox always exists, so the controllers can rely on it; <code>medialibs.outbox.enabled = false</code>
+ * records no event and starts no relay. The services list the package of {@link OutboxEvent} in their entity scan.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(OutboxProperties.class)
+public class OutboxConfiguration {
+
+    @Bean
+    public OutboxStore outboxStore(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager) {
+        return new OutboxStore(SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory), transactionManager);
+    }
+
+    @Bean
+    public Outbox outbox(OutboxStore outboxStore, EntityManagerFactory entityManagerFactory,
+                         PlatformTransactionManager transactionManager, OutboxProperties properties,
+                         ObjectProvider<MetricsRegistry> metricsRegistry) {
+        Outbox outbox = new Outbox(outboxStore, SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory),
+                entityManagerFactory.getPersistenceUnitUtil(), transactionManager, properties.isEnabled());
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.counterFunction("medialibs_outbox_written", "Events committed in the outbox by this instance.",
+                    "", outbox::getWritten);
+        }
+        return outbox;
+    }
+
+    /**
+     * Relay, bus and endpoints, started when the outbox is enabled.
+     *
+     * @since 1.0
+     */
+    @Configuration
+    @ConditionalOnProperty(prefix = "medialibs.outbox", name = "enabled", matchIfMissing = true)
+    static class RelayConfiguration {
+
+        @Bean(destroyMethod = "close")
+        public LocalEventBus localEventBus(OutboxStore outboxStore, OutboxProperties properties,
+                                           ObjectProvider<MetricsRegistry> metricsRegistry) {
+            return new LocalEventBus(outboxStore, properties.getBusCapacity(), properties.getBatchSize(),
+                    properties.getRetryDelay(), metricsRegistry.getIfAvailable());
+        }
+
+        @Bean
+        public OutboxRelay outboxRelay(OutboxStore outboxStore, LocalEventBus localEventBus, OutboxProperties properties,
+                                       Map<String, ChangeListener> listeners, ObjectProvider<MetricsRegistry> metricsRegistry) {
+            OutboxRelay relay = new OutboxRelay(outboxStore, localEventBus, properties, listeners);
+            MetricsRegistry registry = metricsRegistry.getIfAvailable();
+            if (registry != null) {
+                registry.gauge("medialibs_event_bus_head", "Offset of the last event relayed.", "", localEventBus::getHead);
+                registry.counterFunction("medialibs_outbox_relayed", "Events relayed from the outbox to the event bus.",
+                        "", relay::getRelayed);
+                registry.counterFunction("medialibs_outbox_gaps_skipped", "Missing offsets skipped after the gap timeout.",
+                        "", relay::getSkipped);
+            }
+            return relay;
+        }
+
+        @Bean
+        public EntityCacheInvalidation entityCacheInvalidation(EntityManagerFactory entityManagerFactory) {
+            return new EntityCacheInvalidation(entityManagerFactory.unwrap(SessionFactory.class));
+        }
+
+        @Bean
+        public OutboxRestController outboxRestController(OutboxStore outboxStore, LocalEventBus localEventBus,
+                                                         OutboxProperties properties) {
+            return new OutboxRestController(outboxStore, localEventBus, properties.getBatchSize());
+        }
+    }
+}
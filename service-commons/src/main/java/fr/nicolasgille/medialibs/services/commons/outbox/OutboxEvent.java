@@ -0,0 +1,109 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Row of the outbox, written in the transaction of the change it records.
+ *
+ * The generated identifier is the offset of the event: the relay reads the rows in identifier order.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Entity
+@Table(name = "outbox_event")
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    /**
+     * Simple name of the changed entity class, for example <code>Media</code>.
+     *
+     * @since 1.0
+     */
+    @Column(nullable = false, length = 64)
+    private String entityType;
+
+    @Column(nullable = false)
+    private long entityId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private ChangeEvent.Operation operation;
+
+    /**
+     * Time of the change, in milliseconds since the epoch.
+     *
+     * @since 1.0
+     */
+    @Column(nullable = false)
+    private long createdAt;
+
+    public OutboxEvent() {
+    }
+
+    public OutboxEvent(String entityType, long entityId, ChangeEvent.Operation operation, long createdAt) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Get the event published for this row.
+     *
+     * @return
+     *  The event, with the identifier of the row as offset.
+     * @since 1.0
+     */
+    public ChangeEvent toChangeEvent() {
+        return new ChangeEvent(this.id, this.entityType, this.entityId, this.operation, this.createdAt);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public ChangeEvent.Operation getOperation() {
+        return operation;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
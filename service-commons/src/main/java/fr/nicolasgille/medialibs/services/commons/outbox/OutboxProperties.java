@@ -0,0 +1,138 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the outbox and of its relay, under the prefix <code>medialibs.outbox</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.outbox")
+public class OutboxProperties {
+
+    /**
+     * Record the changes in the outbox and relay them. When disabled the controllers only save.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = true;
+
+    /**
+     * Delay between two reads of the outbox by the relay, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long pollInterval = 200;
+
+    /**
+     * Maximum number of events read at once by the relay, and delivered at once to a subscriber.
+     *
+     * @since 1.0
+     */
+    private int batchSize = 500;
+
+    /**
+     * Time the relay waits for a missing offset, in milliseconds.
+     * An offset is missing while the transaction which took it is not committed; past the timeout it is
+     * considered rolled back and skipped.
+     *
+     * @since 1.0
+     */
+    private long gapTimeout = 5000;
+
+    /**
+     * Age of the events purged from the outbox, in milliseconds. Replay reaches back to this age.
+     *
+     * @since 1.0
+     */
+    private long retention = 3600000;
+
+    /**
+     * Number of recent events kept in memory by the event bus. Older offsets are replayed from the outbox.
+     *
+     * @since 1.0
+     */
+    private int busCapacity = 10000;
+
+    /**
+     * Delay before delivering again a batch whose handling failed, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long retryDelay = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getGapTimeout() {
+        return gapTimeout;
+    }
+
+    public void setGapTimeout(long gapTimeout) {
+        this.gapTimeout = gapTimeout;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    public void setRetention(long retention) {
+        this.retention = retention;
+    }
+
+    public int getBusCapacity() {
+        return busCapacity;
+    }
+
+    public void setBusCapacity(int busCapacity) {
+        this.busCapacity = busCapacity;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Poll the outbox and publish the committed events to the event bus, in offset order.
+ *
+ * Every instance of every service sharing the database relays all events to its own bus, so a
+ * subscriber learns about the changes made by the other instances and the other services.
+ *
+ * An offset is taken when its event is inserted, not when it is committed: a missing offset is
+ * waited for until the gap timeout, then skipped as rolled back.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class OutboxRelay implements SmartLifecycle {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(OutboxRelay.class);
+
+    /**
+     * Number of polls between two purges of the outbox.
+     *
+     * @since 1.0
+     */
+    private static final int PURGE_EVERY = 300;
+
+    private final OutboxStore store;
+    private final LocalEventBus bus;
+    private final OutboxProperties properties;
+
+    /**
+     * Listeners subscribed at start, by name.
+     *
+     * @since 1.0
+     */
+    private final Map<String, ChangeListener> listeners;
+
+    private ScheduledExecutorService poller;
+
+    /**
+     * Offset of the last event published. Only read and written by the poller thread.
+     *
+     * @since 1.0
+     */
+    private long cursor;
+
+    /**
+     * First missing offset waited for, and when it was first seen missing.
+     *
+     * @since 1.0
+     */
+    private long gap = -1;
+    private long gapSince;
+
+    private int polls;
+
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    public OutboxRelay(OutboxStore store, LocalEventBus bus, OutboxProperties properties, Map<String, ChangeListener> listeners) {
+        this.store = store;
+        this.bus = bus;
+        this.properties = properties;
+        this.listeners = listeners;
+    }
+
+    @Override
+    public synchronized void start() {
+        this.cursor = this.store.lastOffset();
+        this.bus.open(this.cursor);
+        for (Map.Entry<String, ChangeListener> listener : this.listeners.entrySet()) {
+            this.bus.subscribe(listener.getKey(), listener.getValue());
+        }
+
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller.scheduleWithFixedDelay(this::poll,
+                this.properties.getPollInterval(), this.properties.getPollInterval(), TimeUnit.MILLISECONDS);
+        logger.info("Outbox relay started after offset {}", this.cursor);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (this.poller != null) {
+            this.poller.shutdownNow();
+            this.poller = null;
+        }
+        this.bus.close();
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return this.poller != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    /**
+     * Start after the other components, stop before them.
+     *
+     * @since 1.0
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    public long getRelayed() {
+        return this.relayed.sum();
+    }
+
+    public long getSkipped() {
+        return this.skipped.sum();
+    }
+
+    /**
+     * Read the events following the cursor and publish the ones without a gap before them.
+     * Package-private so the tests poll without the scheduler.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    void poll() {
+        try {
+            List<ChangeEvent> events;
+            do {
+                events = this.store.read(this.cursor, this.properties.getBatchSize());
+                List<ChangeEvent> published = new ArrayList<>(events.size());
+                for (ChangeEvent event : events) {
+                    if (event.getOffset() != this.cursor + 1 && !skipGap(this.cursor + 1)) {
+                        break;
+                    }
+                    published.add(event);
+                    this.cursor = event.getOffset();
+                }
+                this.bus.publish(published);
+                this.relayed.add(published.size());
+                if (published.size() < events.size()) {
+                    break;
+                }
+            } while (events.size() == this.properties.getBatchSize());
+
+            if (++this.polls % PURGE_EVERY == 0) {
+                int purged = this.store.purge(System.currentTimeMillis() - this.properties.getRetention());
+                logger.debug("{} events purged from the outbox", purged);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Outbox relay failed after offset {}", this.cursor, e);
+        }
+    }
+
+    /**
+     * Decide whether a missing offset is skipped.
+     *
+     * @param missing
+     *  First offset missing after the cursor.
+     * @return
+     *  True when the offset is missing since longer than the gap timeout.
+     * @since 1.0
+     */
+    private boolean skipGap(long missing) {
+        long now = System.currentTimeMillis();
+        if (this.gap != missing) {
+            this.gap = missing;
+            this.gapSince = now;
+        }
+        if (now - this.gapSince < this.properties.getGapTimeout()) {
+            return false;
+        }
+        logger.info("Outbox offset {} missing since {} ms, skipped", missing, now - this.gapSince);
+        this.skipped.increment();
+        this.gap = -1;
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Expose the outbox to the consumers outside of the service, and the state of the local subscriptions.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class OutboxRestController {
+
+    private final OutboxStore store;
+    private final LocalEventBus bus;
+    private final int batchSize;
+
+    public OutboxRestController(OutboxStore store, LocalEventBus bus, int batchSize) {
+        this.store = store;
+        this.bus = bus;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Read the events relayed after an offset. A consumer keeps the offset of the last event it handled
+     * and passes it on its next call.
+     *
+     * @param after
+     *  Offset of the last event already read, 0 to read from the oldest event kept.
+     * @param limit
+     *  Maximum number of events, bounded by the batch size of the relay.
+     * @return
+     *  A ResponseEntity with the events in offset order, or 204 when there is no new event.
+     * @since 1.0
+     */
+    @GetMapping("/outbox/events")
+    public ResponseEntity<?> getEvents(@RequestParam(value = "after", defaultValue = "0") long after,
+                                       @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        long head = this.bus.getHead();
+        if (after >= head) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        List<ChangeEvent> events = this.store.read(after, Math.max(1, Math.min(limit, this.batchSize)));
+        events.removeIf(event -> event.getOffset() > head);
+        return new ResponseEntity<List>(events, HttpStatus.OK);
+    }
+
+    /**
+     * Get the offset and the lag of each local subscription.
+     *
+     * @return
+     *  A ResponseEntity with the subscriptions, or 204 when there is none.
+     * @since 1.0
+     */
+    @GetMapping("/outbox/subscriptions")
+    public ResponseEntity<?> getSubscriptions() {
+        List<LocalEventBus.Subscription> subscriptions = this.bus.getSubscriptions();
+        if (subscriptions.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<List>(subscriptions, HttpStatus.OK);
+    }
+}
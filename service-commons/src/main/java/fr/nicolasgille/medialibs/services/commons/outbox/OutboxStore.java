@@ -0,0 +1,141 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Access to the outbox table.
+ *
+ * The reads run in a read-write transaction, so they go to the primary database and never miss
+ * an event not yet copied to a replica.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class OutboxStore {
+
+    /**
+     * Entity manager shared with the repositories, bound to the current transaction.
+     *
+     * @since 1.0
+     */
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactions;
+
+    public OutboxStore(EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        this.entityManager = entityManager;
+        this.transactions = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Add an event to the outbox, in the transaction of the current thread.
+     *
+     * @param event
+     *  Event to insert.
+     * @since 1.0
+     */
+    void append(OutboxEvent event) {
+        this.entityManager.persist(event);
+    }
+
+    /**
+     * Read the events following an offset.
+     *
+     * @param after
+     *  Offset of the last event already read.
+     * @param limit
+     *  Maximum number of events.
+     * @return
+     *  The events, in offset order.
+     * @since 1.0
+     */
+    public List<ChangeEvent> read(long after, int limit) {
+        return this.transactions.execute(status -> {
+            List<OutboxEvent> rows = this.entityManager
+                    .createQuery("select e from OutboxEvent e where e.id > :after order by e.id", OutboxEvent.class)
+                    .setParameter("after", after)
+                    .setMaxResults(limit)
+                    .getResultList();
+            List<ChangeEvent> events = new ArrayList<>(rows.size());
+            for (OutboxEvent row : rows) {
+                events.add(row.toChangeEvent());
+            }
+            return events;
+        });
+    }
+
+    /**
+     * Get the offset of the last event committed.
+     *
+     * @return
+     *  The highest offset, 0 when the outbox is empty.
+     * @since 1.0
+     */
+    public long lastOffset() {
+        return this.transactions.execute(status -> {
+            Long last = this.entityManager.createQuery("select max(e.id) from OutboxEvent e", Long.class).getSingleResult();
+            return last == null ? 0L : last;
+        });
+    }
+
+    /**
+     * Get the offset preceding the events created since a given time, to read them with {@link #read(long, int)}.
+     *
+     * @param time
+     *  Creation time of the first event wanted, in milliseconds since the epoch.
+     * @return
+     *  The offset before the first event created at or after this time, the last offset when there is none.
+     * @since 1.1
+     */
+    public long offsetBefore(long time) {
+        return this.transactions.execute(status -> {
+            Long first = this.entityManager
+                    .createQuery("select min(e.id) from OutboxEvent e where e.createdAt >= :time", Long.class)
+                    .setParameter("time", time)
+                    .getSingleResult();
+            if (first != null) {
+                return first - 1;
+            }
+            Long last = this.entityManager.createQuery("select max(e.id) from OutboxEvent e", Long.class).getSingleResult();
+            return last == null ? 0L : last;
+        });
+    }
+
+    /**
+     * Remove the old events.
+     *
+     * @param before
+     *  Time of the oldest event kept, in milliseconds since the epoch.
+     * @return
+     *  The number of events removed.
+     * @since 1.0
+     */
+    public int purge(long before) {
+        return this.transactions.execute(status -> this.entityManager
+                .createQuery("delete from OutboxEvent e where e.createdAt < :before")
+                .setParameter("before", before)
+                .executeUpdate());
+    }
+}
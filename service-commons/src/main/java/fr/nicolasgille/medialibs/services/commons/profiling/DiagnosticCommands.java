@@ -0,0 +1,71 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Run the diagnostic commands of the JVM, those of <code>jcmd</code>, through its platform MBean.
+ *
+ * The commands are reached by JMX rather than by the <code>jdk.jfr</code> API, which is not part of the
+ * Java 8 platform the services are compiled against. A command refused by the JVM answers its error
+ * as text, which the callers check.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+final class DiagnosticCommands {
+
+    /**
+     * Signature of every diagnostic command operation: the arguments of the command.
+     *
+     * @since 1.0
+     */
+    private static final String[] SIGNATURE = {String[].class.getName()};
+
+    private DiagnosticCommands() {
+    }
+
+    /**
+     * Run a diagnostic command.
+     *
+     * @param operation
+     *  Operation of the command, such as <code>jfrStart</code> for <code>JFR.start</code>.
+     * @param arguments
+     *  Arguments of the command, as given to <code>jcmd</code>.
+     * @return
+     *  The output of the command.
+     * @throws IllegalStateException
+     *  If the JVM has no such command.
+     * @since 1.0
+     */
+    static String run(String operation, String... arguments) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Object output = server.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                    operation, new Object[]{arguments}, SIGNATURE);
+            return output == null ? "" : output.toString();
+        } catch (JMException e) {
+            throw new IllegalStateException("Diagnostic command " + operation + " is not available on this JVM", e);
+        }
+    }
+}
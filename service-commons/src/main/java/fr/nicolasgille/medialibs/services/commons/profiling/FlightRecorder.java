@@ -0,0 +1,175 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Start and stop one Java Flight Recorder recording at a time, written to a file of the profiling directory.
+ *
+ * Only the file of the last recording is kept, so repeated recordings do not fill the disk.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class FlightRecorder {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorder.class);
+
+    /**
+     * Name of the recordings in the JVM, as listed by <code>jcmd &lt;pid&gt; JFR.check</code>.
+     *
+     * @since 1.0
+     */
+    static final String NAME = "medialibs";
+
+    private final ProfilingProperties properties;
+    private Recording last;
+    private long recordings;
+
+    public FlightRecorder(ProfilingProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Start a recording, stopped after its duration.
+     *
+     * @param settings
+     *  Settings of the recording, one of {@link ProfilingProperties#getSettings()}.
+     * @param duration
+     *  Duration of the recording, in seconds.
+     * @return
+     *  The recording started, or null if another one is running.
+     * @throws IllegalArgumentException
+     *  If the settings are not allowed, or the duration out of bounds.
+     * @throws IllegalStateException
+     *  If the JVM refused to start the recording.
+     * @since 1.0
+     */
+    public synchronized Recording start(String settings, long duration) {
+        if (!this.properties.getSettings().contains(settings)) {
+            throw new IllegalArgumentException("Settings " + settings + " are not one of " + this.properties.getSettings());
+        }
+        if (duration <= 0 || duration > this.properties.getMaxDuration()) {
+            throw new IllegalArgumentException("Duration must be between 1 and " + this.properties.getMaxDuration() + " seconds");
+        }
+        if (this.isRunning()) {
+            return null;
+        }
+
+        File directory = new File(this.properties.getDirectory());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Cannot create the directory " + directory);
+        }
+        if (this.last != null && this.last.getFile().exists() && !this.last.getFile().delete()) {
+            logger.warn("Cannot delete the previous recording {}", this.last.getFile());
+        }
+        long start = System.currentTimeMillis();
+        File file = new File(directory, "recording-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(start)) + ".jfr");
+        String output = DiagnosticCommands.run("jfrStart", "name=" + NAME, "settings=" + settings,
+                "duration=" + duration + "s", "filename=" + file.getAbsolutePath());
+        if (!output.startsWith("Started recording")) {
+            throw new IllegalStateException(output.trim());
+        }
+        this.last = new Recording(++this.recordings, settings, duration, start, file);
+        logger.info("Flight recording {} started with settings {} for {}s to {}", this.recordings, settings, duration, file);
+        return this.last;
+    }
+
+    /**
+     * Stop the running recording before the end of its duration, writing its file.
+     *
+     * @return
+     *  The recording stopped, or null if none is running.
+     * @throws IllegalStateException
+     *  If the JVM refused to stop the recording.
+     * @since 1.0
+     */
+    public synchronized Recording stop() {
+        if (!this.isRunning()) {
+            return null;
+        }
+        String output = DiagnosticCommands.run("jfrStop", "name=" + NAME);
+        if (!output.startsWith("Stopped recording")) {
+            throw new IllegalStateException(output.trim());
+        }
+        this.last.done(System.currentTimeMillis());
+        logger.info("Flight recording {} stopped, {} bytes written", this.last.getId(), this.last.getSize());
+        return this.last;
+    }
+
+    /**
+     * @return
+     *  The running recording, else the last one, or null if none was started.
+     * @since 1.0
+     */
+    public synchronized Recording getRecording() {
+        this.isRunning();
+        return this.last;
+    }
+
+    /**
+     * Stop the running recording when the service stops, so that its file is written.
+     *
+     * @since 1.0
+     */
+    public void close() {
+        try {
+            this.stop();
+        } catch (RuntimeException e) {
+            logger.warn("Cannot stop the flight recording", e);
+        }
+    }
+
+    public synchronized long getRecordings() {
+        return recordings;
+    }
+
+    public synchronized boolean isActive() {
+        return this.isRunning();
+    }
+
+    /**
+     * Check whether the last recording still runs in the JVM, and mark it done once its duration elapsed.
+     *
+     * @return
+     *  True while the last recording runs.
+     * @since 1.0
+     */
+    private boolean isRunning() {
+        if (this.last == null || this.last.getState() == Recording.State.DONE) {
+            return false;
+        }
+        if (DiagnosticCommands.run("jfrCheck", "name=" + NAME).contains("(running)")) {
+            return true;
+        }
+        this.last.done(Math.min(System.currentTimeMillis(), this.last.getStart() + this.last.getDuration() * 1000));
+        return false;
+    }
+}
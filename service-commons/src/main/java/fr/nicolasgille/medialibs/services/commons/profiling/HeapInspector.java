@@ -0,0 +1,208 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describe the heap of the running service: its classes by size, and how fast its threads allocate.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class HeapInspector {
+
+    /**
+     * A line of <code>GC.class_histogram</code>: rank, instances, bytes, class and its module.
+     *
+     * @since 1.0
+     */
+    private static final Pattern CLASS_LINE = Pattern.compile("^\\s*\\d+:\\s+(\\d+)\\s+(\\d+)\\s+(\\S+).*$");
+
+    /**
+     * Last line of <code>GC.class_histogram</code>: instances and bytes of all classes.
+     *
+     * @since 1.0
+     */
+    private static final Pattern TOTAL_LINE = Pattern.compile("^Total\\s+(\\d+)\\s+(\\d+)\\s*$");
+
+    /**
+     * Bytes allocated by each thread at the previous summary, to compute the allocation rate.
+     *
+     * @since 1.0
+     */
+    private final Map<Long, Long> allocated = new HashMap<>();
+    private long lastSummary;
+
+    /**
+     * Get the classes taking the most heap.
+     *
+     * @param limit
+     *  Maximum number of classes.
+     * @param live
+     *  Count only the reachable objects, which runs a full garbage collection first. Otherwise the objects
+     *  not yet collected are counted too, without pausing the service.
+     * @return
+     *  The instances and bytes of each class, largest first, and the totals of the heap.
+     * @throws IllegalStateException
+     *  If the JVM cannot compute the histogram.
+     * @since 1.0
+     */
+    public Map<String, Object> histogram(int limit, boolean live) {
+        String output = live ? DiagnosticCommands.run("gcClassHistogram")
+                : DiagnosticCommands.run("gcClassHistogram", "-all");
+        List<Map<String, Object>> classes = new ArrayList<>();
+        Map<String, Object> histogram = new LinkedHashMap<>();
+        int count = 0;
+        for (String line : output.split("\n")) {
+            Matcher matcher = CLASS_LINE.matcher(line);
+            if (matcher.matches()) {
+                if (count++ < limit) {
+                    Map<String, Object> usage = new LinkedHashMap<>();
+                    usage.put("className", matcher.group(3));
+                    usage.put("instances", Long.parseLong(matcher.group(1)));
+                    usage.put("bytes", Long.parseLong(matcher.group(2)));
+                    classes.add(usage);
+                }
+                continue;
+            }
+            matcher = TOTAL_LINE.matcher(line);
+            if (matcher.matches()) {
+                histogram.put("instances", Long.parseLong(matcher.group(1)));
+                histogram.put("bytes", Long.parseLong(matcher.group(2)));
+            }
+        }
+        if (!histogram.containsKey("bytes")) {
+            throw new IllegalStateException(output.trim());
+        }
+        histogram.put("live", live);
+        histogram.put("classCount", count);
+        histogram.put("classes", classes);
+        return histogram;
+    }
+
+    /**
+     * Summarize the memory of the service.
+     *
+     * @param limit
+     *  Maximum number of threads.
+     * @return
+     *  The usage of the heap and of each memory pool, the collections of each garbage collector,
+     *  the bytes allocated by the live threads, the allocation rate since the previous summary,
+     *  and the threads which allocated the most.
+     * @since 1.0
+     */
+    public synchronized Map<String, Object> allocations(int limit) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        summary.put("heap", usage(memory.getHeapMemoryUsage()));
+        summary.put("nonHeap", usage(memory.getNonHeapMemoryUsage()));
+
+        List<Map<String, Object>> pools = new ArrayList<>();
+        for (MemoryPoolMXBean bean : ManagementFactory.getMemoryPoolMXBeans()) {
+            Map<String, Object> pool = usage(bean.getUsage());
+            pool.put("name", bean.getName());
+            pool.put("type", bean.getType().name());
+            pool.put("peak", bean.getPeakUsage().getUsed());
+            pools.add(pool);
+        }
+        summary.put("pools", pools);
+
+        List<Map<String, Object>> collectors = new ArrayList<>();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> collector = new LinkedHashMap<>();
+            collector.put("name", bean.getName());
+            collector.put("collections", bean.getCollectionCount());
+            collector.put("time", bean.getCollectionTime());
+            collectors.add(collector);
+        }
+        summary.put("collectors", collectors);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()) {
+            this.threads((com.sun.management.ThreadMXBean) threads, limit, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Add the bytes allocated by the live threads, the allocation rate and the threads allocating the most.
+     *
+     * @since 1.0
+     */
+    private void threads(com.sun.management.ThreadMXBean bean, int limit, Map<String, Object> summary) {
+        long now = System.nanoTime();
+        long[] ids = bean.getAllThreadIds();
+        long[] bytes = bean.getThreadAllocatedBytes(ids);
+        ThreadInfo[] infos = bean.getThreadInfo(ids);
+
+        long total = 0;
+        long sinceLast = 0;
+        Map<Long, Long> previous = new HashMap<>(this.allocated);
+        this.allocated.clear();
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0 || infos[i] == null) {
+                continue;
+            }
+            total += bytes[i];
+            Long before = previous.get(ids[i]);
+            sinceLast += before == null ? bytes[i] : bytes[i] - before;
+            this.allocated.put(ids[i], bytes[i]);
+
+            Map<String, Object> thread = new LinkedHashMap<>();
+            thread.put("id", ids[i]);
+            thread.put("name", infos[i].getThreadName());
+            thread.put("allocatedBytes", bytes[i]);
+            top.add(thread);
+        }
+        top.sort((left, right) -> Long.compare((Long) right.get("allocatedBytes"), (Long) left.get("allocatedBytes")));
+
+        summary.put("allocatedBytes", total);
+        if (this.lastSummary != 0) {
+            double seconds = (now - this.lastSummary) / 1e9;
+            summary.put("allocationRate", seconds > 0 ? (long) (sinceLast / seconds) : 0L);
+        }
+        summary.put("threads", top.subList(0, Math.min(limit, top.size())));
+        this.lastSummary = now;
+    }
+
+    private static Map<String, Object> usage(MemoryUsage usage) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("used", usage.getUsed());
+        map.put("committed", usage.getCommitted());
+        map.put("max", usage.getMax());
+        return map;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Profile the running service on demand under <code>/profiling</code>, without restarting it or attaching
+ * a tool: Flight Recorder recordings, class histogram and allocation summary, for the users of the given roles.
+ *
+ * Disabled unless <code>medialibs.profiling.enabled = true</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@EnableConfigurationProperties(ProfilingProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.profiling", name = "enabled")
+public class ProfilingConfiguration {
+
+    @Bean
+    public FlightRecorder flightRecorder(ProfilingProperties properties, ObjectProvider<MetricsRegistry> metricsRegistry) {
+        FlightRecorder recorder = new FlightRecorder(properties);
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.counterFunction("medialibs_profiling_recordings", "Flight recordings started.",
+                    "", recorder::getRecordings);
+            registry.gauge("medialibs_profiling_recording_active", "1 while a flight recording runs.",
+                    "", () -> recorder.isActive() ? 1 : 0);
+        }
+        return recorder;
+    }
+
+    @Bean
+    public HeapInspector heapInspector() {
+        return new HeapInspector();
+    }
+
+    @Bean
+    public RoleAuthorization profilingAuthorization(ProfilingProperties properties, ObjectProvider<DataSource> dataSource) {
+        return new RoleAuthorization(new JdbcTemplate(dataSource.getObject()), properties.getRoles());
+    }
+
+    @Bean
+    public ProfilingRestController profilingRestController(FlightRecorder flightRecorder, HeapInspector heapInspector,
+                                                           RoleAuthorization profilingAuthorization,
+                                                           ProfilingProperties properties) {
+        return new ProfilingRestController(flightRecorder, heapInspector, profilingAuthorization, properties);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import fr.nicolasgille.medialibs.core.user.Role;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Settings of the profiling endpoints, under the prefix <code>medialibs.profiling</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.profiling")
+public class ProfilingProperties {
+
+    /**
+     * Expose the profiling endpoints under <code>/profiling</code>. Disabled by default.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private boolean enabled = false;
+
+    /**
+     * Roles of the users allowed to call the profiling endpoints, authenticated by HTTP Basic with their email.
+     *
+     * @since 1.0
+     */
+    private List<Role> roles = new ArrayList<>(Collections.singletonList(Role.ADMIN_ROLE));
+
+    /**
+     * Flight Recorder settings which may be asked for a recording: the names of the <code>.jfc</code>
+     * files of the JDK (<code>default</code>, about 1% overhead, or <code>profile</code>, about 2%).
+     *
+     * @since 1.0
+     */
+    private List<String> settings = new ArrayList<>(Arrays.asList("default", "profile"));
+
+    /**
+     * Settings of a recording started without any.
+     *
+     * @since 1.0
+     */
+    private String defaultSettings = "profile";
+
+    /**
+     * Duration of a recording started without any, in seconds.
+     *
+     * @since 1.0
+     */
+    private long duration = 60;
+
+    /**
+     * Longest recording allowed, in seconds.
+     *
+     * @since 1.0
+     */
+    private long maxDuration = 900;
+
+    /**
+     * Directory of the recordings. Only the last one is kept.
+     *
+     * @since 1.0
+     */
+    private String directory = System.getProperty("java.io.tmpdir") + "/medialibs-profiling";
+
+    /**
+     * Number of classes in the class histogram, and of threads in the allocation summary, answered by default.
+     *
+     * @since 1.0
+     */
+    private int limit = 50;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<Role> getRoles() {
+        return roles;
+    }
+
+    public void setRoles(List<Role> roles) {
+        this.roles = roles;
+    }
+
+    public List<String> getSettings() {
+        return settings;
+    }
+
+    public void setSettings(List<String> settings) {
+        this.settings = settings;
+    }
+
+    public String getDefaultSettings() {
+        return defaultSettings;
+    }
+
+    public void setDefaultSettings(String defaultSettings) {
+        this.defaultSettings = defaultSettings;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    public void setMaxDuration(long maxDuration) {
+        this.maxDuration = maxDuration;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+}
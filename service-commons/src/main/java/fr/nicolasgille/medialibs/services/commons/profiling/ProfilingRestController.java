@@ -0,0 +1,256 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Profile the running service: Flight Recorder recordings, class histogram and allocation summary.
+ *
+ * Every endpoint needs a user with one of the roles of <code>medialibs.profiling.roles</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class ProfilingRestController {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ProfilingRestController.class);
+
+    private final FlightRecorder recorder;
+    private final HeapInspector inspector;
+    private final RoleAuthorization authorization;
+    private final ProfilingProperties properties;
+
+    public ProfilingRestController(FlightRecorder recorder, HeapInspector inspector, RoleAuthorization authorization,
+                                   ProfilingProperties properties) {
+        this.recorder = recorder;
+        this.inspector = inspector;
+        this.authorization = authorization;
+        this.properties = properties;
+    }
+
+    /**
+     * Get the running recording, else the last one.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @return
+     *  A ResponseEntity with the recording, and/or http code status about error during process.
+     * @since 1.0
+     */
+    @GetMapping("/profiling/recording")
+    public ResponseEntity<?> getRecording(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        Recording recording = this.recorder.getRecording();
+        if (recording == null) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<Recording>(recording, HttpStatus.OK);
+    }
+
+    /**
+     * Start a recording.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @param settings
+     *  Settings of the recording, <code>medialibs.profiling.default-settings</code> if absent.
+     * @param duration
+     *  Duration of the recording in seconds, <code>medialibs.profiling.duration</code> if absent.
+     * @return
+     *  A ResponseEntity with the recording started (202), 409 if another one runs, 400 if the settings
+     *  or the duration are not allowed, 503 if the JVM cannot record.
+     * @since 1.0
+     */
+    @PostMapping("/profiling/recording")
+    public ResponseEntity<?> startRecording(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                            @RequestParam(value = "settings", required = false) String settings,
+                                            @RequestParam(value = "duration", required = false) Long duration) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        Recording recording;
+        try {
+            recording = this.recorder.start(settings == null ? this.properties.getDefaultSettings() : settings,
+                    duration == null ? this.properties.getDuration() : duration);
+        } catch (IllegalArgumentException e) {
+            logger.info("Recording refused: {}", e.getMessage());
+            return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+        } catch (IllegalStateException e) {
+            logger.warn("Cannot start a flight recording", e);
+            return new ResponseEntity<Object>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (recording == null) {
+            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<Recording>(recording, HttpStatus.ACCEPTED);
+    }
+
+    /**
+     * Stop the running recording before the end of its duration.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @return
+     *  A ResponseEntity with the recording stopped, 404 if none runs.
+     * @since 1.0
+     */
+    @PostMapping("/profiling/recording/stop")
+    public ResponseEntity<?> stopRecording(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        Recording recording;
+        try {
+            recording = this.recorder.stop();
+        } catch (IllegalStateException e) {
+            logger.warn("Cannot stop the flight recording", e);
+            return new ResponseEntity<Object>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if (recording == null) {
+            return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<Recording>(recording, HttpStatus.OK);
+    }
+
+    /**
+     * Download the file of the last recording, to open in JDK Mission Control or with <code>jfr print</code>.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @return
+     *  A ResponseEntity streaming the file, 409 while the recording runs, 404 if there is none.
+     * @since 1.0
+     */
+    @GetMapping("/profiling/recording/file")
+    public ResponseEntity<?> getRecordingFile(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        Recording recording = this.recorder.getRecording();
+        if (recording == null || (recording.getState() == Recording.State.DONE && !recording.getFile().isFile())) {
+            return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
+        }
+        if (recording.getState() == Recording.State.RUNNING) {
+            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(recording.getSize());
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + recording.getFileName() + "\"");
+        return new ResponseEntity<Resource>(new FileSystemResource(recording.getFile()), headers, HttpStatus.OK);
+    }
+
+    /**
+     * Get the classes taking the most heap.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @param limit
+     *  Maximum number of classes, <code>medialibs.profiling.limit</code> if absent.
+     * @param live
+     *  Count only the reachable objects, after a full garbage collection which pauses the service.
+     * @return
+     *  A ResponseEntity with the instances and bytes of each class, largest first,
+     *  and/or http code status about error during process.
+     * @since 1.0
+     */
+    @GetMapping("/profiling/histogram")
+    public ResponseEntity<?> getHistogram(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                          @RequestParam(value = "limit", required = false) Integer limit,
+                                          @RequestParam(value = "live", defaultValue = "false") boolean live) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        try {
+            return new ResponseEntity<Map>(this.inspector.histogram(
+                    limit == null ? this.properties.getLimit() : limit, live), HttpStatus.OK);
+        } catch (IllegalStateException e) {
+            logger.warn("Cannot compute the class histogram", e);
+            return new ResponseEntity<Object>(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Summarize the memory of the service and its allocations.
+     *
+     * @param authorization
+     *  Credentials of the user, by HTTP Basic.
+     * @param limit
+     *  Maximum number of threads, <code>medialibs.profiling.limit</code> if absent.
+     * @return
+     *  A ResponseEntity with the usage of the heap and its pools, the garbage collections, the allocation
+     *  rate since the previous call and the threads allocating the most.
+     * @since 1.0
+     */
+    @GetMapping("/profiling/allocations")
+    public ResponseEntity<?> getAllocations(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                            @RequestParam(value = "limit", required = false) Integer limit) {
+        ResponseEntity<?> denied = this.denied(authorization);
+        if (denied != null) {
+            return denied;
+        }
+        return new ResponseEntity<Map>(this.inspector.allocations(
+                limit == null ? this.properties.getLimit() : limit), HttpStatus.OK);
+    }
+
+    /**
+     * @return
+     *  The response to a user not allowed to profile, or null if the user is allowed.
+     * @since 1.0
+     */
+    private ResponseEntity<?> denied(String authorization) {
+        HttpStatus status = this.authorization.check(authorization);
+        if (status == null) {
+            return null;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (status == HttpStatus.UNAUTHORIZED) {
+            headers.set(HttpHeaders.WWW_AUTHENTICATE, RoleAuthorization.CHALLENGE);
+        }
+        return new ResponseEntity<Object>(headers, status);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.io.File;
+
+/**
+ * A Flight Recorder recording started by {@link FlightRecorder}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class Recording {
+
+    /**
+     * Progress of a recording.
+     *
+     * @since 1.0
+     */
+    public enum State {
+        RUNNING, DONE
+    }
+
+    private final long id;
+    private final String settings;
+    private final long duration;
+    private final long start;
+    private final File file;
+    private volatile long stop;
+    private volatile State state = State.RUNNING;
+
+    Recording(long id, String settings, long duration, long start, File file) {
+        this.id = id;
+        this.settings = settings;
+        this.duration = duration;
+        this.start = start;
+        this.file = file;
+    }
+
+    void done(long stop) {
+        this.stop = stop;
+        this.state = State.DONE;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return
+     *  Duration asked for the recording, in seconds.
+     * @since 1.0
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return
+     *  End of the recording, 0 while it runs.
+     * @since 1.0
+     */
+    public long getStop() {
+        return stop;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    @JsonIgnore
+    public File getFile() {
+        return file;
+    }
+
+    public String getFileName() {
+        return file.getName();
+    }
+
+    /**
+     * @return
+     *  Size of the file written, in bytes, 0 while the recording runs.
+     * @since 1.0
+     */
+    public long getSize() {
+        return state == State.DONE ? file.length() : 0;
+    }
+}
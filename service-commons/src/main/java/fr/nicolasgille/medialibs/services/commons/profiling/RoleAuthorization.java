@@ -0,0 +1,119 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.profiling;
+
+import fr.nicolasgille.medialibs.core.user.Role;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Allow a request only to the users having one of the given roles.
+ *
+ * The services share no session, so each request carries the email and password of its user by HTTP Basic,
+ * checked against the users table as the authenticate service does.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class RoleAuthorization {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RoleAuthorization.class);
+
+    /**
+     * Value of the <code>WWW-Authenticate</code> header answered with 401.
+     *
+     * @since 1.0
+     */
+    public static final String CHALLENGE = "Basic realm=\"medialibs\"";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final List<Role> roles;
+
+    public RoleAuthorization(JdbcTemplate jdbcTemplate, List<Role> roles) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.roles = roles;
+    }
+
+    /**
+     * Check the user of a request.
+     *
+     * @param authorization
+     *  <code>Authorization</code> header of the request, or null.
+     * @return
+     *  Null if the user is allowed, 401 if the header is missing or the credentials wrong,
+     *  403 if the user has none of the roles.
+     * @since 1.0
+     */
+    public HttpStatus check(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            return HttpStatus.UNAUTHORIZED;
+        }
+        String credentials;
+        try {
+            credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return HttpStatus.UNAUTHORIZED;
+        }
+        int separator = credentials.indexOf(':');
+        if (separator < 0) {
+            return HttpStatus.UNAUTHORIZED;
+        }
+        String email = credentials.substring(0, separator);
+        String password = credentials.substring(separator + 1);
+
+        List<Map<String, Object>> users = this.jdbcTemplate.queryForList(
+                "select password, role from user where email = ?", email);
+        if (users.isEmpty() || !matches((String) users.get(0).get("password"), password)) {
+            logger.info("Profiling refused to {}: wrong credentials", email);
+            return HttpStatus.UNAUTHORIZED;
+        }
+        Number ordinal = (Number) users.get(0).get("role");
+        Role role = ordinal == null || ordinal.intValue() < 0 || ordinal.intValue() >= Role.values().length
+                ? null
+                : Role.values()[ordinal.intValue()];
+        if (!this.roles.contains(role)) {
+            logger.info("Profiling refused to {}: role {} not in {}", email, role, this.roles);
+            return HttpStatus.FORBIDDEN;
+        }
+        return null;
+    }
+
+    /**
+     * Compare the passwords in a time independent of their common prefix.
+     *
+     * @since 1.0
+     */
+    private static boolean matches(String expected, String actual) {
+        return expected != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                actual.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.runtime;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.PropertyResolver;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Access to the virtual threads of Java 21 from code compiled for Java 8.
+ *
+ * The services keep the Java 8 bytecode of Spring Boot 1.5, so the virtual thread API is looked up
+ * by reflection. On an older JDK the virtual mode is refused and the platform threads are kept.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public final class VirtualThreads {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    /**
+     * Property enabling the virtual thread mode.
+     *
+     * @since 1.0
+     */
+    public static final String PROPERTY = "medialibs.runtime.virtual-threads";
+
+    /**
+     * <code>Thread.ofVirtual()</code>, <code>Thread.Builder.OfVirtual.name(String, long)</code>,
+     * <code>Thread.Builder.factory()</code> and <code>Executors.newThreadPerTaskExecutor(ThreadFactory)</code>,
+     * null before Java 21.
+     *
+     * @since 1.0
+     */
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    /**
+     * Whether the warning about a missing support was already logged.
+     *
+     * @since 1.0
+     */
+    private static final AtomicBoolean warned = new AtomicBoolean();
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = ofVirtualBuilder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Class.forName("java.util.concurrent.Executors")
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Check if the running JDK has virtual threads.
+     *
+     * @return
+     *  True from Java 21.
+     * @since 1.0
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Check if a service runs in virtual thread mode.
+     *
+     * @param environment
+     *  Environment of the service.
+     * @return
+     *  True when <code>medialibs.runtime.virtual-threads</code> is set and the JDK supports it.
+     * @since 1.0
+     */
+    public static boolean isEnabled(PropertyResolver environment) {
+        if (!environment.getProperty(PROPERTY, Boolean.class, false)) {
+            return false;
+        }
+        if (!isSupported()) {
+            if (warned.compareAndSet(false, true)) {
+                logger.warn("{} is set but Java {} has no virtual threads (Java 21 or later needed), platform threads are kept",
+                        PROPERTY, System.getProperty("java.version"));
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each task.
+     *
+     * @param prefix
+     *  Prefix of the thread names, followed by a counter.
+     * @return
+     *  The executor.
+     * @throws IllegalStateException
+     *  If the JDK has no virtual threads.
+     * @since 1.0
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later");
+        }
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 0L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, FACTORY.invoke(builder));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create a virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.schema;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.core.RepositoryInformation;
+import org.springframework.data.repository.core.support.RepositoryFactoryInformation;
+import org.springframework.data.repository.query.parser.Part;
+import org.springframework.data.repository.query.parser.PartTree;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Check at start-up that every derived query of the repositories is served by an index.
+ *
+ * A conjunction of criteria is covered when an index has the columns of the criteria as its
+ * leading columns, in any order. Queries written with {@link Query} are not checked.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class IndexCoverageCheck implements SmartInitializingSingleton {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(IndexCoverageCheck.class);
+
+    private final ListableBeanFactory beanFactory;
+    private final EntityManagerFactory entityManagerFactory;
+    private final DataSource dataSource;
+    private final SchemaProperties.IndexCheck mode;
+
+    /**
+     * Result of the last check.
+     *
+     * @since 1.0
+     */
+    private volatile List<QueryIndexCoverage> coverages = Collections.emptyList();
+
+    public IndexCoverageCheck(ListableBeanFactory beanFactory, EntityManagerFactory entityManagerFactory,
+                              DataSource dataSource, SchemaProperties.IndexCheck mode) {
+        this.beanFactory = beanFactory;
+        this.entityManagerFactory = entityManagerFactory;
+        this.dataSource = dataSource;
+        this.mode = mode;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (this.mode == SchemaProperties.IndexCheck.OFF) {
+            return;
+        }
+        List<QueryIndexCoverage> uncovered = new ArrayList<>();
+        for (QueryIndexCoverage coverage : check()) {
+            if (coverage.isCovered()) {
+                logger.debug("Query {}", coverage);
+            } else {
+                logger.warn("Query {}", coverage);
+                uncovered.add(coverage);
+            }
+        }
+        if (!uncovered.isEmpty() && this.mode == SchemaProperties.IndexCheck.FAIL) {
+            throw new IllegalStateException("Derived queries without index: " + uncovered);
+        }
+    }
+
+    /**
+     * Check the derived queries of all repositories against the indexes of the database.
+     *
+     * @return
+     *  The coverage of each conjunction of criteria, by repository and method.
+     * @since 1.0
+     */
+    public List<QueryIndexCoverage> check() {
+        SessionFactory sessionFactory = this.entityManagerFactory.unwrap(SessionFactory.class);
+        List<QueryIndexCoverage> coverages = new ArrayList<>();
+        try (Connection connection = this.dataSource.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            Map<String, Map<String, List<String>>> indexesByTable = new HashMap<>();
+            for (RepositoryFactoryInformation<?, ?> factory : this.beanFactory.getBeansOfType(RepositoryFactoryInformation.class).values()) {
+                RepositoryInformation repository = factory.getRepositoryInformation();
+                ClassMetadata metadata = sessionFactory.getClassMetadata(repository.getDomainType());
+                if (!(metadata instanceof AbstractEntityPersister)) {
+                    continue;
+                }
+                AbstractEntityPersister persister = (AbstractEntityPersister) metadata;
+                String table = persister.getTableName();
+                Map<String, List<String>> indexes = indexesByTable.get(table);
+                if (indexes == null) {
+                    indexes = indexes(metaData, table);
+                    indexesByTable.put(table, indexes);
+                }
+                for (Method method : repository.getQueryMethods()) {
+                    if (method.isAnnotationPresent(Query.class)) {
+                        continue;
+                    }
+                    for (Set<String> columns : criteria(method, repository.getDomainType(), persister)) {
+                        coverages.add(new QueryIndexCoverage(repository.getRepositoryInterface().getSimpleName(),
+                                method.getName(), table, new ArrayList<>(columns), coveringIndex(indexes, columns)));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("Unable to read the indexes of the database", e);
+        }
+        this.coverages = coverages;
+        return coverages;
+    }
+
+    public List<QueryIndexCoverage> getCoverages() {
+        return this.coverages;
+    }
+
+    /**
+     * Get the columns of each conjunction of criteria of a derived query.
+     *
+     * @param method
+     *  Query method.
+     * @param domainType
+     *  Entity of the repository.
+     * @param persister
+     *  Mapping of the entity.
+     * @return
+     *  The columns of each conjunction, in lower case, empty for a method which is not a derived query.
+     * @since 1.0
+     */
+    private static List<Set<String>> criteria(Method method, Class<?> domainType, AbstractEntityPersister persister) {
+        PartTree tree;
+        try {
+            tree = new PartTree(method.getName(), domainType);
+        } catch (RuntimeException e) {
+            return Collections.emptyList();
+        }
+        List<Set<String>> criteria = new ArrayList<>();
+        for (PartTree.OrPart conjunction : tree) {
+            Set<String> columns = new LinkedHashSet<>();
+            for (Part part : conjunction) {
+                if (part.getProperty().hasNext()) {
+                    // Criteria on an association: the join is served by the key of the other table.
+                    continue;
+                }
+                String property = part.getProperty().getSegment();
+                String[] names = property.equals(persister.getIdentifierPropertyName())
+                        ? persister.getIdentifierColumnNames()
+                        : persister.getPropertyColumnNames(property);
+                for (String name : names) {
+                    columns.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+            if (!columns.isEmpty()) {
+                criteria.add(columns);
+            }
+        }
+        return criteria;
+    }
+
+    /**
+     * Read the indexes of a table, its primary key included.
+     *
+     * @param metaData
+     *  Metadata of the database.
+     * @param table
+     *  Name of the table, as mapped. Databases storing upper case names are handled.
+     * @return
+     *  The columns of each index in lower case, in index order, by index name.
+     * @throws SQLException
+     *  If the metadata cannot be read.
+     * @since 1.0
+     */
+    private static Map<String, List<String>> indexes(DatabaseMetaData metaData, String table) throws SQLException {
+        Map<String, List<String>> indexes = readIndexes(metaData, table);
+        if (indexes.isEmpty() && metaData.storesUpperCaseIdentifiers()) {
+            indexes = readIndexes(metaData, table.toUpperCase(Locale.ROOT));
+        }
+        return indexes;
+    }
+
+    private static Map<String, List<String>> readIndexes(DatabaseMetaData metaData, String table) throws SQLException {
+        Map<String, TreeMap<Short, String>> positions = new HashMap<>();
+        try (ResultSet rows = metaData.getIndexInfo(null, null, table, false, true)) {
+            while (rows.next()) {
+                String index = rows.getString("INDEX_NAME");
+                String column = rows.getString("COLUMN_NAME");
+                if (index != null && column != null) {
+                    positions.computeIfAbsent(index, i -> new TreeMap<>())
+                            .put(rows.getShort("ORDINAL_POSITION"), column.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        Map<String, List<String>> indexes = new HashMap<>();
+        for (Map.Entry<String, TreeMap<Short, String>> index : positions.entrySet()) {
+            indexes.put(index.getKey(), new ArrayList<>(index.getValue().values()));
+        }
+        return indexes;
+    }
+
+    /**
+     * Find an index whose leading columns are the given columns.
+     *
+     * @param indexes
+     *  Indexes of the table.
+     * @param columns
+     *  Columns of the criteria.
+     * @return
+     *  The name of the narrowest such index, or null.
+     * @since 1.0
+     */
+    private static String coveringIndex(Map<String, List<String>> indexes, Set<String> columns) {
+        String covering = null;
+        int coveringSize = Integer.MAX_VALUE;
+        for (Map.Entry<String, List<String>> index : indexes.entrySet()) {
+            List<String> indexColumns = index.getValue();
+            if (indexColumns.size() >= columns.size()
+                    && new HashSet<>(indexColumns.subList(0, columns.size())).equals(columns)
+                    && indexColumns.size() < coveringSize) {
+                covering = index.getKey();
+                coveringSize = indexColumns.size();
+            }
+        }
+        return covering;
+    }
+}
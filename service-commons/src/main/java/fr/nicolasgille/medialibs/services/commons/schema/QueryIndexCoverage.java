@@ -0,0 +1,79 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.schema;
+
+import java.util.List;
+
+/**
+ * Index serving one conjunction of the criteria of a derived query.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public final class QueryIndexCoverage {
+
+    private final String repository;
+    private final String method;
+    private final String table;
+    private final List<String> columns;
+
+    /**
+     * Name of the index whose leading columns are the columns of the query, null when none is.
+     *
+     * @since 1.0
+     */
+    private final String index;
+
+    QueryIndexCoverage(String repository, String method, String table, List<String> columns, String index) {
+        this.repository = repository;
+        this.method = method;
+        this.table = table;
+        this.columns = columns;
+        this.index = index;
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public boolean isCovered() {
+        return index != null;
+    }
+
+    @Override
+    public String toString() {
+        return repository + "." + method + " on " + table + columns + (index == null ? " without index" : " by " + index);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.schema;
+
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+/**
+ * Checks of the schema created by the migrations of <code>db/migration</code>.
+ *
+ * The migrations themselves are run by Flyway before the EntityManagerFactory is created,
+ * and Hibernate only validates the mapping against their result.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(SchemaProperties.class)
+@AutoConfigureAfter({ FlywayAutoConfiguration.class, HibernateJpaAutoConfiguration.class })
+public class SchemaConfiguration {
+
+    @Bean
+    public IndexCoverageCheck indexCoverageCheck(ListableBeanFactory beanFactory, EntityManagerFactory entityManagerFactory,
+                                                 DataSource dataSource, SchemaProperties properties) {
+        return new IndexCoverageCheck(beanFactory, entityManagerFactory, dataSource, properties.getIndexCheck());
+    }
+
+    @Bean
+    public SchemaRestController schemaRestController(IndexCoverageCheck indexCoverageCheck) {
+        return new SchemaRestController(indexCoverageCheck);
+    }
+}
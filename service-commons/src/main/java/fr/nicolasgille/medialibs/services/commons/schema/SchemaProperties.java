@@ -0,0 +1,66 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.schema;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the schema checks, under the prefix <code>medialibs.schema</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.schema")
+public class SchemaProperties {
+
+    /**
+     * Action on a derived query without index.
+     *
+     * @since 1.0
+     */
+    public enum IndexCheck {
+        /**
+         * Do not check the queries.
+         */
+        OFF,
+        /**
+         * Log each query without index.
+         */
+        WARN,
+        /**
+         * Stop the start-up of the service on a query without index.
+         */
+        FAIL
+    }
+
+    /**
+     * Check at start-up that each derived query of the repositories is served by an index.
+     *
+     * @since 1.0
+     */
+    private IndexCheck indexCheck = IndexCheck.WARN;
+
+    public IndexCheck getIndexCheck() {
+        return indexCheck;
+    }
+
+    public void setIndexCheck(IndexCheck indexCheck) {
+        this.indexCheck = indexCheck;
+    }
+}
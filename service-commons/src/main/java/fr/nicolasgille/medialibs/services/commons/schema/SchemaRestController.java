@@ -0,0 +1,58 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.schema;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Expose the index serving each derived query of the repositories.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class SchemaRestController {
+
+    private final IndexCoverageCheck indexCoverageCheck;
+
+    public SchemaRestController(IndexCoverageCheck indexCoverageCheck) {
+        this.indexCoverageCheck = indexCoverageCheck;
+    }
+
+    /**
+     * Check the derived queries against the current indexes of the database.
+     *
+     * @return
+     *  A ResponseEntity with the coverage of each query, or 204 when there is no derived query.
+     * @since 1.0
+     */
+    @GetMapping("/schema/indexes")
+    public ResponseEntity<?> getIndexes() {
+        List<QueryIndexCoverage> coverages = this.indexCoverageCheck.check();
+        if (coverages.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<List>(coverages, HttpStatus.OK);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import org.springframework.context.annotation.Import;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Spread the rows of an entity over the primary database and the shards of <code>medialibs.sharding.shards</code>,
+ * by consistent hashing of one of its properties.
+ *
+ * To be placed on the <code>RepositoryConfiguration</code> of a service. The other entities stay on the primary.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Import(ShardingConfiguration.class)
+public @interface EnableSharding {
+
+    /**
+     * Entity whose rows are sharded.
+     *
+     * @return
+     *  The entity class.
+     * @since 1.0
+     */
+    Class<?> entity();
+
+    /**
+     * Property of the entity choosing the shard of a row, a number which never changes for a row.
+     *
+     * @return
+     *  The name of the property.
+     * @since 1.0
+     */
+    String key();
+}
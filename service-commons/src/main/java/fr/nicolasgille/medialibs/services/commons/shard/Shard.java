@@ -0,0 +1,132 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Database holding a part of the rows of the sharded entity.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class Shard {
+
+    private final String name;
+
+    /**
+     * Position of the shard, 0 for the primary, giving the range of the identifiers it generates.
+     *
+     * @since 1.0
+     */
+    private final int position;
+
+    /**
+     * Pool of the shard, or null when the service is not sharded.
+     *
+     * @since 1.0
+     */
+    private final HikariDataSource pool;
+
+    /**
+     * Statements on the pool, bypassing the persistence context and the caches of Hibernate.
+     *
+     * @since 1.0
+     */
+    private final NamedParameterJdbcTemplate jdbc;
+    private final TransactionTemplate transactions;
+
+    private volatile boolean joining;
+
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder movedIn = new LongAdder();
+    private final LongAdder movedOut = new LongAdder();
+
+    Shard(String name, int position, HikariDataSource pool, boolean joining) {
+        this.name = name;
+        this.position = position;
+        this.pool = pool;
+        this.joining = joining;
+        this.jdbc = pool == null ? null : new NamedParameterJdbcTemplate(new JdbcTemplate(pool));
+        this.transactions = pool == null ? null : new TransactionTemplate(new DataSourceTransactionManager(pool));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public boolean isJoining() {
+        return joining;
+    }
+
+    void setJoining(boolean joining) {
+        this.joining = joining;
+    }
+
+    public long getOperations() {
+        return this.operations.sum();
+    }
+
+    public long getMovedIn() {
+        return this.movedIn.sum();
+    }
+
+    public long getMovedOut() {
+        return this.movedOut.sum();
+    }
+
+    HikariDataSource pool() {
+        return this.pool;
+    }
+
+    NamedParameterJdbcTemplate jdbc() {
+        return this.jdbc;
+    }
+
+    TransactionTemplate transactions() {
+        return this.transactions;
+    }
+
+    LongAdder operations() {
+        return this.operations;
+    }
+
+    LongAdder movedIn() {
+        return this.movedIn;
+    }
+
+    LongAdder movedOut() {
+        return this.movedOut;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Move the rows of the keys taken over by the joining shards, then end the move.
+ *
+ * Each shard which is not joining is read by pages of identifiers, and the rows whose key belongs to
+ * another shard are moved to it. Writes on these keys move their row first, so a row never changes
+ * while it is being moved. Every instance of the service must see the shard as joining before the
+ * rebalance starts, and its <code>joining</code> setting is removed once the rebalance is done.
+ * The moves left unfinished, by a failure or by another instance, are finished before the end.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class ShardRebalancer {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    /**
+     * Progress of the rebalance.
+     *
+     * @since 1.0
+     */
+    public enum State { IDLE, RUNNING, DONE, FAILED }
+
+    private final Shards shards;
+    private final int pageSize;
+
+    private volatile State state = State.IDLE;
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder moved = new LongAdder();
+    private volatile long startedAt;
+    private volatile long endedAt;
+    private volatile String failure;
+
+    public ShardRebalancer(Shards shards, int pageSize) {
+        this.shards = shards;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Start moving the rows in the background.
+     *
+     * @return
+     *  False if no shard is joining or a rebalance is already running.
+     * @since 1.0
+     */
+    public synchronized boolean start() {
+        if (!this.shards.isMoving() || this.state == State.RUNNING) {
+            return false;
+        }
+        this.state = State.RUNNING;
+        this.scanned.reset();
+        this.moved.reset();
+        this.failure = null;
+        this.startedAt = System.currentTimeMillis();
+        this.endedAt = 0;
+        Thread thread = new Thread(this::run, "shard-rebalancer");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void run() {
+        try {
+            for (Shard shard : this.shards.getShards()) {
+                if (!shard.isJoining()) {
+                    rebalance(shard);
+                }
+            }
+            this.moved.add(this.shards.recover());
+            this.shards.activate();
+            this.state = State.DONE;
+            logger.info("Rebalance done: {} rows moved out of {}, remove the joining setting of the new shards",
+                    this.moved.sum(), this.scanned.sum());
+        } catch (RuntimeException e) {
+            this.failure = e.getMessage();
+            this.state = State.FAILED;
+            logger.error("Rebalance failed after moving {} rows, start it again to resume", this.moved.sum(), e);
+        } finally {
+            this.endedAt = System.currentTimeMillis();
+        }
+    }
+
+    private void rebalance(Shard shard) {
+        long after = 0;
+        List<long[]> page;
+        do {
+            page = this.shards.page(shard, after, this.pageSize);
+            Map<Shard, List<Long>> leaving = new LinkedHashMap<>();
+            for (long[] row : page) {
+                Shard owner = this.shards.owner(row[1]);
+                if (owner != shard) {
+                    leaving.computeIfAbsent(owner, target -> new ArrayList<>()).add(row[0]);
+                }
+            }
+            for (Map.Entry<Shard, List<Long>> entry : leaving.entrySet()) {
+                this.moved.add(this.shards.move(shard, entry.getKey(), entry.getValue()));
+            }
+            this.scanned.add(page.size());
+            if (!page.isEmpty()) {
+                after = page.get(page.size() - 1)[0];
+            }
+        } while (page.size() == this.pageSize);
+        logger.info("Shard {} rebalanced", shard);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public long getScanned() {
+        return this.scanned.sum();
+    }
+
+    public long getMoved() {
+        return this.moved.sum();
+    }
+
+    /**
+     * Duration of the running or last rebalance, in milliseconds.
+     *
+     * @since 1.0
+     */
+    public long getDuration() {
+        if (this.startedAt == 0) {
+            return 0;
+        }
+        return (this.endedAt == 0 ? System.currentTimeMillis() : this.endedAt) - this.startedAt;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expose the shards and start their rebalance.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class ShardRestController {
+
+    private final Shards shards;
+    private final ShardRebalancer rebalancer;
+
+    public ShardRestController(Shards shards, ShardRebalancer rebalancer) {
+        this.shards = shards;
+        this.rebalancer = rebalancer;
+    }
+
+    /**
+     * Get the shards and the progress of the rebalance.
+     *
+     * @return
+     *  A ResponseEntity with each shard, its operations and rows moved, and the state of the rebalance.
+     * @since 1.0
+     */
+    @GetMapping("/shards")
+    public ResponseEntity<?> getShards() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("shards", this.shards.getShards());
+        state.put("moving", this.shards.isMoving());
+        state.put("rebalance", this.rebalancer);
+        return new ResponseEntity<Map>(state, HttpStatus.OK);
+    }
+
+    /**
+     * Move the rows of the keys taken over by the joining shards.
+     *
+     * @return
+     *  A ResponseEntity with the http status: 202 once started, 409 when no shard is joining or
+     *  a rebalance is already running.
+     * @since 1.0
+     */
+    @PostMapping("/shards/rebalance")
+    public ResponseEntity<?> rebalance() {
+        if (!this.rebalancer.start()) {
+            return new ResponseEntity<Object>(this.rebalancer, HttpStatus.CONFLICT);
+        }
+        return new ResponseEntity<Object>(this.rebalancer, HttpStatus.ACCEPTED);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consistent hash ring: each shard takes many points on a ring of 64 bit hashes, and a key belongs
+ * to the shard of the first point following its hash.
+ *
+ * The points of a shard only depend on its name, so adding a shard only moves to it the keys falling
+ * just before its points, about 1 / n of them, and leaves the other keys where they are.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+final class ShardRing {
+
+    /**
+     * Hashes of the points, sorted.
+     *
+     * @since 1.0
+     */
+    private final long[] points;
+
+    /**
+     * Shard of each point, as a position in the list given to the constructor.
+     *
+     * @since 1.0
+     */
+    private final int[] owners;
+
+    /**
+     * Build the ring.
+     *
+     * @param names
+     *  Names of the shards.
+     * @param virtualNodes
+     *  Points of each shard.
+     * @since 1.0
+     */
+    ShardRing(List<String> names, int virtualNodes) {
+        long[][] entries = new long[names.size() * virtualNodes][];
+        int n = 0;
+        for (int shard = 0; shard < names.size(); shard++) {
+            long seed = hash(names.get(shard));
+            for (int point = 0; point < virtualNodes; point++) {
+                entries[n++] = new long[] { mix(seed + point * 0x9E3779B97F4A7C15L), shard };
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[entries.length];
+        this.owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            this.points[i] = entries[i][0];
+            this.owners[i] = (int) entries[i][1];
+        }
+    }
+
+    /**
+     * Find the shard of a key.
+     *
+     * @param key
+     *  Value of the sharding property.
+     * @return
+     *  The position of the shard in the list of names.
+     * @since 1.0
+     */
+    int owner(long key) {
+        int index = Arrays.binarySearch(this.points, mix(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return this.owners[index == this.points.length ? 0 : index];
+    }
+
+    /**
+     * Hash a shard name, FNV-1a on its UTF-8 bytes.
+     *
+     * @since 1.0
+     */
+    private static long hash(String name) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Spread the bits of a value over the whole ring, the finalizer of MurmurHash3.
+     *
+     * @since 1.0
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
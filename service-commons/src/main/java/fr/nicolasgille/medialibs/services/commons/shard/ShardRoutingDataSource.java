@@ -0,0 +1,105 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DataSource giving the connections of the shard chosen by the current thread, or of the primary.
+ *
+ * The shard is read when a connection is taken, at the start of a transaction or of a statement outside
+ * of any: a transaction stays on the shard it started on.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+    /**
+     * Position of the shard chosen by the current thread, null for the primary.
+     *
+     * @since 1.0
+     */
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Pools of the primary and of the shards, by position.
+     *
+     * @since 1.0
+     */
+    private final List<HikariDataSource> pools;
+
+    public ShardRoutingDataSource(List<HikariDataSource> pools) {
+        this.pools = pools;
+        Map<Object, Object> targets = new HashMap<>();
+        for (int i = 0; i < pools.size(); i++) {
+            targets.put(i, pools.get(i));
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(pools.get(0));
+        setLenientFallback(false);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Choose the shard of the connections of the current thread.
+     *
+     * @param shard
+     *  Position of the shard, null for the primary.
+     * @return
+     *  The shard chosen before, to be restored.
+     * @since 1.0
+     */
+    static Integer use(Integer shard) {
+        Integer previous = CURRENT.get();
+        if (shard == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(shard);
+        }
+        return previous;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return CURRENT.get();
+    }
+
+    List<HikariDataSource> getPools() {
+        return pools;
+    }
+
+    /**
+     * Close the pools of the primary and of the shards.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void close() {
+        for (HikariDataSource pool : this.pools) {
+            pool.close();
+        }
+    }
+}
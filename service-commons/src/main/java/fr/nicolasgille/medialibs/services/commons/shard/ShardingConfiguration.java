@@ -0,0 +1,176 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import fr.nicolasgille.medialibs.services.commons.datasource.ConnectionPoolFactory;
+import fr.nicolasgille.medialibs.services.commons.datasource.ReplicaProperties;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shards of the entity given by {@link EnableSharding}: a DataSource routed to the primary or to a shard,
+ * the placement of the keys, and the rebalance on <code>/shards</code>.
+ *
+ * The shards are migrated by Flyway like the primary. Replicas are not used by a sharded service.
+ * The moves left unfinished by a previous run are finished at startup.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+@Configuration
+@EnableConfigurationProperties({ ShardingProperties.class, DataSourceProperties.class })
+public class ShardingConfiguration implements ImportAware {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ShardingConfiguration.class);
+
+    private Class<?> entity;
+    private String key;
+
+    @Override
+    public void setImportMetadata(AnnotationMetadata importMetadata) {
+        Map<String, Object> attributes = importMetadata.getAnnotationAttributes(EnableSharding.class.getName());
+        this.entity = (Class<?>) attributes.get("entity");
+        this.key = (String) attributes.get("key");
+    }
+
+    /**
+     * Create the pools of the primary and of the shards, behind a DataSource routed by {@link Shards#on}.
+     *
+     * @since 1.0
+     */
+    @Bean(destroyMethod = "close")
+    public DataSource dataSource(ConnectionPoolFactory connectionPoolFactory, DataSourceProperties dataSourceProperties,
+                                 ShardingProperties properties, ObjectProvider<ReplicaProperties> replicaProperties,
+                                 Environment environment) {
+        ReplicaProperties replicas = replicaProperties.getIfAvailable();
+        if (replicas != null && !replicas.getUrls().isEmpty()) {
+            logger.warn("Replicas are ignored by a sharded service");
+        }
+
+        List<HikariDataSource> pools = new ArrayList<>();
+        pools.add(connectionPoolFactory.create("primary",
+                dataSourceProperties.determineUrl(),
+                dataSourceProperties.determineUsername(),
+                dataSourceProperties.determinePassword(),
+                dataSourceProperties.determineDriverClassName()));
+        for (ShardingProperties.Shard shard : properties.getShards()) {
+            HikariDataSource pool = connectionPoolFactory.create(shard.getName(), shard.getUrl(),
+                    shard.getUsername() != null ? shard.getUsername() : dataSourceProperties.determineUsername(),
+                    shard.getPassword() != null ? shard.getPassword() : dataSourceProperties.determinePassword(),
+                    dataSourceProperties.determineDriverClassName());
+            pools.add(pool);
+            if (environment.getProperty("flyway.enabled", Boolean.class, true)) {
+                migrate(shard.getName(), pool, environment);
+            }
+        }
+        return new ShardRoutingDataSource(pools);
+    }
+
+    /**
+     * Bring the schema of a shard to the version of the primary.
+     *
+     * @since 1.0
+     */
+    private static void migrate(String name, HikariDataSource pool, Environment environment) {
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(pool);
+        flyway.setLocations(StringUtils.commaDelimitedListToStringArray(
+                environment.getProperty("flyway.locations", "classpath:db/migration")));
+        flyway.setBaselineOnMigrate(true);
+        int applied = flyway.migrate();
+        if (applied > 0) {
+            logger.info("Applied {} migrations on shard {}", applied, name);
+        }
+    }
+
+    @Bean(destroyMethod = "close")
+    public Shards shards(DataSource dataSource, ShardingProperties properties, EntityManagerFactory entityManagerFactory,
+                         ObjectProvider<List<TaskDecorator>> decorators,
+                         ObjectProvider<MetricsRegistry> metricsRegistry) throws SQLException {
+        // The DataSource may be wrapped, by the statement profiler for one.
+        List<HikariDataSource> pools = dataSource.unwrap(ShardRoutingDataSource.class).getPools();
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < properties.getShards().size(); i++) {
+            ShardingProperties.Shard shard = properties.getShards().get(i);
+            shards.add(new Shard(shard.getName(), i + 1, pools.get(i + 1), shard.isJoining()));
+        }
+        List<TaskDecorator> beans = decorators.getIfAvailable();
+        Shards all = Shards.of(new Shard("primary", 0, pools.get(0), false), shards, properties,
+                entityManagerFactory, this.entity, this.key,
+                beans == null ? Collections.<TaskDecorator>emptyList() : beans);
+        all.prepareIdentifiers(properties.getIdRange());
+        all.recover();
+
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            for (Shard shard : all.getShards()) {
+                String labels = MetricsRegistry.labels("shard", shard.getName());
+                registry.counterFunction("medialibs_shard_operations", "Statements run on the shard by the repositories.",
+                        labels, shard::getOperations);
+                registry.counterFunction("medialibs_shard_moved_in", "Rows moved to the shard.", labels, shard::getMovedIn);
+                registry.counterFunction("medialibs_shard_moved_out", "Rows moved out of the shard.", labels, shard::getMovedOut);
+                registry.gauge("medialibs_shard_joining", "1 while the shard takes over its keys.", labels,
+                        () -> shard.isJoining() ? 1 : 0);
+            }
+            registry.gauge("medialibs_shard_pool_active", "Queries running on the pool querying the shards.",
+                    "", all::getActive);
+            registry.gauge("medialibs_shard_pool_queued", "Queries waiting for a thread of the pool querying the shards.",
+                    "", all::getQueued);
+            registry.counterFunction("medialibs_shard_pool_rejected", "Queries run by the request thread because the pool was full.",
+                    "", all::getRejected);
+        }
+        return all;
+    }
+
+    @Bean
+    public ShardRebalancer shardRebalancer(Shards shards, ShardingProperties properties) {
+        return new ShardRebalancer(shards, properties.getPageSize());
+    }
+
+    @Bean
+    public ShardRestController shardRestController(Shards shards, ShardRebalancer shardRebalancer) {
+        return new ShardRestController(shards, shardRebalancer);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the shards, under the prefix <code>medialibs.sharding</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.sharding")
+public class ShardingProperties {
+
+    /**
+     * Shards besides the primary database, which is the shard <code>primary</code>. A shard is only ever
+     * appended to the list: its position gives the range of the identifiers it generates.
+     *
+     * @since 1.0
+     */
+    private List<Shard> shards = new ArrayList<>();
+
+    /**
+     * Points of each shard on the hash ring. More points spread the keys more evenly.
+     *
+     * @since 1.0
+     */
+    private int virtualNodes = 128;
+
+    /**
+     * Threads querying the shards in parallel, shared by all requests.
+     *
+     * @since 1.0
+     */
+    private int parallelism = 8;
+
+    /**
+     * Queries waiting for a thread. Beyond, the request thread queries the shards left itself.
+     *
+     * @since 1.1
+     */
+    private int queue = 64;
+
+    /**
+     * Size of the identifier range of each shard: the primary generates identifiers below id-range, and the
+     * n-th shard of the list from n * id-range up to (n + 1) * id-range excluded, so a row keeps its identifier
+     * when it moves to another shard. Never changed once a shard holds rows.
+     *
+     * @since 1.0
+     */
+    private long idRange = 1L << 40;
+
+    /**
+     * Rows read or moved in one statement while rebalancing.
+     *
+     * @since 1.0
+     */
+    private int pageSize = 200;
+
+    /**
+     * Entities fetched at once from each shard while merging a listing of all shards.
+     *
+     * @since 1.0
+     */
+    private int streamBuffer = 100;
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public void setShards(List<Shard> shards) {
+        this.shards = shards;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getQueue() {
+        return queue;
+    }
+
+    public void setQueue(int queue) {
+        this.queue = queue;
+    }
+
+    public long getIdRange() {
+        return idRange;
+    }
+
+    public void setIdRange(long idRange) {
+        this.idRange = idRange;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getStreamBuffer() {
+        return streamBuffer;
+    }
+
+    public void setStreamBuffer(int streamBuffer) {
+        this.streamBuffer = streamBuffer;
+    }
+
+    /**
+     * Database of a shard.
+     *
+     * @since 1.0
+     */
+    public static class Shard {
+
+        /**
+         * Name of the shard, placing it on the hash ring. Never renamed once it holds rows.
+         *
+         * @since 1.0
+         */
+        private String name;
+
+        private String url;
+
+        /**
+         * User of the shard, the user of the primary if not set.
+         *
+         * @since 1.0
+         */
+        private String username;
+        private String password;
+
+        /**
+         * Shard being added: it receives the rows of its keys from the other shards, which are read
+         * as well until <code>POST /shards/rebalance</code> is done.
+         *
+         * @since 1.0
+         */
+        private boolean joining;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+
+        public boolean isJoining() {
+            return joining;
+        }
+
+        public void setJoining(boolean joining) {
+            this.joining = joining;
+        }
+    }
+}
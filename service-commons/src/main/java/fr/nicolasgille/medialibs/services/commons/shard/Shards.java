@@ -0,0 +1,1107 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Primary database and shards of the sharded entity, with the placement of its keys.
+ *
+ * A row lives on the owner of its key. While a shard is joining, the keys it takes over are written
+ * on it and read on both their new and former owner, until the rebalance has moved their rows.
+ * Statements on a shard run through {@link #on(Shard, Supplier)}, which routes the DataSource of
+ * the repositories, or through plain JDBC for the rows being moved.
+ *
+ * The statements run on all shards at once share one bounded pool; the listing of all shards is read
+ * on the thread writing the response, which its bulkhead already bounds.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.2
+ */
+public class Shards implements Closeable {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Shards.class);
+
+    /**
+     * Table of the moves started on the primary, until their rows are deleted from their source.
+     *
+     * @since 1.2
+     */
+    private static final String JOURNAL = "shard_move";
+
+    /**
+     * Primary first, then the shards by position.
+     *
+     * @since 1.0
+     */
+    private final List<Shard> shards;
+
+    private final int virtualNodes;
+
+    /**
+     * Size of the range of identifiers of each shard, see {@link ShardingProperties#getIdRange()}.
+     *
+     * @since 1.2
+     */
+    private final long idRange;
+
+    /**
+     * Placement of the keys on the shards which are not joining.
+     *
+     * @since 1.0
+     */
+    private volatile Placement placement;
+
+    /**
+     * Placement of the keys once the joining shards took their keys, null when no shard is joining.
+     *
+     * @since 1.0
+     */
+    private volatile Placement nextPlacement;
+
+    /**
+     * Bounded pool running the statements of {@link #scatter(Function)}, null when not sharded.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Statements of {@link #scatter(Function)} run on the calling thread because the pool was full.
+     *
+     * @since 1.2
+     */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Decorators copying the context of the request thread to the threads querying the shards.
+     *
+     * @since 1.1
+     */
+    private final TaskDecorator decorator;
+
+    /**
+     * Factory of the sessions reading each shard in {@link #streamAll(Class, Function)}, null when not sharded.
+     *
+     * @since 1.2
+     */
+    private final SessionFactory sessionFactory;
+    private final int streamBuffer;
+
+    /**
+     * Table of the sharded entity, with its identifier and key columns. Null when not sharded.
+     *
+     * @since 1.0
+     */
+    private final String table;
+    private final String idColumn;
+    private final String keyColumn;
+
+    private Shards(List<Shard> shards, ShardingProperties properties, EntityManagerFactory entityManagerFactory,
+                   Class<?> entity, String key, List<TaskDecorator> decorators) {
+        this.shards = Collections.unmodifiableList(shards);
+        this.decorator = task -> {
+            Runnable decorated = task;
+            for (TaskDecorator decorator : decorators) {
+                decorated = decorator.decorate(decorated);
+            }
+            return decorated;
+        };
+        this.virtualNodes = properties.getVirtualNodes();
+        this.idRange = properties.getIdRange();
+        this.streamBuffer = properties.getStreamBuffer();
+        this.placement = new Placement(this.shards.stream().filter(shard -> !shard.isJoining())
+                .collect(Collectors.toList()), this.virtualNodes);
+        this.nextPlacement = this.shards.stream().anyMatch(Shard::isJoining)
+                ? new Placement(this.shards, this.virtualNodes) : null;
+
+        if (entityManagerFactory == null) {
+            this.executor = null;
+            this.sessionFactory = null;
+            this.table = this.idColumn = this.keyColumn = null;
+            return;
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(properties.getParallelism(), properties.getParallelism(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(properties.getQueue(), 1)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "shard-query-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        AbstractEntityPersister persister = (AbstractEntityPersister) entityManagerFactory
+                .unwrap(SessionFactoryImplementor.class).getEntityPersister(entity.getName());
+        this.table = persister.getTableName();
+        this.idColumn = persister.getIdentifierColumnNames()[0];
+        this.keyColumn = persister.getPropertyColumnNames(key)[0];
+    }
+
+    /**
+     * Spread the rows of an entity over the primary and the configured shards.
+     *
+     * @param primary
+     *  The shard <code>primary</code>, at position 0.
+     * @param shards
+     *  The configured shards, from position 1.
+     * @param properties
+     *  Settings of the shards.
+     * @param entityManagerFactory
+     *  Factory of the sharded entity.
+     * @param entity
+     *  Sharded entity.
+     * @param key
+     *  Property choosing the shard of a row.
+     * @param decorators
+     *  Decorators copying the context of the request thread, applied in order.
+     * @return
+     *  The shards.
+     * @since 1.0
+     * @version 1.2
+     */
+    static Shards of(Shard primary, List<Shard> shards, ShardingProperties properties,
+                     EntityManagerFactory entityManagerFactory, Class<?> entity, String key,
+                     List<TaskDecorator> decorators) {
+        List<Shard> all = new ArrayList<>();
+        all.add(primary);
+        all.addAll(shards);
+        return new Shards(all, properties, entityManagerFactory, entity, key, decorators);
+    }
+
+    /**
+     * Shards of a service which is not sharded: the primary alone, where all statements run as usual.
+     *
+     * @return
+     *  The primary, as a single shard.
+     * @since 1.0
+     */
+    public static Shards unsharded() {
+        return new Shards(Collections.singletonList(new Shard("primary", 0, null, false)),
+                new ShardingProperties(), null, null, null, Collections.<TaskDecorator>emptyList());
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    public Shard getPrimary() {
+        return this.shards.get(0);
+    }
+
+    public boolean isSharded() {
+        return this.executor != null;
+    }
+
+    /**
+     * Tell whether a shard is joining and the rows of its keys are being moved.
+     *
+     * @since 1.0
+     */
+    public boolean isMoving() {
+        return this.nextPlacement != null;
+    }
+
+    /**
+     * Find the shard where the rows of a key are written.
+     *
+     * @param key
+     *  Value of the sharding property.
+     * @return
+     *  The owner of the key, the joining shard taking it over if any.
+     * @since 1.0
+     */
+    public Shard owner(long key) {
+        Placement next = this.nextPlacement;
+        return next != null ? next.owner(key) : this.placement.owner(key);
+    }
+
+    /**
+     * Find the shards which may hold rows of a key.
+     *
+     * @param key
+     *  Value of the sharding property.
+     * @return
+     *  The owner of the key, followed by its former owner while its rows are being moved.
+     * @since 1.0
+     */
+    public List<Shard> holders(long key) {
+        Shard owner = this.placement.owner(key);
+        Placement next = this.nextPlacement;
+        if (next == null || next.owner(key) == owner) {
+            return Collections.singletonList(owner);
+        }
+        return Collections.unmodifiableList(Arrays.asList(next.owner(key), owner));
+    }
+
+    /**
+     * Find the shard where a row of a key used to be written before a joining shard took the key over.
+     *
+     * @param key
+     *  Value of the sharding property.
+     * @return
+     *  The former owner of the key, null if the key does not move.
+     * @since 1.0
+     */
+    Shard formerOwner(long key) {
+        Placement next = this.nextPlacement;
+        if (next == null) {
+            return null;
+        }
+        Shard owner = this.placement.owner(key);
+        return next.owner(key) == owner ? null : owner;
+    }
+
+    /**
+     * Run statements of the repositories on a shard.
+     *
+     * Must not be called inside a transaction: its connection is already taken on the shard it started on.
+     *
+     * @param shard
+     *  Shard of the statements.
+     * @param work
+     *  Statements to run, in their own transactions if any.
+     * @param <T>
+     *  Type of the result.
+     * @return
+     *  The result of the statements.
+     * @since 1.0
+     */
+    public <T> T on(Shard shard, Supplier<T> work) {
+        shard.operations().increment();
+        if (!isSharded()) {
+            return work.get();
+        }
+        Integer previous = ShardRoutingDataSource.use(shard.getPosition());
+        try {
+            return work.get();
+        } finally {
+            ShardRoutingDataSource.use(previous);
+        }
+    }
+
+    /**
+     * Run the same statements on all shards in parallel.
+     *
+     * @param work
+     *  Statements to run on each shard, through the repositories.
+     * @param <T>
+     *  Type of the results.
+     * @return
+     *  The results, in the order of the shards.
+     * @since 1.0
+     */
+    public <T> List<T> scatter(Function<Shard, T> work) {
+        return scatter(this.shards, work);
+    }
+
+    /**
+     * Run the same statements on some shards in parallel.
+     *
+     * When the pool and its queue are full, the calling thread, which waits for the results anyway,
+     * runs the statements of the shards left itself.
+     *
+     * @param targets
+     *  Shards to query.
+     * @param work
+     *  Statements to run on each shard, through the repositories.
+     * @param <T>
+     *  Type of the results.
+     * @return
+     *  The results, in the order of the shards given.
+     * @since 1.0
+     * @version 1.2
+     */
+    public <T> List<T> scatter(Collection<Shard> targets, Function<Shard, T> work) {
+        if (targets.size() == 1 || !isSharded()) {
+            List<T> results = new ArrayList<>(targets.size());
+            for (Shard shard : targets) {
+                results.add(on(shard, () -> work.apply(shard)));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(targets.size());
+        for (Shard shard : targets) {
+            FutureTask<T> task = new FutureTask<>(() -> on(shard, () -> work.apply(shard)));
+            futures.add(task);
+            try {
+                this.executor.execute(this.decorator.decorate(task));
+            } catch (RejectedExecutionException e) {
+                this.rejected.increment();
+                task.run();
+            }
+        }
+        List<T> results = new ArrayList<>(targets.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new IllegalStateException("Interrupted while querying the shards", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Cannot query the shards", e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Run the same query on all shards in parallel and merge the entities found.
+     *
+     * A row being moved may be found on two shards: it is returned once.
+     *
+     * @param query
+     *  Query to run on each shard, through the repositories.
+     * @param id
+     *  Identifier of an entity.
+     * @param <T>
+     *  Type of the entities.
+     * @return
+     *  The entities of all shards, in the order of the shards.
+     * @since 1.0
+     */
+    public <T> List<T> gather(Function<Shard, ? extends Collection<T>> query, Function<T, Object> id) {
+        return gather(this.shards, query, id);
+    }
+
+    /**
+     * Run the same query on some shards in parallel and merge the entities found.
+     *
+     * @param targets
+     *  Shards to query.
+     * @param query
+     *  Query to run on each shard, through the repositories.
+     * @param id
+     *  Identifier of an entity.
+     * @param <T>
+     *  Type of the entities.
+     * @return
+     *  The entities of the shards, in the order of the shards given.
+     * @since 1.0
+     */
+    public <T> List<T> gather(Collection<Shard> targets, Function<Shard, ? extends Collection<T>> query,
+                              Function<T, Object> id) {
+        Map<Object, T> merged = new LinkedHashMap<>();
+        for (Collection<T> found : scatter(targets, query)) {
+            for (T entity : found) {
+                merged.putIfAbsent(id.apply(entity), entity);
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Stream all entities of the sharded type of all shards, merged by identifier.
+     *
+     * Each shard is scrolled by its own read-only session, on a connection of its pool, and the stream takes
+     * the smallest identifier of the shards, so the entities come in order without being held in memory.
+     * The shards are read on the thread consuming the stream, and closing the stream releases their connections.
+     *
+     * @param type
+     *  Sharded entity, with a numeric <code>id</code> property.
+     * @param id
+     *  Identifier of an entity.
+     * @param <T>
+     *  Type of the entities.
+     * @return
+     *  The entities, to be closed.
+     * @since 1.0
+     * @version 1.2
+     */
+    public <T> Stream<T> streamAll(Class<T> type, Function<T, Long> id) {
+        List<Cursor<T>> cursors = new ArrayList<>();
+        try {
+            for (Shard shard : this.shards) {
+                cursors.add(open(shard, type));
+            }
+        } catch (RuntimeException e) {
+            cursors.forEach(Cursor::close);
+            throw e;
+        }
+        MergeIterator<T> merge = new MergeIterator<>(cursors, id);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false)
+                .onClose(merge::close);
+    }
+
+    /**
+     * Scroll the rows of a shard by identifier.
+     *
+     * @since 1.2
+     */
+    private <T> Cursor<T> open(Shard shard, Class<T> type) {
+        shard.operations().increment();
+        Connection connection;
+        try {
+            connection = shard.pool().getConnection();
+        } catch (SQLException e) {
+            throw new CannotGetJdbcConnectionException("Cannot read the rows of shard " + shard, e);
+        }
+        Session session = null;
+        try {
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            session = this.sessionFactory.withOptions().connection(connection).openSession();
+            session.setDefaultReadOnly(true);
+            ScrollableResults results = session
+                    .createQuery("from " + type.getName() + " e order by e.id")
+                    .setFetchSize(this.streamBuffer)
+                    .setCacheMode(CacheMode.GET)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+            return new Cursor<>(shard, type, connection, session, results, this.streamBuffer);
+        } catch (SQLException | RuntimeException e) {
+            if (session != null) {
+                session.close();
+            }
+            Cursor.release(shard, connection);
+            if (e instanceof SQLException) {
+                throw new CannotGetJdbcConnectionException("Cannot read the rows of shard " + shard, (SQLException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Look for a row on all shards, bypassing the caches.
+     *
+     * @param id
+     *  Identifier of the row.
+     * @return
+     *  The shards holding the row: none, one, or two while the row is being moved.
+     * @since 1.0
+     */
+    public List<Shard> locate(long id) {
+        if (!isSharded()) {
+            return Collections.singletonList(getPrimary());
+        }
+        List<Boolean> found = scatter(shard -> shard.jdbc().queryForObject(
+                "select count(*) from " + this.table + " where " + this.idColumn + " = :id",
+                new MapSqlParameterSource("id", id), Long.class) > 0);
+        List<Shard> holders = new ArrayList<>();
+        for (int i = 0; i < found.size(); i++) {
+            if (found.get(i)) {
+                holders.add(this.shards.get(i));
+            }
+        }
+        return holders;
+    }
+
+    /**
+     * Find the shard whose range holds an identifier, where its row was created.
+     *
+     * @param id
+     *  Identifier of a row.
+     * @return
+     *  The shard of the range, null if no shard has this range.
+     * @since 1.2
+     */
+    public Shard home(long id) {
+        if (!isSharded()) {
+            return getPrimary();
+        }
+        long position = id / this.idRange;
+        return id > 0 && position < this.shards.size() ? this.shards.get((int) position) : null;
+    }
+
+    /**
+     * Read a row by identifier.
+     *
+     * A row is created on the shard of the range of its identifier and only ever moves to a newer shard, so it is
+     * read on that shard, then on the newer ones if it is not there. While a move of the row is journaled, it may be
+     * on its source and its target at once: the shards from its range on are read together, and the oldest one
+     * holding it, the source, answers.
+     *
+     * @param id
+     *  Identifier of the row.
+     * @param work
+     *  Statements reading the row on a shard, through the repositories, null if not found.
+     * @param <T>
+     *  Type of the row.
+     * @return
+     *  The row, null if not found.
+     * @since 1.2
+     */
+    public <T> T find(long id, Function<Shard, T> work) {
+        Shard home = home(id);
+        if (home == null) {
+            return null;
+        }
+        List<Shard> newer = this.shards.subList(home.getPosition() + 1, this.shards.size());
+        if (isMoving() && isJournaled(id)) {
+            return first(scatter(this.shards.subList(home.getPosition(), this.shards.size()), work));
+        }
+        T found = on(home, () -> work.apply(home));
+        if (found != null || newer.isEmpty()) {
+            return found;
+        }
+        return first(scatter(newer, work));
+    }
+
+    /**
+     * Tell whether a move of a row is journaled and not finished. Rows only move while a shard is joining,
+     * or before the service starts when {@link #recover()} finishes the moves left.
+     *
+     * @since 1.2
+     */
+    private boolean isJournaled(long id) {
+        return getPrimary().jdbc().queryForObject("select count(*) from " + JOURNAL
+                        + " where entity_table = :table and row_id = :id",
+                new MapSqlParameterSource("table", this.table).addValue("id", id), Long.class) > 0;
+    }
+
+    private static <T> T first(List<T> results) {
+        return results.stream().filter(Objects::nonNull).findFirst().orElse(null);
+    }
+
+    /**
+     * Move rows to another shard, keeping their identifiers.
+     *
+     * The move is first journaled on the primary. The rows are then locked on the source, copied in a transaction
+     * on the target, and deleted from the source: a reader may see a row on both in between, never on none, and two
+     * moves of the same row wait for each other, the second finding nothing left to move. The journal entries are
+     * removed last, so a move failing or interrupted after its copy is found and finished by {@link #recover()}.
+     *
+     * @param from
+     *  Shard holding the rows.
+     * @param to
+     *  Shard receiving the rows.
+     * @param ids
+     *  Identifiers of the rows.
+     * @return
+     *  The number of rows moved.
+     * @since 1.0
+     * @version 1.2
+     */
+    public int move(Shard from, Shard to, Collection<Long> ids) {
+        if (from == to || ids.isEmpty() || !isSharded()) {
+            return 0;
+        }
+        journal(from, to, ids);
+        int moved = transfer(from, to, ids);
+        forget(from, to, ids);
+        return moved;
+    }
+
+    /**
+     * Finish the moves journaled and not done, left by a move which failed between the copy of its rows
+     * and their deletion from the source.
+     *
+     * Moving a row again copies the version of the source over the one left on the target, which is never
+     * newer: the writes of a key being moved move its row first.
+     *
+     * @return
+     *  The number of rows moved.
+     * @since 1.2
+     */
+    public int recover() {
+        if (!isSharded()) {
+            return 0;
+        }
+        Map<List<Integer>, List<Long>> pending = new LinkedHashMap<>();
+        getPrimary().jdbc().query("select distinct source, target, row_id from " + JOURNAL
+                        + " where entity_table = :table order by source, target, row_id",
+                new MapSqlParameterSource("table", this.table),
+                rs -> {
+                    pending.computeIfAbsent(Arrays.asList(rs.getInt(1), rs.getInt(2)), move -> new ArrayList<>())
+                            .add(rs.getLong(3));
+                });
+        int moved = 0;
+        for (Map.Entry<List<Integer>, List<Long>> entry : pending.entrySet()) {
+            Shard from = shard(entry.getKey().get(0));
+            Shard to = shard(entry.getKey().get(1));
+            if (from == null || to == null) {
+                logger.warn("Journaled move of {} rows of {} from shard {} to shard {} left: unknown shard",
+                        entry.getValue().size(), this.table, entry.getKey().get(0), entry.getKey().get(1));
+                continue;
+            }
+            moved += transfer(from, to, entry.getValue());
+            forget(from, to, entry.getValue());
+            logger.info("Journaled move of {} rows of {} from shard {} to shard {} finished",
+                    entry.getValue().size(), this.table, from, to);
+        }
+        return moved;
+    }
+
+    private Shard shard(int position) {
+        return position >= 0 && position < this.shards.size() ? this.shards.get(position) : null;
+    }
+
+    /**
+     * Copy the rows to the target and delete them from the source, in the transaction of the source.
+     *
+     * @since 1.2
+     */
+    private int transfer(Shard from, Shard to, Collection<Long> ids) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("ids", ids);
+        int moved = from.transactions().execute(status -> {
+            List<Map<String, Object>> rows = from.jdbc().queryForList("select * from " + this.table
+                    + " where " + this.idColumn + " in (:ids) for update", parameters);
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            List<Object> locked = rows.stream().map(row -> row.get(this.idColumn)).collect(Collectors.toList());
+            try {
+                copy(to, rows, locked);
+            } catch (DuplicateKeyException e) {
+                // Inserted at the same time by another instance: copied again over it.
+                copy(to, rows, locked);
+            }
+            from.jdbc().update("delete from " + this.table + " where " + this.idColumn + " in (:ids)",
+                    new MapSqlParameterSource("ids", locked));
+            return rows.size();
+        });
+        if (moved > 0) {
+            from.movedOut().add(moved);
+            to.movedIn().add(moved);
+            logger.debug("Moved {} rows of {} from shard {} to shard {}", moved, this.table, from, to);
+        }
+        return moved;
+    }
+
+    /**
+     * Write the rows on the target, replacing the copies left there by a move which did not finish.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    private void copy(Shard to, List<Map<String, Object>> rows, List<Object> ids) {
+        to.transactions().execute(status -> {
+            to.jdbc().update("delete from " + this.table + " where " + this.idColumn + " in (:ids)",
+                    new MapSqlParameterSource("ids", ids));
+            List<String> columns = new ArrayList<>(rows.get(0).keySet());
+            String sql = "insert into " + this.table + " (" + String.join(", ", columns) + ") values ("
+                    + columns.stream().map(column -> ":" + column).collect(Collectors.joining(", ")) + ")";
+            MapSqlParameterSource[] batch = rows.stream()
+                    .map(row -> new MapSqlParameterSource(row)).toArray(MapSqlParameterSource[]::new);
+            to.jdbc().batchUpdate(sql, batch);
+            return null;
+        });
+    }
+
+    /**
+     * Record on the primary the rows about to move, before they are copied.
+     *
+     * @since 1.2
+     */
+    private void journal(Shard from, Shard to, Collection<Long> ids) {
+        long now = System.currentTimeMillis();
+        MapSqlParameterSource[] entries = ids.stream().map(id -> new MapSqlParameterSource()
+                .addValue("table", this.table)
+                .addValue("id", id)
+                .addValue("source", from.getPosition())
+                .addValue("target", to.getPosition())
+                .addValue("now", now)).toArray(MapSqlParameterSource[]::new);
+        getPrimary().jdbc().batchUpdate("insert into " + JOURNAL
+                + " (entity_table, row_id, source, target, created_at) values (:table, :id, :source, :target, :now)", entries);
+    }
+
+    /**
+     * Remove the journal entries of rows moved.
+     *
+     * @since 1.2
+     */
+    private void forget(Shard from, Shard to, Collection<Long> ids) {
+        getPrimary().jdbc().update("delete from " + JOURNAL + " where entity_table = :table"
+                        + " and source = :source and target = :target and row_id in (:ids)",
+                new MapSqlParameterSource("table", this.table)
+                        .addValue("source", from.getPosition())
+                        .addValue("target", to.getPosition())
+                        .addValue("ids", ids));
+    }
+
+    /**
+     * Read a page of identifiers and keys of a shard, by identifier.
+     *
+     * @param shard
+     *  Shard to read.
+     * @param after
+     *  Last identifier of the previous page.
+     * @param size
+     *  Maximum number of rows.
+     * @return
+     *  Pairs of identifier and key.
+     * @since 1.0
+     */
+    List<long[]> page(Shard shard, long after, int size) {
+        return shard.jdbc().getJdbcOperations().query(con -> {
+            PreparedStatement statement = con.prepareStatement("select " + this.idColumn + ", " + this.keyColumn
+                    + " from " + this.table + " where " + this.idColumn + " > ? order by " + this.idColumn);
+            statement.setLong(1, after);
+            statement.setMaxRows(size);
+            return statement;
+        }, (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2) });
+    }
+
+    /**
+     * Keep the identifiers generated by each shard in its range: start them at the start of the range, unless its
+     * rows already went past it, and refuse the ones reaching the end of the range, which belong to the next shard.
+     *
+     * The end is a check constraint on the identifier. The rows a shard receives come from shards placed before it,
+     * so their identifiers are below its range. MySQL enforces check constraints from its version 8.0.16.
+     *
+     * @param idRange
+     *  Size of the range of each shard.
+     * @throws IllegalStateException
+     *  If the identifiers of a shard already reached the end of its range.
+     * @since 1.0
+     * @version 1.2
+     */
+    void prepareIdentifiers(long idRange) {
+        String constraint = this.table + "_id_range";
+        for (Shard shard : this.shards) {
+            long start = shard.getPosition() * idRange;
+            long end = start + idRange;
+            JdbcOperations jdbc = shard.jdbc().getJdbcOperations();
+            Long max = jdbc.queryForObject("select max(" + this.idColumn + ") from " + this.table, Long.class);
+            if (max != null && max >= end) {
+                throw new IllegalStateException("Identifiers of " + this.table + " on shard " + shard + " reached "
+                        + max + ", past the end of its range at " + end);
+            }
+            boolean restart = start > 0 && (max == null || max < start);
+            String check = "alter table " + this.table + " add constraint %s " + constraint
+                    + " check (" + this.idColumn + " < " + end + ")";
+            String url = shard.pool().getJdbcUrl();
+            if (url.startsWith("jdbc:mysql:")) {
+                if (restart) {
+                    jdbc.execute("alter table " + this.table + " auto_increment = " + start);
+                }
+                Integer checked = jdbc.queryForObject("select count(*) from information_schema.table_constraints"
+                        + " where table_schema = database() and table_name = ? and constraint_name = ?",
+                        Integer.class, this.table, constraint);
+                if (checked == 0) {
+                    jdbc.execute(String.format(check, ""));
+                }
+            } else if (url.startsWith("jdbc:h2:")) {
+                if (restart) {
+                    jdbc.execute("alter table " + this.table + " alter column " + this.idColumn + " restart with " + start);
+                }
+                jdbc.execute(String.format(check, "if not exists"));
+            } else {
+                logger.warn("Cannot keep the identifiers of shard {} from {} to {}: unknown database {}",
+                        shard, start, end, url);
+                continue;
+            }
+            logger.info("Identifiers of {} on shard {} kept from {} to {}", this.table, shard, start, end);
+        }
+    }
+
+    /**
+     * End the move of the keys taken over by the joining shards, once their rows are moved.
+     *
+     * @since 1.0
+     */
+    void activate() {
+        if (this.nextPlacement == null) {
+            return;
+        }
+        this.shards.forEach(shard -> shard.setJoining(false));
+        this.placement = this.nextPlacement;
+        this.nextPlacement = null;
+    }
+
+    /**
+     * Stop the threads querying the shards.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    public int getActive() {
+        return this.executor == null ? 0 : this.executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return this.executor == null ? 0 : this.executor.getQueue().size();
+    }
+
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Hash ring over some shards.
+     *
+     * @since 1.0
+     */
+    private static class Placement {
+
+        private final List<Shard> members;
+        private final ShardRing ring;
+
+        Placement(List<Shard> members, int virtualNodes) {
+            this.members = members;
+            this.ring = new ShardRing(members.stream().map(Shard::getName).collect(Collectors.toList()), virtualNodes);
+        }
+
+        Shard owner(long key) {
+            return this.members.get(this.ring.owner(key));
+        }
+    }
+
+    /**
+     * Rows of a shard scrolled by identifier, with the session and the connection reading them.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    private static class Cursor<T> {
+
+        private final Shard shard;
+        private final Class<T> type;
+        private final Connection connection;
+        private final Session session;
+        private final ScrollableResults results;
+
+        /**
+         * Entities read between two clears of the session.
+         *
+         * @since 1.2
+         */
+        private final int clearEvery;
+        private long read;
+        private boolean closed;
+
+        Cursor(Shard shard, Class<T> type, Connection connection, Session session, ScrollableResults results,
+               int clearEvery) {
+            this.shard = shard;
+            this.type = type;
+            this.connection = connection;
+            this.session = session;
+            this.results = results;
+            this.clearEvery = Math.max(1, clearEvery);
+        }
+
+        /**
+         * Read the next entity, once the previous one is no longer used.
+         *
+         * @return
+         *  The entity, null at the end of the shard, which is then closed.
+         * @since 1.0
+         * @version 1.2
+         */
+        T take() {
+            if (this.closed) {
+                return null;
+            }
+            if (this.read > 0 && this.read % this.clearEvery == 0) {
+                this.session.clear();
+            }
+            if (!this.results.next()) {
+                close();
+                return null;
+            }
+            this.read++;
+            return this.type.cast(this.results.get(0));
+        }
+
+        void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            try {
+                this.results.close();
+                this.session.close();
+            } catch (RuntimeException e) {
+                logger.debug("Cannot close the read of shard {}", this.shard, e);
+            } finally {
+                release(this.shard, this.connection);
+            }
+        }
+
+        /**
+         * End the read-only transaction of a connection and give it back to its pool.
+         *
+         * @since 1.2
+         */
+        static void release(Shard shard, Connection connection) {
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                logger.debug("Cannot end the read of shard {}", shard, e);
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Cannot release the connection of shard {}", shard, e);
+            }
+        }
+    }
+
+    /**
+     * K-way merge of the cursors by identifier, skipping the rows found twice while they move.
+     *
+     * The cursor of an entity returned is only read again on the next call, once the entity is written,
+     * since reading it may clear the session of the entity.
+     *
+     * @since 1.0
+     * @version 1.2
+     */
+    private static class MergeIterator<T> implements Iterator<T> {
+
+        private final List<Cursor<T>> cursors;
+        private final PriorityQueue<Head<T>> heads;
+        private final Function<T, Long> id;
+
+        /**
+         * Identifier returned last, null before the first entity.
+         *
+         * @since 1.0
+         */
+        private Long last;
+        private boolean started;
+
+        /**
+         * Cursor of the entity returned last, to read again before the next one.
+         *
+         * @since 1.2
+         */
+        private Cursor<T> returned;
+
+        MergeIterator(List<Cursor<T>> cursors, Function<T, Long> id) {
+            this.cursors = cursors;
+            this.id = id;
+            this.heads = new PriorityQueue<>(Math.max(1, cursors.size()), Comparator.comparingLong(head -> head.id));
+        }
+
+        private void start() {
+            if (!this.started) {
+                this.started = true;
+                this.cursors.forEach(this::advance);
+            }
+        }
+
+        private void advance(Cursor<T> cursor) {
+            T entity = cursor.take();
+            if (entity != null) {
+                this.heads.add(new Head<>(entity, this.id.apply(entity), cursor));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            start();
+            if (this.returned != null) {
+                advance(this.returned);
+                this.returned = null;
+            }
+            while (!this.heads.isEmpty() && this.last != null && this.heads.peek().id == this.last) {
+                advance(this.heads.poll().cursor);
+            }
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Head<T> head = this.heads.poll();
+            this.last = head.id;
+            this.returned = head.cursor;
+            return head.entity;
+        }
+
+        /**
+         * Close the cursors of the shards.
+         *
+         * @since 1.2
+         */
+        void close() {
+            this.cursors.forEach(Cursor::close);
+        }
+    }
+
+    private static class Head<T> {
+
+        private final T entity;
+        private final long id;
+        private final Cursor<T> cursor;
+
+        Head(T entity, long id, Cursor<T> cursor) {
+            this.entity = entity;
+            this.id = id;
+            this.cursor = cursor;
+        }
+    }
+}
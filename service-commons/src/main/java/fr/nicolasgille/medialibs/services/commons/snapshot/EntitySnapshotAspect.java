@@ -0,0 +1,271 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.PersistenceUnitUtil;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serve the reads of the repositories from the snapshots.
+ *
+ * <code>findOne</code> of an entity unchanged since the snapshot, and <code>findAll</code> when no entity
+ * changed, are answered by the snapshot outside of a transaction. <code>findOne</code> and both
+ * <code>findAll</code> are answered by the snapshot when the database is unreachable. The writes of the
+ * repositories and of the outbox mark their entities as changed before they run.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Aspect
+public class EntitySnapshotAspect {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(EntitySnapshotAspect.class);
+
+    private final EntitySnapshots snapshots;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final boolean warm;
+    private final boolean offline;
+
+    /**
+     * Snapshot of the entity of each repository, by repository proxy class.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Class<?>, Object> repositories = new ConcurrentHashMap<>();
+
+    public EntitySnapshotAspect(EntitySnapshots snapshots, PersistenceUnitUtil persistenceUnitUtil,
+                                boolean warm, boolean offline) {
+        this.snapshots = snapshots;
+        this.persistenceUnitUtil = persistenceUnitUtil;
+        this.warm = warm;
+        this.offline = offline;
+    }
+
+    @Around("execution(* org.springframework.data.repository.CrudRepository+.findOne(..)) && args(id)")
+    public Object findOne(ProceedingJoinPoint joinPoint, Long id) throws Throwable {
+        EntitySnapshots.Region region = region(joinPoint);
+        if (region == null || id == null) {
+            return joinPoint.proceed();
+        }
+        if (this.warm && region.isFresh(id) && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return region.read(id, false);
+        }
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException e) {
+            if (this.offline && region.isAvailable() && isUnreachable(e)) {
+                logger.warn("Database unreachable, {} {} read from the snapshot", region.getName(), id);
+                return region.read(id, true);
+            }
+            throw e;
+        }
+    }
+
+    @Around("execution(* org.springframework.data.repository.CrudRepository+.findAll())")
+    public Object findAll(ProceedingJoinPoint joinPoint) throws Throwable {
+        EntitySnapshots.Region region = region(joinPoint);
+        if (region == null) {
+            return joinPoint.proceed();
+        }
+        if (this.warm && region.isUnchanged() && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            return region.readAll(null, false);
+        }
+        return proceedOrRead(joinPoint, region, null);
+    }
+
+    @Around("execution(* org.springframework.data.repository.CrudRepository+.findAll(Iterable)) && args(ids)")
+    public Object findAll(ProceedingJoinPoint joinPoint, Iterable<?> ids) throws Throwable {
+        EntitySnapshots.Region region = region(joinPoint);
+        if (region == null || ids == null) {
+            return joinPoint.proceed();
+        }
+        return proceedOrRead(joinPoint, region, ids);
+    }
+
+    /**
+     * Mark the entities written through a repository as changed.
+     *
+     * @param joinPoint
+     *  Write of a repository.
+     * @since 1.0
+     */
+    @Before("execution(* org.springframework.data.repository.CrudRepository+.save*(..))"
+            + " || execution(* org.springframework.data.repository.CrudRepository+.delete*(..))")
+    public void beforeWrite(JoinPoint joinPoint) {
+        EntitySnapshots.Region region = region(joinPoint);
+        if (region == null) {
+            return;
+        }
+        if (joinPoint.getArgs().length == 0) {
+            // deleteAll(), deleteAllInBatch(): every entity changes.
+            region.invalidate();
+            return;
+        }
+        for (Object arg : joinPoint.getArgs()) {
+            changed(region, arg);
+        }
+    }
+
+    /**
+     * Mark the entities created through a repository as changed, their identifier being known once saved.
+     *
+     * @param joinPoint
+     *  Save of a repository.
+     * @param saved
+     *  Entity or entities saved.
+     * @since 1.0
+     */
+    @AfterReturning(pointcut = "execution(* org.springframework.data.repository.CrudRepository+.save*(..))",
+            returning = "saved")
+    public void afterSave(JoinPoint joinPoint, Object saved) {
+        EntitySnapshots.Region region = region(joinPoint);
+        if (region != null) {
+            changed(region, saved);
+        }
+    }
+
+    /**
+     * Mark the entities deleted by the outbox in one statement as changed.
+     *
+     * @param type
+     *  Entity class.
+     * @param ids
+     *  Identifiers of the entities.
+     * @since 1.0
+     */
+    @Before("execution(* fr.nicolasgille.medialibs.services.commons.outbox.Outbox.deleteAll(..)) && args(type, ids)")
+    public void beforeDeleteAll(Class<?> type, Collection<Long> ids) {
+        EntitySnapshots.Region region = this.snapshots.region(type);
+        if (region != null) {
+            long now = System.currentTimeMillis();
+            for (Long id : ids) {
+                region.changed(id, now);
+            }
+        }
+    }
+
+    /**
+     * Tell whether an exception comes from a database out of reach, rather than from the query.
+     *
+     * @param e
+     *  Exception of a repository.
+     * @return
+     *  True for a connection failure.
+     * @since 1.0
+     */
+    static boolean isUnreachable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CannotCreateTransactionException
+                    || cause instanceof DataAccessResourceFailureException
+                    || cause instanceof SQLTransientConnectionException
+                    || cause instanceof ConnectException
+                    || cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("08")) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private Object proceedOrRead(ProceedingJoinPoint joinPoint, EntitySnapshots.Region region, Iterable<?> ids) throws Throwable {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException e) {
+            if (this.offline && region.isAvailable() && isUnreachable(e)) {
+                logger.warn("Database unreachable, {} read from the snapshot", region.getName());
+                return region.readAll(ids, true);
+            }
+            throw e;
+        }
+    }
+
+    private void changed(EntitySnapshots.Region region, Object arg) {
+        long now = System.currentTimeMillis();
+        if (arg instanceof Number) {
+            region.changed(((Number) arg).longValue(), now);
+        } else if (arg instanceof Iterable) {
+            for (Object element : (Iterable<?>) arg) {
+                changed(region, element);
+            }
+        } else if (arg != null) {
+            Object id = this.persistenceUnitUtil.getIdentifier(arg);
+            if (id instanceof Number) {
+                region.changed(((Number) id).longValue(), now);
+            }
+        }
+    }
+
+    /**
+     * Find the snapshot of the entity of a repository.
+     *
+     * @param joinPoint
+     *  Call of a repository.
+     * @return
+     *  The snapshot, or null when the entity has none.
+     * @since 1.0
+     */
+    private EntitySnapshots.Region region(JoinPoint joinPoint) {
+        Class<?> proxyClass = joinPoint.getThis().getClass();
+        Object region = this.repositories.get(proxyClass);
+        if (region == null) {
+            region = this.repositories.computeIfAbsent(proxyClass, this::findRegion);
+        }
+        return region instanceof EntitySnapshots.Region ? (EntitySnapshots.Region) region : null;
+    }
+
+    private Object findRegion(Class<?> proxyClass) {
+        for (Class<?> type : proxyClass.getInterfaces()) {
+            if (CrudRepository.class.isAssignableFrom(type)) {
+                Class<?> entity = ResolvableType.forClass(type).as(CrudRepository.class).resolveGeneric(0);
+                EntitySnapshots.Region region = entity == null ? null : this.snapshots.region(entity);
+                if (region != null) {
+                    return region;
+                }
+            }
+        }
+        return Boolean.FALSE;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import fr.nicolasgille.medialibs.services.commons.json.EntityFormat;
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxProperties;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportAware;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManagerFactory;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * Snapshot files of the entities listed by {@link EnableEntitySnapshot}, with their state
+ * on <code>/snapshots</code> and on the metrics.
+ *
+ * Disabled unless <code>medialibs.snapshot.enabled = true</code>, with an absolute
+ * <code>medialibs.snapshot.directory</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@EnableConfigurationProperties(EntitySnapshotProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.snapshot", name = "enabled")
+public class EntitySnapshotConfiguration implements ImportAware {
+
+    private Class<?>[] entities;
+
+    @Override
+    public void setImportMetadata(AnnotationMetadata importMetadata) {
+        Map<String, Object> attributes = importMetadata.getAnnotationAttributes(EnableEntitySnapshot.class.getName());
+        this.entities = (Class<?>[]) attributes.get("value");
+    }
+
+    @Bean
+    public EntitySnapshots entitySnapshots(EntitySnapshotProperties properties, OutboxProperties outboxProperties,
+                                           OutboxStore outboxStore, EntityManagerFactory entityManagerFactory,
+                                           PlatformTransactionManager transactionManager,
+                                           ObjectProvider<MetricsRegistry> metricsRegistry) {
+        if (!StringUtils.hasText(properties.getDirectory()) || !Paths.get(properties.getDirectory()).isAbsolute()) {
+            throw new IllegalStateException("medialibs.snapshot.directory must be an absolute path, not '"
+                    + properties.getDirectory() + "'");
+        }
+        EntitySnapshots snapshots = new EntitySnapshots(this.entities, properties, outboxProperties, outboxStore,
+                SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory),
+                entityManagerFactory.getPersistenceUnitUtil(), transactionManager, EntityFormat.SMILE.createMapper());
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            for (EntitySnapshots.Region region : snapshots.getRegions()) {
+                String labels = MetricsRegistry.labels("entity", region.getName());
+                registry.gauge("medialibs_snapshot_entries", "Entities in the snapshot file.", labels, region::getEntries);
+                registry.gauge("medialibs_snapshot_age_seconds", "Age of the snapshot file.", labels,
+                        () -> region.getCreatedAt() == 0 ? 0 : (System.currentTimeMillis() - region.getCreatedAt()) / 1000.0);
+                registry.gauge("medialibs_snapshot_changed", "Entities changed since the snapshot, read from the database.",
+                        labels, region::getChanged);
+                registry.gauge("medialibs_snapshot_warm", "1 when the unchanged entities are read from the snapshot.",
+                        labels, () -> region.isWarm() ? 1 : 0);
+                registry.counterFunction("medialibs_snapshot_warm_reads", "Reads answered by the snapshot instead of the database.",
+                        labels, region::getWarmReads);
+                registry.counterFunction("medialibs_snapshot_offline_reads", "Reads answered by the snapshot while the database was unreachable.",
+                        labels, region::getOfflineReads);
+                registry.counterFunction("medialibs_snapshot_writes", "Snapshot files written.", labels, region::getWrites);
+                registry.counterFunction("medialibs_snapshot_failures", "Snapshot files not written.", labels, region::getFailures);
+            }
+        }
+        return snapshots;
+    }
+
+    @Bean
+    public EntitySnapshotAspect entitySnapshotAspect(EntitySnapshots entitySnapshots, EntitySnapshotProperties properties,
+                                                     EntityManagerFactory entityManagerFactory) {
+        return new EntitySnapshotAspect(entitySnapshots, entityManagerFactory.getPersistenceUnitUtil(),
+                properties.isWarm(), properties.isOffline());
+    }
+
+    @Bean
+    public EntitySnapshotRestController entitySnapshotRestController(EntitySnapshots entitySnapshots) {
+        return new EntitySnapshotRestController(entitySnapshots);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the snapshot files, under the prefix <code>medialibs.snapshot</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.snapshot")
+public class EntitySnapshotProperties {
+
+    /**
+     * Read and write the snapshots of the entities listed by {@link EnableEntitySnapshot}. Disabled by default.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory of the snapshot files, one <code>&lt;entity&gt;.snapshot</code> by entity. Required when enabled,
+     * as an absolute path: a relative one would depend on the directory the service is started from.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private String directory;
+
+    /**
+     * Write the snapshots from this instance. Instances sharing a directory may leave it to one of them.
+     *
+     * @since 1.0
+     */
+    private boolean write = true;
+
+    /**
+     * Delay between two snapshots, in milliseconds.
+     *
+     * @since 1.0
+     */
+    private long interval = 600000;
+
+    /**
+     * Number of entities read in one query while writing a snapshot.
+     *
+     * @since 1.0
+     */
+    private int pageSize = 200;
+
+    /**
+     * Answer the lookups of the entities unchanged since the snapshot from the snapshot.
+     *
+     * @since 1.0
+     */
+    private boolean warm = true;
+
+    /**
+     * Answer the reads from the snapshot while the database is unreachable.
+     *
+     * @since 1.0
+     */
+    private boolean offline = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    public void setWrite(boolean write) {
+        this.write = write;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public void setWarm(boolean warm) {
+        this.warm = warm;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public void setOffline(boolean offline) {
+        this.offline = offline;
+    }
+}
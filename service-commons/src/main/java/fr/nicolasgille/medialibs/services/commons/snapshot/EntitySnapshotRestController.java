@@ -0,0 +1,68 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Expose the state of the snapshot files, and write them on demand.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class EntitySnapshotRestController {
+
+    private final EntitySnapshots snapshots;
+
+    public EntitySnapshotRestController(EntitySnapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Get the state of each snapshot.
+     *
+     * @return
+     *  A ResponseEntity with the file, age, size, changed entities and reads of each snapshot.
+     * @since 1.0
+     */
+    @GetMapping("/snapshots")
+    public ResponseEntity<?> getSnapshots() {
+        return new ResponseEntity<Collection>(new ArrayList<>(this.snapshots.getRegions()), HttpStatus.OK);
+    }
+
+    /**
+     * Write all snapshots now, for example before a planned restart.
+     *
+     * @return
+     *  A ResponseEntity with the new state of each snapshot.
+     * @since 1.0
+     */
+    @PostMapping("/snapshots")
+    public ResponseEntity<?> writeSnapshots() {
+        return new ResponseEntity<Collection>(new ArrayList<>(this.snapshots.writeAll()), HttpStatus.OK);
+    }
+}
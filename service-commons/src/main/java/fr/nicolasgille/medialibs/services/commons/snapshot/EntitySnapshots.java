@@ -0,0 +1,598 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeListener;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxProperties;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.PluralAttribute;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Snapshot files of the entities listed by {@link EnableEntitySnapshot}.
+ *
+ * The files are mapped at start-up. An entity of a snapshot is fresh when no change of it happened since
+ * the snapshot: the changes are read from the outbox at start-up, then received from the event bus, and the
+ * changes made by this instance are recorded as soon as they are made. A change is trusted to be in a snapshot
+ * when it was created more than the gap timeout of the outbox before it, like the relay skips a missing offset.
+ * Without outbox, or with a snapshot older than the retention of the outbox, no entity is fresh and the
+ * snapshot only serves while the database is unreachable.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class EntitySnapshots implements ChangeListener, SmartLifecycle, ApplicationListener<ContextRefreshedEvent> {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(EntitySnapshots.class);
+
+    /**
+     * Number of events read in one query while catching up with the outbox.
+     *
+     * @since 1.0
+     */
+    private static final int CATCH_UP_BATCH = 1000;
+
+    /**
+     * Shortest delay before the first snapshot, to leave the start-up traffic to the database.
+     *
+     * @since 1.0
+     */
+    private static final long FIRST_WRITE_DELAY = 30000;
+
+    private final EntitySnapshotProperties properties;
+    private final OutboxProperties outboxProperties;
+    private final OutboxStore outboxStore;
+    private final EntityManager entityManager;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final TransactionTemplate transactions;
+
+    /**
+     * Encoding of the records, the Smile encoding of the http responses.
+     *
+     * @since 1.0
+     */
+    private final ObjectMapper mapper;
+
+    /**
+     * Snapshot of each entity, by entity class and by simple class name as in the change events.
+     *
+     * @since 1.0
+     */
+    private final Map<Class<?>, Region> regions = new LinkedHashMap<>();
+    private final Map<String, Region> regionsByType = new LinkedHashMap<>();
+
+    private ScheduledExecutorService writer;
+    private volatile boolean caughtUp;
+
+    public EntitySnapshots(Class<?>[] entities, EntitySnapshotProperties properties, OutboxProperties outboxProperties,
+                           OutboxStore outboxStore, EntityManager entityManager, PersistenceUnitUtil persistenceUnitUtil,
+                           PlatformTransactionManager transactionManager, ObjectMapper mapper) {
+        this.properties = properties;
+        this.outboxProperties = outboxProperties;
+        this.outboxStore = outboxStore;
+        this.entityManager = entityManager;
+        this.persistenceUnitUtil = persistenceUnitUtil;
+        this.transactions = new TransactionTemplate(transactionManager);
+        this.transactions.setReadOnly(true);
+        this.mapper = mapper;
+        for (Class<?> entity : entities) {
+            String name = StringUtils.uncapitalize(entity.getSimpleName());
+            Region region = new Region(entity, name, Paths.get(properties.getDirectory(), name + ".snapshot"));
+            this.regions.put(entity, region);
+            this.regionsByType.put(entity.getSimpleName(), region);
+        }
+    }
+
+    /**
+     * Get the snapshot of an entity.
+     *
+     * @param type
+     *  Entity class.
+     * @return
+     *  The snapshot, or null if the entity has none.
+     * @since 1.0
+     */
+    public Region region(Class<?> type) {
+        return this.regions.get(type);
+    }
+
+    public Collection<Region> getRegions() {
+        return this.regions.values();
+    }
+
+    /**
+     * Write the snapshot of every entity now, and use them.
+     *
+     * @return
+     *  The snapshots.
+     * @since 1.0
+     */
+    public Collection<Region> writeAll() {
+        for (Region region : this.regions.values()) {
+            write(region);
+        }
+        return this.regions.values();
+    }
+
+    /**
+     * Record the changes relayed from the outbox, made by any instance of any service.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void onChanges(List<ChangeEvent> events) {
+        for (ChangeEvent event : events) {
+            Region region = this.regionsByType.get(event.getEntityType());
+            if (region != null) {
+                region.changed(event.getEntityId(), event.getCreatedAt());
+            }
+        }
+    }
+
+    /**
+     * Map the existing snapshot files, before the first request.
+     *
+     * @since 1.0
+     */
+    @Override
+    public synchronized void start() {
+        for (Region region : this.regions.values()) {
+            if (Files.isRegularFile(region.path)) {
+                try {
+                    region.snapshot = SnapshotFile.open(region.path);
+                    logger.info("Snapshot {} of {} entities mapped, taken {} s ago", region.path,
+                            region.snapshot.getCount(), (System.currentTimeMillis() - region.snapshot.getCreatedAt()) / 1000);
+                } catch (IOException e) {
+                    logger.warn("Snapshot {} ignored: {}", region.path, e.getMessage());
+                }
+            }
+        }
+
+        if (this.properties.isWrite()) {
+            this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "entity-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (Region region : this.regions.values()) {
+                long age = region.snapshot == null ? Long.MAX_VALUE : System.currentTimeMillis() - region.snapshot.getCreatedAt();
+                long delay = Math.max(this.properties.getInterval() - age, FIRST_WRITE_DELAY);
+                this.writer.scheduleWithFixedDelay(() -> write(region), delay, this.properties.getInterval(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Read the changes made since the mapped snapshots, once the outbox relay started: the changes
+     * following the start of the relay are received from the event bus.
+     *
+     * @since 1.0
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (this.caughtUp) {
+            return;
+        }
+        this.caughtUp = true;
+        for (Region region : this.regions.values()) {
+            if (region.snapshot != null) {
+                synchronized (region) {
+                    catchUp(region, region.snapshot);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (this.writer != null) {
+            this.writer.shutdownNow();
+            this.writer = null;
+        }
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return this.writer != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * Write the snapshot of an entity and replace the current one.
+     *
+     * @param region
+     *  Snapshot of the entity.
+     * @since 1.0
+     */
+    private void write(Region region) {
+        synchronized (region.writeLock) {
+            writeLocked(region);
+        }
+    }
+
+    private void writeLocked(Region region) {
+        long start = System.nanoTime();
+        long createdAt = System.currentTimeMillis();
+        try {
+            Files.createDirectories(region.path.toAbsolutePath().getParent());
+            try (SnapshotFile.Writer writer = SnapshotFile.create(region.path, region.type.getName(), createdAt)) {
+                this.transactions.execute(status -> {
+                    readAll(region.type, writer);
+                    return null;
+                });
+                writer.finish();
+                logger.info("Snapshot {} of {} entities written in {} ms", region.path, writer.getCount(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            SnapshotFile snapshot = SnapshotFile.open(region.path);
+            region.writes.increment();
+            synchronized (region) {
+                catchUp(region, snapshot);
+            }
+        } catch (IOException | RuntimeException e) {
+            region.failures.increment();
+            logger.warn("Snapshot {} not written", region.path, e);
+        }
+    }
+
+    /**
+     * Append all entities of a type to a snapshot, page by page in identifier order.
+     *
+     * @since 1.0
+     */
+    private void readAll(Class<?> type, SnapshotFile.Writer writer) {
+        EntityType<?> entity = this.entityManager.getMetamodel().entity(type);
+        // Fetch a single collection with its entities; several bags cannot be fetched together.
+        StringBuilder fetch = new StringBuilder();
+        List<String> collections = new ArrayList<>();
+        for (PluralAttribute<?, ?, ?> attribute : entity.getPluralAttributes()) {
+            collections.add(attribute.getName());
+        }
+        if (collections.size() == 1) {
+            fetch.append(" left join fetch e.").append(collections.get(0));
+        }
+        String ids = "select e.id from " + entity.getName() + " e where e.id > :last order by e.id";
+        String entities = "select distinct e from " + entity.getName() + " e" + fetch + " where e.id in :ids";
+
+        long last = Long.MIN_VALUE;
+        List<Long> page;
+        do {
+            page = this.entityManager.createQuery(ids, Long.class)
+                    .setParameter("last", last)
+                    .setMaxResults(this.properties.getPageSize())
+                    .getResultList();
+            if (page.isEmpty()) {
+                break;
+            }
+            Map<Long, Object> found = new TreeMap<>();
+            for (Object row : this.entityManager.createQuery(entities, type).setParameter("ids", page).getResultList()) {
+                found.put(((Number) this.persistenceUnitUtil.getIdentifier(row)).longValue(), row);
+            }
+            try {
+                for (Map.Entry<Long, Object> row : found.entrySet()) {
+                    writer.append(row.getKey(), this.mapper.writeValueAsBytes(row.getValue()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.entityManager.clear();
+            last = page.get(page.size() - 1);
+        } while (page.size() == this.properties.getPageSize());
+    }
+
+    /**
+     * Use a snapshot, after reading from the outbox the changes made since.
+     *
+     * @param region
+     *  Snapshot of the entity, locked by the caller.
+     * @param snapshot
+     *  New snapshot of the entity.
+     * @since 1.0
+     */
+    private void catchUp(Region region, SnapshotFile snapshot) {
+        long trusted = snapshot.getCreatedAt() - this.outboxProperties.getGapTimeout();
+        region.fresh = false;
+        region.snapshot = snapshot;
+        region.trusted = trusted;
+        region.changes.values().removeIf(time -> time < trusted);
+        if (!this.properties.isWarm() || !this.outboxProperties.isEnabled()) {
+            return;
+        }
+        if (System.currentTimeMillis() - trusted >= this.outboxProperties.getRetention()) {
+            logger.info("Snapshot {} older than the outbox retention, only used while the database is unreachable", region.path);
+            return;
+        }
+        try {
+            long after = this.outboxStore.offsetBefore(trusted);
+            List<ChangeEvent> events;
+            do {
+                events = this.outboxStore.read(after, CATCH_UP_BATCH);
+                for (ChangeEvent event : events) {
+                    if (region.type.getSimpleName().equals(event.getEntityType())) {
+                        region.changed(event.getEntityId(), event.getCreatedAt());
+                    }
+                    after = event.getOffset();
+                }
+            } while (events.size() == CATCH_UP_BATCH);
+            region.fresh = true;
+            logger.info("Snapshot {} in use, {} entities changed since", region.path, region.changes.size());
+        } catch (RuntimeException e) {
+            logger.warn("Changes since snapshot {} not read, only used while the database is unreachable", region.path, e);
+        }
+    }
+
+    /**
+     * Snapshot of one entity and the identifiers changed since.
+     *
+     * @since 1.0
+     */
+    public class Region {
+
+        private final Class<?> type;
+        private final String name;
+        private final Path path;
+
+        private volatile SnapshotFile snapshot;
+
+        /**
+         * Lock of the writes of the snapshot file, from the schedule or on demand.
+         *
+         * @since 1.0
+         */
+        private final Object writeLock = new Object();
+
+        /**
+         * True once the changes since the snapshot are known, so its unchanged entities can be served.
+         *
+         * @since 1.0
+         */
+        private volatile boolean fresh;
+
+        /**
+         * Changes older than this time are in the snapshot, in milliseconds since the epoch.
+         *
+         * @since 1.0
+         */
+        private volatile long trusted;
+
+        /**
+         * Time of the last change of each entity changed since the snapshot, by identifier.
+         *
+         * @since 1.0
+         */
+        private final ConcurrentMap<Long, Long> changes = new ConcurrentHashMap<>();
+
+        private final LongAdder warmReads = new LongAdder();
+        private final LongAdder offlineReads = new LongAdder();
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        Region(Class<?> type, String name, Path path) {
+            this.type = type;
+            this.name = name;
+            this.path = path;
+        }
+
+        /**
+         * Tell whether the snapshot holds the current state of an entity, or its absence.
+         *
+         * @param id
+         *  Identifier of the entity.
+         * @return
+         *  True if the entity did not change since the snapshot.
+         * @since 1.0
+         */
+        public boolean isFresh(long id) {
+            return this.fresh && !this.changes.containsKey(id);
+        }
+
+        /**
+         * Tell whether the snapshot holds the current state of all entities.
+         *
+         * @return
+         *  True if no entity changed since the snapshot.
+         * @since 1.0
+         */
+        public boolean isUnchanged() {
+            return this.fresh && this.changes.isEmpty();
+        }
+
+        public boolean isAvailable() {
+            return this.snapshot != null;
+        }
+
+        /**
+         * Record a change of an entity, so its snapshot is not served any more.
+         *
+         * @param id
+         *  Identifier of the entity.
+         * @param time
+         *  Time of the change, in milliseconds since the epoch.
+         * @since 1.0
+         */
+        public void changed(long id, long time) {
+            if (time >= this.trusted) {
+                this.changes.merge(id, time, Math::max);
+            }
+        }
+
+        /**
+         * Stop serving the snapshot until the next one, after a change whose entities are unknown.
+         *
+         * @since 1.0
+         */
+        public void invalidate() {
+            this.fresh = false;
+        }
+
+        /**
+         * Read an entity of the snapshot.
+         *
+         * @param id
+         *  Identifier of the entity.
+         * @param offline
+         *  True when read because the database is unreachable, false when read because it is fresh.
+         * @return
+         *  A new instance of the entity, or null if the snapshot does not hold it.
+         * @since 1.0
+         */
+        public Object read(long id, boolean offline) {
+            (offline ? this.offlineReads : this.warmReads).increment();
+            ByteBuffer record = this.snapshot.find(id);
+            return record == null ? null : decode(record);
+        }
+
+        /**
+         * Read all entities of the snapshot, or some of them.
+         *
+         * @param ids
+         *  Identifiers of the entities, null for all.
+         * @param offline
+         *  True when read because the database is unreachable, false when read because it is fresh.
+         * @return
+         *  New instances of the entities found, in identifier order for all.
+         * @since 1.0
+         */
+        public List<Object> readAll(Iterable<?> ids, boolean offline) {
+            (offline ? this.offlineReads : this.warmReads).increment();
+            SnapshotFile current = this.snapshot;
+            List<Object> entities = new ArrayList<>();
+            if (ids == null) {
+                for (int i = 0; i < current.getCount(); i++) {
+                    entities.add(decode(current.recordAt(i)));
+                }
+            } else {
+                for (Object id : ids) {
+                    ByteBuffer record = current.find(((Number) id).longValue());
+                    if (record != null) {
+                        entities.add(decode(record));
+                    }
+                }
+            }
+            return entities;
+        }
+
+        private Object decode(ByteBuffer record) {
+            try {
+                return mapper.readValue(new ByteBufferBackedInputStream(record), this.type);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Snapshot " + this.path + " unreadable", e);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPath() {
+            return path.toString();
+        }
+
+        public boolean isWarm() {
+            return fresh;
+        }
+
+        public int getEntries() {
+            SnapshotFile current = this.snapshot;
+            return current == null ? 0 : current.getCount();
+        }
+
+        public long getSize() {
+            SnapshotFile current = this.snapshot;
+            return current == null ? 0 : current.getSize();
+        }
+
+        public long getCreatedAt() {
+            SnapshotFile current = this.snapshot;
+            return current == null ? 0 : current.getCreatedAt();
+        }
+
+        public int getChanged() {
+            return changes.size();
+        }
+
+        public long getWarmReads() {
+            return warmReads.sum();
+        }
+
+        public long getOfflineReads() {
+            return offlineReads.sum();
+        }
+
+        public long getWrites() {
+            return writes.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+    }
+}
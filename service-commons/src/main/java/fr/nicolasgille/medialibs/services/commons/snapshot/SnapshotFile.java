@@ -0,0 +1,348 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Snapshot of one table, in a compact binary file read through a memory mapping.
+ *
+ * Layout, big endian:
+ * <pre>
+ * header  magic "MLSN" (int), format version (short), reserved (short), creation time (long),
+ *         number of records (int), position of the index (long), entity name (short length + utf-8)
+ * records length (int) + entity encoded in Smile, by increasing identifier
+ * index   identifier (long) + position of the record (int), by increasing identifier
+ * </pre>
+ * Opening a file only maps it and checks its header; a lookup is a binary search in the mapped index,
+ * so a snapshot is usable as soon as it is opened, whatever its size. A file is written next to its
+ * final name and moved over it once complete, so a reader never sees a partial file.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public final class SnapshotFile {
+
+    /**
+     * First bytes of a snapshot file: "MLSN".
+     *
+     * @since 1.0
+     */
+    static final int MAGIC = 0x4D4C534E;
+
+    /**
+     * Version of the layout. A file of another version is ignored, and replaced by the next write.
+     *
+     * @since 1.0
+     */
+    static final short FORMAT_VERSION = 1;
+
+    /**
+     * Size of an entry of the index: identifier and position.
+     *
+     * @since 1.0
+     */
+    private static final int INDEX_ENTRY = 12;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final String entity;
+    private final long createdAt;
+    private final int count;
+    private final int indexPosition;
+
+    private SnapshotFile(Path path, MappedByteBuffer buffer, String entity, long createdAt, int count, int indexPosition) {
+        this.path = path;
+        this.buffer = buffer;
+        this.entity = entity;
+        this.createdAt = createdAt;
+        this.count = count;
+        this.indexPosition = indexPosition;
+    }
+
+    /**
+     * Map a snapshot file.
+     *
+     * @param path
+     *  Path of the file.
+     * @return
+     *  The snapshot.
+     * @throws IOException
+     *  If the file cannot be read, is not a snapshot, or is of another format version.
+     * @since 1.0
+     */
+    public static SnapshotFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + path + " larger than 2 GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < 30 || buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a snapshot");
+            }
+            short version = buffer.getShort(4);
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Snapshot " + path + " of format " + version + ", expected " + FORMAT_VERSION);
+            }
+            long createdAt = buffer.getLong(8);
+            int count = buffer.getInt(16);
+            long indexPosition = buffer.getLong(20);
+            if (count < 0 || indexPosition < 30 || indexPosition + (long) count * INDEX_ENTRY != size) {
+                throw new IOException("Snapshot " + path + " truncated");
+            }
+            byte[] name = new byte[buffer.getShort(28)];
+            ByteBuffer header = buffer.duplicate();
+            header.position(30);
+            header.get(name);
+            return new SnapshotFile(path, buffer, new String(name, StandardCharsets.UTF_8), createdAt, count, (int) indexPosition);
+        }
+    }
+
+    /**
+     * Start writing a snapshot file.
+     *
+     * @param path
+     *  Final path of the file, replaced once the snapshot is complete.
+     * @param entity
+     *  Name of the entity of the records.
+     * @param createdAt
+     *  Time of the snapshot, in milliseconds since the epoch.
+     * @return
+     *  The writer, to close once all records are appended.
+     * @throws IOException
+     *  If the temporary file cannot be created.
+     * @since 1.0
+     */
+    public static Writer create(Path path, String entity, long createdAt) throws IOException {
+        return new Writer(path, entity, createdAt);
+    }
+
+    /**
+     * Find the record of an identifier.
+     *
+     * @param id
+     *  Identifier of the entity.
+     * @return
+     *  The encoded entity, a view of the mapping, or null if the snapshot does not hold it.
+     * @since 1.0
+     */
+    public ByteBuffer find(long id) {
+        int low = 0;
+        int high = this.count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long current = idAt(middle);
+            if (current < id) {
+                low = middle + 1;
+            } else if (current > id) {
+                high = middle - 1;
+            } else {
+                return recordAt(middle);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the identifier of a record.
+     *
+     * @param index
+     *  Rank of the record, from 0 to {@link #getCount()} excluded.
+     * @return
+     *  The identifier of the entity.
+     * @since 1.0
+     */
+    public long idAt(int index) {
+        return this.buffer.getLong(this.indexPosition + index * INDEX_ENTRY);
+    }
+
+    /**
+     * Get a record.
+     *
+     * @param index
+     *  Rank of the record, from 0 to {@link #getCount()} excluded.
+     * @return
+     *  The encoded entity, a view of the mapping.
+     * @since 1.0
+     */
+    public ByteBuffer recordAt(int index) {
+        int position = this.buffer.getInt(this.indexPosition + index * INDEX_ENTRY + 8);
+        int length = this.buffer.getInt(position);
+        ByteBuffer record = this.buffer.duplicate();
+        record.position(position + 4);
+        record.limit(position + 4 + length);
+        return record.slice();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Append the records of a snapshot, then its index and header.
+     *
+     * @since 1.0
+     */
+    public static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final byte[] entity;
+        private final long createdAt;
+        private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+
+        private long position;
+        private long[] ids = new long[1024];
+        private int[] positions = new int[1024];
+        private int count;
+        private boolean finished;
+
+        private Writer(Path path, String entity, long createdAt) throws IOException {
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.entity = entity.getBytes(StandardCharsets.UTF_8);
+            this.createdAt = createdAt;
+            this.channel = FileChannel.open(this.temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.position = 30 + this.entity.length;
+            this.channel.position(this.position);
+        }
+
+        /**
+         * Append a record.
+         *
+         * @param id
+         *  Identifier of the entity, greater than the previous one.
+         * @param record
+         *  Encoded entity.
+         * @throws IOException
+         *  If the file cannot be written, or grows over 2 GB.
+         * @since 1.0
+         */
+        public void append(long id, byte[] record) throws IOException {
+            if (this.count > 0 && id <= this.ids[this.count - 1]) {
+                throw new IllegalArgumentException("Identifier " + id + " appended after " + this.ids[this.count - 1]);
+            }
+            if (this.position + 4 + record.length > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot " + this.path + " larger than 2 GB");
+            }
+            if (this.count == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.count * 2);
+                this.positions = Arrays.copyOf(this.positions, this.count * 2);
+            }
+            this.ids[this.count] = id;
+            this.positions[this.count] = (int) this.position;
+            this.count++;
+
+            ensure(4);
+            this.output.putInt(record.length);
+            for (int offset = 0; offset < record.length; ) {
+                ensure(1);
+                int length = Math.min(this.output.remaining(), record.length - offset);
+                this.output.put(record, offset, length);
+                offset += length;
+            }
+            this.position += 4 + record.length;
+        }
+
+        /**
+         * Write the index and the header, and move the file to its final path.
+         *
+         * @throws IOException
+         *  If the file cannot be written.
+         * @since 1.0
+         */
+        public void finish() throws IOException {
+            long indexPosition = this.position;
+            for (int i = 0; i < this.count; i++) {
+                ensure(INDEX_ENTRY);
+                this.output.putLong(this.ids[i]).putInt(this.positions[i]);
+            }
+            flush();
+
+            ByteBuffer header = ByteBuffer.allocate(30 + this.entity.length);
+            header.putInt(MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).putLong(this.createdAt)
+                    .putInt(this.count).putLong(indexPosition).putShort((short) this.entity.length).put(this.entity);
+            header.flip();
+            this.channel.write(header, 0);
+            this.channel.force(true);
+            this.channel.close();
+            Files.move(this.temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.finished = true;
+        }
+
+        /**
+         * Drop the temporary file of a snapshot not finished.
+         *
+         * @since 1.0
+         */
+        @Override
+        public void close() throws IOException {
+            if (!this.finished) {
+                this.channel.close();
+                Files.deleteIfExists(this.temporary);
+            }
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (this.output.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            this.output.flip();
+            while (this.output.hasRemaining()) {
+                this.channel.write(this.output);
+            }
+            this.output.clear();
+        }
+    }
+}
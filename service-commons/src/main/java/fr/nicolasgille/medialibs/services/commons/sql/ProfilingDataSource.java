@@ -0,0 +1,257 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * DataSource wrapping the connections of its target to time each statement
+ * and count the rows read from its result sets.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class ProfilingDataSource extends DelegatingDataSource {
+
+    private final StatementProfiler profiler;
+
+    public ProfilingDataSource(DataSource target, StatementProfiler profiler) {
+        super(target);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrap(getTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return wrap(getTargetDataSource().getConnection(username, password));
+    }
+
+    /**
+     * Close the target with the context, when it is a pool.
+     *
+     * @throws Exception
+     *  If the target fails to close.
+     * @since 1.0
+     */
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable) {
+            ((AutoCloseable) getTargetDataSource()).close();
+        }
+    }
+
+    private Connection wrap(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * Invoke a method on the wrapped object, and throw the original exception on failure.
+     *
+     * @since 1.0
+     */
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Wrap the statements created by a connection.
+     *
+     * @since 1.0
+     */
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : this.connection.unwrap((Class<?>) args[0]);
+                default:
+                    break;
+            }
+
+            Object result = ProfilingDataSource.invoke(this.connection, method, args);
+            if (result instanceof CallableStatement) {
+                return proxy(CallableStatement.class, new StatementHandler((Statement) result, proxy, (String) args[0]));
+            } else if (result instanceof PreparedStatement) {
+                return proxy(PreparedStatement.class, new StatementHandler((Statement) result, proxy, (String) args[0]));
+            } else if (result instanceof Statement) {
+                return proxy(Statement.class, new StatementHandler((Statement) result, proxy, null));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Time the executions of a statement and wrap its result sets.
+     *
+     * @since 1.0
+     */
+    private class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final Object connection;
+
+        /**
+         * Sql of a prepared statement, null for a plain statement.
+         *
+         * @since 1.0
+         */
+        private final String preparedSql;
+        private final StatementStatistics preparedStatistics;
+
+        /**
+         * Statistics of the last execution, to attribute the rows of <code>getResultSet()</code>.
+         *
+         * @since 1.0
+         */
+        private StatementStatistics lastStatistics;
+
+        StatementHandler(Statement statement, Object connection, String preparedSql) {
+            this.statement = statement;
+            this.connection = connection;
+            this.preparedSql = preparedSql;
+            this.preparedStatistics = preparedSql == null ? null : profiler.statistics(preparedSql);
+            this.lastStatistics = this.preparedStatistics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getConnection":
+                    return this.connection;
+                case "getResultSet":
+                    return wrapResultSet(ProfilingDataSource.invoke(this.statement, method, args), proxy, this.lastStatistics);
+                default:
+                    break;
+            }
+            if (!name.startsWith("execute")) {
+                return ProfilingDataSource.invoke(this.statement, method, args);
+            }
+
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : this.preparedSql;
+            StatementStatistics statistics = sql == null ? null
+                    : sql.equals(this.preparedSql) ? this.preparedStatistics : profiler.statistics(sql);
+            this.lastStatistics = statistics;
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = ProfilingDataSource.invoke(this.statement, method, args);
+                failed = false;
+                return wrapResultSet(result, proxy, statistics);
+            } finally {
+                if (statistics != null) {
+                    profiler.executed(sql, statistics, System.nanoTime() - start, failed);
+                }
+            }
+        }
+
+        private Object wrapResultSet(Object result, Object statement, StatementStatistics statistics) {
+            if (result instanceof ResultSet && statistics != null) {
+                return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, statement, statistics));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Count the rows read from a result set.
+     *
+     * @since 1.0
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+
+        private final ResultSet resultSet;
+        private final Object statement;
+        private final StatementStatistics statistics;
+        private long rows;
+        private boolean recorded;
+
+        ResultSetHandler(ResultSet resultSet, Object statement, StatementStatistics statistics) {
+            this.resultSet = resultSet;
+            this.statement = statement;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getStatement":
+                    return this.statement;
+                case "next":
+                    Object next = ProfilingDataSource.invoke(this.resultSet, method, args);
+                    if (Boolean.TRUE.equals(next)) {
+                        this.rows++;
+                    }
+                    return next;
+                case "close":
+                    if (!this.recorded) {
+                        this.recorded = true;
+                        this.statistics.recordRows(this.rows);
+                    }
+                    return ProfilingDataSource.invoke(this.resultSet, method, args);
+                default:
+                    return ProfilingDataSource.invoke(this.resultSet, method, args);
+            }
+        }
+    }
+}
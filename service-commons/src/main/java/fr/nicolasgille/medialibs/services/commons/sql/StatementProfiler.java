@@ -0,0 +1,283 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate the statements executed by the service, by shape.
+ *
+ * Only statements slower than the threshold, or picked by the sampling, are logged.
+ * During an http request, executions are also counted by shape to report
+ * the same statement repeated many times (N+1 selects). The counts of a request are shared with its
+ * tasks on other threads, so they are kept in a concurrent map of adders.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class StatementProfiler {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StatementProfiler.class);
+
+    /**
+     * Shape used once the maximum number of shapes is reached.
+     *
+     * @since 1.0
+     */
+    private static final String OTHER_SHAPE = "<other statements>";
+
+    private final StatementProfilerProperties properties;
+
+    /**
+     * Shape of each statement already seen. Hibernate sends the same strings again and again,
+     * so the normalization is done once per statement.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<String, StatementStatistics> statements = new ConcurrentHashMap<>();
+
+    /**
+     * Statistics by shape.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<String, StatementStatistics> shapes = new ConcurrentHashMap<>();
+
+    /**
+     * Executions by shape during the current request, null outside of a request.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private final ThreadLocal<ConcurrentMap<String, LongAdder>> requestExecutions = new ThreadLocal<>();
+
+    private final LongAdder slowStatements = new LongAdder();
+    private final LongAdder repeatedStatements = new LongAdder();
+
+    public StatementProfiler(StatementProfilerProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Get the statistics of a statement.
+     *
+     * @param sql
+     *  Statement sent to the database.
+     * @return
+     *  The statistics of its shape.
+     * @since 1.0
+     */
+    public StatementStatistics statistics(String sql) {
+        StatementStatistics statistics = this.statements.get(sql);
+        if (statistics != null) {
+            return statistics;
+        }
+
+        String shape = StatementShape.of(sql);
+        if (this.shapes.size() >= this.properties.getMaxShapes() && !this.shapes.containsKey(shape)) {
+            shape = OTHER_SHAPE;
+        }
+        statistics = this.shapes.computeIfAbsent(shape, StatementStatistics::new);
+        if (this.statements.size() < this.properties.getMaxShapes() * 4) {
+            this.statements.putIfAbsent(sql, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Record one execution of a statement.
+     *
+     * @param sql
+     *  Statement executed.
+     * @param statistics
+     *  Statistics of its shape.
+     * @param nanos
+     *  Duration of the execution.
+     * @param failed
+     *  True if the execution threw an exception.
+     * @since 1.0
+     * @version 1.1
+     */
+    public void executed(String sql, StatementStatistics statistics, long nanos, boolean failed) {
+        statistics.recordExecution(nanos, failed);
+
+        ConcurrentMap<String, LongAdder> executions = this.requestExecutions.get();
+        if (executions != null) {
+            executions.computeIfAbsent(statistics.getShape(), s -> new LongAdder()).increment();
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (millis >= this.properties.getSlowThreshold()) {
+            this.slowStatements.increment();
+            logger.warn("Slow statement ({} ms{}): {}", millis, failed ? ", failed" : "", sql);
+        } else if (this.properties.getSampleRate() > 0
+                && ThreadLocalRandom.current().nextDouble() < this.properties.getSampleRate()) {
+            logger.info("Sampled statement ({} ms{}): {}", millis, failed ? ", failed" : "", sql);
+        }
+    }
+
+    /**
+     * Start counting the executions of the current thread.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    public void beginRequest() {
+        this.requestExecutions.set(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Stop counting the executions of the current thread and report the repeated shapes.
+     *
+     * @param request
+     *  Description of the request, for the log.
+     * @since 1.0
+     * @version 1.1
+     */
+    public void endRequest(String request) {
+        ConcurrentMap<String, LongAdder> executions = this.requestExecutions.get();
+        this.requestExecutions.remove();
+        if (executions == null) {
+            return;
+        }
+
+        for (Map.Entry<String, LongAdder> execution : executions.entrySet()) {
+            long count = execution.getValue().sum();
+            if (count >= this.properties.getRepeatedStatementThreshold()) {
+                this.repeatedStatements.increment();
+                logger.warn("Possible N+1: statement executed {} times during {}: {}",
+                        count, request, execution.getKey());
+            }
+        }
+    }
+
+    /**
+     * Detach the executions of the current thread, when the request goes on asynchronously.
+     *
+     * @return
+     *  The executions counted so far, to give back to {@link #resumeRequest(Object)}.
+     * @since 1.0
+     * @version 1.1
+     */
+    public Object suspendRequest() {
+        ConcurrentMap<String, LongAdder> executions = this.requestExecutions.get();
+        this.requestExecutions.remove();
+        return executions;
+    }
+
+    /**
+     * Attach the executions of a suspended request to the current thread.
+     *
+     * @param executions
+     *  Value returned by {@link #suspendRequest()}.
+     * @since 1.0
+     * @version 1.1
+     */
+    @SuppressWarnings("unchecked")
+    public void resumeRequest(Object executions) {
+        if (executions != null) {
+            this.requestExecutions.set((ConcurrentMap<String, LongAdder>) executions);
+        } else {
+            beginRequest();
+        }
+    }
+
+    /**
+     * Count the executions of a task run on another thread, for example a bulkhead, with the current request.
+     *
+     * Several tasks of a request may run at once, like the queries of the shards, and update the same counts.
+     * A task run on the submitting thread gives it back its own counts when it ends.
+     *
+     * @param task
+     *  Task submitted by the current thread.
+     * @return
+     *  The task counting its executions with the current request.
+     * @since 1.0
+     * @version 1.1
+     */
+    public Runnable decorate(Runnable task) {
+        ConcurrentMap<String, LongAdder> executions = this.requestExecutions.get();
+        if (executions == null) {
+            return task;
+        }
+        return () -> {
+            ConcurrentMap<String, LongAdder> previous = this.requestExecutions.get();
+            this.requestExecutions.set(executions);
+            try {
+                task.run();
+            } finally {
+                if (previous != null) {
+                    this.requestExecutions.set(previous);
+                } else {
+                    this.requestExecutions.remove();
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the statistics of all shapes.
+     *
+     * @return
+     *  The statistics, by descending total time.
+     * @since 1.0
+     */
+    public List<StatementStatistics.Snapshot> snapshot() {
+        List<StatementStatistics.Snapshot> snapshots = new ArrayList<>();
+        for (StatementStatistics statistics : this.shapes.values()) {
+            snapshots.add(statistics.snapshot());
+        }
+        snapshots.sort(Comparator.comparingDouble(StatementStatistics.Snapshot::getTotalMillis).reversed());
+        return snapshots;
+    }
+
+    /**
+     * Forget all statistics.
+     *
+     * @since 1.0
+     */
+    public void reset() {
+        this.statements.clear();
+        this.shapes.clear();
+    }
+
+    public long getSlowStatements() {
+        return slowStatements.sum();
+    }
+
+    public long getRepeatedStatements() {
+        return repeatedStatements.sum();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+
+import javax.sql.DataSource;
+
+/**
+ * Profile the statements sent by the service through a proxy of its DataSource.
+ *
+ * Enabled unless <code>medialibs.sql-profiler.enabled = false</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@EnableConfigurationProperties(StatementProfilerProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.sql-profiler", name = "enabled", matchIfMissing = true)
+public class StatementProfilerConfiguration {
+
+    @Bean
+    public StatementProfiler statementProfiler(StatementProfilerProperties properties,
+                                               ObjectProvider<MetricsRegistry> metricsRegistry) {
+        StatementProfiler profiler = new StatementProfiler(properties);
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.counterFunction("medialibs_sql_slow_statements", "Statements slower than the profiler threshold.",
+                    "", profiler::getSlowStatements);
+            registry.counterFunction("medialibs_sql_repeated_statements", "Statements repeated during one request above the N+1 threshold.",
+                    "", profiler::getRepeatedStatements);
+        }
+        return profiler;
+    }
+
+    @Bean
+    public FilterRegistrationBean statementProfilerFilter(StatementProfiler statementProfiler) {
+        return new FilterRegistrationBean(new StatementProfilerFilter(statementProfiler));
+    }
+
+    /**
+     * Count the statements of the bulkhead threads with their request.
+     *
+     * @param statementProfiler
+     *  The profiler.
+     * @return
+     *  The decorator of the tasks.
+     * @since 1.0
+     */
+    @Bean
+    public TaskDecorator statementProfilerTaskDecorator(StatementProfiler statementProfiler) {
+        return statementProfiler::decorate;
+    }
+
+    @Bean
+    public StatementProfilerRestController statementProfilerRestController(StatementProfiler statementProfiler) {
+        return new StatementProfilerRestController(statementProfiler);
+    }
+
+    /**
+     * Wrap each DataSource of the context in a {@link ProfilingDataSource}.
+     *
+     * Static, to be registered before the DataSources are created.
+     *
+     * @return
+     *  The post processor.
+     * @since 1.0
+     */
+    @Bean
+    public static BeanPostProcessor profilingDataSourcePostProcessor() {
+        return new ProfilingDataSourcePostProcessor();
+    }
+
+    /**
+     * Wrap the DataSources, looking up the profiler lazily.
+     *
+     * @since 1.0
+     */
+    private static class ProfilingDataSourcePostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof DataSource && !(bean instanceof ProfilingDataSource)) {
+                return new ProfilingDataSource((DataSource) bean, this.beanFactory.getBean(StatementProfiler.class));
+            }
+            return bean;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Delimit each http request for the N+1 detection of the statement profiler.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StatementProfilerFilter extends OncePerRequestFilter {
+
+    /**
+     * Request attribute holding the executions while an asynchronous handler runs.
+     *
+     * @since 1.0
+     */
+    private static final String EXECUTIONS_ATTRIBUTE = StatementProfilerFilter.class.getName() + ".executions";
+
+    private final StatementProfiler profiler;
+
+    public StatementProfilerFilter(StatementProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (isAsyncDispatch(request)) {
+            this.profiler.resumeRequest(request.getAttribute(EXECUTIONS_ATTRIBUTE));
+        } else {
+            this.profiler.beginRequest();
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (isAsyncStarted(request)) {
+                request.setAttribute(EXECUTIONS_ATTRIBUTE, this.profiler.suspendRequest());
+            } else {
+                this.profiler.endRequest(request.getMethod() + " " + request.getRequestURI());
+            }
+        }
+    }
+
+    /**
+     * Also filter the dispatch writing the response of an asynchronous handler, to end the request there.
+     *
+     * @return
+     *  False.
+     * @since 1.0
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+}
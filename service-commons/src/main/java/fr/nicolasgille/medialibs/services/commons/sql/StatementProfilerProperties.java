@@ -0,0 +1,106 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the statement profiler, under the prefix <code>medialibs.sql-profiler</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@ConfigurationProperties(prefix = "medialibs.sql-profiler")
+public class StatementProfilerProperties {
+
+    /**
+     * Wrap the DataSource of the service to profile its statements.
+     *
+     * @since 1.0
+     */
+    private boolean enabled = true;
+
+    /**
+     * Statements slower than this threshold, in milliseconds, are always logged.
+     *
+     * @since 1.0
+     */
+    private long slowThreshold = 100;
+
+    /**
+     * Ratio of the other statements logged, between 0 (none) and 1 (all).
+     *
+     * @since 1.0
+     */
+    private double sampleRate = 0.0;
+
+    /**
+     * Number of executions of the same shape during one request above which an N+1 is reported.
+     *
+     * @since 1.0
+     */
+    private int repeatedStatementThreshold = 10;
+
+    /**
+     * Maximum number of shapes tracked. Other shapes are aggregated together.
+     *
+     * @since 1.0
+     */
+    private int maxShapes = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getRepeatedStatementThreshold() {
+        return repeatedStatementThreshold;
+    }
+
+    public void setRepeatedStatementThreshold(int repeatedStatementThreshold) {
+        this.repeatedStatementThreshold = repeatedStatementThreshold;
+    }
+
+    public int getMaxShapes() {
+        return maxShapes;
+    }
+
+    public void setMaxShapes(int maxShapes) {
+        this.maxShapes = maxShapes;
+    }
+}
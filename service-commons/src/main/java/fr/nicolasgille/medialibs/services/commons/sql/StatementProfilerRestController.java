@@ -0,0 +1,72 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Expose the statistics of the statement profiler.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class StatementProfilerRestController {
+
+    private final StatementProfiler profiler;
+
+    public StatementProfilerRestController(StatementProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Get the statistics of each statement shape.
+     *
+     * @return
+     *  A ResponseEntity with the statistics, by descending total time.
+     * @since 1.0
+     */
+    @GetMapping("/profiler/statements")
+    public ResponseEntity<?> getStatements() {
+        List<StatementStatistics.Snapshot> statements = this.profiler.snapshot();
+        if (statements.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<List>(statements, HttpStatus.OK);
+    }
+
+    /**
+     * Forget the statistics, for example before a new load test.
+     *
+     * @return
+     *  A ResponseEntity with the http status.
+     * @since 1.0
+     */
+    @DeleteMapping("/profiler/statements")
+    public ResponseEntity<?> reset() {
+        this.profiler.reset();
+        return new ResponseEntity<Object>(HttpStatus.OK);
+    }
+}
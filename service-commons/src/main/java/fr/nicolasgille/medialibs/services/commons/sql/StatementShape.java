@@ -0,0 +1,102 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import java.util.regex.Pattern;
+
+/**
+ * Normalize a sql statement into its shape: literals are replaced by <code>?</code>,
+ * lists of parameters are collapsed and blanks are reduced to one space,
+ * so that all executions of the same query are aggregated together.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public final class StatementShape {
+
+    /**
+     * List of parameters, like in <code>in (?, ?, ?)</code>.
+     *
+     * @since 1.0
+     */
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)+\\s*\\)");
+
+    private StatementShape() {
+    }
+
+    /**
+     * Compute the shape of a statement.
+     *
+     * @param sql
+     *  Statement sent to the database.
+     * @return
+     *  The shape of the statement.
+     * @since 1.0
+     */
+    public static String of(String sql) {
+        StringBuilder shape = new StringBuilder(sql.length());
+        boolean blank = false;
+        int length = sql.length();
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                blank = shape.length() > 0;
+                continue;
+            }
+            if (blank) {
+                shape.append(' ');
+                blank = false;
+            }
+
+            if (c == '\'') {
+                // Skip the string literal, including escaped quotes.
+                i++;
+                while (i < length && (sql.charAt(i) != '\'' || (i + 1 < length && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                shape.append('?');
+            } else if (Character.isDigit(c) && !isIdentifierPart(shape)) {
+                while (i + 1 < length && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                shape.append('?');
+            } else {
+                shape.append(c);
+            }
+        }
+        return PARAMETER_LIST.matcher(shape).replaceAll("(?...)");
+    }
+
+    /**
+     * Check if the previous character belongs to an identifier, like <code>media0_</code>.
+     *
+     * @param shape
+     *  Shape built so far.
+     * @return
+     *  True if a digit at this position is part of an identifier.
+     * @since 1.0
+     */
+    private static boolean isIdentifierPart(StringBuilder shape) {
+        if (shape.length() == 0) {
+            return false;
+        }
+        char previous = shape.charAt(shape.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated executions of one statement shape since the start of the service.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StatementStatistics {
+
+    /**
+     * Highest latency tracked, in microseconds.
+     *
+     * @since 1.0
+     */
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    private final String shape;
+    private final Recorder recorder = new Recorder(HIGHEST_LATENCY, 2);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * All latencies recorded, merged from the recorder at each read.
+     *
+     * @since 1.0
+     */
+    private final Histogram latencies = new Histogram(HIGHEST_LATENCY, 2);
+
+    public StatementStatistics(String shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Record one execution.
+     *
+     * @param nanos
+     *  Duration of the execution.
+     * @param failed
+     *  True if the execution threw an exception.
+     * @since 1.0
+     */
+    public void recordExecution(long nanos, boolean failed) {
+        this.recorder.recordValue(Math.min(Math.max(nanos / 1000, 0), HIGHEST_LATENCY));
+        this.count.increment();
+        this.totalNanos.add(nanos);
+        if (failed) {
+            this.errors.increment();
+        }
+    }
+
+    /**
+     * Record the rows read from a result set of this statement.
+     *
+     * @param fetched
+     *  Number of rows read.
+     * @since 1.0
+     */
+    public void recordRows(long fetched) {
+        this.rows.add(fetched);
+    }
+
+    /**
+     * Take a consistent view of the statistics.
+     *
+     * @return
+     *  The statistics, latencies in milliseconds.
+     * @since 1.0
+     */
+    public synchronized Snapshot snapshot() {
+        this.latencies.add(this.recorder.getIntervalHistogram());
+        long executions = this.count.sum();
+        return new Snapshot(
+                this.shape,
+                executions,
+                this.errors.sum(),
+                this.rows.sum(),
+                this.totalNanos.sum() / 1e6,
+                this.latencies.getValueAtPercentile(50) / 1e3,
+                this.latencies.getValueAtPercentile(99) / 1e3,
+                this.latencies.getMaxValue() / 1e3);
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    /**
+     * Statistics of one shape at a given time, serialized on the profiler endpoint.
+     *
+     * @since 1.0
+     */
+    public static class Snapshot {
+
+        private final String shape;
+        private final long count;
+        private final long errors;
+        private final long rows;
+        private final double totalMillis;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        Snapshot(String shape, long count, long errors, long rows,
+                 double totalMillis, double p50Millis, double p99Millis, double maxMillis) {
+            this.shape = shape;
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.totalMillis = totalMillis;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public double getRowsPerExecution() {
+            return count == 0 ? 0 : (double) rows / count;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : totalMillis / count;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
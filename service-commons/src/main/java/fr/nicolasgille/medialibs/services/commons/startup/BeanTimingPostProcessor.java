@@ -0,0 +1,99 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Time the creation of each bean, from its instantiation to the end of its initialization.
+ *
+ * A bean created while another one is being created (a dependency) is timed apart, and its time
+ * is removed from the own time of the other one. The beans created by several threads at once
+ * are timed on each thread.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+class BeanTimingPostProcessor extends InstantiationAwareBeanPostProcessorAdapter {
+
+    private final StartupTimeline timeline;
+
+    /**
+     * Beans being created by the current thread, the innermost first.
+     *
+     * @since 1.0
+     */
+    private final ThreadLocal<Deque<Creation>> creations = ThreadLocal.withInitial(ArrayDeque::new);
+
+    BeanTimingPostProcessor(StartupTimeline timeline) {
+        this.timeline = timeline;
+    }
+
+    @Override
+    public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) {
+        this.creations.get().push(new Creation(beanName, System.nanoTime()));
+        return null;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        Deque<Creation> stack = this.creations.get();
+        // The objects made by a factory bean have no entry, the beans whose creation failed leave theirs.
+        if (stack.stream().noneMatch(c -> c.name.equals(beanName))) {
+            return bean;
+        }
+        Creation creation = stack.pop();
+        while (!creation.name.equals(beanName)) {
+            creation = stack.pop();
+        }
+        long nanos = System.nanoTime() - creation.start;
+        if (!stack.isEmpty()) {
+            stack.peek().dependencies += nanos;
+        }
+        this.timeline.bean(beanName, ClassUtils.getUserClass(bean).getName(), nanos, nanos - creation.dependencies);
+        return bean;
+    }
+
+    /**
+     * One bean being created.
+     *
+     * @since 1.0
+     */
+    private static class Creation {
+
+        private final String name;
+        private final long start;
+
+        /**
+         * Time spent creating the beans it depends on.
+         *
+         * @since 1.0
+         */
+        private long dependencies;
+
+        Creation(String name, long start) {
+            this.name = name;
+            this.start = start;
+        }
+    }
+}
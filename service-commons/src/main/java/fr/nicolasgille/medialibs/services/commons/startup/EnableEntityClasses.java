@@ -0,0 +1,52 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.springframework.context.annotation.Import;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Give the entities of the persistence unit as a list instead of scanning packages for them.
+ *
+ * To be placed on the <code>RepositoryConfiguration</code> of a service instead of <code>@EntityScan</code>:
+ * the persistence unit holds exactly these classes, and no jar is searched at start-up.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Import(EntityClassesConfiguration.class)
+public @interface EnableEntityClasses {
+
+    /**
+     * Entities of the persistence unit.
+     *
+     * @return
+     *  The entity classes.
+     * @since 1.0
+     */
+    Class<?>[] value();
+}
@@ -0,0 +1,162 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.hibernate.boot.archive.scan.spi.ClassDescriptor;
+import org.hibernate.boot.archive.scan.spi.MappingFileDescriptor;
+import org.hibernate.boot.archive.scan.spi.PackageDescriptor;
+import org.hibernate.boot.archive.scan.spi.ScanEnvironment;
+import org.hibernate.boot.archive.scan.spi.ScanOptions;
+import org.hibernate.boot.archive.scan.spi.ScanParameters;
+import org.hibernate.boot.archive.scan.spi.ScanResult;
+import org.hibernate.boot.archive.scan.spi.Scanner;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportAware;
+import org.springframework.core.type.AnnotationMetadata;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistence unit made of the entities listed by {@link EnableEntityClasses}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+public class EntityClassesConfiguration implements ImportAware {
+
+    private Class<?>[] entities;
+
+    @Override
+    public void setImportMetadata(AnnotationMetadata importMetadata) {
+        Map<String, Object> attributes = importMetadata.getAnnotationAttributes(EnableEntityClasses.class.getName());
+        this.entities = (Class<?>[]) attributes.get("value");
+    }
+
+    @Bean
+    public EntityClasses entityClasses() {
+        return new EntityClasses(this.entities);
+    }
+
+    /**
+     * Replace the packages to scan of the EntityManagerFactory by the entity list.
+     *
+     * Static, to be registered before the EntityManagerFactory is created.
+     *
+     * @return
+     *  The post processor.
+     * @since 1.0
+     */
+    @Bean
+    public static BeanPostProcessor entityClassesEntityManagerFactoryPostProcessor() {
+        return new EntityManagerFactoryPostProcessor();
+    }
+
+    /**
+     * Entities of the persistence unit.
+     *
+     * @since 1.0
+     */
+    public static class EntityClasses {
+
+        private final Class<?>[] entities;
+
+        EntityClasses(Class<?>[] entities) {
+            this.entities = entities;
+        }
+
+        public Class<?>[] getEntities() {
+            return entities.clone();
+        }
+    }
+
+    /**
+     * Scanner of Hibernate finding nothing: the classes of the unit are all listed.
+     *
+     * @since 1.0
+     */
+    private static class NoScanner implements Scanner {
+
+        @Override
+        public ScanResult scan(ScanEnvironment environment, ScanOptions options, ScanParameters parameters) {
+            return new ScanResult() {
+                @Override
+                public Set<PackageDescriptor> getLocatedPackages() {
+                    return Collections.emptySet();
+                }
+
+                @Override
+                public Set<ClassDescriptor> getLocatedClasses() {
+                    return Collections.emptySet();
+                }
+
+                @Override
+                public Set<MappingFileDescriptor> getLocatedMappingFiles() {
+                    return Collections.emptySet();
+                }
+            };
+        }
+    }
+
+    /**
+     * Configure the EntityManagerFactory beans, looking up the entity list lazily.
+     *
+     * @since 1.0
+     */
+    private static class EntityManagerFactoryPostProcessor implements BeanPostProcessor, BeanFactoryAware {
+
+        private BeanFactory beanFactory;
+
+        @Override
+        public void setBeanFactory(BeanFactory beanFactory) {
+            this.beanFactory = beanFactory;
+        }
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+            if (bean instanceof LocalContainerEntityManagerFactoryBean) {
+                Class<?>[] entities = this.beanFactory.getBean(EntityClasses.class).getEntities();
+                LocalContainerEntityManagerFactoryBean factory = (LocalContainerEntityManagerFactoryBean) bean;
+                // An empty list of packages still builds the default persistence unit, without scanning.
+                factory.setPackagesToScan();
+                factory.setPersistenceUnitPostProcessors(unit -> {
+                    for (Class<?> entity : entities) {
+                        unit.addManagedClassName(entity.getName());
+                    }
+                });
+                // Hibernate would still search the root of the unit, the classpath, for annotated classes.
+                factory.getJpaPropertyMap().put("hibernate.archive.scanner", new NoScanner());
+            }
+            return bean;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+            return bean;
+        }
+    }
+}
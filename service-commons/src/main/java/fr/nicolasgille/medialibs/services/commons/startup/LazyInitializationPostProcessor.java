@@ -0,0 +1,127 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.Lifecycle;
+import org.springframework.core.type.MethodMetadata;
+import org.springframework.util.ClassUtils;
+
+import java.util.Collection;
+
+/**
+ * Mark the singletons of the application as lazy, so each one is created on its first use.
+ *
+ * The beans which must exist at start-up stay eager: lifecycles (the embedded server, the pollers),
+ * listeners, checks run once all singletons exist, and the beans named in
+ * <code>medialibs.startup.eager-beans</code>. A bean whose class is not known from its definition stays eager too.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+class LazyInitializationPostProcessor implements BeanFactoryPostProcessor {
+
+    /**
+     * Types of the beans which must be created at start-up.
+     *
+     * @since 1.0
+     */
+    private static final Class<?>[] EAGER_TYPES = {
+            Lifecycle.class, ApplicationListener.class, SmartInitializingSingleton.class
+    };
+
+    private final Collection<String> eagerBeans;
+
+    /**
+     * Number of beans made lazy, for the report.
+     *
+     * @since 1.0
+     */
+    private int lazyBeans;
+
+    LazyInitializationPostProcessor(Collection<String> eagerBeans) {
+        this.eagerBeans = eagerBeans;
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (definition.getRole() != BeanDefinition.ROLE_APPLICATION || !definition.isSingleton()
+                    || definition.isAbstract() || definition.isLazyInit() || this.eagerBeans.contains(name)) {
+                continue;
+            }
+            Class<?> type = type(definition, beanFactory.getBeanClassLoader());
+            if (type != null && !isEager(type)) {
+                definition.setLazyInit(true);
+                this.lazyBeans++;
+            }
+        }
+    }
+
+    int getLazyBeans() {
+        return lazyBeans;
+    }
+
+    /**
+     * Find the class of a bean without creating it.
+     *
+     * @param definition
+     *  Definition of the bean.
+     * @param classLoader
+     *  Class loader of the bean factory.
+     * @return
+     *  The class of the bean, or the return type of its factory method, or null if unknown.
+     * @since 1.0
+     */
+    private static Class<?> type(BeanDefinition definition, ClassLoader classLoader) {
+        String typeName = definition.getBeanClassName();
+        if (definition instanceof AnnotatedBeanDefinition) {
+            MethodMetadata factoryMethod = ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata();
+            if (factoryMethod != null) {
+                typeName = factoryMethod.getReturnTypeName();
+            }
+        } else if (definition.getFactoryMethodName() != null) {
+            return null;
+        }
+        if (typeName == null) {
+            return null;
+        }
+        try {
+            return ClassUtils.forName(typeName, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static boolean isEager(Class<?> type) {
+        for (Class<?> eagerType : EAGER_TYPES) {
+            if (eagerType.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
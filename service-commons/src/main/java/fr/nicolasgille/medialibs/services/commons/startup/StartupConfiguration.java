@@ -0,0 +1,49 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Timeline of the start-up on <code>/startup/timeline</code>, recorded by {@link StartupTimelineListener}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Configuration
+@ConditionalOnBean(StartupTimeline.class)
+@EnableConfigurationProperties(StartupProperties.class)
+public class StartupConfiguration {
+
+    @Bean
+    public StartupRestController startupRestController(StartupTimeline startupTimeline, StartupProperties properties,
+                                                       ObjectProvider<MetricsRegistry> metricsRegistry) {
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.gauge("medialibs_startup_seconds", "Time from the start of the JVM to the end of the start-up.",
+                    "", () -> startupTimeline.getTotal() / 1000.0);
+        }
+        return new StartupRestController(startupTimeline, properties);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings of the start-up, under the prefix <code>medialibs.startup</code>.
+ *
+ * Read from the environment before the context is refreshed, see {@link StartupTimelineListener}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.startup")
+public class StartupProperties {
+
+    /**
+     * Create the beans on their first use instead of at start-up, except the ones which must run
+     * at start-up (lifecycles, listeners, checks run once all singletons exist).
+     *
+     * @since 1.0
+     */
+    private boolean lazyInitialization = false;
+
+    /**
+     * Names of beans always created at start-up, even with the lazy initialization.
+     *
+     * @since 1.0
+     */
+    private List<String> eagerBeans = new ArrayList<>();
+
+    /**
+     * Number of beans listed in the report, the slowest to create first.
+     *
+     * @since 1.0
+     */
+    private int slowestBeans = 20;
+
+    /**
+     * File where the timeline is written in json once started, to compare the releases. None by default.
+     *
+     * @since 1.0
+     */
+    private String reportFile;
+
+    /**
+     * Stop the JVM once started, after writing the report: used to train the class data sharing archive
+     * and to measure the start-up.
+     *
+     * @since 1.0
+     */
+    private boolean exitAfterStart = false;
+
+    /**
+     * Jars loaded by a class loader of their own, set as the context class loader before the context is
+     * created: used to give the training run its in-memory database without shipping it in the class path
+     * of the archive. Their classes are not archived. None by default.
+     *
+     * @since 1.1
+     */
+    private List<String> trainingClassPath = new ArrayList<>();
+
+    public boolean isLazyInitialization() {
+        return lazyInitialization;
+    }
+
+    public void setLazyInitialization(boolean lazyInitialization) {
+        this.lazyInitialization = lazyInitialization;
+    }
+
+    public List<String> getEagerBeans() {
+        return eagerBeans;
+    }
+
+    public void setEagerBeans(List<String> eagerBeans) {
+        this.eagerBeans = eagerBeans;
+    }
+
+    public int getSlowestBeans() {
+        return slowestBeans;
+    }
+
+    public void setSlowestBeans(int slowestBeans) {
+        this.slowestBeans = slowestBeans;
+    }
+
+    public String getReportFile() {
+        return reportFile;
+    }
+
+    public void setReportFile(String reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    public boolean isExitAfterStart() {
+        return exitAfterStart;
+    }
+
+    public void setExitAfterStart(boolean exitAfterStart) {
+        this.exitAfterStart = exitAfterStart;
+    }
+
+    public List<String> getTrainingClassPath() {
+        return trainingClassPath;
+    }
+
+    public void setTrainingClassPath(List<String> trainingClassPath) {
+        this.trainingClassPath = trainingClassPath;
+    }
+}
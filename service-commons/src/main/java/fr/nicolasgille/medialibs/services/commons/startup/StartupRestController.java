@@ -0,0 +1,57 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Expose the timeline of the start-up of the service.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class StartupRestController {
+
+    private final StartupTimeline timeline;
+    private final StartupProperties properties;
+
+    public StartupRestController(StartupTimeline timeline, StartupProperties properties) {
+        this.timeline = timeline;
+        this.properties = properties;
+    }
+
+    /**
+     * Get the phases of the start-up and the beans the slowest to create.
+     *
+     * @return
+     *  A ResponseEntity with the timeline of the start-up.
+     * @since 1.0
+     */
+    @GetMapping("/startup/timeline")
+    public ResponseEntity<?> getTimeline() {
+        return new ResponseEntity<Map<String, Object>>(
+                StartupTimelineListener.report(this.timeline, this.properties.getSlowestBeans()), HttpStatus.OK);
+    }
+}
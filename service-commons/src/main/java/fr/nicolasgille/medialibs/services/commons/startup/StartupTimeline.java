@@ -0,0 +1,206 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Phases of the start-up of a service and time spent creating each bean.
+ *
+ * The times are in milliseconds. The first phase, <code>jvm</code>, goes from the start of the JVM
+ * to the start of the application: class loading and static initialization of the main class.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StartupTimeline {
+
+    /**
+     * Start of the JVM, epoch milliseconds.
+     *
+     * @since 1.0
+     */
+    private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<Phase>());
+    private final ConcurrentLinkedQueue<BeanTiming> beans = new ConcurrentLinkedQueue<>();
+
+    /**
+     * End of the previous phase, epoch milliseconds.
+     *
+     * @since 1.0
+     */
+    private long previous = this.jvmStart;
+
+    /**
+     * End the current phase.
+     *
+     * @param name
+     *  Name of the phase.
+     * @since 1.0
+     */
+    public synchronized void phase(String name) {
+        long now = System.currentTimeMillis();
+        this.phases.add(new Phase(name, now - this.previous, now - this.jvmStart));
+        this.previous = now;
+    }
+
+    /**
+     * Record the creation of a bean.
+     *
+     * @param name
+     *  Name of the bean.
+     * @param type
+     *  Class of the bean.
+     * @param nanos
+     *  Time to create the bean, including its dependencies created at the same time.
+     * @param selfNanos
+     *  Time to create the bean only.
+     * @since 1.0
+     */
+    public void bean(String name, String type, long nanos, long selfNanos) {
+        this.beans.add(new BeanTiming(name, type, nanos / 1e6, selfNanos / 1e6));
+    }
+
+    /**
+     * Get the time from the start of the JVM to the end of the last phase.
+     *
+     * @return
+     *  The time in milliseconds.
+     * @since 1.0
+     */
+    public long getTotal() {
+        synchronized (this) {
+            return this.previous - this.jvmStart;
+        }
+    }
+
+    public List<Phase> getPhases() {
+        synchronized (this.phases) {
+            return new ArrayList<>(this.phases);
+        }
+    }
+
+    /**
+     * Get the beans the slowest to create.
+     *
+     * @param limit
+     *  Maximum number of beans.
+     * @return
+     *  The beans, by decreasing time spent on the bean itself.
+     * @since 1.0
+     */
+    public List<BeanTiming> getSlowestBeans(int limit) {
+        List<BeanTiming> slowest = new ArrayList<>(this.beans);
+        slowest.sort(Comparator.comparingDouble(BeanTiming::getSelfMillis).reversed());
+        return slowest.subList(0, Math.min(limit, slowest.size()));
+    }
+
+    /**
+     * Get the number of beans created so far.
+     *
+     * @return
+     *  The number of beans.
+     * @since 1.0
+     */
+    public int getBeanCount() {
+        return this.beans.size();
+    }
+
+    /**
+     * One phase of the start-up.
+     *
+     * @since 1.0
+     */
+    public static class Phase {
+
+        private final String name;
+        private final long millis;
+        private final long endMillis;
+
+        Phase(String name, long millis, long endMillis) {
+            this.name = name;
+            this.millis = millis;
+            this.endMillis = endMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Duration of the phase.
+         *
+         * @since 1.0
+         */
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * End of the phase, from the start of the JVM.
+         *
+         * @since 1.0
+         */
+        public long getEndMillis() {
+            return endMillis;
+        }
+    }
+
+    /**
+     * Creation of one bean.
+     *
+     * @since 1.0
+     */
+    public static class BeanTiming {
+
+        private final String name;
+        private final String type;
+        private final double millis;
+        private final double selfMillis;
+
+        BeanTiming(String name, String type, double millis, double selfMillis) {
+            this.name = name;
+            this.type = type;
+            this.millis = millis;
+            this.selfMillis = selfMillis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public double getMillis() {
+            return millis;
+        }
+
+        public double getSelfMillis() {
+            return selfMillis;
+        }
+    }
+}
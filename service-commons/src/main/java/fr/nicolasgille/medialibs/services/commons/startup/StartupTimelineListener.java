@@ -0,0 +1,222 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.startup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
+import org.springframework.boot.bind.PropertySourcesPropertyValues;
+import org.springframework.boot.bind.RelaxedDataBinder;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerInitializedEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.util.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Record the start-up of the application in a {@link StartupTimeline}, registered as the bean
+ * <code>startupTimeline</code>, and apply the start-up settings which must be known before the refresh
+ * (<code>medialibs.startup.*</code>, see {@link StartupProperties}).
+ *
+ * Once started, the timeline is logged, written to <code>medialibs.startup.report-file</code> if set,
+ * and the JVM stopped if <code>medialibs.startup.exit-after-start</code> is set.
+ *
+ * The jars of <code>medialibs.startup.training-class-path</code> are loaded by a child of the context class
+ * loader before the context is created, so the beans can use them while the class path stays the one
+ * shipped.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class StartupTimelineListener implements SpringApplicationRunListener, Ordered {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimelineListener.class);
+
+    private final StartupTimeline timeline = new StartupTimeline();
+    private final StartupProperties properties = new StartupProperties();
+    private LazyInitializationPostProcessor lazyInitialization;
+
+    /**
+     * Created by Spring Boot with the application and its arguments.
+     *
+     * @param application
+     *  Application starting.
+     * @param args
+     *  Arguments of the application.
+     * @since 1.0
+     */
+    public StartupTimelineListener(SpringApplication application, String[] args) {
+    }
+
+    /**
+     * Run after the listener publishing the events of Spring Boot, so the configuration files are loaded
+     * when the environment is prepared.
+     *
+     * @return
+     *  The lowest precedence.
+     * @since 1.0
+     */
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public void starting() {
+        this.timeline.phase("jvm");
+    }
+
+    @Override
+    public void environmentPrepared(ConfigurableEnvironment environment) {
+        new RelaxedDataBinder(this.properties, "medialibs.startup")
+                .bind(new PropertySourcesPropertyValues(environment.getPropertySources()));
+        if (!this.properties.getTrainingClassPath().isEmpty()) {
+            useTrainingClassPath(this.properties.getTrainingClassPath());
+        }
+        this.timeline.phase("environment");
+    }
+
+    @Override
+    public void contextPrepared(ConfigurableApplicationContext context) {
+        context.getBeanFactory().addBeanPostProcessor(new BeanTimingPostProcessor(this.timeline));
+        context.getBeanFactory().registerSingleton("startupTimeline", this.timeline);
+        if (this.properties.isLazyInitialization()) {
+            this.lazyInitialization = new LazyInitializationPostProcessor(this.properties.getEagerBeans());
+            context.addBeanFactoryPostProcessor(this.lazyInitialization);
+        }
+        context.addApplicationListener(event -> {
+            if (event instanceof ContextRefreshedEvent && event.getSource() == context) {
+                this.timeline.phase("refresh");
+            } else if (event instanceof EmbeddedServletContainerInitializedEvent
+                    && ((EmbeddedServletContainerInitializedEvent) event).getApplicationContext() == context) {
+                this.timeline.phase("web-server");
+            }
+        });
+        this.timeline.phase("context");
+    }
+
+    @Override
+    public void contextLoaded(ConfigurableApplicationContext context) {
+        this.timeline.phase("sources");
+    }
+
+    @Override
+    public void finished(ConfigurableApplicationContext context, Throwable exception) {
+        if (exception != null) {
+            return;
+        }
+        this.timeline.phase("runners");
+        if (logger.isInfoEnabled()) {
+            logger.info("Started in {} ms: {}; {} beans created{}, the slowest: {}",
+                    this.timeline.getTotal(),
+                    this.timeline.getPhases().stream()
+                            .map(phase -> phase.getName() + " " + phase.getMillis() + " ms")
+                            .collect(Collectors.joining(", ")),
+                    this.timeline.getBeanCount(),
+                    this.lazyInitialization == null ? "" : " (" + this.lazyInitialization.getLazyBeans() + " lazy)",
+                    this.timeline.getSlowestBeans(5).stream()
+                            .map(bean -> String.format("%s %.0f ms", bean.getName(), bean.getSelfMillis()))
+                            .collect(Collectors.joining(", ")));
+        }
+        if (StringUtils.hasText(this.properties.getReportFile())) {
+            writeReport(new File(this.properties.getReportFile()));
+        }
+        if (this.properties.isExitAfterStart()) {
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
+    /**
+     * Get the report of the start-up, as written to the report file.
+     *
+     * @param timeline
+     *  Timeline of the start-up.
+     * @param slowestBeans
+     *  Number of beans listed.
+     * @return
+     *  The total time, the phases and the slowest beans.
+     * @since 1.0
+     */
+    static Map<String, Object> report(StartupTimeline timeline, int slowestBeans) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("totalMillis", timeline.getTotal());
+        report.put("phases", timeline.getPhases());
+        report.put("beanCount", timeline.getBeanCount());
+        report.put("slowestBeans", timeline.getSlowestBeans(slowestBeans));
+        return report;
+    }
+
+    /**
+     * Load the given jars by a child of the context class loader, set as the context class loader: the
+     * context, created after the environment is prepared, takes it as the class loader of its beans.
+     *
+     * @param jars
+     *  Paths of the jars.
+     * @since 1.1
+     */
+    private static void useTrainingClassPath(List<String> jars) {
+        URL[] urls = new URL[jars.size()];
+        for (int i = 0; i < urls.length; i++) {
+            File jar = new File(jars.get(i));
+            if (!jar.isFile()) {
+                throw new IllegalStateException("No jar " + jar.getAbsolutePath() + " in the training class path");
+            }
+            try {
+                urls[i] = jar.toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException("Invalid jar " + jar + " in the training class path", e);
+            }
+        }
+        Thread thread = Thread.currentThread();
+        thread.setContextClassLoader(new URLClassLoader(urls, thread.getContextClassLoader()));
+        logger.info("Training class path: {}", jars);
+    }
+
+    private void writeReport(File file) {
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null) {
+                directory.mkdirs();
+            }
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValue(file, report(this.timeline, this.properties.getSlowestBeans()));
+        } catch (IOException e) {
+            logger.warn("Cannot write the start-up report to {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timed operation of a trace: the request, a controller method, a repository call, a call to another service...
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Span {
+
+    private final Trace trace;
+    private final String spanId;
+
+    /**
+     * Span of the caller, possibly in another service.
+     *
+     * @since 1.0
+     */
+    private final String parentId;
+
+    /**
+     * Parent in this service, null for the span of the request.
+     *
+     * @since 1.0
+     */
+    private final Span localParent;
+
+    /**
+     * Span of the thread when this span started, restored when it ends.
+     *
+     * @since 1.0
+     */
+    private final Span previous;
+
+    private volatile String name;
+    private final String kind;
+    private final long start;
+    private final long startNanos;
+    private volatile long durationNanos = -1;
+    private volatile String error;
+    private Map<String, String> tags;
+
+    Span(Trace trace, String spanId, String parentId, Span localParent, Span previous, String name, String kind) {
+        this.trace = trace;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.localParent = localParent;
+        this.previous = previous;
+        this.name = name;
+        this.kind = kind;
+        this.start = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Attach a value to the span.
+     *
+     * @param key
+     *  Name of the value.
+     * @param value
+     *  The value.
+     * @return
+     *  This span.
+     * @since 1.0
+     */
+    public synchronized Span tag(String key, Object value) {
+        if (this.tags == null) {
+            this.tags = new LinkedHashMap<>(4);
+        }
+        this.tags.put(key, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Mark the span and its trace as failed.
+     *
+     * @param error
+     *  Cause of the failure.
+     * @since 1.0
+     */
+    public void fail(String error) {
+        this.error = error;
+        this.trace.failed();
+    }
+
+    void end() {
+        this.durationNanos = System.nanoTime() - this.startNanos;
+    }
+
+    @JsonIgnore
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public String getParentId() {
+        return parentId;
+    }
+
+    @JsonIgnore
+    Span getLocalParent() {
+        return localParent;
+    }
+
+    @JsonIgnore
+    Span getPrevious() {
+        return previous;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * Start of the span, in milliseconds since the epoch.
+     *
+     * @since 1.0
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Offset of the start of the span from the start of the request, in microseconds.
+     *
+     * @since 1.0
+     */
+    public long getOffset() {
+        return (this.startNanos - this.trace.getStartNanos()) / 1000;
+    }
+
+    /**
+     * Duration of the span in microseconds, -1 while it runs.
+     *
+     * @since 1.0
+     */
+    public long getDuration() {
+        return this.durationNanos < 0 ? -1 : this.durationNanos / 1000;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public synchronized Map<String, String> getTags() {
+        return this.tags == null ? null : new LinkedHashMap<>(this.tags);
+    }
+}
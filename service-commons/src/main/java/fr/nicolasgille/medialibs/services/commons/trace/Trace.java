@@ -0,0 +1,147 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spans of one request in this service, recorded until the request ends and then kept or dropped.
+ *
+ * The trace identifier is shared with the spans of the same request in the other services.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Trace {
+
+    private final String traceId;
+
+    /**
+     * Kept whatever its duration, as asked by the caller.
+     *
+     * @since 1.0
+     */
+    private final boolean forced;
+
+    private final int maxSpans;
+    private final List<Span> spans = new ArrayList<>();
+    private int droppedSpans;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean error;
+    private volatile Span root;
+
+    /**
+     * Why the trace is kept: slow, error, forced or sampled. Null until the request ends.
+     *
+     * @since 1.0
+     */
+    private volatile String reason;
+
+    Trace(String traceId, boolean forced, int maxSpans) {
+        this.traceId = traceId;
+        this.forced = forced;
+        this.maxSpans = maxSpans;
+    }
+
+    synchronized void add(Span span) {
+        if (this.spans.size() < this.maxSpans) {
+            this.spans.add(span);
+        } else {
+            this.droppedSpans++;
+        }
+    }
+
+    void failed() {
+        this.error = true;
+    }
+
+    void setRoot(Span root) {
+        this.root = root;
+    }
+
+    void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    @JsonIgnore
+    public boolean isForced() {
+        return forced;
+    }
+
+    /**
+     * Name of the request.
+     *
+     * @since 1.0
+     */
+    public String getName() {
+        return this.root == null ? null : this.root.getName();
+    }
+
+    /**
+     * Start of the request, in milliseconds since the epoch.
+     *
+     * @since 1.0
+     */
+    public long getStart() {
+        return this.root == null ? 0 : this.root.getStart();
+    }
+
+    /**
+     * Duration of the request in microseconds, -1 while it runs.
+     *
+     * @since 1.0
+     */
+    public long getDuration() {
+        return this.root == null ? -1 : this.root.getDuration();
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(this.spans);
+    }
+
+    public synchronized int getSpanCount() {
+        return this.spans.size();
+    }
+
+    public synchronized int getDroppedSpans() {
+        return droppedSpans;
+    }
+
+    @JsonIgnore
+    long getStartNanos() {
+        return startNanos;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append the kept traces to a file, one line of JSON each, from a thread of its own.
+ *
+ * The requests never wait for the file: when the queue is full, the trace is only kept in memory.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class TraceExporter implements SmartLifecycle {
+
+    /**
+     * Help on debugging.
+     *
+     * @since 1.0
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TraceExporter.class);
+
+    private final Path file;
+    private final BlockingQueue<Trace> queue;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final LongAdder exported = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile Thread writer;
+
+    public TraceExporter(String file, int capacity) {
+        this.file = Paths.get(file);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    void export(Trace trace) {
+        if (!this.queue.offer(trace)) {
+            this.dropped.increment();
+        }
+    }
+
+    private void write() {
+        try (BufferedWriter out = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            while (this.writer != null || !this.queue.isEmpty()) {
+                Trace trace = this.queue.poll(500, TimeUnit.MILLISECONDS);
+                if (trace == null) {
+                    continue;
+                }
+                out.write(this.objectMapper.writeValueAsString(trace));
+                out.newLine();
+                this.exported.increment();
+                if (this.queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Cannot export the traces to {}", this.file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getExported() {
+        return this.exported.sum();
+    }
+
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public void start() {
+        Thread thread = new Thread(this::write, "trace-exporter");
+        thread.setDaemon(true);
+        this.writer = thread;
+        thread.start();
+        logger.info("Exporting the kept traces to {}", this.file.toAbsolutePath());
+    }
+
+    @Override
+    public void stop() {
+        Thread thread = this.writer;
+        this.writer = null;
+        if (thread != null) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.writer != null;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+}
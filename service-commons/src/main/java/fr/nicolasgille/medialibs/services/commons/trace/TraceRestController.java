@@ -0,0 +1,104 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expose the traces kept by the service.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@RestController
+public class TraceRestController {
+
+    private final TraceStore store;
+
+    public TraceRestController(TraceStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Get the last traces kept, without their spans.
+     *
+     * @param minDuration
+     *  Minimum duration of the request, in milliseconds.
+     * @param errors
+     *  Only the failed requests.
+     * @param name
+     *  Text contained in the name of the request.
+     * @param limit
+     *  Maximum number of traces.
+     * @return
+     *  A ResponseEntity with the identifier, name, start, duration and reason of each trace, newest first,
+     *  and/or http code status about error during process.
+     * @since 1.0
+     */
+    @GetMapping("/traces")
+    public ResponseEntity<?> getTraces(@RequestParam(value = "minDuration", defaultValue = "0") long minDuration,
+                                       @RequestParam(value = "errors", defaultValue = "false") boolean errors,
+                                       @RequestParam(value = "name", required = false) String name,
+                                       @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        List<Map<String, Object>> traces = new ArrayList<>();
+        for (Trace trace : this.store.find(minDuration, errors, name, limit)) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("traceId", trace.getTraceId());
+            summary.put("name", trace.getName());
+            summary.put("start", trace.getStart());
+            summary.put("duration", trace.getDuration());
+            summary.put("error", trace.isError());
+            summary.put("reason", trace.getReason());
+            summary.put("spanCount", trace.getSpanCount());
+            traces.add(summary);
+        }
+        if (traces.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<List>(traces, HttpStatus.OK);
+    }
+
+    /**
+     * Get the spans of a trace.
+     *
+     * @param traceId
+     *  Identifier of the trace, as answered in <code>X-Trace-Id</code>.
+     * @return
+     *  A ResponseEntity with the traces of this identifier and their spans, or 404 if none is kept.
+     * @since 1.0
+     */
+    @GetMapping("/traces/{traceId}")
+    public ResponseEntity<?> getTrace(@PathVariable("traceId") String traceId) {
+        List<Trace> traces = this.store.get(traceId);
+        if (traces.isEmpty()) {
+            return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<List>(traces, HttpStatus.OK);
+    }
+}
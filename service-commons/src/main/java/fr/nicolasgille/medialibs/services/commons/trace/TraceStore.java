@@ -0,0 +1,112 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ring buffer of the last traces kept, the oldest overwritten first.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class TraceStore {
+
+    private final Trace[] traces;
+
+    /**
+     * Number of traces ever added, the next one going at <code>added % capacity</code>.
+     *
+     * @since 1.0
+     */
+    private long added;
+
+    public TraceStore(int capacity) {
+        this.traces = new Trace[Math.max(1, capacity)];
+    }
+
+    synchronized void add(Trace trace) {
+        this.traces[(int) (this.added++ % this.traces.length)] = trace;
+    }
+
+    /**
+     * Find the last traces kept.
+     *
+     * @param minDuration
+     *  Minimum duration of the request, in milliseconds.
+     * @param errorsOnly
+     *  Only the failed requests.
+     * @param name
+     *  Text contained in the name of the request, or null.
+     * @param limit
+     *  Maximum number of traces.
+     * @return
+     *  The traces, newest first.
+     * @since 1.0
+     */
+    public List<Trace> find(long minDuration, boolean errorsOnly, String name, int limit) {
+        List<Trace> found = new ArrayList<>();
+        for (Trace trace : snapshot()) {
+            if (found.size() >= limit) {
+                break;
+            }
+            if (trace.getDuration() >= minDuration * 1000 && (!errorsOnly || trace.isError())
+                    && (name == null || (trace.getName() != null && trace.getName().contains(name)))) {
+                found.add(trace);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the traces kept of a request.
+     *
+     * @param traceId
+     *  Identifier of the trace.
+     * @return
+     *  The traces of this identifier, usually one, newest first.
+     * @since 1.0
+     */
+    public List<Trace> get(String traceId) {
+        List<Trace> found = new ArrayList<>();
+        for (Trace trace : snapshot()) {
+            if (trace.getTraceId().equals(traceId)) {
+                found.add(trace);
+            }
+        }
+        return found;
+    }
+
+    public synchronized long getAdded() {
+        return added;
+    }
+
+    public synchronized int getSize() {
+        return (int) Math.min(this.added, this.traces.length);
+    }
+
+    private synchronized List<Trace> snapshot() {
+        List<Trace> newest = new ArrayList<>(getSize());
+        for (long i = this.added - 1; i >= 0 && i >= this.added - this.traces.length; i--) {
+            newest.add(this.traces[(int) (i % this.traces.length)]);
+        }
+        return newest;
+    }
+}
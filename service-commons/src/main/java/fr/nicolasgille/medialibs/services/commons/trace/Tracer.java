@@ -0,0 +1,289 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Start and end the spans of the requests, and decide at the end of each request whether its trace is kept.
+ *
+ * The span running on a thread is held by the thread, and handed over to the threads running a part
+ * of the request by {@link #decorate(Runnable)}. Spans only start inside a request: work outside of
+ * any request is not traced.
+ *
+ * A trace is kept when its request failed or was slow, when the caller set the sampled flag of
+ * <code>traceparent</code>, or at random at the sample rate, once the request has ended. Kept traces go to
+ * the {@link TraceStore} and to the {@link TraceExporter}, the others are left to the garbage collector.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class Tracer {
+
+    /**
+     * Header carrying the trace context between the services, as defined by W3C Trace Context.
+     *
+     * @since 1.0
+     */
+    public static final String TRACEPARENT = "traceparent";
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+
+    private final TracingProperties properties;
+    private final TraceStore store;
+    private final TraceExporter exporter;
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder kept = new LongAdder();
+    private final LongAdder spans = new LongAdder();
+
+    /**
+     * Create the tracer.
+     *
+     * @param properties
+     *  Settings of the tracing.
+     * @param store
+     *  Traces kept in memory.
+     * @param exporter
+     *  Writer of the export file, or null.
+     * @since 1.0
+     */
+    public Tracer(TracingProperties properties, TraceStore store, TraceExporter exporter) {
+        this.properties = properties;
+        this.store = store;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Start the span of a request received by the service.
+     *
+     * @param traceparent
+     *  Header sent by the caller, or null.
+     * @param name
+     *  Name of the request.
+     * @return
+     *  The span, now running on this thread.
+     * @since 1.0
+     */
+    public Span startRequest(String traceparent, String name) {
+        String traceId = null;
+        String parentId = null;
+        boolean forced = false;
+        // version-traceid-parentid-flags, as 00-32 hex-16 hex-2 hex
+        if (traceparent != null && traceparent.length() == 55 && traceparent.charAt(2) == '-'
+                && traceparent.charAt(35) == '-' && traceparent.charAt(52) == '-') {
+            traceId = traceparent.substring(3, 35);
+            parentId = traceparent.substring(36, 52);
+            forced = (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+            if (!isHex(traceId) || !isHex(parentId)) {
+                traceId = null;
+                parentId = null;
+                forced = false;
+            }
+        }
+        Trace trace = new Trace(traceId != null ? traceId : randomId(32), forced, this.properties.getMaxSpans());
+        Span span = new Span(trace, randomId(16), parentId, null, CURRENT.get(), name, "server");
+        trace.setRoot(span);
+        trace.add(span);
+        this.started.increment();
+        this.spans.increment();
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Start a span inside the span running on this thread.
+     *
+     * @param name
+     *  Name of the operation.
+     * @param kind
+     *  Kind of operation: controller, repository, client...
+     * @return
+     *  The span, now running on this thread, or null outside of a request.
+     * @since 1.0
+     */
+    public Span start(String name, String kind) {
+        return start(CURRENT.get(), name, kind);
+    }
+
+    private Span start(Span parent, String name, String kind) {
+        if (parent == null) {
+            return null;
+        }
+        Span span = new Span(parent.getTrace(), randomId(16), parent.getSpanId(), parent, CURRENT.get(), name, kind);
+        parent.getTrace().add(span);
+        this.spans.increment();
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * End a span and give this thread back to the span running before. Ending the span of
+     * the request decides whether its trace is kept.
+     *
+     * @param span
+     *  The span, or null.
+     * @since 1.0
+     */
+    public void finish(Span span) {
+        if (span == null) {
+            return;
+        }
+        span.end();
+        CURRENT.set(span.getPrevious());
+        if (span.getLocalParent() == null) {
+            complete(span.getTrace(), span);
+        }
+    }
+
+    private void complete(Trace trace, Span root) {
+        String reason = null;
+        if (trace.isError()) {
+            reason = "error";
+        } else if (root.getDuration() >= this.properties.getSlowThreshold() * 1000) {
+            reason = "slow";
+        } else if (trace.isForced()) {
+            reason = "forced";
+        } else if (ThreadLocalRandom.current().nextDouble() < this.properties.getSampleRate()) {
+            reason = "sampled";
+        }
+        if (reason == null) {
+            return;
+        }
+        trace.setReason(reason);
+        this.kept.increment();
+        this.store.add(trace);
+        if (this.exporter != null) {
+            this.exporter.export(trace);
+        }
+    }
+
+    /**
+     * Get the span running on this thread.
+     *
+     * @return
+     *  The span, or null outside of a request.
+     * @since 1.0
+     */
+    public Span current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Take the running span off this thread, while the request waits for an asynchronous handler.
+     *
+     * @since 1.0
+     */
+    public void suspend() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Run a span on this thread again, when the asynchronous handler of its request is done.
+     *
+     * @param span
+     *  The span taken off by {@link #suspend()}.
+     * @since 1.0
+     */
+    public void resume(Span span) {
+        CURRENT.set(span);
+    }
+
+    /**
+     * Run a task of the current request in a span of its own, timing its wait for a thread.
+     *
+     * @param task
+     *  Task handed to another thread.
+     * @return
+     *  The task, running in the request of this thread.
+     * @since 1.0
+     */
+    public Runnable decorate(Runnable task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        long submitted = System.nanoTime();
+        return () -> {
+            Span span = start(parent, "async", "async");
+            span.tag("thread", Thread.currentThread().getName());
+            span.tag("queued.us", (System.nanoTime() - submitted) / 1000);
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                span.fail(e.toString());
+                throw e;
+            } finally {
+                finish(span);
+            }
+        };
+    }
+
+    /**
+     * Build the header sent to another service called in a span.
+     *
+     * @param span
+     *  Span of the call.
+     * @return
+     *  The value of <code>traceparent</code>, sampled if the trace was asked by the caller.
+     * @since 1.0
+     */
+    public String traceparent(Span span) {
+        return "00-" + span.getTrace().getTraceId() + "-" + span.getSpanId() + (span.getTrace().isForced() ? "-01" : "-00");
+    }
+
+    public long getStarted() {
+        return this.started.sum();
+    }
+
+    public long getKept() {
+        return this.kept.sum();
+    }
+
+    public long getSpans() {
+        return this.spans.sum();
+    }
+
+    private static String randomId(int length) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder id = new StringBuilder(length);
+        while (id.length() < length) {
+            String chunk = Long.toHexString(random.nextLong());
+            for (int i = chunk.length(); i < 16; i++) {
+                id.append('0');
+            }
+            id.append(chunk);
+        }
+        return id.substring(0, length);
+    }
+
+    private static boolean isHex(String value) {
+        boolean zero = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.digit(c, 16) < 0 || Character.isUpperCase(c)) {
+                return false;
+            }
+            zero &= c == '0';
+        }
+        // An identifier of zeros is invalid.
+        return !zero;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Time the methods of the controllers and of the repositories in a span each.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+@Aspect
+public class TracingAspect {
+
+    private final Tracer tracer;
+
+    /**
+     * Name of the repository interface of each repository proxy class.
+     *
+     * @since 1.0
+     */
+    private final ConcurrentMap<Class<?>, String> repositories = new ConcurrentHashMap<>();
+
+    public TracingAspect(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Around("execution(public * *(..)) && @within(org.springframework.web.bind.annotation.RestController)")
+    public Object controller(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (this.tracer.current() == null) {
+            return joinPoint.proceed();
+        }
+        String name = ClassUtils.getUserClass(joinPoint.getTarget()).getSimpleName() + "." + joinPoint.getSignature().getName();
+        return trace(joinPoint, name, "controller");
+    }
+
+    @Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+    public Object repository(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (this.tracer.current() == null) {
+            return joinPoint.proceed();
+        }
+        String repository = this.repositories.computeIfAbsent(joinPoint.getThis().getClass(), type -> {
+            Class<?>[] interfaces = AopProxyUtils.proxiedUserInterfaces(joinPoint.getThis());
+            return interfaces.length == 0 ? type.getSimpleName() : interfaces[0].getSimpleName();
+        });
+        return trace(joinPoint, repository + "." + joinPoint.getSignature().getName(), "repository");
+    }
+
+    private Object trace(ProceedingJoinPoint joinPoint, String name, String kind) throws Throwable {
+        Span span = this.tracer.start(name, kind);
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            span.fail(e.toString());
+            throw e;
+        } finally {
+            this.tracer.finish(span);
+        }
+    }
+}
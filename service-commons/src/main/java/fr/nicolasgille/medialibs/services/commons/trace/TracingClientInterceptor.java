@@ -0,0 +1,67 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Time the calls to the other services in a span each, and send them the trace context.
+ *
+ * To be added to the interceptors of a RestTemplate.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class TracingClientInterceptor implements ClientHttpRequestInterceptor {
+
+    private final Tracer tracer;
+
+    public TracingClientInterceptor(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        Span span = this.tracer.start(request.getMethod() + " " + request.getURI().getHost() + ":"
+                + request.getURI().getPort() + request.getURI().getPath(), "client");
+        if (span == null) {
+            return execution.execute(request, body);
+        }
+        request.getHeaders().set(Tracer.TRACEPARENT, this.tracer.traceparent(span));
+        try {
+            ClientHttpResponse response = execution.execute(request, body);
+            span.tag("http.status", response.getRawStatusCode());
+            if (response.getRawStatusCode() >= 500) {
+                span.fail("HTTP " + response.getRawStatusCode());
+            }
+            return response;
+        } catch (IOException | RuntimeException e) {
+            span.fail(e.toString());
+            throw e;
+        } finally {
+            this.tracer.finish(span);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import fr.nicolasgille.medialibs.services.commons.metrics.MetricsRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Trace the requests of the service: a span for the request, its controller method, its repository calls,
+ * its calls to the other services and its tasks on other threads, with the traces kept on <code>/traces</code>.
+ *
+ * Disabled unless <code>medialibs.tracing.enabled = true</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@Configuration
+@EnableConfigurationProperties(TracingProperties.class)
+@ConditionalOnProperty(prefix = "medialibs.tracing", name = "enabled")
+public class TracingConfiguration {
+
+    @Bean
+    public TraceStore traceStore(TracingProperties properties) {
+        return new TraceStore(properties.getCapacity());
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${medialibs.tracing.export-file:}' != ''")
+    public TraceExporter traceExporter(TracingProperties properties) {
+        return new TraceExporter(properties.getExportFile(), properties.getExportQueue());
+    }
+
+    @Bean
+    public Tracer tracer(TracingProperties properties, TraceStore traceStore, ObjectProvider<TraceExporter> traceExporter,
+                         ObjectProvider<MetricsRegistry> metricsRegistry) {
+        TraceExporter exporter = traceExporter.getIfAvailable();
+        Tracer tracer = new Tracer(properties, traceStore, exporter);
+        MetricsRegistry registry = metricsRegistry.getIfAvailable();
+        if (registry != null) {
+            registry.counterFunction("medialibs_tracing_requests", "Requests traced.", "", tracer::getStarted);
+            registry.counterFunction("medialibs_tracing_kept", "Traces kept, slow, failed, forced or sampled.",
+                    "", tracer::getKept);
+            registry.counterFunction("medialibs_tracing_spans", "Spans recorded.", "", tracer::getSpans);
+            if (exporter != null) {
+                registry.counterFunction("medialibs_tracing_exported", "Traces written to the export file.",
+                        "", exporter::getExported);
+                registry.counterFunction("medialibs_tracing_export_dropped", "Traces not exported, the queue being full.",
+                        "", exporter::getDropped);
+            }
+        }
+        return tracer;
+    }
+
+    /**
+     * Trace the whole request, around the other filters.
+     *
+     * @since 1.0
+     */
+    @Bean
+    public FilterRegistrationBean tracingFilter(Tracer tracer) {
+        FilterRegistrationBean registration = new FilterRegistrationBean(new TracingFilter(tracer));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    /**
+     * Keep the span of the request on the threads of the bulkheads.
+     *
+     * @param tracer
+     *  The tracer.
+     * @return
+     *  The decorator of the tasks.
+     * @since 1.0
+     */
+    @Bean
+    public TaskDecorator tracingTaskDecorator(Tracer tracer) {
+        return tracer::decorate;
+    }
+
+    @Bean
+    public TracingAspect tracingAspect(Tracer tracer) {
+        return new TracingAspect(tracer);
+    }
+
+    @Bean
+    public TracingClientInterceptor tracingClientInterceptor(Tracer tracer) {
+        return new TracingClientInterceptor(tracer);
+    }
+
+    @Bean
+    public TraceRestController traceRestController(TraceStore traceStore) {
+        return new TraceRestController(traceStore);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Trace each http request, from the <code>traceparent</code> header of the caller if any.
+ *
+ * The identifier of the trace is answered in a header, to look the trace up on <code>/traces</code>
+ * if it is kept. With an asynchronous handler, the dispatch writing the response is a span of its own.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class TracingFilter extends OncePerRequestFilter {
+
+    /**
+     * Header answering the identifier of the trace.
+     *
+     * @since 1.0
+     */
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    /**
+     * Request attribute holding the span of the request while an asynchronous handler runs.
+     *
+     * @since 1.0
+     */
+    private static final String SPAN_ATTRIBUTE = TracingFilter.class.getName() + ".span";
+
+    private final Tracer tracer;
+
+    public TracingFilter(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Span span;
+        Span write = null;
+        if (isAsyncDispatch(request)) {
+            span = (Span) request.getAttribute(SPAN_ATTRIBUTE);
+            if (span == null) {
+                chain.doFilter(request, response);
+                return;
+            }
+            this.tracer.resume(span);
+            write = this.tracer.start("write response", "server");
+        } else {
+            span = this.tracer.startRequest(request.getHeader(Tracer.TRACEPARENT),
+                    request.getMethod() + " " + request.getRequestURI());
+            response.setHeader(TRACE_ID_HEADER, span.getTrace().getTraceId());
+        }
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            span.fail(e.toString());
+            throw e;
+        } finally {
+            this.tracer.finish(write);
+            if (isAsyncStarted(request)) {
+                request.setAttribute(SPAN_ATTRIBUTE, span);
+                this.tracer.suspend();
+            } else {
+                Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                if (pattern != null) {
+                    span.setName(request.getMethod() + " " + pattern);
+                }
+                span.tag("http.status", response.getStatus());
+                if (response.getStatus() >= 500 && span.getError() == null) {
+                    span.fail("HTTP " + response.getStatus());
+                }
+                this.tracer.finish(span);
+            }
+        }
+    }
+
+    /**
+     * Also filter the dispatch writing the response of an asynchronous handler, to end the request there.
+     *
+     * @return
+     *  False.
+     * @since 1.0
+     */
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+}
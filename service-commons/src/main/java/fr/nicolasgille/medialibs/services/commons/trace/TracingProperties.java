@@ -0,0 +1,138 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.trace;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings of the request tracing, under the prefix <code>medialibs.tracing</code>.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+@ConfigurationProperties(prefix = "medialibs.tracing")
+public class TracingProperties {
+
+    /**
+     * Trace the requests of the service. Disabled by default.
+     *
+     * @since 1.0
+     * @version 1.1
+     */
+    private boolean enabled = false;
+
+    /**
+     * Traces whose request took longer than this threshold, in milliseconds, are kept.
+     *
+     * @since 1.0
+     */
+    private long slowThreshold = 500;
+
+    /**
+     * Ratio of the other traces kept, between 0 (none) and 1 (all). Failed traces and traces
+     * asked by the caller with the sampled flag of <code>traceparent</code> are always kept.
+     *
+     * @since 1.0
+     */
+    private double sampleRate = 0.001;
+
+    /**
+     * Number of traces kept in memory, the oldest are dropped first.
+     *
+     * @since 1.0
+     */
+    private int capacity = 1000;
+
+    /**
+     * Maximum number of spans recorded by trace. The next ones are only counted.
+     *
+     * @since 1.0
+     */
+    private int maxSpans = 256;
+
+    /**
+     * File to which each kept trace is appended as one line of JSON, none if empty.
+     *
+     * @since 1.0
+     */
+    private String exportFile = "";
+
+    /**
+     * Traces waiting to be written to the export file. The next ones are not exported.
+     *
+     * @since 1.0
+     */
+    private int exportQueue = 1000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getMaxSpans() {
+        return maxSpans;
+    }
+
+    public void setMaxSpans(int maxSpans) {
+        this.maxSpans = maxSpans;
+    }
+
+    public String getExportFile() {
+        return exportFile;
+    }
+
+    public void setExportFile(String exportFile) {
+        this.exportFile = exportFile;
+    }
+
+    public int getExportQueue() {
+        return exportQueue;
+    }
+
+    public void setExportQueue(int exportQueue) {
+        this.exportQueue = exportQueue;
+    }
+}
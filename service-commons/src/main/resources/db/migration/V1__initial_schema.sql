@@ -0,0 +1,47 @@
+-- Schema of the core entities as created until now by Hibernate (ddl-auto = update).
+-- A database created that way is baselined at this version: the script only runs on an empty database.
+
+create table media (
+    id bigint not null auto_increment,
+    name varchar(255),
+    description text,
+    release_date date,
+    editor varchar(255),
+    primary key (id)
+);
+
+create table media_supports (
+    media_id bigint not null,
+    supports varchar(255)
+);
+
+alter table media_supports
+    add constraint fk_media_supports_media foreign key (media_id) references media (id);
+
+create table stock (
+    id bigint not null auto_increment,
+    media_id bigint not null,
+    initial_stock integer not null,
+    current_stock integer not null,
+    primary key (id)
+);
+
+create table loan (
+    id bigint not null auto_increment,
+    borrower_id bigint not null,
+    media_id bigint not null,
+    start_loan_date date,
+    end_loan_date date,
+    primary key (id)
+);
+
+create table user (
+    id bigint not null auto_increment,
+    email varchar(255),
+    password varchar(255),
+    role integer,
+    primary key (id)
+);
+
+alter table user
+    add constraint uk_user_email unique (email);
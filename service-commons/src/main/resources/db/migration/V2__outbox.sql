@@ -0,0 +1,10 @@
+-- Outbox of the entity changes. Databases which ran the outbox before the migrations already have it.
+
+create table if not exists outbox_event (
+    id bigint not null auto_increment,
+    entity_type varchar(64) not null,
+    entity_id bigint not null,
+    operation varchar(16) not null,
+    created_at bigint not null,
+    primary key (id)
+);
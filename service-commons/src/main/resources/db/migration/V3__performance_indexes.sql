@@ -0,0 +1,17 @@
+-- Indexes of the lookups of the repositories, which Hibernate never created.
+
+-- StockRepository.findByMediaId, StockBatchRepository.findByMediaIdIn. Not unique: a database
+-- created by Hibernate may hold several stocks of a media, the migration must not fail on it.
+create index idx_stock_media_id on stock (media_id);
+
+-- LoanRepository.findByBorrowerIdAndMediaId.
+create index idx_loan_borrower_media on loan (borrower_id, media_id);
+
+-- LoanBatchRepository.findActiveByMediaIdIn: loans of a page of medias, still running.
+create index idx_loan_media_end on loan (media_id, end_loan_date);
+
+-- MediaRepository.findByNameAndReleaseDate, run before each insertion of a media.
+create index idx_media_name_release on media (name, release_date);
+
+-- Purge of the outbox by age.
+create index idx_outbox_event_created on outbox_event (created_at);
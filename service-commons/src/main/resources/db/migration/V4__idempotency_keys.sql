@@ -0,0 +1,15 @@
+-- Responses of the requests carrying an Idempotency-Key, kept when medialibs.idempotency.persistent is set.
+
+create table if not exists idempotency_key (
+    request_key varchar(255) not null,
+    fingerprint varchar(64) not null,
+    status int not null,
+    content_type varchar(255),
+    location varchar(2048),
+    body blob not null,
+    expires_at bigint not null,
+    primary key (request_key)
+);
+
+-- Purge of the expired keys.
+create index idx_idempotency_key_expires on idempotency_key (expires_at);
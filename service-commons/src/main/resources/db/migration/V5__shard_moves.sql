@@ -0,0 +1,14 @@
+-- Journal of the rows moving between shards, on the primary, until they are deleted from their source.
+
+create table if not exists shard_move (
+    id bigint not null auto_increment,
+    entity_table varchar(64) not null,
+    row_id bigint not null,
+    source int not null,
+    target int not null,
+    created_at bigint not null,
+    primary key (id)
+);
+
+-- Moves of a row, read by the lookups by identifier and deleted at the end of a move.
+create index idx_shard_move_row on shard_move (entity_table, row_id);
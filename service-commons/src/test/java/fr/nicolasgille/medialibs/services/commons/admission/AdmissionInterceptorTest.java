@@ -0,0 +1,115 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import fr.nicolasgille.medialibs.services.fixture.FixtureRestController;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link AdmissionInterceptor}: every admitted request gives its permit back, once.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class AdmissionInterceptorTest {
+
+    private AdmissionController controller;
+    private AdmissionInterceptor interceptor;
+    private HandlerMethod handler;
+
+    @Before
+    public void setUp() throws Exception {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setEndpoint(new AdmissionProperties.Limit(1, 1, 1));
+        this.controller = new AdmissionController(properties, null);
+        this.interceptor = new AdmissionInterceptor(this.controller, 1);
+        this.handler = new HandlerMethod(new FixtureRestController(), FixtureRestController.class.getMethod("getAll"));
+    }
+
+    @Test
+    public void requestOverTheLimitIsAnswered503() {
+        MockHttpServletRequest first = new MockHttpServletRequest("GET", "/");
+        assertThat(this.interceptor.preHandle(first, new MockHttpServletResponse(), this.handler)).isTrue();
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertThat(this.interceptor.preHandle(new MockHttpServletRequest("GET", "/"), rejected, this.handler)).isFalse();
+        assertThat(rejected.getStatus()).isEqualTo(503);
+        assertThat(rejected.getHeader("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    public void permitIsReleasedWhenTheHandlerFails() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.interceptor.preHandle(request, response, this.handler);
+
+        this.interceptor.afterCompletion(request, response, this.handler, new IllegalStateException("database down"));
+
+        assertThat(this.controller.getService().getInFlight()).isZero();
+        assertAdmitted();
+    }
+
+    @Test
+    public void permitIsReleasedOnceWhenTheHandlerTimesOut() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.interceptor.preHandle(request, response, this.handler);
+        request.startAsync(request, response);
+        this.interceptor.afterConcurrentHandlingStarted(request, response, this.handler);
+
+        // The bulkhead answers 504: the dispatch writing it completes the request.
+        response.setStatus(504);
+        assertThat(this.interceptor.preHandle(request, response, this.handler)).isTrue();
+        this.interceptor.afterCompletion(request, response, this.handler, null);
+        request.getAsyncContext().complete();
+
+        assertThat(this.controller.getService().getInFlight()).isZero();
+        assertAdmitted();
+    }
+
+    @Test
+    public void permitIsReleasedWhenTheClientGoesAway() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.interceptor.preHandle(request, response, this.handler);
+        request.startAsync(request, response);
+        this.interceptor.afterConcurrentHandlingStarted(request, response, this.handler);
+
+        // No dispatch: the asynchronous context completes on the error of the connection.
+        request.getAsyncContext().complete();
+
+        assertThat(this.controller.getService().getInFlight()).isZero();
+        assertAdmitted();
+    }
+
+    /**
+     * Check the endpoint, limited to one request, admits a new one.
+     */
+    private void assertAdmitted() {
+        assertThat(this.interceptor.preHandle(new MockHttpServletRequest("GET", "/"), new MockHttpServletResponse(),
+                this.handler)).isTrue();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.nicolasgille.medialibs.services.commons.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link GradientLimit}, against a simulated service answering in 10 ms up to its capacity,
+ * and queueing the requests beyond.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class GradientLimitTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void convergesOnTheConcurrencyTheServiceHolds() {
+        GradientLimit limit = new GradientLimit(new AdmissionProperties.Limit(20, 2, 200), properties());
+
+        int[] limits = run(limit, 20, 600);
+
+        // Converges where the latency reaches the tolerance of 1.5 times the no-load one, far under the maximum.
+        assertThat(limits[0]).isBetween(30, 40);
+        assertThat(limits[1] - limits[0]).isLessThanOrEqualTo(1);
+        assertThat(limit.getBaseline()).isEqualTo(0.01);
+    }
+
+    @Test
+    public void shrinksWhenTheCapacityDrops() {
+        GradientLimit limit = new GradientLimit(new AdmissionProperties.Limit(20, 2, 200), properties());
+        int before = run(limit, 20, 600)[0];
+
+        int[] limits = run(limit, 10, 600);
+
+        assertThat(limits[0]).isLessThan(before).isBetween(15, 25);
+        assertThat(limits[1] - limits[0]).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    public void backsOffWhenTheHandlersDrop() {
+        GradientLimit limit = new GradientLimit(new AdmissionProperties.Limit(20, 2, 200), properties());
+
+        assertThat(limit.tryAcquire(1.0)).isTrue();
+        limit.release(LATENCY, true);
+
+        assertThat(limit.getLimit()).isEqualTo(18);
+        assertThat(limit.getInFlight()).isZero();
+    }
+
+    @Test
+    public void onlyWindowsWithoutLoadRaiseTheBaseline() {
+        GradientLimit limit = new GradientLimit(new AdmissionProperties.Limit(20, 2, 200), properties());
+        run(limit, 20, 50);
+
+        // Slow under load: the concurrency is the cause, the baseline stays.
+        for (int i = 0; i < 50; i++) {
+            round(limit, Integer.MAX_VALUE, 3 * LATENCY, 200);
+        }
+        assertThat(limit.getBaseline()).isEqualTo(0.01);
+
+        // Slow with two requests in flight: the database is, the baseline drifts up over 50 windows.
+        for (int i = 0; i < 2500; i++) {
+            round(limit, Integer.MAX_VALUE, 3 * LATENCY, 2);
+        }
+        assertThat(limit.getBaseline()).isGreaterThan(0.02);
+    }
+
+    @Test
+    public void shareBoundsTheSlotsOfAPriority() {
+        GradientLimit limit = new GradientLimit(new AdmissionProperties.Limit(10, 2, 200), properties());
+        int taken = 0;
+        while (limit.tryAcquire(0.6)) {
+            taken++;
+        }
+
+        assertThat(taken).isEqualTo(6);
+        assertThat(limit.tryAcquire(1.0)).isTrue();
+    }
+
+    private static AdmissionProperties properties() {
+        AdmissionProperties properties = new AdmissionProperties();
+        // Windows of 100 samples whatever their duration, so the test does not depend on the clock.
+        properties.setWindow(0);
+        properties.setMinSamples(100);
+        return properties;
+    }
+
+    /**
+     * Run rounds filling the limit.
+     *
+     * @return
+     *  The lowest and highest limits of the last 100 rounds.
+     */
+    private static int[] run(GradientLimit limit, int capacity, int rounds) {
+        int[] limits = { Integer.MAX_VALUE, 0 };
+        for (int i = 0; i < rounds; i++) {
+            round(limit, capacity, LATENCY, Integer.MAX_VALUE);
+            if (i >= rounds - 100) {
+                limits[0] = Math.min(limits[0], limit.getLimit());
+                limits[1] = Math.max(limits[1], limit.getLimit());
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Take up to the given number of slots, then release them with the latency of the service.
+     */
+    private static void round(GradientLimit limit, int capacity, long latency, int requests) {
+        int inFlight = 0;
+        while (inFlight < requests && limit.tryAcquire(1.0)) {
+            inFlight++;
+        }
+        long rtt = (long) (latency * Math.max(1.0, (double) inFlight / capacity));
+        for (int i = 0; i < inFlight; i++) {
+            limit.release(rtt, false);
+        }
+    }
+}
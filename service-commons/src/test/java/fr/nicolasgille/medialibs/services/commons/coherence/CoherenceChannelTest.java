@@ -0,0 +1,279 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.coherence;
+
+import fr.nicolasgille.medialibs.services.commons.outbox.ChangeEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests of {@link CoherenceChannel} against a peer played by the test on a UDP socket: datagrams lost,
+ * received out of order or twice, and datagrams of the channel coming back to it.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class CoherenceChannelTest {
+
+    private static final long HEARTBEAT_INTERVAL = 50;
+    private static final long REPAIR_TIMEOUT = 300;
+    private static final long WAIT = 2000;
+
+    /**
+     * Instance of the peer, started after the channel so all its sequences are expected.
+     */
+    private static final long PEER = 42;
+    private final long peerStartedAt = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Identifiers of the entities invalidated in the caches, in order.
+     */
+    private final BlockingQueue<Long> applied = new LinkedBlockingQueue<>();
+
+    private NearCaches caches;
+    private DatagramSocket peer;
+    private InetSocketAddress channelAddress;
+    private CoherenceChannel channel;
+
+    @Before
+    public void start() throws Exception {
+        this.caches = mock(NearCaches.class);
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<ChangeEvent> events = (List<ChangeEvent>) invocation.getArguments()[0];
+            events.forEach(event -> this.applied.add(event.getEntityId()));
+            return null;
+        }).when(this.caches).apply(anyListOf(ChangeEvent.class));
+
+        this.peer = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        this.peer.setSoTimeout((int) WAIT);
+        int port = freePort();
+        this.channelAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+
+        CoherenceProperties properties = new CoherenceProperties();
+        properties.setHost("127.0.0.1");
+        properties.setPort(port);
+        // Every instance shares the same list, this one included.
+        properties.setPeers(Arrays.asList("127.0.0.1:" + port, "127.0.0.1:" + this.peer.getLocalPort()));
+        properties.setBatchDelay(1);
+        properties.setHeartbeatInterval(HEARTBEAT_INTERVAL);
+        properties.setRepairTimeout(REPAIR_TIMEOUT);
+        this.channel = new CoherenceChannel(properties, this.caches);
+        this.channel.start();
+    }
+
+    @After
+    public void stop() {
+        this.channel.stop();
+        this.peer.close();
+    }
+
+    @Test
+    public void ownAddressIsLeftOutOfThePeers() {
+        assertThat(this.channel.getAddresses()).containsExactly("127.0.0.1:" + this.peer.getLocalPort());
+    }
+
+    @Test
+    public void batchesReceivedOutOfOrderAreAllAppliedOnce() throws Exception {
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 3, events(30)));
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 1, events(10, 20)));
+
+        assertThat(applied(3)).containsExactly(30L, 10L, 20L);
+
+        // The same batch received twice.
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 2, events(20, 30)));
+        send(InvalidationPacket.heartbeat(PEER, this.peerStartedAt, 3));
+
+        awaitDuplicates(2);
+        assertThat(this.applied).isEmpty();
+        assertThat(this.channel.getMissing()).isZero();
+        assertThat(this.channel.getPeers()).extracting(CoherenceChannel.Peer::getReceived).containsExactly(3L);
+        verify(this.caches, never()).reset();
+    }
+
+    @Test
+    public void lostBatchIsAskedAgainAndApplied() throws Exception {
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 1, events(10)));
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 3, events(30)));
+
+        InvalidationPacket nack = receive(InvalidationPacket.NACK);
+        assertThat(nack.sequence).isEqualTo(2);
+        assertThat(nack.to).isEqualTo(2);
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 2, events(20)));
+
+        assertThat(applied(3)).containsExactly(10L, 30L, 20L);
+        assertThat(this.channel.getMissing()).isZero();
+        verify(this.caches, after((int) (2 * REPAIR_TIMEOUT)).never()).reset();
+    }
+
+    @Test
+    public void lostLastBatchIsRevealedByTheHeartbeat() throws Exception {
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 1, events(10)));
+        send(InvalidationPacket.heartbeat(PEER, this.peerStartedAt, 3));
+
+        InvalidationPacket nack = receive(InvalidationPacket.NACK);
+        assertThat(nack.sequence).isEqualTo(2);
+        assertThat(nack.to).isEqualTo(3);
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 2, events(20, 30)));
+
+        assertThat(applied(3)).containsExactly(10L, 20L, 30L);
+        verify(this.caches, after((int) (2 * REPAIR_TIMEOUT)).never()).reset();
+    }
+
+    @Test
+    public void batchNeverReceivedAgainEvictsEverything() throws Exception {
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 1, events(10)));
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 3, events(30)));
+
+        verify(this.caches, timeout((int) WAIT)).reset();
+        assertThat(this.channel.getResets()).isEqualTo(1);
+        assertThat(this.channel.getMissing()).isZero();
+
+        // The sequences after the gap are expected again.
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 4, events(40)));
+        assertThat(applied(3)).containsExactly(10L, 30L, 40L);
+    }
+
+    @Test
+    public void missedInvalidationsAreSentAgainFromTheHistory() throws Exception {
+        this.channel.broadcast(events(10, 20, 30));
+        InvalidationPacket batch = receive(InvalidationPacket.BATCH);
+        assertThat(batch.sequence).isEqualTo(1);
+
+        send(InvalidationPacket.nack(PEER, this.peerStartedAt, 2, 3));
+
+        InvalidationPacket again = receive(InvalidationPacket.BATCH);
+        assertThat(again.instance).isEqualTo(batch.instance);
+        assertThat(again.sequence).isEqualTo(2);
+        assertThat(again.events).extracting(ChangeEvent::getEntityId).containsExactly(20L, 30L);
+        assertThat(this.channel.getRetransmitted()).isEqualTo(2);
+    }
+
+    @Test
+    public void ownDatagramsComingBackAreIgnored() throws Exception {
+        this.channel.broadcast(events(10));
+        ByteBuffer batch = receiveRaw(InvalidationPacket.BATCH);
+        ByteBuffer heartbeat = receiveRaw(InvalidationPacket.HEARTBEAT);
+
+        // Echoed, as a network looping multicast or a peer list pointing back at this instance would.
+        send(batch);
+        send(heartbeat);
+        // A datagram of the peer, handled after the echoes.
+        send(InvalidationPacket.batch(PEER, this.peerStartedAt, 1, events(20)));
+
+        assertThat(applied(1)).containsExactly(20L);
+        assertThat(this.applied).isEmpty();
+        assertThat(this.channel.getPeers()).extracting(CoherenceChannel.Peer::getInstance)
+                .containsExactly(Long.toHexString(PEER));
+        assertThat(this.channel.getDuplicates()).isZero();
+    }
+
+    private static List<ChangeEvent> events(long... ids) {
+        List<ChangeEvent> events = new ArrayList<>();
+        for (long id : ids) {
+            events.add(new ChangeEvent(id, "Media", id, ChangeEvent.Operation.SAVED, System.currentTimeMillis()));
+        }
+        return events;
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void send(InvalidationPacket packet) throws IOException {
+        send(packet.encode());
+    }
+
+    private void send(ByteBuffer datagram) throws IOException {
+        byte[] bytes = new byte[datagram.remaining()];
+        datagram.duplicate().get(bytes);
+        this.peer.send(new DatagramPacket(bytes, bytes.length, this.channelAddress));
+    }
+
+    /**
+     * Wait for a datagram of the channel, skipping the ones of other types.
+     */
+    private ByteBuffer receiveRaw(byte type) throws IOException {
+        long deadline = System.currentTimeMillis() + WAIT;
+        byte[] bytes = new byte[65536];
+        while (System.currentTimeMillis() < deadline) {
+            DatagramPacket datagram = new DatagramPacket(bytes, bytes.length);
+            try {
+                this.peer.receive(datagram);
+            } catch (SocketTimeoutException e) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(bytes, datagram.getLength()));
+            if (InvalidationPacket.decode(buffer.duplicate(), 0).type == type) {
+                return buffer;
+            }
+        }
+        throw new AssertionError("No datagram of type " + type + " received");
+    }
+
+    private InvalidationPacket receive(byte type) throws IOException {
+        return InvalidationPacket.decode(receiveRaw(type), 0);
+    }
+
+    private List<Long> applied(int count) throws InterruptedException {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Long id = this.applied.poll(WAIT, TimeUnit.MILLISECONDS);
+            if (id == null) {
+                break;
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private void awaitDuplicates(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (this.channel.getDuplicates() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(this.channel.getDuplicates()).isEqualTo(count);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.flight;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link SingleFlight}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLookupsShareTheFlightInTheAir() throws Exception {
+        SingleFlight flight = new SingleFlight("media", 5000, true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger lookups = new AtomicInteger();
+
+        Future<String> leader = this.executor.submit(() -> flight.call(1L, () -> {
+            lookups.incrementAndGet();
+            started.countDown();
+            release.await();
+            return "v1";
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        Future<String> follower = this.executor.submit(() -> flight.call(1L, () -> {
+            lookups.incrementAndGet();
+            return "own";
+        }));
+        awaitBlocked(follower);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("v1");
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("v1");
+        assertThat(lookups.get()).isEqualTo(1);
+        assertThat(flight.getInFlight()).isZero();
+    }
+
+    @Test
+    public void lookupAfterAWriteDoesNotJoinTheOlderFlight() throws Exception {
+        SingleFlight flight = new SingleFlight("media", 5000, true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> beforeWrite = this.executor.submit(() -> flight.call(1L, () -> {
+            started.countDown();
+            release.await();
+            return "read before the write";
+        }));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        flight.invalidate(1L);
+        String afterWrite = flight.call(1L, () -> "read after the write");
+        release.countDown();
+
+        assertThat(afterWrite).isEqualTo("read after the write");
+        assertThat(beforeWrite.get(5, TimeUnit.SECONDS)).isEqualTo("read before the write");
+        assertThat(flight.getInvalidations()).isEqualTo(1);
+        assertThat(flight.getLeaders()).isEqualTo(2);
+        assertThat(flight.getInFlight()).isZero();
+    }
+
+    @Test
+    public void landingOldFlightKeepsTheNewOne() throws Exception {
+        SingleFlight flight = new SingleFlight("media", 5000, true);
+        CountDownLatch oldStarted = new CountDownLatch(1);
+        CountDownLatch releaseOld = new CountDownLatch(1);
+        CountDownLatch newStarted = new CountDownLatch(1);
+        CountDownLatch releaseNew = new CountDownLatch(1);
+
+        Future<String> old = this.executor.submit(() -> flight.call(1L, () -> {
+            oldStarted.countDown();
+            releaseOld.await();
+            return "old";
+        }));
+        assertThat(oldStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        flight.invalidate(1L);
+        Future<String> fresh = this.executor.submit(() -> flight.call(1L, () -> {
+            newStarted.countDown();
+            releaseNew.await();
+            return "new";
+        }));
+        assertThat(newStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        releaseOld.countDown();
+        assertThat(old.get(5, TimeUnit.SECONDS)).isEqualTo("old");
+        // The old leader must not remove the flight started after the write.
+        assertThat(flight.getInFlight()).isEqualTo(1);
+        Future<String> joining = this.executor.submit(() -> flight.call(1L, () -> "own"));
+        awaitBlocked(joining);
+        releaseNew.countDown();
+
+        assertThat(fresh.get(5, TimeUnit.SECONDS)).isEqualTo("new");
+        assertThat(joining.get(5, TimeUnit.SECONDS)).isEqualTo("new");
+    }
+
+    /**
+     * Give a follower the time to reach the flight in the air, and check it waits for it.
+     */
+    private static void awaitBlocked(Future<?> follower) throws InterruptedException {
+        for (int i = 0; i < 50 && !follower.isDone(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(follower.isDone()).isFalse();
+    }
+}
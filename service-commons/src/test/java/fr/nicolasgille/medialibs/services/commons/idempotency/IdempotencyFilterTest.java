@@ -0,0 +1,241 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link IdempotencyFilter}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class IdempotencyFilterTest {
+
+    private final IdempotencyStore store = new IdempotencyStore(60000, 100, null);
+    private final IdempotencyFilter filter = new IdempotencyFilter(this.store, "Idempotency-Key", new ObjectMapper(), 5000);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    public void keysAreScopedToTheMethodThePathAndTheCaller() {
+        MockHttpServletRequest alice = request("/medias/", "alice");
+        MockHttpServletRequest bob = request("/medias/", "bob");
+        MockHttpServletRequest otherPath = request("/stocks/", "alice");
+
+        assertThat(IdempotencyFilter.scope(alice, "key")).isEqualTo(IdempotencyFilter.scope(request("/medias/", "alice"), "key"));
+        assertThat(IdempotencyFilter.scope(alice, "key")).isNotEqualTo(IdempotencyFilter.scope(bob, "key"));
+        assertThat(IdempotencyFilter.scope(alice, "key")).isNotEqualTo(IdempotencyFilter.scope(otherPath, "key"));
+    }
+
+    @Test
+    public void twoCallersWithTheSameKeyBothRun() throws Exception {
+        FilterChain created = (request, response) -> {
+            this.runs.incrementAndGet();
+            ((HttpServletResponse) response).setStatus(HttpStatus.CREATED.value());
+        };
+
+        assertThat(send(request("/medias/", "alice"), created).getStatus()).isEqualTo(201);
+        assertThat(send(request("/medias/", "bob"), created).getStatus()).isEqualTo(201);
+        assertThat(this.runs.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void handlerRefusedBeforeStartingReleasesTheKey() throws Exception {
+        FilterChain refused = (request, response) -> {
+            this.runs.incrementAndGet();
+            HandlerExecution.of(request).skipped();
+            ((HttpServletResponse) response).setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        };
+
+        send(request("/medias/", "alice"), refused);
+        MockHttpServletResponse retry = send(request("/medias/", "alice"), refused);
+
+        assertThat(this.runs.get()).isEqualTo(2);
+        assertThat(retry.getHeader(IdempotencyFilter.REPLAYED_HEADER)).isNull();
+    }
+
+    @Test
+    public void failingHandlerKeepsItsOutcome() throws Exception {
+        FilterChain failing = (request, response) -> {
+            this.runs.incrementAndGet();
+            ((HttpServletResponse) response).setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+        };
+
+        send(request("/medias/", "alice"), failing);
+        MockHttpServletResponse retry = send(request("/medias/", "alice"), failing);
+
+        assertThat(this.runs.get()).isEqualTo(1);
+        assertThat(retry.getStatus()).isEqualTo(500);
+        assertThat(retry.getHeader(IdempotencyFilter.REPLAYED_HEADER)).isEqualTo("true");
+    }
+
+    @Test
+    public void handlerReturningAfterTheResponseKeepsItsRealOutcome() throws Exception {
+        AtomicReference<HandlerExecution> execution = new AtomicReference<>();
+        FilterChain timedOut = (request, response) -> {
+            this.runs.incrementAndGet();
+            // A bulkhead answering 504 while its thread still runs the handler.
+            execution.set(HandlerExecution.of(request));
+            execution.get().submitted();
+            ((HttpServletResponse) response).setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+        };
+
+        assertThat(send(request("/medias/", "alice"), timedOut).getStatus()).isEqualTo(504);
+        MockHttpServletResponse whileRunning = send(request("/medias/", "alice"), timedOut);
+        assertThat(whileRunning.getStatus()).isEqualTo(409);
+        assertThat(whileRunning.getHeader("Retry-After")).isEqualTo("1");
+
+        execution.get().finished(ResponseEntity.created(URI.create("/medias/1")).body(Collections.singletonMap("id", 1)));
+        MockHttpServletResponse afterwards = send(request("/medias/", "alice"), timedOut);
+
+        assertThat(this.runs.get()).isEqualTo(1);
+        assertThat(afterwards.getStatus()).isEqualTo(201);
+        assertThat(afterwards.getHeader("Location")).isEqualTo("/medias/1");
+        assertThat(afterwards.getContentAsString()).isEqualTo("{\"id\":1}");
+    }
+
+    @Test
+    public void overlappingRetryGetsTheResponseOfTheFirstRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FilterChain slow = (request, response) -> {
+            this.runs.incrementAndGet();
+            started.countDown();
+            try {
+                assertThat(release.await(5, TimeUnit.SECONDS)).isTrue();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            ((HttpServletResponse) response).setStatus(HttpStatus.CREATED.value());
+            response.setContentType("application/json");
+            response.getOutputStream().write("{\"id\":1}".getBytes());
+        };
+        CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return send(request("/medias/", "alice"), slow);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        MockHttpServletRequest retry = asyncRequest("/medias/", "alice");
+        MockHttpServletResponse retried = send(retry, slow);
+        assertThat(retry.isAsyncStarted()).isTrue();
+        release.countDown();
+        MockHttpServletResponse answered = first.get(5, TimeUnit.SECONDS);
+
+        assertThat(this.runs.get()).isEqualTo(1);
+        assertThat(retry.isAsyncStarted()).isFalse();
+        assertThat(answered.getStatus()).isEqualTo(201);
+        assertThat(retried.getStatus()).isEqualTo(201);
+        assertThat(retried.getContentAsString()).isEqualTo(answered.getContentAsString()).isEqualTo("{\"id\":1}");
+        assertThat(retried.getHeader(IdempotencyFilter.REPLAYED_HEADER)).isEqualTo("true");
+    }
+
+    @Test
+    public void retryWaitingPastTheBoundGetsAConflict() throws Exception {
+        FilterChain timedOut = (request, response) -> {
+            this.runs.incrementAndGet();
+            HandlerExecution.of(request).submitted();
+            ((HttpServletResponse) response).setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+        };
+        send(request("/medias/", "alice"), timedOut);
+
+        MockHttpServletRequest retry = asyncRequest("/medias/", "alice");
+        MockHttpServletResponse retried = send(retry, timedOut);
+        MockAsyncContext context = (MockAsyncContext) retry.getAsyncContext();
+        assertThat(context.getTimeout()).isEqualTo(5000);
+        for (AsyncListener listener : context.getListeners()) {
+            listener.onTimeout(new AsyncEvent(context));
+        }
+
+        assertThat(this.runs.get()).isEqualTo(1);
+        assertThat(retried.getStatus()).isEqualTo(409);
+        assertThat(retried.getHeader("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    public void retryWaitingForAnAbandonedRequestRunsItself() throws Exception {
+        AtomicReference<HandlerExecution> refused = new AtomicReference<>();
+        FilterChain queued = (request, response) -> {
+            this.runs.incrementAndGet();
+            refused.set(HandlerExecution.of(request));
+            refused.get().submitted();
+            ((HttpServletResponse) response).setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+        };
+        send(request("/medias/", "alice"), queued);
+        MockHttpServletRequest retry = asyncRequest("/medias/", "alice");
+        MockHttpServletResponse retried = send(retry, queued);
+
+        // The bulkhead queue gave up on the first request before its handler started.
+        refused.get().skipped();
+        assertThat(((MockAsyncContext) retry.getAsyncContext()).getDispatchedPath()).isEqualTo("/medias/");
+        retry.setAsyncStarted(false);
+        retry.setDispatcherType(DispatcherType.ASYNC);
+        this.filter.doFilter(retry, retried, (request, response) -> {
+            this.runs.incrementAndGet();
+            ((HttpServletResponse) response).setStatus(HttpStatus.CREATED.value());
+        });
+
+        assertThat(this.runs.get()).isEqualTo(2);
+        assertThat(retried.getStatus()).isEqualTo(201);
+        assertThat(retried.getHeader(IdempotencyFilter.REPLAYED_HEADER)).isNull();
+    }
+
+    private MockHttpServletResponse send(MockHttpServletRequest request, FilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        this.filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String path, String user) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        request.setUserPrincipal(() -> user);
+        request.addHeader("Idempotency-Key", "key");
+        request.setContent("{\"title\":\"Dune\"}".getBytes());
+        return request;
+    }
+
+    private static MockHttpServletRequest asyncRequest(String path, String user) {
+        MockHttpServletRequest request = request(path, user);
+        request.setAsyncSupported(true);
+        return request;
+    }
+}
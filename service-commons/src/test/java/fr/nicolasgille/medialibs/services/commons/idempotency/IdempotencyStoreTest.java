@@ -0,0 +1,127 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.nicolasgille.medialibs.services.commons.idempotency;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link IdempotencyStore}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class IdempotencyStoreTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentDuplicatesRunOnceAndDoNotWait() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(60000, 100, null);
+        int clients = 16;
+        CyclicBarrier barrier = new CyclicBarrier(clients);
+        List<Future<IdempotencyStore.Claim>> claims = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            claims.add(this.executor.submit(() -> {
+                barrier.await();
+                return store.claim("key", "post /medias");
+            }));
+        }
+
+        IdempotencyStore.Claim first = null;
+        int busy = 0;
+        for (Future<IdempotencyStore.Claim> claim : claims) {
+            // Nothing completes the first claim yet: the duplicates must not wait for it.
+            IdempotencyStore.Claim done = claim.get(5, TimeUnit.SECONDS);
+            if (done.getOutcome() == IdempotencyStore.Outcome.EXECUTE) {
+                assertThat(first).isNull();
+                first = done;
+            } else {
+                assertThat(done.getOutcome()).isEqualTo(IdempotencyStore.Outcome.BUSY);
+                busy++;
+            }
+        }
+        assertThat(first).isNotNull();
+        assertThat(busy).isEqualTo(clients - 1);
+
+        first.complete(201, "application/json", "/medias/1", "{}".getBytes());
+        IdempotencyStore.Claim retry = store.claim("key", "post /medias");
+        assertThat(retry.getOutcome()).isEqualTo(IdempotencyStore.Outcome.REPLAY);
+        assertThat(retry.getResponse().getStatus()).isEqualTo(201);
+        assertThat(store.getExecuted()).isEqualTo(1);
+        assertThat(store.getBusy()).isEqualTo(clients - 1);
+    }
+
+    @Test
+    public void keyUsedByAnotherRequestIsAMismatch() {
+        IdempotencyStore store = new IdempotencyStore(60000, 100, null);
+        store.claim("key", "post /medias");
+
+        assertThat(store.claim("key", "post /stocks").getOutcome()).isEqualTo(IdempotencyStore.Outcome.MISMATCH);
+    }
+
+    @Test
+    public void abandonedKeyRunsAgain() {
+        IdempotencyStore store = new IdempotencyStore(60000, 100, null);
+        store.claim("key", "post /medias").abandon();
+
+        assertThat(store.claim("key", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.EXECUTE);
+        assertThat(store.getExecuted()).isEqualTo(2);
+    }
+
+    @Test
+    public void runningKeysAreNeverEvicted() {
+        IdempotencyStore store = new IdempotencyStore(60000, 2, null);
+        IdempotencyStore.Claim running = store.claim("running", "post /medias");
+        for (int i = 0; i < 5; i++) {
+            store.claim("answered-" + i, "post /medias").complete(200, null, null, new byte[0]);
+        }
+
+        assertThat(store.getSize()).isEqualTo(2);
+        assertThat(store.claim("running", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.BUSY);
+        assertThat(store.claim("answered-0", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.EXECUTE);
+        running.complete(200, null, null, new byte[0]);
+        assertThat(store.claim("running", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.REPLAY);
+    }
+
+    @Test
+    public void runningKeysDoNotExpire() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(1, 100, null);
+        IdempotencyStore.Claim running = store.claim("key", "post /medias");
+        Thread.sleep(10);
+
+        assertThat(store.claim("key", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.BUSY);
+        running.complete(200, null, null, new byte[0]);
+        assertThat(store.claim("key", "post /medias").getOutcome()).isEqualTo(IdempotencyStore.Outcome.EXECUTE);
+    }
+}
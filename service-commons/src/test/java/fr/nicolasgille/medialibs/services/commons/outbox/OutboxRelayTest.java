@@ -0,0 +1,158 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.outbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests of {@link OutboxRelay}: order of the events and gaps left by transactions not yet committed.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class OutboxRelayTest {
+
+    private static final long GAP_TIMEOUT = 200;
+
+    /**
+     * Events committed in the outbox, in any order.
+     */
+    private final List<ChangeEvent> committed = new CopyOnWriteArrayList<>();
+
+    private final BlockingQueue<Long> delivered = new LinkedBlockingQueue<>();
+
+    private LocalEventBus bus;
+    private OutboxRelay relay;
+
+    @Before
+    public void start() {
+        OutboxStore store = mock(OutboxStore.class);
+        when(store.lastOffset()).thenReturn(0L);
+        when(store.read(anyLong(), anyInt())).thenAnswer(invocation -> {
+            long after = (Long) invocation.getArguments()[0];
+            int limit = (Integer) invocation.getArguments()[1];
+            List<ChangeEvent> events = new ArrayList<>();
+            for (ChangeEvent event : this.committed) {
+                if (event.getOffset() > after) {
+                    events.add(event);
+                }
+            }
+            events.sort((a, b) -> Long.compare(a.getOffset(), b.getOffset()));
+            return events.subList(0, Math.min(limit, events.size()));
+        });
+
+        OutboxProperties properties = new OutboxProperties();
+        // Polled by the test only.
+        properties.setPollInterval(TimeUnit.HOURS.toMillis(1));
+        properties.setBatchSize(2);
+        properties.setGapTimeout(GAP_TIMEOUT);
+        this.bus = new LocalEventBus(store, 100, 10, 10, null);
+        ChangeListener listener = events -> events.forEach(event -> this.delivered.add(event.getOffset()));
+        this.relay = new OutboxRelay(store, this.bus, properties, Collections.singletonMap("test", listener));
+        this.relay.start();
+    }
+
+    @After
+    public void stop() {
+        this.relay.stop();
+    }
+
+    @Test
+    public void eventsArePublishedInOffsetOrderAcrossBatches() throws Exception {
+        commit(3, 1, 2, 5, 4);
+
+        this.relay.poll();
+
+        assertThat(this.bus.getHead()).isEqualTo(5);
+        assertThat(deliveredUpTo(5)).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(this.relay.getRelayed()).isEqualTo(5);
+    }
+
+    @Test
+    public void gapHoldsTheFollowingEventsUntilItIsCommitted() throws Exception {
+        commit(1, 3, 4);
+
+        this.relay.poll();
+        assertThat(this.bus.getHead()).isEqualTo(1);
+
+        // The transaction of offset 2 commits before the gap timeout.
+        commit(2);
+        this.relay.poll();
+
+        assertThat(this.bus.getHead()).isEqualTo(4);
+        assertThat(deliveredUpTo(4)).containsExactly(1L, 2L, 3L, 4L);
+        assertThat(this.relay.getSkipped()).isZero();
+    }
+
+    @Test
+    public void gapIsSkippedAfterTheTimeout() throws Exception {
+        commit(1, 3);
+
+        this.relay.poll();
+        this.relay.poll();
+        assertThat(this.bus.getHead()).isEqualTo(1);
+
+        Thread.sleep(GAP_TIMEOUT + 50);
+        this.relay.poll();
+
+        assertThat(this.bus.getHead()).isEqualTo(3);
+        assertThat(deliveredUpTo(3)).containsExactly(1L, 3L);
+        assertThat(this.relay.getSkipped()).isEqualTo(1);
+
+        // Offset 2 rolled back: a later event follows without waiting again.
+        commit(4);
+        this.relay.poll();
+        assertThat(this.bus.getHead()).isEqualTo(4);
+    }
+
+    private void commit(long... offsets) {
+        for (long offset : offsets) {
+            this.committed.add(new ChangeEvent(offset, "Loan", offset * 10, ChangeEvent.Operation.SAVED, 0));
+        }
+    }
+
+    /**
+     * Wait for the subscription to handle the events up to an offset.
+     */
+    private List<Long> deliveredUpTo(long offset) throws InterruptedException {
+        List<Long> offsets = new ArrayList<>();
+        while (offsets.isEmpty() || offsets.get(offsets.size() - 1) < offset) {
+            Long next = this.delivered.poll(5, TimeUnit.SECONDS);
+            assertThat(next).as("event after %s", offsets).isNotNull();
+            offsets.add(next);
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import fr.nicolasgille.medialibs.services.fixture.FixtureEntity;
+import org.h2.api.Trigger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests of {@link Shards} on three H2 databases: placement of the keys, bounded queries of all shards,
+ * merged listing, identifier ranges, lookups by identifier, and moves of rows interrupted then finished.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class ShardsTest {
+
+    private static final long ID_RANGE = 1000;
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private final List<JdbcTemplate> jdbc = new ArrayList<>();
+    private final ShardingProperties properties = new ShardingProperties();
+    private ShardRoutingDataSource dataSource;
+    private EntityManagerFactory entityManagerFactory;
+    private Shards shards;
+
+    @Before
+    public void start() {
+        int database = DATABASES.incrementAndGet();
+        ResourceDatabasePopulator migration = new ResourceDatabasePopulator(
+                new ClassPathResource("db/migration/V5__shard_moves.sql"));
+        for (String name : Arrays.asList("primary", "shard-1", "shard-2")) {
+            HikariDataSource pool = new HikariDataSource();
+            pool.setJdbcUrl("jdbc:h2:mem:shards-" + database + "-" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+            pool.setUsername("sa");
+            pool.setPassword("");
+            pool.setMaximumPoolSize(4);
+            JdbcTemplate template = new JdbcTemplate(pool);
+            template.execute("create table fixture_entity (id bigint not null auto_increment,"
+                    + " owner_id bigint not null, name varchar(64), primary key (id))");
+            migration.execute(pool);
+            this.pools.add(pool);
+            this.jdbc.add(template);
+        }
+        this.dataSource = new ShardRoutingDataSource(this.pools);
+
+        LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+        factory.setDataSource(this.dataSource);
+        factory.setPackagesToScan(FixtureEntity.class.getPackage().getName());
+        factory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+        factory.afterPropertiesSet();
+        this.entityManagerFactory = factory.getObject();
+
+        this.properties.setIdRange(ID_RANGE);
+        this.properties.setStreamBuffer(2);
+    }
+
+    @After
+    public void stop() {
+        if (this.shards != null) {
+            this.shards.close();
+        }
+        this.entityManagerFactory.close();
+        this.dataSource.close();
+    }
+
+    @Test
+    public void joiningShardOnlyTakesItsShareOfTheKeys() {
+        Shards shards = shards(true);
+        int taken = 0;
+        for (long key = 0; key < 10000; key++) {
+            List<Shard> holders = shards.holders(key);
+            if (holders.size() > 1) {
+                assertThat(holders.get(0).getName()).isEqualTo("shard-2");
+                assertThat(holders.get(1).getName()).isNotEqualTo("shard-2");
+                taken++;
+            }
+            assertThat(shards.owner(key)).isSameAs(holders.get(0));
+        }
+        assertThat(taken).isBetween(2500, 4200);
+    }
+
+    @Test
+    public void identifiersOfEachShardStayInItsRange() {
+        Shards shards = shards(false);
+        shards.prepareIdentifiers(ID_RANGE);
+        // Prepared again on each startup.
+        shards.prepareIdentifiers(ID_RANGE);
+
+        assertThat(insert(0, 7)).isEqualTo(1);
+        assertThat(insert(1, 7)).isEqualTo(ID_RANGE);
+        assertThat(insert(2, 7)).isEqualTo(2 * ID_RANGE);
+        // A row moved in keeps the identifier of its former shard.
+        this.jdbc.get(2).update("insert into fixture_entity (id, owner_id) values (?, 7)", ID_RANGE + 1);
+
+        assertThatThrownBy(() -> this.jdbc.get(0).update("insert into fixture_entity (id, owner_id) values (?, 7)", ID_RANGE))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        assertThatThrownBy(() -> this.jdbc.get(1).update("insert into fixture_entity (id, owner_id) values (?, 7)", 2 * ID_RANGE))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    public void shardPastItsRangeIsRefusedAtStartup() {
+        this.jdbc.get(0).update("insert into fixture_entity (id, owner_id) values (?, 7)", ID_RANGE + 5);
+        Shards shards = shards(false);
+
+        assertThatThrownBy(() -> shards.prepareIdentifiers(ID_RANGE))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("shard primary")
+                .hasMessageContaining(String.valueOf(ID_RANGE + 5));
+    }
+
+    @Test
+    public void queriesOfAllShardsRunOnTheCallerWhenThePoolIsFull() {
+        for (int i = 0; i < 3; i++) {
+            this.jdbc.get(i).update("insert into fixture_entity (owner_id, name) values (7, ?)", "row-" + i);
+        }
+        this.properties.setParallelism(1);
+        this.properties.setQueue(1);
+        Shards shards = shards(false);
+        JdbcTemplate routed = new JdbcTemplate(this.dataSource);
+        CountDownLatch callerRan = new CountDownLatch(1);
+        String caller = Thread.currentThread().getName();
+
+        List<String> results = shards.scatter(shard -> {
+            try {
+                if (shard.getPosition() == 0) {
+                    // Holds the only thread of the pool until the request thread queried the last shard.
+                    assertThat(callerRan.await(5, TimeUnit.SECONDS)).isTrue();
+                } else if (shard.getPosition() == 2) {
+                    assertThat(Thread.currentThread().getName()).isEqualTo(caller);
+                    callerRan.countDown();
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return routed.queryForObject("select name from fixture_entity", String.class);
+        });
+
+        assertThat(results).containsExactly("row-0", "row-1", "row-2");
+        assertThat(shards.getRejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void listingMergesTheShardsByIdentifierAndReleasesTheirConnections() {
+        insert(0, 1, 4, 7, 8);
+        insert(1, 2, 5, 9);
+        insert(2, 3, 6);
+        // Row being moved, found on its former and its new shard.
+        insert(2, 4);
+        Shards shards = shards(false);
+
+        try (Stream<FixtureEntity> all = shards.streamAll(FixtureEntity.class, FixtureEntity::getId)) {
+            assertThat(all.map(entity -> entity.getName()).collect(Collectors.toList()))
+                    .containsExactly("1", "2", "3", "4", "5", "6", "7", "8", "9");
+        }
+        assertNoConnectionInUse();
+
+        try (Stream<FixtureEntity> all = shards.streamAll(FixtureEntity.class, FixtureEntity::getId)) {
+            assertThat(all.iterator().next().getId()).isEqualTo(1);
+        }
+        assertNoConnectionInUse();
+    }
+
+    @Test
+    public void lookupByIdentifierReadsTheShardOfItsRangeThenTheNewerOnes() {
+        insert(1, ID_RANGE + 1, new long[0]);
+        // Created on the primary, moved since to the newest shard.
+        insert(2, 5, new long[0]);
+        Shards shards = shards(false);
+        JdbcTemplate routed = new JdbcTemplate(this.dataSource);
+        List<String> read = Collections.synchronizedList(new ArrayList<>());
+        Function<Long, String> find = id -> shards.find(id, shard -> {
+            read.add(shard.getName());
+            return name(routed, id);
+        });
+
+        assertThat(find.apply(ID_RANGE + 1)).isEqualTo(String.valueOf(ID_RANGE + 1));
+        assertThat(read).containsExactly("shard-1");
+
+        read.clear();
+        assertThat(find.apply(5L)).isEqualTo("5");
+        assertThat(read).containsExactly("primary", "shard-1", "shard-2");
+
+        read.clear();
+        assertThat(find.apply(3 * ID_RANGE)).isNull();
+        assertThat(read).isEmpty();
+    }
+
+    @Test
+    public void lookupByIdentifierReadsTheSourceOfAJournaledMove() {
+        // Copied to its target, not yet deleted from its source.
+        insert(0, 5, new long[0]);
+        insert(2, 5, new long[0]);
+        this.jdbc.get(0).update("update fixture_entity set name = 'source' where id = 5");
+        this.jdbc.get(0).update("insert into shard_move (entity_table, row_id, source, target, created_at)"
+                + " values ('fixture_entity', 5, 0, 2, 0)");
+        JdbcTemplate routed = new JdbcTemplate(this.dataSource);
+
+        Shards shards = shards(true);
+        String name = shards.find(5, shard -> name(routed, 5));
+
+        assertThat(name).isEqualTo("source");
+    }
+
+    @Test
+    public void moveCopiesTheRowsThenDeletesThem() {
+        insert(0, 1, 2, 3);
+        Shards shards = shards(true);
+
+        assertThat(shards.move(shards.getPrimary(), shard(shards, 2), Arrays.asList(1L, 3L))).isEqualTo(2);
+
+        assertThat(ids(0)).containsExactly(2L);
+        assertThat(ids(2)).containsExactly(1L, 3L);
+        assertThat(this.jdbc.get(2).queryForObject("select owner_id from fixture_entity where id = 3", Long.class)).isEqualTo(3);
+        assertThat(journal()).isZero();
+        // Moved again, for instance by a write racing the rebalance: nothing left to move.
+        assertThat(shards.move(shards.getPrimary(), shard(shards, 2), Arrays.asList(1L, 3L))).isZero();
+    }
+
+    @Test
+    public void moveInterruptedAfterItsCopyIsFinishedFromTheJournal() {
+        insert(0, 1, 2);
+        Shards shards = shards(true);
+        this.jdbc.get(0).execute("create trigger fail_delete before delete on fixture_entity for each row call \""
+                + FailingDelete.class.getName() + "\"");
+
+        assertThatThrownBy(() -> shards.move(shards.getPrimary(), shard(shards, 2), Arrays.asList(1L, 2L)))
+                .isInstanceOf(DataIntegrityViolationException.class);
+        assertThat(ids(0)).containsExactly(1L, 2L);
+        assertThat(ids(2)).containsExactly(1L, 2L);
+        assertThat(journal()).isEqualTo(2);
+
+        // Written on its former shard while the copy was left behind, before the rebalance resumed.
+        this.jdbc.get(0).execute("drop trigger fail_delete");
+        this.jdbc.get(0).update("update fixture_entity set name = 'changed' where id = 2");
+
+        assertThat(shards.recover()).isEqualTo(2);
+        assertThat(ids(0)).isEmpty();
+        assertThat(ids(2)).containsExactly(1L, 2L);
+        assertThat(this.jdbc.get(2).queryForObject("select name from fixture_entity where id = 2", String.class))
+                .isEqualTo("changed");
+        assertThat(journal()).isZero();
+        assertThat(shards.recover()).isZero();
+    }
+
+    @Test
+    public void rebalanceMovesTheKeysTakenOverByTheJoiningShard() throws Exception {
+        Shards shards = shards(true);
+        long id = 1;
+        for (long key = 0; key < 300; key++) {
+            List<Shard> holders = shards.holders(key);
+            Shard former = holders.get(holders.size() - 1);
+            this.jdbc.get(former.getPosition())
+                    .update("insert into fixture_entity (id, owner_id, name) values (?, ?, 'loan')", id++, key);
+        }
+        ShardRebalancer rebalancer = new ShardRebalancer(shards, 16);
+
+        assertThat(rebalancer.start()).isTrue();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (rebalancer.getState() == ShardRebalancer.State.RUNNING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(rebalancer.getState()).isEqualTo(ShardRebalancer.State.DONE);
+        assertThat(shards.isMoving()).isFalse();
+        assertThat(rebalancer.getMoved()).isEqualTo(ids(2).size()).isPositive();
+        int rows = 0;
+        for (int position = 0; position < 3; position++) {
+            for (long key : this.jdbc.get(position).queryForList("select owner_id from fixture_entity", Long.class)) {
+                assertThat(shards.owner(key).getPosition()).isEqualTo(position);
+                rows++;
+            }
+        }
+        assertThat(rows).isEqualTo(300);
+    }
+
+    private Shards shards(boolean joining) {
+        this.shards = Shards.of(new Shard("primary", 0, this.pools.get(0), false),
+                Arrays.asList(new Shard("shard-1", 1, this.pools.get(1), false),
+                        new Shard("shard-2", 2, this.pools.get(2), joining)),
+                this.properties, this.entityManagerFactory, FixtureEntity.class, "ownerId",
+                Collections.<TaskDecorator>emptyList());
+        return this.shards;
+    }
+
+    private static Shard shard(Shards shards, int position) {
+        return shards.getShards().get(position);
+    }
+
+    /**
+     * Insert a row with a generated identifier, returned.
+     */
+    private long insert(int position, long key) {
+        JdbcTemplate template = this.jdbc.get(position);
+        template.update("insert into fixture_entity (owner_id) values (?)", key);
+        return template.queryForObject("select max(id) from fixture_entity", Long.class);
+    }
+
+    /**
+     * Insert rows named and keyed by their identifier.
+     */
+    private void insert(int position, long first, long... others) {
+        List<Long> ids = new ArrayList<>();
+        ids.add(first);
+        Arrays.stream(others).forEach(ids::add);
+        for (long id : ids) {
+            this.jdbc.get(position).update("insert into fixture_entity (id, owner_id, name) values (?, ?, ?)",
+                    id, id, String.valueOf(id));
+        }
+    }
+
+    /**
+     * Read the name of a row on the shard used, null if it is not there.
+     */
+    private static String name(JdbcTemplate routed, long id) {
+        return routed.queryForList("select name from fixture_entity where id = ?", String.class, id).stream()
+                .findFirst()
+                .orElse(null);
+    }
+
+    private List<Long> ids(int position) {
+        return this.jdbc.get(position).queryForList("select id from fixture_entity order by id", Long.class);
+    }
+
+    private int journal() {
+        return this.jdbc.get(0).queryForObject("select count(*) from shard_move", Integer.class);
+    }
+
+    private void assertNoConnectionInUse() {
+        for (HikariDataSource pool : this.pools) {
+            assertThat(pool.getHikariPoolMXBean().getActiveConnections()).as(pool.getJdbcUrl()).isZero();
+        }
+    }
+
+    /**
+     * Trigger failing the deletes of a table, as a source crashing after the copy of its rows.
+     */
+    public static class FailingDelete implements Trigger {
+
+        @Override
+        public void init(Connection conn, String schemaName, String triggerName, String tableName, boolean before, int type) {
+        }
+
+        @Override
+        public void fire(Connection conn, Object[] oldRow, Object[] newRow) throws SQLException {
+            throw new SQLException("Source lost", "23000");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void remove() {
+        }
+    }
+}
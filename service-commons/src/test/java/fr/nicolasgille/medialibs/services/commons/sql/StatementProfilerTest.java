@@ -0,0 +1,101 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.commons.sql;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link StatementProfiler}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public class StatementProfilerTest {
+
+    private static final String SQL = "select * from loan where borrower_id = ?";
+
+    private static final int TASKS = 8;
+
+    private static final int EXECUTIONS = 20000;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(TASKS);
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void executionsOfParallelTasksAreAllCountedWithTheRequest() throws Exception {
+        StatementProfilerProperties properties = new StatementProfilerProperties();
+        properties.setRepeatedStatementThreshold(TASKS * EXECUTIONS);
+        StatementProfiler profiler = new StatementProfiler(properties);
+        StatementStatistics statistics = profiler.statistics(SQL);
+        CyclicBarrier start = new CyclicBarrier(TASKS);
+
+        profiler.beginRequest();
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < TASKS; i++) {
+            tasks.add(this.executor.submit(profiler.decorate(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int j = 0; j < EXECUTIONS; j++) {
+                    profiler.executed(SQL, statistics, 1000, false);
+                }
+            })));
+        }
+        for (Future<?> task : tasks) {
+            task.get(10, TimeUnit.SECONDS);
+        }
+        profiler.endRequest("GET /");
+
+        // Reported only if not one of the executions was lost.
+        assertThat(profiler.getRepeatedStatements()).isEqualTo(1);
+    }
+
+    @Test
+    public void taskRunOnTheRequestThreadGivesItsCountsBack() {
+        StatementProfilerProperties properties = new StatementProfilerProperties();
+        properties.setRepeatedStatementThreshold(2);
+        StatementProfiler profiler = new StatementProfiler(properties);
+        StatementStatistics statistics = profiler.statistics(SQL);
+
+        profiler.beginRequest();
+        // Like a shard query run by its caller when the pool is full.
+        profiler.decorate(() -> profiler.executed(SQL, statistics, 1000, false)).run();
+        profiler.executed(SQL, statistics, 1000, false);
+        profiler.endRequest("GET /");
+
+        assertThat(profiler.getRepeatedStatements()).isEqualTo(1);
+    }
+}
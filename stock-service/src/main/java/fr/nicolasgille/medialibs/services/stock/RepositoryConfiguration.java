@@ -18,20 +18,26 @@
 
 package fr.nicolasgille.medialibs.services.stock;
 
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import fr.nicolasgille.medialibs.services.commons.cache.CachingJpaRepositoryFactoryBean;
+import fr.nicolasgille.medialibs.services.commons.cache.EnableEntityCache;
+import fr.nicolasgille.medialibs.services.commons.outbox.OutboxEvent;
+import fr.nicolasgille.medialibs.services.commons.snapshot.EnableEntitySnapshot;
+import fr.nicolasgille.medialibs.services.commons.startup.EnableEntityClasses;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
-import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @Configuration
 @EnableAutoConfiguration
-@EntityScan(basePackages = {
-        "fr.nicolasgille.medialibs.core.stock"
-})
+@EnableEntityClasses({ Stock.class, OutboxEvent.class })
 @EnableJpaRepositories(basePackages = {
-        "fr.nicolasgille.medialibs.core.stock"
-})
+        "fr.nicolasgille.medialibs.core.stock",
+        "fr.nicolasgille.medialibs.services.stock"
+}, repositoryFactoryBeanClass = CachingJpaRepositoryFactoryBean.class)
 @EnableTransactionManagement
+@EnableEntityCache(Stock.class)
+@EnableEntitySnapshot(Stock.class)
 public class RepositoryConfiguration {
 }
@@ -0,0 +1,45 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.stock;
+
+import fr.nicolasgille.medialibs.core.stock.Stock;
+import org.springframework.data.repository.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lookups of several stocks in one query, next to the {@link fr.nicolasgille.medialibs.core.stock.StockRepository}.
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.0
+ */
+public interface StockBatchRepository extends Repository<Stock, Long> {
+
+    /**
+     * Find the stocks of several medias.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias.
+     * @return
+     *  The stocks found, in no particular order.
+     * @since 1.0
+     */
+    List<Stock> findByMediaIdIn(Collection<Long> mediaIds);
+}
@@ -20,6 +20,12 @@ package fr.nicolasgille.medialibs.services.stock;
 
 import fr.nicolasgille.medialibs.core.stock.Stock;
 import fr.nicolasgille.medialibs.core.stock.StockRepository;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchItem;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchOperations;
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import fr.nicolasgille.medialibs.services.commons.flight.SingleFlights;
+import fr.nicolasgille.medialibs.services.commons.json.EntityStream;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,9 +33,11 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -55,27 +63,66 @@ public class StockRestController {
     @Autowired
     private StockRepository stockRepository;
 
+    /**
+     * Repository to find several stocks in one query.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private StockBatchRepository stockBatchRepository;
+
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Lookups in flight, shared by the concurrent requests of the same identifier.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private SingleFlights singleFlights;
+
+    /**
+     * Outbox recording the changes in the transaction of the writes.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Outbox outbox;
+
+    /**
+     * Reads and deletes of several stocks by chunks of identifiers.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private BatchOperations batchOperations;
+
 
     /**
      * Get all users from system.
      *
+     * The filters <code>ids</code> and <code>mediaIds</code> exclude each other and this listing: a query
+     * mixing them matches no handler and is answered 400.
+     *
      * @return
-     *  A ResponseEntity with content and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity streaming the content, and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.4
      */
-    @GetMapping("/")
-    public ResponseEntity<?> getAll() {
-        logger.info("Get all stocks on persistent system");
-        List<Stock> stocks = this.stockRepository.findAll();
-
-        if (stocks== null || stocks.isEmpty()) {
-            logger.info("List of users is empty");
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        logger.info("Return the list of all stocks found.");
-        return new ResponseEntity<List>(stocks, HttpStatus.OK);
+    @GetMapping(value = "/", params = {"!ids", "!mediaIds"})
+    public DeferredResult<ResponseEntity<?>> getAll() {
+        return this.bulkheads.get("list").stream(() -> {
+            logger.info("Stream all stocks from persistent system");
+            // The rows are read while the response is written, on the thread of the bulkhead kept until then,
+            // an empty list answers 204.
+            return new ResponseEntity<EntityStream<Stock>>(EntityStream.of(Stock.class), HttpStatus.OK);
+        });
     }
 
     /**
@@ -84,19 +131,75 @@ public class StockRestController {
      * @param id
      *  Identifier of requested stock.
      * @return
-     *  A ResponseEntity with stock and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with stock and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getStock(@PathVariable("id") long id) {
-        Stock stock = this.stockRepository.findOne(id);
+    public DeferredResult<ResponseEntity<?>> getStock(@PathVariable("id") long id) {
+        return this.bulkheads.get("lookup").call(() -> {
+            // Concurrent requests of the same stock share one query.
+            Stock stock = this.singleFlights.get("stock").call(id, () -> this.stockRepository.findOne(id));
+
+            if (stock == null) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<Stock>(stock, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get the stocks of several medias in one request.
+     *
+     * @param mediaIds
+     *  Identifiers of the medias, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with the stocks found and/or http code status about error during process,
+     *  or 400 if too many are asked.
+     * @since 1.1
+     * @version 1.2
+     */
+    @GetMapping(value = "/", params = {"mediaIds", "!ids"})
+    public DeferredResult<ResponseEntity<?>> getStocksOfMedias(@RequestParam("mediaIds") List<Long> mediaIds) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(mediaIds)) {
+                logger.info("Too many medias asked: {}", mediaIds.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
 
-        if (stock == null) {
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
+            List<Stock> stocks = this.stockBatchRepository.findByMediaIdIn(mediaIds);
 
-        return new ResponseEntity<Stock>(stock, HttpStatus.OK);
+            if (stocks.isEmpty()) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<List<Stock>>(stocks, HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Get several stocks in one request.
+     *
+     * @param ids
+     *  Identifiers of the stocks, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and its stock, or a 404 item
+     *  if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     * @version 1.1
+     */
+    @GetMapping(value = "/", params = {"ids", "!mediaIds"})
+    public DeferredResult<ResponseEntity<?>> getStocks(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many stocks asked: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            Map<Long, BatchItem<Stock>> stocks = this.batchOperations.findAll(ids, this.stockRepository::findAll, Stock::getId);
+            return new ResponseEntity<Map<Long, BatchItem<Stock>>>(stocks, HttpStatus.OK);
+        });
     }
 
     /**
@@ -107,28 +210,30 @@ public class StockRestController {
      * @param uriBuilder
      *  Uri to redirect user on stock page after creation.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PostMapping("/")
-    public ResponseEntity<?> add(@RequestBody Stock stock, UriComponentsBuilder uriBuilder) {
-        logger.info("Insert stock {}", stock);
-
-        if (this.stockRepository.findByMediaId(stock.getMediaId()) == null) {
-            logger.info("Stock already found on system.");
-            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
-        }
-
-        HttpHeaders header = new HttpHeaders();
-        this.stockRepository.save(stock);
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/stocks/{id}")
-                        .buildAndExpand(stock.getId())
-                        .toUri());
-
-        return new ResponseEntity<String>(header, HttpStatus.CREATED);
+    public DeferredResult<ResponseEntity<?>> add(@RequestBody Stock stock, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Insert stock {}", stock);
+
+            if (this.stockRepository.findByMediaId(stock.getMediaId()) == null) {
+                logger.info("Stock already found on system.");
+                return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+            }
+
+            HttpHeaders header = new HttpHeaders();
+            this.outbox.save(this.stockRepository, stock);
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/stocks/{id}")
+                            .buildAndExpand(stock.getId())
+                            .toUri());
+
+            return new ResponseEntity<String>(header, HttpStatus.CREATED);
+        });
     }
 
     /**
@@ -141,41 +246,43 @@ public class StockRestController {
      * @param uriBuilder
      *  Uri to redirect user on stock page update.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PutMapping("/{id}/increment")
-    public ResponseEntity<?> increment(@PathVariable("id") long id,
-                                    @RequestBody Stock updateStock,
-                                    UriComponentsBuilder uriBuilder) {
-        logger.info("Increment Stock {}", updateStock);
-        Stock stockUpdated = this.stockRepository.findOne(id);
-        if (stockUpdated == null) {
-            logger.info("Stock with id {} not found on system", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        if (updateStock.isFill()) {
-            logger.info("Stock cannot be increment because the current stock is over the initial stock.");
-            return new ResponseEntity<Object>(HttpStatus.METHOD_NOT_ALLOWED);
-        }
-
-        stockUpdated = new Stock();
-        stockUpdated.setId(id);
-        stockUpdated.setCurrentStock(updateStock.getCurrentStock() + 1);
-        stockUpdated.setInitialStock(updateStock.getInitialStock());
-        stockUpdated.setMediaId(updateStock.getMediaId());
-        this.stockRepository.save(stockUpdated);
-
-        logger.info("Stock {} increment the current stock for the media {}", stockUpdated, stockUpdated.getMediaId());
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/stocks/{id}")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(header, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> increment(@PathVariable("id") long id,
+                                                    @RequestBody Stock updateStock,
+                                                    UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Increment Stock {}", updateStock);
+            Stock stockUpdated = this.stockRepository.findOne(id);
+            if (stockUpdated == null) {
+                logger.info("Stock with id {} not found on system", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            if (updateStock.isFill()) {
+                logger.info("Stock cannot be increment because the current stock is over the initial stock.");
+                return new ResponseEntity<Object>(HttpStatus.METHOD_NOT_ALLOWED);
+            }
+
+            stockUpdated = new Stock();
+            stockUpdated.setId(id);
+            stockUpdated.setCurrentStock(updateStock.getCurrentStock() + 1);
+            stockUpdated.setInitialStock(updateStock.getInitialStock());
+            stockUpdated.setMediaId(updateStock.getMediaId());
+            this.outbox.save(this.stockRepository, stockUpdated);
+
+            logger.info("Stock {} increment the current stock for the media {}", stockUpdated, stockUpdated.getMediaId());
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/stocks/{id}")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(header, HttpStatus.OK);
+        });
     }
 
     /**
@@ -188,41 +295,43 @@ public class StockRestController {
      * @param uriBuilder
      *  Uri to redirect user on stock page update.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PutMapping("/{id}/decrement")
-    public ResponseEntity<?> decrement(@PathVariable("id") long id,
-                                    @RequestBody Stock updateStock,
-                                    UriComponentsBuilder uriBuilder) {
-        logger.info("Decrement Stock {}", updateStock);
-        Stock stockUpdated = this.stockRepository.findOne(id);
-        if (stockUpdated == null) {
-            logger.info("Stock with id {} not found on system", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        if (updateStock.isEmpty()) {
-            logger.info("Stock cannot be decrement because the current stock is under zero.");
-            return new ResponseEntity<Object>(HttpStatus.METHOD_NOT_ALLOWED);
-        }
-
-        stockUpdated = new Stock();
-        stockUpdated.setId(id);
-        stockUpdated.setCurrentStock(updateStock.getCurrentStock() - 1);
-        stockUpdated.setInitialStock(updateStock.getInitialStock());
-        stockUpdated.setMediaId(updateStock.getMediaId());
-        this.stockRepository.save(stockUpdated);
-
-        logger.info("Stock {} decrement the current stock for the media {}", stockUpdated, stockUpdated.getMediaId());
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/stocks/{id}")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(header, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> decrement(@PathVariable("id") long id,
+                                                    @RequestBody Stock updateStock,
+                                                    UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Decrement Stock {}", updateStock);
+            Stock stockUpdated = this.stockRepository.findOne(id);
+            if (stockUpdated == null) {
+                logger.info("Stock with id {} not found on system", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            if (updateStock.isEmpty()) {
+                logger.info("Stock cannot be decrement because the current stock is under zero.");
+                return new ResponseEntity<Object>(HttpStatus.METHOD_NOT_ALLOWED);
+            }
+
+            stockUpdated = new Stock();
+            stockUpdated.setId(id);
+            stockUpdated.setCurrentStock(updateStock.getCurrentStock() - 1);
+            stockUpdated.setInitialStock(updateStock.getInitialStock());
+            stockUpdated.setMediaId(updateStock.getMediaId());
+            this.outbox.save(this.stockRepository, stockUpdated);
+
+            logger.info("Stock {} decrement the current stock for the media {}", stockUpdated, stockUpdated.getMediaId());
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/stocks/{id}")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(header, HttpStatus.OK);
+        });
     }
 
     /**
@@ -233,28 +342,55 @@ public class StockRestController {
      * @param uriBuilder
      *  Uri to redirect stock to the page who contains all stocks.
      * @return
-     *  A ResponseEntity with http code status to indicate the result of the process.
+     *  A DeferredResult giving a ResponseEntity with http code status to indicate the result of the process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
-        logger.info("Delete stock with id : {}", id);
-        Stock stockDeleted = this.stockRepository.findOne(id);
-        if (stockDeleted == null) {
-            logger.info("User with id {} not found", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        this.stockRepository.delete(id);
-
-        logger.info("Stock {} is now deleted", stockDeleted);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/stocks/")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Delete stock with id : {}", id);
+            Stock stockDeleted = this.stockRepository.findOne(id);
+            if (stockDeleted == null) {
+                logger.info("User with id {} not found", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            this.outbox.delete(this.stockRepository, Stock.class, id);
+
+            logger.info("Stock {} is now deleted", stockDeleted);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/stocks/")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Delete several stocks in one request, with one statement by chunk of identifiers.
+     *
+     * @param ids
+     *  Identifiers of the stocks to remove from system, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and a 200 item if its stock
+     *  is deleted, or a 404 item if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     */
+    @DeleteMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> deleteStocks(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("write").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many stocks to delete: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            logger.info("Delete stocks with ids : {}", ids);
+            Map<Long, BatchItem<Object>> deleted = this.batchOperations.deleteAll(ids,
+                    chunk -> this.outbox.deleteAll(Stock.class, chunk));
+            return new ResponseEntity<Map<Long, BatchItem<Object>>>(deleted, HttpStatus.OK);
+        });
     }
 }
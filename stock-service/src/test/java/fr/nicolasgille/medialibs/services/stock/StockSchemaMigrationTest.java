@@ -0,0 +1,71 @@
+/*
+ * MediaLibs Service.
+ * Copyright (C) 2018 Nicolas GILLE
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package fr.nicolasgille.medialibs.services.stock;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Migration of an existing database, then validation of the mapping by Hibernate (<code>ddl-auto = validate</code>).
+ *
+ * @since MediaLibs Service 1.1
+ * @version 1.1
+ */
+public class StockSchemaMigrationTest {
+
+    private static final String URL = "jdbc:h2:mem:stock-schema;DB_CLOSE_DELAY=-1";
+
+    @Test
+    public void databaseWithSeveralStocksOfAMediaIsMigratedAndValidated() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, "sa", "");
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(dataSource);
+        flyway.setTarget(MigrationVersion.fromVersion("2"));
+        flyway.migrate();
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        // Written before the indexes, when nothing kept a media to one stock.
+        jdbc.update("insert into stock (media_id, initial_stock, current_stock) values (1, 5, 5)");
+        jdbc.update("insert into stock (media_id, initial_stock, current_stock) values (1, 3, 2)");
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(StockApplication.class)
+                .web(false)
+                .properties("spring.datasource.password=")
+                .run("--spring.datasource.url=" + URL,
+                        "--spring.datasource.username=sa",
+                        "--spring.datasource.driver-class-name=org.h2.Driver",
+                        "--spring.jpa.hibernate.ddl-auto=validate",
+                        "--medialibs.snapshot.enabled=false",
+                        "--spring.jmx.enabled=false")) {
+            assertThat(context.isActive()).isTrue();
+        }
+
+        flyway.setTarget(MigrationVersion.LATEST);
+        assertThat(flyway.info().current().getVersion().getVersion()).isEqualTo("5");
+        assertThat(jdbc.queryForObject("select count(*) from stock where media_id = 1", Integer.class)).isEqualTo(2);
+        assertThat(jdbc.queryForObject("select count(*) from information_schema.indexes"
+                + " where table_name = 'STOCK' and index_name = 'IDX_STOCK_MEDIA_ID'", Integer.class)).isPositive();
+    }
+}
@@ -20,6 +20,11 @@ package fr.nicolasgille.medialibs.services.user;
 
 import fr.nicolasgille.medialibs.core.user.User;
 import fr.nicolasgille.medialibs.core.user.UserRepository;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchItem;
+import fr.nicolasgille.medialibs.services.commons.batch.BatchOperations;
+import fr.nicolasgille.medialibs.services.commons.bulkhead.Bulkheads;
+import fr.nicolasgille.medialibs.services.commons.json.EntityStream;
+import fr.nicolasgille.medialibs.services.commons.outbox.Outbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,9 +32,11 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -55,26 +62,46 @@ public class UserRestController {
     @Autowired
     private UserRepository userRepository;
 
+    /**
+     * Bounded pools running the handlers, by class of endpoints.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Bulkheads bulkheads;
+
+    /**
+     * Outbox recording the changes in the transaction of the writes.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private Outbox outbox;
+
+    /**
+     * Reads and deletes of several users by chunks of identifiers.
+     *
+     * @since 1.1
+     */
+    @Autowired
+    private BatchOperations batchOperations;
+
     /**
      * Get all users from system.
      *
      * @return
-     *  A ResponseEntity with content and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity streaming the content, and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.3
      */
     @GetMapping("/")
-    public ResponseEntity<?> getAll() {
-        logger.info("Get all medias on persistent system");
-        List<User> users = this.userRepository.findAll();
-
-        if (users == null || users.isEmpty()) {
-            logger.info("List of users is empty");
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        logger.info("Return the list of all users found.");
-        return new ResponseEntity<List>(users, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> getAll() {
+        return this.bulkheads.get("list").stream(() -> {
+            logger.info("Stream all users from persistent system");
+            // The rows are read while the response is written, on the thread of the bulkhead kept until then,
+            // an empty list answers 204.
+            return new ResponseEntity<EntityStream<User>>(EntityStream.of(User.class), HttpStatus.OK);
+        });
     }
 
     /**
@@ -83,19 +110,44 @@ public class UserRestController {
      * @param id
      *  Identifier of requested user.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.1
      */
     @GetMapping("/{id}")
-    public ResponseEntity<?> getUser(@PathVariable("id") long id) {
-        User user = this.userRepository.findOne(id);
+    public DeferredResult<ResponseEntity<?>> getUser(@PathVariable("id") long id) {
+        return this.bulkheads.get("lookup").call(() -> {
+            User user = this.userRepository.findOne(id);
+
+            if (user == null) {
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            return new ResponseEntity<User>(user, HttpStatus.OK);
+        });
+    }
 
-        if (user == null) {
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
+    /**
+     * Get several users in one request.
+     *
+     * @param ids
+     *  Identifiers of the users, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and its user, or a 404 item
+     *  if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     */
+    @GetMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> getUsers(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("lookup").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many users asked: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
 
-        return new ResponseEntity<User>(user, HttpStatus.OK);
+            Map<Long, BatchItem<User>> users = this.batchOperations.findAll(ids, this.userRepository::findAll, User::getId);
+            return new ResponseEntity<Map<Long, BatchItem<User>>>(users, HttpStatus.OK);
+        });
     }
 
     /**
@@ -106,28 +158,30 @@ public class UserRestController {
      * @param uriBuilder
      *  Uri to redirect user on user page after creation.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PostMapping("/")
-    public ResponseEntity<?> add(@RequestBody User user, UriComponentsBuilder uriBuilder) {
-        logger.info("Insert user {}", user);
-
-        if (this.userRepository.findByEmail(user.getEmail()) == null) {
-            logger.info("User already found on system");
-            return new ResponseEntity<Object>(HttpStatus.CONFLICT);
-        }
-
-        HttpHeaders header = new HttpHeaders();
-        this.userRepository.save(user);
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/users/{id}")
-                        .buildAndExpand(user.getId())
-                        .toUri());
-
-        return new ResponseEntity<String>(header, HttpStatus.CREATED);
+    public DeferredResult<ResponseEntity<?>> add(@RequestBody User user, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Insert user {}", user);
+
+            if (this.userRepository.findByEmail(user.getEmail()) == null) {
+                logger.info("User already found on system");
+                return new ResponseEntity<Object>(HttpStatus.CONFLICT);
+            }
+
+            HttpHeaders header = new HttpHeaders();
+            this.outbox.save(this.userRepository, user);
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/users/{id}")
+                            .buildAndExpand(user.getId())
+                            .toUri());
+
+            return new ResponseEntity<String>(header, HttpStatus.CREATED);
+        });
     }
 
     /**
@@ -140,36 +194,38 @@ public class UserRestController {
      * @param uriBuilder
      *  Uri to redirect user on user page update.
      * @return
-     *  A ResponseEntity with user and/or http code status about error during process.
+     *  A DeferredResult giving a ResponseEntity with user and/or http code status about error during process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @PutMapping("/{id}")
-    public ResponseEntity<?> update(@PathVariable("id") long id,
-                                    @RequestBody User updatedUser,
-                                    UriComponentsBuilder uriBuilder) {
-        logger.info("Update user {}", updatedUser);
-        User userUpdated = this.userRepository.findOne(id);
-        if (userUpdated== null) {
-            logger.info("User with id {} not found on system", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        userUpdated = new User();
-        userUpdated.setId(id);
-        userUpdated.setEmail(updatedUser.getEmail());
-        userUpdated.setPassword(updatedUser.getPassword());
-        userUpdated.setRole(updatedUser.getRole());
-        this.userRepository.save(userUpdated);
-
-        logger.info("User {} update on system", userUpdated);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/users/{id}")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(header, HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> update(@PathVariable("id") long id,
+                                                    @RequestBody User updatedUser,
+                                                    UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Update user {}", updatedUser);
+            User userUpdated = this.userRepository.findOne(id);
+            if (userUpdated== null) {
+                logger.info("User with id {} not found on system", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            userUpdated = new User();
+            userUpdated.setId(id);
+            userUpdated.setEmail(updatedUser.getEmail());
+            userUpdated.setPassword(updatedUser.getPassword());
+            userUpdated.setRole(updatedUser.getRole());
+            this.outbox.save(this.userRepository, userUpdated);
+
+            logger.info("User {} update on system", userUpdated);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/users/{id}")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(header, HttpStatus.OK);
+        });
     }
 
     /**
@@ -180,28 +236,55 @@ public class UserRestController {
      * @param uriBuilder
      *  Uri to redirect user to the page who contains all users.
      * @return
-     *  A ResponseEntity with http code status to indicate the result of the process.
+     *  A DeferredResult giving a ResponseEntity with http code status to indicate the result of the process.
      * @since 1.0
-     * @version 1.0
+     * @version 1.2
      */
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
-        logger.info("Delete user with id : {}", id);
-        User userDeleted = this.userRepository.findOne(id);
-        if (userDeleted == null) {
-            logger.info("User with id {} not found", id);
-            return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
-        }
-
-        this.userRepository.delete(id);
-
-        logger.info("User {} is now deleted", userDeleted);
-        HttpHeaders header = new HttpHeaders();
-        header.setLocation(
-                uriBuilder
-                        .path("/api/v1/services/users/")
-                        .buildAndExpand(id)
-                        .toUri());
-        return new ResponseEntity<Object>(HttpStatus.OK);
+    public DeferredResult<ResponseEntity<?>> delete(@PathVariable("id") long id, UriComponentsBuilder uriBuilder) {
+        return this.bulkheads.get("write").call(() -> {
+            logger.info("Delete user with id : {}", id);
+            User userDeleted = this.userRepository.findOne(id);
+            if (userDeleted == null) {
+                logger.info("User with id {} not found", id);
+                return new ResponseEntity<Object>(HttpStatus.NO_CONTENT);
+            }
+
+            this.outbox.delete(this.userRepository, User.class, id);
+
+            logger.info("User {} is now deleted", userDeleted);
+            HttpHeaders header = new HttpHeaders();
+            header.setLocation(
+                    uriBuilder
+                            .path("/api/v1/services/users/")
+                            .buildAndExpand(id)
+                            .toUri());
+            return new ResponseEntity<Object>(HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Delete several users in one request, with one statement by chunk of identifiers.
+     *
+     * @param ids
+     *  Identifiers of the users to remove from system, at most <code>medialibs.batch.max-ids</code>.
+     * @return
+     *  A DeferredResult giving a ResponseEntity with each identifier asked and a 200 item if its user
+     *  is deleted, or a 404 item if it does not exist, or 400 if too many are asked.
+     * @since 1.1
+     */
+    @DeleteMapping(value = "/", params = "ids")
+    public DeferredResult<ResponseEntity<?>> deleteUsers(@RequestParam("ids") List<Long> ids) {
+        return this.bulkheads.get("write").call(() -> {
+            if (this.batchOperations.isTooLarge(ids)) {
+                logger.info("Too many users to delete: {}", ids.size());
+                return new ResponseEntity<Object>(HttpStatus.BAD_REQUEST);
+            }
+
+            logger.info("Delete users with ids : {}", ids);
+            Map<Long, BatchItem<Object>> deleted = this.batchOperations.deleteAll(ids,
+                    chunk -> this.outbox.deleteAll(User.class, chunk));
+            return new ResponseEntity<Map<Long, BatchItem<Object>>>(deleted, HttpStatus.OK);
+        });
     }
 }